@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.benchmark;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.connection.DefaultSignatureFactory;
+import net.tomp2p.message.DataMap;
+import net.tomp2p.message.Decoder;
+import net.tomp2p.message.Encoder;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.message.NeighborSet;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.rpc.RPC;
+import net.tomp2p.storage.AlternativeCompositeByteBuf;
+import net.tomp2p.storage.Data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes the messages that dominate the traffic of a peer: a neighbor response with a full neighbor set
+ * and a put request with several data entries. The message is created in every invocation, since the encoder consumes
+ * its content.
+ * 
+ * @author Thomas Bocek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final int NEIGHBORS = 20;
+
+    private static final int DATA_ENTRIES = 5;
+
+    private static final int DATA_SIZE = 100;
+
+    private final DefaultSignatureFactory signatureFactory = new DefaultSignatureFactory();
+
+    private PeerAddress sender;
+
+    private PeerAddress recipient;
+
+    private List<PeerAddress> neighbors;
+
+    private Map<Number640, byte[]> values;
+
+    @Setup
+    public void setup() throws Exception {
+        Random rnd = new Random(42);
+        InetAddress localhost = InetAddress.getByName("127.0.0.1");
+        sender = new PeerAddress(new Number160(rnd), localhost, 4000, 4000);
+        recipient = new PeerAddress(new Number160(rnd), localhost, 4001, 4001);
+        neighbors = new ArrayList<PeerAddress>(NEIGHBORS);
+        for (int i = 0; i < NEIGHBORS; i++) {
+            neighbors.add(new PeerAddress(new Number160(rnd), localhost, 5000 + i, 5000 + i));
+        }
+        values = new TreeMap<Number640, byte[]>();
+        for (int i = 0; i < DATA_ENTRIES; i++) {
+            byte[] value = new byte[DATA_SIZE];
+            rnd.nextBytes(value);
+            values.put(new Number640(new Number160(rnd), new Number160(rnd), new Number160(rnd), Number160.ZERO),
+                    value);
+        }
+    }
+
+    @Benchmark
+    public Message neighbors() throws Exception {
+        Message message = createMessage(RPC.Commands.NEIGHBOR.getNr(), Type.OK);
+        message.setNeighborsSet(new NeighborSet(NEIGHBORS, neighbors));
+        return roundTrip(message);
+    }
+
+    @Benchmark
+    public Message put() throws Exception {
+        Message message = createMessage(RPC.Commands.PUT.getNr(), Type.REQUEST_1);
+        Map<Number640, Data> dataMap = new TreeMap<Number640, Data>();
+        for (Map.Entry<Number640, byte[]> entry : values.entrySet()) {
+            dataMap.put(entry.getKey(), new Data(entry.getValue()));
+        }
+        message.setDataMap(new DataMap(dataMap));
+        return roundTrip(message);
+    }
+
+    private Message createMessage(final byte command, final Type type) {
+        return new Message().setSender(sender).setRecipient(recipient).setCommand(command).setType(type)
+                .setMessageId(42);
+    }
+
+    private Message roundTrip(final Message message) throws Exception {
+        AlternativeCompositeByteBuf buf = AlternativeCompositeByteBuf.compBuffer();
+        try {
+            Encoder encoder = new Encoder(signatureFactory);
+            encoder.write(buf, message);
+            Decoder decoder = new Decoder(signatureFactory);
+            decoder.decodeHeader(buf, new InetSocketAddress(0), new InetSocketAddress(0));
+            decoder.decodePayload(buf);
+            return decoder.message();
+        } finally {
+            buf.release();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.utils.ConcurrentCacheMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link ConcurrentCacheMap} with concurrent reads and writes. The map holds more keys than entries, so
+ * that writes also evict entries.
+ * 
+ * @author Thomas Bocek
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ConcurrentCacheMapBenchmark {
+
+    private static final int KEYS = 2048;
+
+    private static final int MAX_ENTRIES = 1024;
+
+    private ConcurrentCacheMap<Number160, Boolean> cacheMap;
+
+    private Number160[] keys;
+
+    @Setup
+    public void setup() {
+        cacheMap = new ConcurrentCacheMap<Number160, Boolean>(60, MAX_ENTRIES);
+        keys = new Number160[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = new Number160(i);
+            cacheMap.put(keys[i], Boolean.TRUE);
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public Boolean get() {
+        return cacheMap.get(keys[ThreadLocalRandom.current().nextInt(KEYS)]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Boolean put() {
+        return cacheMap.put(keys[ThreadLocalRandom.current().nextInt(KEYS)], Boolean.TRUE);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.BaseFutureImpl;
+import net.tomp2p.futures.FutureDone;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the listener dispatch of {@link BaseFutureImpl}: listeners that are added before the future completes and
+ * a listener that is added to a completed future, which is called immediately.
+ * 
+ * @author Thomas Bocek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FutureBenchmark {
+
+    @Param({ "1", "4" })
+    private int listeners;
+
+    @Benchmark
+    public FutureDone<Integer> listenersBeforeDone(final Blackhole blackhole) {
+        final FutureDone<Integer> future = new FutureDone<Integer>();
+        for (int i = 0; i < listeners; i++) {
+            future.addListener(new BaseFutureAdapter<FutureDone<Integer>>() {
+                @Override
+                public void operationComplete(final FutureDone<Integer> future) throws Exception {
+                    blackhole.consume(future.getObject());
+                }
+            });
+        }
+        return future.setDone(42);
+    }
+
+    @Benchmark
+    public FutureDone<Integer> listenerAfterDone(final Blackhole blackhole) {
+        final FutureDone<Integer> future = new FutureDone<Integer>().setDone(42);
+        future.addListener(new BaseFutureAdapter<FutureDone<Integer>>() {
+            @Override
+            public void operationComplete(final FutureDone<Integer> future) throws Exception {
+                blackhole.consume(future.getObject());
+            }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link Number160} operations that are used in routing: xor, comparison, the closeness check of the
+ * routing table, hashing, and the byte array conversion.
+ * 
+ * @author Thomas Bocek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class Number160Benchmark {
+
+    private Number160 key;
+
+    private Number160 a;
+
+    private Number160 b;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        key = new Number160(rnd);
+        a = new Number160(rnd);
+        b = new Number160(rnd);
+        bytes = a.toByteArray();
+    }
+
+    @Benchmark
+    public Number160 xor() {
+        return a.xor(b);
+    }
+
+    @Benchmark
+    public int compareTo() {
+        return a.compareTo(b);
+    }
+
+    @Benchmark
+    public int isCloser() {
+        return PeerMap.isCloser(key, a, b);
+    }
+
+    @Benchmark
+    public int bitLength() {
+        return a.xor(b).bitLength();
+    }
+
+    @Benchmark
+    public Number160 createHash() {
+        return Number160.createHash("benchmark");
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return a.toByteArray();
+    }
+
+    @Benchmark
+    public Number160 fromByteArray() {
+        return new Number160(bytes);
+    }
+}
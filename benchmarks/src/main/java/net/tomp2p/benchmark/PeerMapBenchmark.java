@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.benchmark;
+
+import java.net.InetAddress;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapConfiguration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the routing table: {@link PeerMap#peerFound(PeerAddress, PeerAddress)} for peers that are already known
+ * and {@link PeerMap#closePeers(Number160, int)} for random keys, with a filled table of the given size.
+ * 
+ * @author Thomas Bocek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PeerMapBenchmark {
+
+    private static final int KEYS = 1024;
+
+    @Param({ "100", "1000", "10000" })
+    private int peers;
+
+    private PeerMap peerMap;
+
+    private PeerAddress[] peerAddresses;
+
+    private Number160[] keys;
+
+    @Setup
+    public void setup() throws Exception {
+        Random rnd = new Random(42);
+        InetAddress localhost = InetAddress.getByName("127.0.0.1");
+        peerMap = new PeerMap(new PeerMapConfiguration(new Number160(rnd)));
+        peerAddresses = new PeerAddress[peers];
+        for (int i = 0; i < peers; i++) {
+            peerAddresses[i] = new PeerAddress(new Number160(rnd), localhost, 4000 + (i % 50000),
+                    4000 + (i % 50000));
+            peerMap.peerFound(peerAddresses[i], null);
+        }
+        keys = new Number160[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = new Number160(rnd);
+        }
+    }
+
+    @Benchmark
+    public boolean peerFound() {
+        return peerMap.peerFound(peerAddresses[ThreadLocalRandom.current().nextInt(peers)], null);
+    }
+
+    @Benchmark
+    public NavigableSet<PeerAddress> closePeers() {
+        return peerMap.closePeers(keys[ThreadLocalRandom.current().nextInt(KEYS)], 20);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number320;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+import net.tomp2p.storage.StorageLayer;
+import net.tomp2p.storage.StorageMemory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link StorageLayer} with concurrent gets, puts, and range digests on the same keys, with and without
+ * the lock-free read mode. The group runs six readers, two writers, and one digest thread.
+ * 
+ * @author Thomas Bocek
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StorageLayerBenchmark {
+
+    private static final int KEYS = 1000;
+
+    private static final Number160 DOMAIN = Number160.createHash("domain");
+
+    @Param({ "false", "true" })
+    private boolean lockFreeRead;
+
+    private StorageLayer storageLayer;
+
+    private Number640[] keys;
+
+    private Data value;
+
+    @Setup
+    public void setup() {
+        storageLayer = new StorageLayer(new StorageMemory());
+        storageLayer.setLockFreeRead(lockFreeRead);
+        value = new Data(new byte[100]);
+        keys = new Number640[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            // 10 location keys with 100 content keys each, so that range digests hit single-key operations
+            keys[i] = new Number640(new Number160(i % 10), DOMAIN, new Number160(i), Number160.ZERO);
+            storageLayer.put(keys[i], value, null, false, false);
+        }
+    }
+
+    private Number640 randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(KEYS)];
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public Data get() {
+        return storageLayer.get(randomKey());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public Enum<?> put() {
+        return storageLayer.put(randomKey(), value, null, false, false);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Object digest() {
+        return storageLayer.digest(new Number320(randomKey().getLocationKey(), DOMAIN), null, null, -1, true, true);
+    }
+}
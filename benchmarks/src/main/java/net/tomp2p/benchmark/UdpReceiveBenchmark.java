@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.tomp2p.connection.ChannelServerConficuration;
+import net.tomp2p.connection.Transport;
+import net.tomp2p.p2p.Peer;
+import net.tomp2p.p2p.PeerMaker;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the UDP pings per second a peer answers with 1, 2, and 4 UDP channels bound to its port. The pings are sent
+ * by a fixed set of client peers, which share the event loops of the first client, so that the load on the sender
+ * side does not change with the number of benchmark threads. Every thread uses one client. More than one channel
+ * needs the native epoll transport, see {@link Transport}.
+ *
+ * @author Thomas Bocek
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(8)
+public class UdpReceiveBenchmark {
+
+    private static final int CLIENTS = 4;
+
+    private static final int SERVER_PORT = 5000;
+
+    @Param({ "1", "2", "4" })
+    private int channels;
+
+    private Peer server;
+
+    private PeerAddress serverAddress;
+
+    private Peer[] clients;
+
+    private final AtomicInteger nextClient = new AtomicInteger();
+
+    @Setup
+    public void setup() throws Exception {
+        if (channels > 1 && !Transport.isEpollAvailable()) {
+            throw new IllegalStateException("several UDP channels need the native epoll transport");
+        }
+        Random rnd = new Random(42);
+        ChannelServerConficuration csc = PeerMaker.createDefaultChannelServerConfiguration().udpChannels(channels);
+        server = new PeerMaker(new Number160(rnd)).ports(SERVER_PORT).channelServerConfiguration(csc).setEpoll()
+                .makeAndListen();
+        serverAddress = server.getPeerAddress();
+        clients = new Peer[CLIENTS];
+        clients[0] = new PeerMaker(new Number160(rnd)).ports(SERVER_PORT + 1).setEpoll().makeAndListen();
+        for (int i = 1; i < CLIENTS; i++) {
+            clients[i] = new PeerMaker(new Number160(rnd)).masterPeer(clients[0]).makeAndListen();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (int i = CLIENTS - 1; i >= 0; i--) {
+            if (clients[i] != null) {
+                clients[i].shutdown().awaitUninterruptibly();
+            }
+        }
+        if (server != null) {
+            server.shutdown().awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * The client of a benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        private Peer peer;
+
+        @Setup
+        public void setup(final UdpReceiveBenchmark benchmark) {
+            peer = benchmark.clients[benchmark.nextClient.getAndIncrement() % CLIENTS];
+        }
+    }
+
+    @Benchmark
+    public boolean ping(final Client client) {
+        return client.peer.ping().setPeerAddress(serverAddress).start().awaitUninterruptibly().isSuccess();
+    }
+}
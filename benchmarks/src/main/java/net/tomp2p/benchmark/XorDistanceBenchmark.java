@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.benchmark;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the xor distance comparison that creates the distances, as it was done before, with the in-place
+ * comparison of {@link Number160#compareDistance(Number160, Number160)}. A lookup sorts the peers of the routing
+ * table by their distance to a key, as the sets of the routing do. Run with -prof gc to see the allocation rates.
+ * 
+ * @author Thomas Bocek
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class XorDistanceBenchmark {
+
+    @Param({ "20", "200" })
+    private int peers;
+
+    private PeerAddress[] peerAddresses;
+
+    private Number160[] keys;
+
+    private int index = 0;
+
+    @Setup
+    public void setup() throws UnknownHostException {
+        Random rnd = new Random(42);
+        InetAddress inet = InetAddress.getByName("127.0.0.1");
+        peerAddresses = new PeerAddress[peers];
+        for (int i = 0; i < peers; i++) {
+            peerAddresses[i] = new PeerAddress(new Number160(rnd), inet, 4000, 4000);
+        }
+        keys = new Number160[1024];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Number160(rnd);
+        }
+    }
+
+    @Benchmark
+    public NavigableSet<PeerAddress> lookupAllocating() {
+        final Number160 key = nextKey();
+        return sort(new Comparator<PeerAddress>() {
+            @Override
+            public int compare(final PeerAddress remotePeer, final PeerAddress remotePeer2) {
+                return key.xor(remotePeer.getPeerId()).compareTo(key.xor(remotePeer2.getPeerId()));
+            }
+        });
+    }
+
+    @Benchmark
+    public NavigableSet<PeerAddress> lookupInPlace() {
+        return sort(PeerMap.createComparator(nextKey()));
+    }
+
+    @Benchmark
+    public int bitLengthAllocating() {
+        return nextKey().xor(peerAddresses[0].getPeerId()).bitLength();
+    }
+
+    @Benchmark
+    public int bitLengthInPlace() {
+        return nextKey().xorBitLength(peerAddresses[0].getPeerId());
+    }
+
+    private NavigableSet<PeerAddress> sort(final Comparator<PeerAddress> comparator) {
+        final NavigableSet<PeerAddress> set = new TreeSet<PeerAddress>(comparator);
+        for (PeerAddress peerAddress : peerAddresses) {
+            set.add(peerAddress);
+        }
+        return set;
+    }
+
+    private Number160 nextKey() {
+        return keys[index++ & (keys.length - 1)];
+    }
+}
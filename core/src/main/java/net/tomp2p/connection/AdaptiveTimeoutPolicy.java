@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import java.net.InetAddress;
+
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.utils.ConcurrentCacheMap;
+
+/**
+ * A timeout policy that calculates the timeouts per remote host the way TCP calculates its retransmission timeout
+ * (RFC 6298): the smoothed round trip time plus four times its variance. Every timeout doubles the timeout of the
+ * host until the next response arrives. The adaptive timeout only ever shortens the configured timeout, so a host that
+ * answered once and then died does not stall a request longer than configured. As long as no round trip time is
+ * known, the configured timeouts are used. The estimates are kept per IP address, since the round trip time is a
+ * property of the path to the host and the peer ID may not be known yet.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class AdaptiveTimeoutPolicy implements TimeoutPolicy {
+
+    // RFC 6298 recommends 1 second, shorter timeouts cause false failures for requests that need processing
+    public static final int DEFAULT_MIN_MILLIS = 1000;
+
+    public static final int DEFAULT_MAX_MILLIS = 60 * 1000;
+
+    private static final int MAX_BACKOFF = 64;
+
+    // the clock granularity in RFC 6298
+    private static final int GRANULARITY_MILLIS = 10;
+
+    private static final int TIME_TO_LIVE_SECONDS = 10 * 60;
+
+    private static final int MAX_ENTRIES = 4096;
+
+    private final int minMillis;
+
+    private final int maxMillis;
+
+    private final ConcurrentCacheMap<InetAddress, Estimate> estimates = new ConcurrentCacheMap<InetAddress, Estimate>(
+            TIME_TO_LIVE_SECONDS, MAX_ENTRIES);
+
+    /**
+     * The round trip time estimate of one host, all access is synchronized on this.
+     */
+    private static final class Estimate {
+        private double smoothedRTT = -1;
+        private double varianceRTT = 0;
+        private int backoff = 1;
+
+        private synchronized void addRTT(final long rttMillis) {
+            if (smoothedRTT < 0) {
+                smoothedRTT = rttMillis;
+                varianceRTT = rttMillis / 2d;
+            } else {
+                // CHECKSTYLE:OFF
+                varianceRTT = 0.75 * varianceRTT + 0.25 * Math.abs(smoothedRTT - rttMillis);
+                smoothedRTT = 0.875 * smoothedRTT + 0.125 * rttMillis;
+                // CHECKSTYLE:ON
+            }
+            backoff = 1;
+        }
+
+        private synchronized void timeout() {
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+
+        /**
+         * @return The timeout or -1 if the host never responded
+         */
+        private synchronized long timeoutMillis() {
+            if (smoothedRTT < 0) {
+                return -1;
+            }
+            return (long) (smoothedRTT + Math.max(GRANULARITY_MILLIS, 4 * varianceRTT)) * backoff;
+        }
+    }
+
+    /**
+     * Creates a policy with timeouts between {@link #DEFAULT_MIN_MILLIS} and {@link #DEFAULT_MAX_MILLIS}.
+     */
+    public AdaptiveTimeoutPolicy() {
+        this(DEFAULT_MIN_MILLIS, DEFAULT_MAX_MILLIS);
+    }
+
+    /**
+     * @param minMillis
+     *            The shortest timeout, regardless of the round trip time
+     * @param maxMillis
+     *            The longest timeout, regardless of the round trip time and the backoff. The configured timeout is
+     *            never exceeded either.
+     */
+    public AdaptiveTimeoutPolicy(final int minMillis, final int maxMillis) {
+        if (minMillis <= 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("the minimum needs to be positive and not larger than the maximum");
+        }
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    @Override
+    public long responseTimeoutMillis(final PeerAddress remotePeer, final long configuredMillis) {
+        return timeoutMillis(remotePeer, configuredMillis);
+    }
+
+    @Override
+    public long connectTimeoutMillis(final PeerAddress remotePeer, final long configuredMillis) {
+        // a connection setup takes one round trip, as a request does
+        return timeoutMillis(remotePeer, configuredMillis);
+    }
+
+    @Override
+    public void responseReceived(final PeerAddress remotePeer, final long rttMillis) {
+        estimate(remotePeer.getInetAddress()).addRTT(rttMillis);
+    }
+
+    @Override
+    public boolean peerFailed(final PeerAddress remotePeer, final FailReason reason) {
+        if (reason == FailReason.Timeout) {
+            estimate(remotePeer.getInetAddress()).timeout();
+        }
+        // the policy does not track peers
+        return false;
+    }
+
+    @Override
+    public boolean peerFound(final PeerAddress remotePeer, final PeerAddress referrer) {
+        return false;
+    }
+
+    private long timeoutMillis(final PeerAddress remotePeer, final long configuredMillis) {
+        if (configuredMillis <= 0) {
+            // the timeout is disabled
+            return configuredMillis;
+        }
+        final Estimate estimate = estimates.get(remotePeer.getInetAddress());
+        final long timeoutMillis = estimate == null ? -1 : estimate.timeoutMillis();
+        if (timeoutMillis < 0) {
+            // the host never responded, waiting longer for it does not help
+            return configuredMillis;
+        }
+        final long adaptiveMillis = Math.max(minMillis, Math.min(maxMillis, timeoutMillis));
+        return Math.min(configuredMillis, adaptiveMillis);
+    }
+
+    private Estimate estimate(final InetAddress inetAddress) {
+        final Estimate estimate = estimates.get(inetAddress);
+        if (estimate != null) {
+            return estimate;
+        }
+        final Estimate newEstimate = new Estimate();
+        final Estimate old = estimates.putIfAbsent(inetAddress, newEstimate);
+        return old == null ? newEstimate : old;
+    }
+}
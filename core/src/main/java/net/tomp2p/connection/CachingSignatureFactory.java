@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.message.SHA1Signature;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.utils.ConcurrentCacheMap;
+
+/**
+ * A signature factory that remembers the signatures it has verified. Replicated data is sent to the same peers over
+ * and over again with the same signature. Instead of the public key operation, only a SHA-1 hash over the public key,
+ * the signature, and the content is calculated for data that has been verified before. Only successful verifications
+ * are cached. Signing and the decoding of public keys are handled by the wrapped factory.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class CachingSignatureFactory implements SignatureFactory {
+
+    private final SignatureFactory signatureFactory;
+
+    private final ConcurrentMap<Number160, Boolean> verified;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    /**
+     * Caches the verifications of a {@link DefaultSignatureFactory}.
+     */
+    public CachingSignatureFactory() {
+        this(new DefaultSignatureFactory());
+    }
+
+    /**
+     * @param signatureFactory
+     *            The factory that signs and verifies
+     */
+    public CachingSignatureFactory(final SignatureFactory signatureFactory) {
+        this(signatureFactory, ConcurrentCacheMap.DEFAULT_TIME_TO_LIVE, ConcurrentCacheMap.MAX_ENTRIES);
+    }
+
+    /**
+     * @param signatureFactory
+     *            The factory that signs and verifies
+     * @param timeToLiveSeconds
+     *            The time a verification is remembered
+     * @param maxEntries
+     *            The number of verifications that are remembered
+     */
+    public CachingSignatureFactory(final SignatureFactory signatureFactory, final int timeToLiveSeconds,
+            final int maxEntries) {
+        this.signatureFactory = signatureFactory;
+        this.verified = new ConcurrentCacheMap<Number160, Boolean>(timeToLiveSeconds, maxEntries, true);
+    }
+
+    @Override
+    public Signature signatureInstance() {
+        return signatureFactory.signatureInstance();
+    }
+
+    @Override
+    public PublicKey decodePublicKey(final byte[] me) {
+        return signatureFactory.decodePublicKey(me);
+    }
+
+    @Override
+    public PublicKey decodePublicKey(final ByteBuf buf) {
+        return signatureFactory.decodePublicKey(buf);
+    }
+
+    @Override
+    public void encodePublicKey(final PublicKey publicKey, final ByteBuf buf) {
+        signatureFactory.encodePublicKey(publicKey, buf);
+    }
+
+    @Override
+    public SHA1Signature sign(final PrivateKey privateKey, final ByteBuf buf) throws InvalidKeyException,
+            SignatureException, IOException {
+        return signatureFactory.sign(privateKey, buf);
+    }
+
+    @Override
+    public boolean verify(final PublicKey publicKey, final ByteBuf buf, final SHA1Signature signatureEncoded)
+            throws SignatureException, InvalidKeyException, IOException {
+        if (publicKey == null || signatureEncoded == null) {
+            return signatureFactory.verify(publicKey, buf, signatureEncoded);
+        }
+        final Number160 key = key(publicKey, buf, signatureEncoded);
+        if (verified.containsKey(key)) {
+            cacheHits.incrementAndGet();
+            return true;
+        }
+        final boolean ok = signatureFactory.verify(publicKey, buf, signatureEncoded);
+        if (ok) {
+            verified.put(key, Boolean.TRUE);
+        }
+        return ok;
+    }
+
+    /**
+     * @return The number of verifications that were answered from the cache
+     */
+    public long cacheHits() {
+        return cacheHits.get();
+    }
+
+    private static Number160 key(final PublicKey publicKey, final ByteBuf buf, final SHA1Signature signatureEncoded) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(publicKey.getEncoded());
+            md.update(signatureEncoded.getNumber1().toByteArray());
+            md.update(signatureEncoded.getNumber2().toByteArray());
+            for (ByteBuffer buffer : buf.nioBuffers()) {
+                md.update(buffer);
+            }
+            return new Number160(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
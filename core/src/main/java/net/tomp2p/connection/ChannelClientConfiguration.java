@@ -16,6 +16,9 @@
 
 package net.tomp2p.connection;
 
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
 /**
  * The class that stores the limits for the resource reservation.
  * 
@@ -27,10 +30,19 @@ public class ChannelClientConfiguration {
     private int maxPermitsPermanentTCP;
     private int maxPermitsUDP;
     private int maxPermitsTCP;
+    private int maxPooledConnections = 0;
+    private int maxPooledConnectionsPerPeer = PeerConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_PEER;
+    private int pooledConnectionIdleMillis = PeerConnectionPool.DEFAULT_IDLE_MILLIS;
+    private boolean multiplexPooledConnections = false;
+    private int udpBatchWindowMillis = 0;
+    private boolean directBuffers = false;
 
     private PipelineFilter pipelineFilter;
     private SignatureFactory signatureFactory;
+    private TimeoutPolicy timeoutPolicy;
     private Bindings externalBindings;
+    private ByteBufAllocator byteBufAllocator = UnpooledByteBufAllocator.DEFAULT;
+    private Transport transport = Transport.nio();
 
     /**
      * @return The maximum number of permanent (long-lived) connections
@@ -83,6 +95,150 @@ public class ChannelClientConfiguration {
         return this;
     }
 
+    /**
+     * @return The maximum number of pooled TCP connections, 0 if pooling is disabled
+     */
+    public int maxPooledConnections() {
+        return maxPooledConnections;
+    }
+
+    /**
+     * @param maxPooledConnections
+     *            The maximum number of pooled TCP connections, see {@link PeerConnectionPool}. The pooled
+     *            connections are permanent connections, thus this needs to be lower than
+     *            {@link #maxPermitsPermanentTCP()}. Set to 0 to disable pooling
+     * @return This class
+     */
+    public ChannelClientConfiguration maxPooledConnections(final int maxPooledConnections) {
+        this.maxPooledConnections = maxPooledConnections;
+        return this;
+    }
+
+    /**
+     * @return The maximum number of pooled TCP connections to a single peer
+     */
+    public int maxPooledConnectionsPerPeer() {
+        return maxPooledConnectionsPerPeer;
+    }
+
+    /**
+     * @param maxPooledConnectionsPerPeer
+     *            The maximum number of pooled TCP connections to a single peer
+     * @return This class
+     */
+    public ChannelClientConfiguration maxPooledConnectionsPerPeer(final int maxPooledConnectionsPerPeer) {
+        this.maxPooledConnectionsPerPeer = maxPooledConnectionsPerPeer;
+        return this;
+    }
+
+    /**
+     * @return The time after which an unused pooled connection is closed
+     */
+    public int pooledConnectionIdleMillis() {
+        return pooledConnectionIdleMillis;
+    }
+
+    /**
+     * @param pooledConnectionIdleMillis
+     *            The time after which an unused pooled connection is closed
+     * @return This class
+     */
+    public ChannelClientConfiguration pooledConnectionIdleMillis(final int pooledConnectionIdleMillis) {
+        this.pooledConnectionIdleMillis = pooledConnectionIdleMillis;
+        return this;
+    }
+
+    /**
+     * @return True if concurrent requests to the same peer share one pooled connection
+     */
+    public boolean isMultiplexPooledConnections() {
+        return multiplexPooledConnections;
+    }
+
+    /**
+     * @param multiplexPooledConnections
+     *            True if concurrent requests to the same peer share one pooled connection, see {@link Multiplexer}.
+     *            Requires pooling to be enabled with {@link #maxPooledConnections(int)}
+     * @return This class
+     */
+    public ChannelClientConfiguration multiplexPooledConnections(final boolean multiplexPooledConnections) {
+        this.multiplexPooledConnections = multiplexPooledConnections;
+        return this;
+    }
+
+    /**
+     * @return The time a UDP request waits for other requests to the same peer, 0 if batching is disabled
+     */
+    public int udpBatchWindowMillis() {
+        return udpBatchWindowMillis;
+    }
+
+    /**
+     * @param udpBatchWindowMillis
+     *            The time a UDP request waits for other requests to the same peer to be sent in one datagram, see
+     *            {@link UDPBatcher}. The other peer needs to understand batched datagrams. 0 disables batching
+     * @return This class
+     */
+    public ChannelClientConfiguration udpBatchWindowMillis(final int udpBatchWindowMillis) {
+        this.udpBatchWindowMillis = udpBatchWindowMillis;
+        return this;
+    }
+
+    /**
+     * @return The allocator for the buffers of the encoder, the decoder and the channels
+     */
+    public ByteBufAllocator byteBufAllocator() {
+        return byteBufAllocator;
+    }
+
+    /**
+     * @param byteBufAllocator
+     *            The allocator for the buffers of the encoder, the decoder and the channels, e.g.,
+     *            {@link io.netty.buffer.PooledByteBufAllocator#DEFAULT} to reuse the memory of the buffers instead of
+     *            allocating and zeroing it for every message
+     * @return This class
+     */
+    public ChannelClientConfiguration byteBufAllocator(final ByteBufAllocator byteBufAllocator) {
+        this.byteBufAllocator = byteBufAllocator;
+        return this;
+    }
+
+    /**
+     * @return True if messages are encoded into direct buffers
+     */
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    /**
+     * @param directBuffers
+     *            True if messages are encoded into direct buffers, which avoids a copy when writing to the socket.
+     *            Use this together with a pooled allocator, as direct buffers are expensive to allocate
+     * @return This class
+     */
+    public ChannelClientConfiguration directBuffers(final boolean directBuffers) {
+        this.directBuffers = directBuffers;
+        return this;
+    }
+
+    /**
+     * @return The Netty transport for the channels
+     */
+    public Transport transport() {
+        return transport;
+    }
+
+    /**
+     * @param transport
+     *            The Netty transport for the channels, needs to be the same for the client and the server, as they
+     *            share the event loops
+     * @return This class
+     */
+    public ChannelClientConfiguration transport(final Transport transport) {
+        this.transport = transport;
+        return this;
+    }
+
     /**
      * @return Set the filter for the pipeline, where the user can add / remove or change filters
      */
@@ -117,6 +273,24 @@ public class ChannelClientConfiguration {
         return this;
     }
 
+    /**
+     * @return The policy that calculates the timeouts per remote peer, null if the configured timeouts are used
+     */
+    public TimeoutPolicy timeoutPolicy() {
+        return timeoutPolicy;
+    }
+
+    /**
+     * @param timeoutPolicy
+     *            The policy that calculates the timeouts per remote peer, e.g., {@link AdaptiveTimeoutPolicy}. Null
+     *            to use the configured timeouts for every peer
+     * @return This class
+     */
+    public ChannelClientConfiguration timeoutPolicy(final TimeoutPolicy timeoutPolicy) {
+        this.timeoutPolicy = timeoutPolicy;
+        return this;
+    }
+
     public Bindings externalBindings() {
         return externalBindings;
     }
@@ -27,8 +27,6 @@ import io.netty.channel.FixedRecvByteBufAllocator;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.ChannelGroupFuture;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.socket.nio.NioDatagramChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.GenericFutureListener;
 import io.netty.util.concurrent.GlobalEventExecutor;
@@ -40,6 +38,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.utils.Pair;
@@ -144,8 +143,9 @@ public class ChannelCreator {
 			}
 			final Bootstrap b = new Bootstrap();
 			b.group(workerGroup);
-			b.channel(NioDatagramChannel.class);
+			b.channel(channelClientConfiguration.transport().datagramChannel());
 			b.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(ConnectionBean.UDP_LIMIT));
+			b.option(ChannelOption.ALLOCATOR, channelClientConfiguration.byteBufAllocator());
 			if (broadcast) {
 				b.option(ChannelOption.SO_BROADCAST, true);
 			}
@@ -195,11 +195,12 @@ public class ChannelCreator {
 			}
 			Bootstrap b = new Bootstrap();
 			b.group(workerGroup);
-			b.channel(NioSocketChannel.class);
+			b.channel(channelClientConfiguration.transport().socketChannel());
 			b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectionTimeoutMillis);
 			b.option(ChannelOption.TCP_NODELAY, true);
 			b.option(ChannelOption.SO_LINGER, 0);
 			b.option(ChannelOption.SO_REUSEADDR, true);
+			b.option(ChannelOption.ALLOCATOR, channelClientConfiguration.byteBufAllocator());
 			Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers2 = channelClientConfiguration.pipelineFilter().filter(channelHandlers, true, true);
 			addHandlers(b, channelHandlers2);
 
@@ -279,17 +280,27 @@ public class ChannelCreator {
 	}
 	
 	/**
-	 * Setup the close listener for a channel that was already created
+	 * Setup the close listener for a channel that was already created. The
+	 * listener is removed once the future response completes, since a
+	 * long-lived channel is used for many requests.
+	 * 
 	 * @param channelFuture The channel future
 	 * @param futureResponse
 	 * @return The same future that was passed as an argument
 	 */
 	public ChannelFuture setupCloseListener(final ChannelFuture channelFuture, final FutureResponse futureResponse) {
-		channelFuture.channel().closeFuture().addListener(new GenericFutureListener<ChannelFuture>() {
+		final GenericFutureListener<ChannelFuture> closeListener = new GenericFutureListener<ChannelFuture>() {
 			@Override
 			public void operationComplete(final ChannelFuture future) throws Exception {
 				futureResponse.setResponseNow();
 			}
+		};
+		channelFuture.channel().closeFuture().addListener(closeListener);
+		futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+			@Override
+			public void operationComplete(final FutureResponse future) throws Exception {
+				channelFuture.channel().closeFuture().removeListener(closeListener);
+			}
 		});
 		return channelFuture;
 	}
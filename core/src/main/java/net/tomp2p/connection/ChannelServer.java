@@ -26,20 +26,21 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
-import io.netty.channel.socket.nio.NioDatagramChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.GenericFutureListener;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.message.DropConnectionInboundHandler;
+import net.tomp2p.message.CompByteBufAllocator;
 import net.tomp2p.message.TomP2PCumulationTCP;
 import net.tomp2p.message.TomP2POutbound;
 import net.tomp2p.message.TomP2PSinglePacketUDP;
@@ -63,7 +64,7 @@ public final class ChannelServer {
 	private final EventLoopGroup bossGroup;
 	private final EventLoopGroup workerGroup;
 
-	private Channel channelUDP;
+	private final List<Channel> channelsUDP = new ArrayList<Channel>(1);
 	private Channel channelTCP;
 
 	private final FutureDone<Void> futureServerDone = new FutureDone<Void>();
@@ -175,9 +176,14 @@ public final class ChannelServer {
 	boolean startupUDP(final InetSocketAddress listenAddresses, final ChannelServerConficuration config) {
 		Bootstrap b = new Bootstrap();
 		b.group(workerGroup);
-		b.channel(NioDatagramChannel.class);
+		b.channel(config.transport().datagramChannel());
 		b.option(ChannelOption.SO_BROADCAST, true);
 		b.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(ConnectionBean.UDP_LIMIT));
+		b.option(ChannelOption.ALLOCATOR, config.byteBufAllocator());
+		if (config.transport().reusePort() != null) {
+			// other sockets, e.g., of other threads, can receive on this port as well
+			b.option(config.transport().reusePort(), true);
+		}
 
 		b.handler(new ChannelInitializer<Channel>() {
 			@Override
@@ -192,9 +198,21 @@ public final class ChannelServer {
 			}
 		});
 
-		ChannelFuture future = b.bind(listenAddresses);
-		channelUDP = future.channel();
-		return handleFuture(future);
+		int channels = config.udpChannels();
+		if (channels > 1 && (config.transport().reusePort() == null || listenAddresses.getPort() == 0)) {
+			LOG.warn("several UDP channels on one port need SO_REUSEPORT, use one channel");
+			channels = 1;
+		}
+		// every channel is registered with the next event loop, the kernel
+		// spreads the datagrams among the sockets
+		for (int i = 0; i < channels; i++) {
+			ChannelFuture future = b.bind(listenAddresses);
+			channelsUDP.add(future.channel());
+			if (!handleFuture(future)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
@@ -209,7 +227,8 @@ public final class ChannelServer {
 	boolean startupTCP(final InetSocketAddress listenAddresses, final ChannelServerConficuration config) {
 		ServerBootstrap b = new ServerBootstrap();
 		b.group(bossGroup, workerGroup);
-		b.channel(NioServerSocketChannel.class);
+		b.channel(config.transport().serverSocketChannel());
+		b.childOption(ChannelOption.ALLOCATOR, config.byteBufAllocator());
 		b.childHandler(new ChannelInitializer<Channel>() {
 			@Override
 			protected void initChannel(final Channel ch) throws Exception {
@@ -270,8 +289,9 @@ public final class ChannelServer {
 			handlers.put("dropconnection", new Pair<EventExecutorGroup, ChannelHandler>(null, udpDropConnectionInboundHandler));
 			handlers.put("decoder", new Pair<EventExecutorGroup, ChannelHandler>(null, udpDecoderHandler));
 		}
-		handlers.put("encoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(false,
-		        channelServerConfiguration.signatureFactory())));
+		handlers.put("encoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(
+		        channelServerConfiguration.isDirectBuffers(), channelServerConfiguration.signatureFactory(),
+		        new CompByteBufAllocator(channelServerConfiguration.byteBufAllocator()))));
 		handlers.put("dispatcher", new Pair<EventExecutorGroup, ChannelHandler>(null, dispatcher));
 		return channelServerConfiguration.pipelineFilter().filter(handlers, tcp, false);
 	}
@@ -309,15 +329,18 @@ public final class ChannelServer {
 	 *         worker and boss event loop
 	 */
 	public FutureDone<Void> shutdown() {
-		final int maxListeners = (channelUDP!=null && channelTCP!=null) ? 2 : 1;
-		// we have two things to shut down: UDP and TCP
+		final int maxListeners = channelsUDP.size() + (channelTCP != null ? 1 : 0);
+		// we have several things to shut down: the UDP channels and TCP
 		final AtomicInteger listenerCounter = new AtomicInteger(0);
 		LOG.debug("shutdown servers");
-		if(channelUDP != null) {
+		if (maxListeners == 0) {
+			futureServerDone.setDone();
+		}
+		for (Channel channelUDP : channelsUDP) {
 			channelUDP.close().addListener(new GenericFutureListener<ChannelFuture>() {
 				@Override
 				public void operationComplete(final ChannelFuture future) throws Exception {
-					LOG.debug("shutdown TCP server");
+					LOG.debug("shutdown UDP server");
 					if(listenerCounter.incrementAndGet()==maxListeners) {
 						futureServerDone.setDone();
 					}
@@ -16,6 +16,8 @@
 
 package net.tomp2p.connection;
 
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 
 /**
  * The the configuration for the server.
@@ -38,6 +40,12 @@ public class ChannelServerConficuration implements ConnectionConfiguration {
 
     private SignatureFactory signatureFactory = null;
 
+    private ByteBufAllocator byteBufAllocator = UnpooledByteBufAllocator.DEFAULT;
+    private boolean directBuffers = false;
+
+    private Transport transport = Transport.nio();
+    private int udpChannels = 1;
+
     private boolean forceTCP;
     private boolean forceUDP;
     
@@ -170,6 +178,80 @@ public class ChannelServerConficuration implements ConnectionConfiguration {
         return this;
     }
 
+    /**
+     * @return The allocator for the buffers of the encoder, the decoder and the channels
+     */
+    public ByteBufAllocator byteBufAllocator() {
+        return byteBufAllocator;
+    }
+
+    /**
+     * @param byteBufAllocator
+     *            The allocator for the buffers of the encoder, the decoder and the channels, e.g.,
+     *            {@link io.netty.buffer.PooledByteBufAllocator#DEFAULT} to reuse the memory of the buffers instead of
+     *            allocating and zeroing it for every message
+     * @return This class
+     */
+    public ChannelServerConficuration byteBufAllocator(final ByteBufAllocator byteBufAllocator) {
+        this.byteBufAllocator = byteBufAllocator;
+        return this;
+    }
+
+    /**
+     * @return True if messages are encoded into direct buffers
+     */
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    /**
+     * @param directBuffers
+     *            True if messages are encoded into direct buffers, which avoids a copy when writing to the socket.
+     *            Use this together with a pooled allocator, as direct buffers are expensive to allocate
+     * @return This class
+     */
+    public ChannelServerConficuration directBuffers(final boolean directBuffers) {
+        this.directBuffers = directBuffers;
+        return this;
+    }
+
+    /**
+     * @return The Netty transport for the channels
+     */
+    public Transport transport() {
+        return transport;
+    }
+
+    /**
+     * @param transport
+     *            The Netty transport for the channels, needs to be the same for the client and the server, as they
+     *            share the event loops
+     * @return This class
+     */
+    public ChannelServerConficuration transport(final Transport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * @return The number of UDP channels that receive on the server port
+     */
+    public int udpChannels() {
+        return udpChannels;
+    }
+
+    /**
+     * @param udpChannels
+     *            The number of UDP channels that receive on the server port. With more than one channel, the datagrams
+     *            are decoded and dispatched on several event loops instead of one. This needs a transport with
+     *            SO_REUSEPORT, see {@link Transport#epoll()}, otherwise one channel is used
+     * @return This class
+     */
+    public ChannelServerConficuration udpChannels(final int udpChannels) {
+        this.udpChannels = udpChannels;
+        return this;
+    }
+
     @Override
     public int connectionTimeoutTCPMillis() {
         return connectionTimeoutTCPMillis;
@@ -37,7 +37,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * The default signature is done with SHA1withDSA.
+ * The default signature is done with SHA1withDSA. Other algorithms of the
+ * installed security providers can be used as long as their signature is an
+ * ASN.1 sequence of two integers of at most 160 bit, as this is what
+ * {@link SHA1Signature} sends over the wire.
  * 
  * @author Thomas Bocek
  * 
@@ -46,11 +49,32 @@ public class DefaultSignatureFactory implements SignatureFactory {
 
 	private static final Logger LOG = LoggerFactory.getLogger(DefaultSignatureFactory.class);
 
-	//TODO: check if needed
+	private final String signatureAlgorithm;
+
+	private final String keyAlgorithm;
+
+	/**
+	 * Signs with SHA1withDSA.
+	 */
+	public DefaultSignatureFactory() {
+		this("SHA1withDSA", "DSA");
+	}
+
+	/**
+	 * @param signatureAlgorithm
+	 *            The name of the signature algorithm, e.g., SHA1withDSA
+	 * @param keyAlgorithm
+	 *            The name of the algorithm of the public keys, e.g., DSA
+	 */
+	public DefaultSignatureFactory(final String signatureAlgorithm, final String keyAlgorithm) {
+		this.signatureAlgorithm = signatureAlgorithm;
+		this.keyAlgorithm = keyAlgorithm;
+	}
+
 	@Override
 	public Signature signatureInstance() {
 		try {
-			return Signature.getInstance("SHA1withDSA");
+			return Signature.getInstance(signatureAlgorithm);
 		} catch (NoSuchAlgorithmException e) {
 			LOG.error("could not find algorithm", e);
 			return null;
@@ -61,7 +85,7 @@ public class DefaultSignatureFactory implements SignatureFactory {
 	public PublicKey decodePublicKey(final byte[] me) {
 		X509EncodedKeySpec pubKeySpec = new X509EncodedKeySpec(me);
 		try {
-			KeyFactory keyFactory = KeyFactory.getInstance("DSA");
+			KeyFactory keyFactory = KeyFactory.getInstance(keyAlgorithm);
 			return keyFactory.generatePublic(pubKeySpec);
 		} catch (NoSuchAlgorithmException e) {
 			LOG.error("could not find algorithm", e);
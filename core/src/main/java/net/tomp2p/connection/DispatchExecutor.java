@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.connection;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded worker pool for the handlers of the {@link Dispatcher}. If all threads are busy, the requests wait in a
+ * queue of a fixed size. If the queue is full, the request is rejected, so an overloaded peer answers with
+ * {@link net.tomp2p.message.Message.Type#DENIED} instead of piling up requests. The queue depth shows how far the
+ * handlers fall behind.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class DispatchExecutor implements Executor {
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param name
+     *            The name of the threads
+     * @param threads
+     *            The number of threads
+     * @param queueSize
+     *            The number of requests that wait for a thread, more requests are rejected
+     */
+    public DispatchExecutor(final String name, final int threads, final int queueSize) {
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new DefaultThreadFactory(ConnectionBean.THREAD_NAME
+                        + name + " - "));
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        try {
+            executor.execute(command);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+        final int depth = executor.getQueue().size();
+        int max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    /**
+     * @return The number of requests that wait for a thread
+     */
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return The highest number of requests that waited for a thread
+     */
+    public int maxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return The number of requests that were rejected because the queue was full
+     */
+    public long rejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return The number of requests that were handled
+     */
+    public long completed() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * Stops the threads, the requests in the queue are still handled.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
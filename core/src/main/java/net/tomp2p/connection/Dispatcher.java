@@ -24,6 +24,8 @@ import io.netty.channel.socket.DatagramChannel;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import net.tomp2p.message.Message;
 import net.tomp2p.message.Message.Type;
@@ -43,6 +45,12 @@ import org.slf4j.LoggerFactory;
  * You probably want to add an instance of this class to the end of a pipeline to be able to receive messages. This
  * class is able to cover several channels but only one P2P network!
  * </p>
+ * <p>
+ * The handlers run on the I/O thread, unless an executor is registered for their command with
+ * {@link #registerExecutor(Executor, int...)}. Cheap handlers like ping should stay on the I/O thread, while handlers
+ * that take locks or call user code should run on an executor, so they do not stall the other channels of the event
+ * loop.
+ * </p>
  * 
  * @author Thomas Bocek
  */
@@ -58,6 +66,9 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
     //copy on write map
     private volatile Map<Number160, Map<Integer, DispatchHandler>> ioHandlers = new HashMap<Number160, Map<Integer, DispatchHandler>>();
 
+    //copy on write map
+    private volatile Map<Integer, Executor> executors = Collections.emptyMap();
+
     /**
      * Constructor.
      * 
@@ -102,6 +113,28 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
         ioHandlers = Collections.unmodifiableMap(copy);
     }
 
+    /**
+     * Registers an executor for the handlers of the given commands, e.g., a {@link DispatchExecutor}. Any executor can
+     * be used, e.g., one that starts a virtual thread per request on JDKs that have them. The executor is not shut down
+     * by the dispatcher. This method is thread-safe, and uses copy on write.
+     * 
+     * @param executor
+     *            The executor that runs the handlers, or null to run them on the I/O thread again
+     * @param commands
+     *            The commands of the {@link Message}, see {@link net.tomp2p.rpc.RPC.Commands}
+     */
+    public void registerExecutor(final Executor executor, final int... commands) {
+        Map<Integer, Executor> copy = new HashMap<Integer, Executor>(executors);
+        for (int command : commands) {
+            if (executor == null) {
+                copy.remove(command);
+            } else {
+                copy.put(command, executor);
+            }
+        }
+        executors = Collections.unmodifiableMap(copy);
+    }
+
     /**
      * If we shutdown, we remove the handlers. This means that a server may respond that the handler is unknown.
      * 
@@ -138,8 +171,14 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
         if (myHandler != null) {
             boolean isUdp = ctx.channel() instanceof DatagramChannel;
             LOG.debug("about to respond to {}", message);
-            PeerConnection peerConnection = new PeerConnection(message.getSender(), new DefaultChannelPromise(ctx.channel()).setSuccess(), heartBeatMillis);
-            myHandler.forwardMessage(message, isUdp ? null : peerConnection, responder);
+            final PeerConnection peerConnection = new PeerConnection(message.getSender(), new DefaultChannelPromise(ctx.channel()).setSuccess(), heartBeatMillis);
+            final Executor executor = executors.get((int) message.getCommand());
+            // partial messages of a stream are handled in order on the I/O thread
+            if (executor == null || !message.isDone()) {
+                forward(myHandler, message, isUdp ? null : peerConnection, responder);
+            } else {
+                execute(executor, myHandler, message, isUdp ? null : peerConnection, responder);
+            }
         } else {
             LOG.debug("No handler found for {}. Probably we have shutdown this peer.", message);
             Message responseMessage = DispatchHandler.createResponseMessage(message, Type.UNKNOWN_ID, peerBean.serverPeerAddress());
@@ -147,6 +186,45 @@ public class Dispatcher extends SimpleChannelInboundHandler<Message> {
         }
     }
     
+    private void execute(final Executor executor, final DispatchHandler myHandler, final Message message,
+            final PeerConnection peerConnection, final Responder responder) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    forward(myHandler, message, peerConnection, responder);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Too many requests for command {}, reject {}", message.getCommand(), message);
+            if (message.isFireAndForget()) {
+                responder.responseFireAndForget();
+            } else {
+                responder.failed(Type.DENIED, "overloaded");
+            }
+        }
+    }
+
+    /**
+     * Hands a request to its handler. The signature of a complete signed request is checked first, so that the public
+     * key operation runs on the thread of the handler. A request with a wrong signature is denied.
+     */
+    private void forward(final DispatchHandler myHandler, final Message message,
+            final PeerConnection peerConnection, final Responder responder) {
+        if (message.isDone() && message.isSign() && !message.verified()) {
+            LOG.warn("wrong signature! {}", message);
+            // nobody gets the data of this request
+            message.release();
+            if (message.isFireAndForget()) {
+                responder.responseFireAndForget();
+            } else {
+                responder.failed(Type.DENIED, "wrong signature");
+            }
+            return;
+        }
+        myHandler.forwardMessage(message, peerConnection, responder);
+    }
+
     public class DirectResponder implements Responder {
         final ChannelHandlerContext ctx;
         final Message requestMessage;
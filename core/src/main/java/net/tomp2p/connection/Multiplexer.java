@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.MessageID;
+import net.tomp2p.peers.PeerStatusListener;
+import net.tomp2p.peers.PeerStatusListener.FailReason;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Demultiplexes the responses on a TCP channel that is shared by many concurrent requests. Every request is
+ * registered with its {@link MessageID} before it is written, the response with the same message id is handed to the
+ * handler of that request. Since the handlers are not part of the pipeline, every request has its own timeout instead
+ * of the idle handler of the channel. If the channel is closed, all pending requests fail. An exception on a TCP
+ * channel closes it, on the shared UDP channel of the {@link UDPBatcher} it is ignored.
+ * <p>
+ * One instance is used for one channel. Requests are handed to the next handler, e.g., the {@link Dispatcher}.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class Multiplexer extends SimpleChannelInboundHandler<Message> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Multiplexer.class);
+
+    private final ConcurrentMap<MessageID, Pending> pending = new ConcurrentHashMap<MessageID, Pending>();
+
+    private final PeerStatusListener[] peerStatusListeners;
+
+    private static final class Pending {
+        private final SimpleChannelInboundHandler<Message> handler;
+        private final FutureResponse futureResponse;
+        private volatile ScheduledFuture<?> timeout;
+
+        private Pending(final SimpleChannelInboundHandler<Message> handler, final FutureResponse futureResponse) {
+            this.handler = handler;
+            this.futureResponse = futureResponse;
+        }
+    }
+
+    public Multiplexer() {
+        this(null);
+    }
+
+    /**
+     * @param peerStatusListeners
+     *            The listeners that get notified when a request timed out, may be null
+     */
+    public Multiplexer(final PeerStatusListener[] peerStatusListeners) {
+        this.peerStatusListeners = peerStatusListeners;
+    }
+
+    /**
+     * Registers a request before it is written to the channel.
+     *
+     * @param channel
+     *            The channel of this multiplexer, the timeout is scheduled on its event loop
+     * @param message
+     *            The request message
+     * @param handler
+     *            The handler for the response
+     * @param futureResponse
+     *            The future of the request
+     * @param timeoutMillis
+     *            The time to wait for the response
+     */
+    public void register(final Channel channel, final Message message,
+            final SimpleChannelInboundHandler<Message> handler, final FutureResponse futureResponse,
+            final long timeoutMillis) {
+        final MessageID messageID = new MessageID(message);
+        final Pending entry = new Pending(handler, futureResponse);
+        pending.put(messageID, entry);
+        if (timeoutMillis > 0) {
+            entry.timeout = channel.eventLoop().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (pending.remove(messageID, entry)) {
+                        LOG.warn("multiplexed request timed out {}", message);
+                        futureResponse.setFailed("channel is idle, no response within " + timeoutMillis + "ms");
+                        if (peerStatusListeners != null) {
+                            for (PeerStatusListener peerStatusListener : peerStatusListeners) {
+                                peerStatusListener.peerFailed(message.getRecipient(), FailReason.Timeout);
+                            }
+                        }
+                    }
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(final FutureResponse future) throws Exception {
+                pending.remove(messageID, entry);
+                final ScheduledFuture<?> timeout = entry.timeout;
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The number of requests that wait for a response
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    @Override
+    protected void channelRead0(final ChannelHandlerContext ctx, final Message message) throws Exception {
+        if (message.isRequest()) {
+            ctx.fireChannelRead(message);
+            return;
+        }
+        final MessageID messageID = new MessageID(message);
+        // a streamed response is handed to the handler several times
+        final Pending entry = message.isDone() ? pending.remove(messageID) : pending.get(messageID);
+        if (entry == null) {
+            LOG.debug("no request found for response {}, may have timed out", message);
+            return;
+        }
+        entry.handler.channelRead(ctx, message);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        failAll("channel closed");
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) throws Exception {
+        if (ctx.channel() instanceof DatagramChannel) {
+            // e.g., an ICMP error of one peer, the requests to the other peers are not affected
+            LOG.debug("exception on multiplexed UDP channel", cause);
+            return;
+        }
+        LOG.debug("exception on multiplexed channel", cause);
+        failAll(cause.toString());
+        ctx.close();
+    }
+
+    private void failAll(final String reason) {
+        final List<Pending> entries = new ArrayList<Pending>(pending.values());
+        pending.clear();
+        for (Pending entry : entries) {
+            entry.futureResponse.setFailed(reason);
+        }
+    }
+}
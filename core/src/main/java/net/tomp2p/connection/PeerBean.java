@@ -24,6 +24,7 @@ import net.tomp2p.peers.PeerStatusListener;
 import net.tomp2p.p2p.Replication;
 import net.tomp2p.p2p.ReplicationExecutor;
 import net.tomp2p.rpc.BloomfilterFactory;
+import net.tomp2p.storage.Serializer;
 import net.tomp2p.storage.StorageLayer;
 import net.tomp2p.storage.TrackerStorage;
 
@@ -46,6 +47,7 @@ public class PeerBean {
     private BloomfilterFactory bloomfilterFactory;
     private MaintenanceTask maintenanceTask;
     private ReplicationExecutor replicationExecutor;
+    private Serializer serializer;
     /*
      * private Statistics statistics; private Peer peer;
      */
@@ -219,4 +221,13 @@ public class PeerBean {
         this.replicationExecutor = replicationExecutor;
         return this;
     }
+
+    public Serializer serializer() {
+        return serializer;
+    }
+
+    public PeerBean serializer(Serializer serializer) {
+        this.serializer = serializer;
+        return this;
+    }
 }
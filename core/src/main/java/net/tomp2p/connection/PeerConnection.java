@@ -28,6 +28,9 @@ public class PeerConnection {
 
     // these may be called from different threads, but they will never be called concurrently within this library
     private volatile ChannelFuture channelFuture;
+    // set together with the channel future if this connection is shared by concurrent requests
+    private volatile Multiplexer multiplexer;
+    private volatile boolean multiplexed = false;
     
 
     /**
@@ -66,6 +69,27 @@ public class PeerConnection {
         return this;
     }
     
+    /**
+     * @return True if concurrent requests share this connection, see {@link Multiplexer}
+     */
+    public boolean isMultiplexed() {
+        return multiplexed;
+    }
+
+    public PeerConnection multiplexed(boolean multiplexed) {
+        this.multiplexed = multiplexed;
+        return this;
+    }
+
+    public Multiplexer multiplexer() {
+        return multiplexer;
+    }
+
+    public PeerConnection multiplexer(Multiplexer multiplexer) {
+        this.multiplexer = multiplexer;
+        return this;
+    }
+
     public int heartBeatMillis() {
 	    return heartBeatMillis;
     }
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.utils.Timings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of {@link PeerConnection}s to frequently contacted peers, which is used by the {@link Sender} for
+ * TCP requests. If a request to a peer misses the pool, the request is sent over a short-lived channel as before and
+ * the pool reserves a permanent connection to that peer in the background. The following requests to this peer reuse
+ * the open channel, which is kept alive with the {@link HeartBeat} of the peer connection. Connections that were not
+ * used by a request for a given time are closed, heart beats do not count as usage.
+ * <p>
+ * A peer connection can only handle one request at a time, thus a request that finds all connections to a peer in use
+ * does not wait, but opens a short-lived channel. In the multiplexed mode, concurrent requests share one connection
+ * and the responses are matched by the {@link Multiplexer}.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class PeerConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PeerConnectionPool.class);
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_PEER = 2;
+
+    public static final int DEFAULT_IDLE_MILLIS = 30 * 1000;
+
+    private final Reservation reservation;
+
+    private final int maxConnections;
+
+    private final int maxConnectionsPerPeer;
+
+    private final int idleMillis;
+
+    private final int heartBeatMillis;
+
+    private final boolean multiplexed;
+
+    // all access is synchronized on this map
+    private final Map<InetSocketAddress, List<Entry>> connections = new HashMap<InetSocketAddress, List<Entry>>();
+
+    private int size = 0;
+
+    private boolean shutdown = false;
+
+    private ScheduledFuture<?> scheduledFuture;
+
+    /**
+     * One pooled connection. The peer connection is null while the permanent connection is being reserved.
+     */
+    private static final class Entry {
+        private PeerConnection peerConnection;
+        // the number of requests that use this connection
+        private int inUse;
+        private long lastUsedMillis = Timings.currentTimeMillis();
+    }
+
+    /**
+     * @param reservation
+     *            The reservation to acquire the permanent connections
+     * @param maxConnections
+     *            The maximum number of pooled connections, needs to be lower than
+     *            {@link ChannelClientConfiguration#maxPermitsPermanentTCP()}
+     * @param maxConnectionsPerPeer
+     *            The maximum number of pooled connections to a single peer
+     * @param idleMillis
+     *            The time after which an unused connection is closed
+     * @param heartBeatMillis
+     *            The interval of the heart beat that keeps a connection open
+     * @param multiplexed
+     *            True if concurrent requests should share a connection
+     */
+    public PeerConnectionPool(final Reservation reservation, final int maxConnections,
+            final int maxConnectionsPerPeer, final int idleMillis, final int heartBeatMillis,
+            final boolean multiplexed) {
+        this.reservation = reservation;
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerPeer = maxConnectionsPerPeer;
+        this.idleMillis = idleMillis;
+        this.heartBeatMillis = heartBeatMillis;
+        this.multiplexed = multiplexed;
+    }
+
+    /**
+     * Starts the eviction of idle connections.
+     *
+     * @param timer
+     *            The timer to run the eviction
+     */
+    public void init(final ScheduledExecutorService timer) {
+        final int interval = Math.max(idleMillis / 2, 1);
+        scheduledFuture = timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a pooled connection to the recipient that is not in use and marks it as used. In the multiplexed mode,
+     * connections that are in use are returned as well. If there is no such connection and the limits allow, a new
+     * connection is reserved in the background.
+     *
+     * @param recipient
+     *            The peer to connect to
+     * @return The peer connection or null if none is available now
+     */
+    public PeerConnection acquire(final PeerAddress recipient) {
+        final InetSocketAddress key = recipient.createSocketTCP();
+        final Entry reserve;
+        synchronized (connections) {
+            if (shutdown) {
+                return null;
+            }
+            List<Entry> entries = connections.get(key);
+            if (entries != null) {
+                for (Entry entry : entries) {
+                    if ((multiplexed || entry.inUse == 0) && entry.peerConnection != null
+                            && isUsable(entry.peerConnection)) {
+                        entry.inUse++;
+                        entry.lastUsedMillis = Timings.currentTimeMillis();
+                        return entry.peerConnection;
+                    }
+                }
+            }
+            // a connection that is still being reserved will be shared as well
+            final int maxPerPeer = multiplexed ? 1 : maxConnectionsPerPeer;
+            if (size >= maxConnections || (entries != null && entries.size() >= maxPerPeer)) {
+                return null;
+            }
+            if (entries == null) {
+                entries = new ArrayList<Entry>(maxConnectionsPerPeer);
+                connections.put(key, entries);
+            }
+            reserve = new Entry();
+            entries.add(reserve);
+            size++;
+        }
+        reserve(key, recipient, reserve);
+        return null;
+    }
+
+    /**
+     * Marks a connection as not used, so that it can be acquired by the next request.
+     *
+     * @param peerConnection
+     *            The connection that was returned by {@link #acquire(PeerAddress)}
+     * @param failed
+     *            True if the request failed, in this case the connection is closed
+     */
+    public void release(final PeerConnection peerConnection, final boolean failed) {
+        final Entry entry;
+        synchronized (connections) {
+            entry = find(peerConnection);
+            if (entry == null) {
+                return;
+            }
+            entry.inUse--;
+            entry.lastUsedMillis = Timings.currentTimeMillis();
+            if (failed) {
+                remove(peerConnection.remotePeer().createSocketTCP(), entry);
+            }
+        }
+        if (failed) {
+            LOG.debug("request failed, close pooled connection to {}", peerConnection.remotePeer());
+            peerConnection.close();
+        }
+    }
+
+    /**
+     * Closes all connections that were not used for the idle time.
+     */
+    public void evictIdle() {
+        final List<PeerConnection> evicted = new ArrayList<PeerConnection>();
+        final long limit = Timings.currentTimeMillis() - idleMillis;
+        synchronized (connections) {
+            for (Iterator<List<Entry>> iterator = connections.values().iterator(); iterator.hasNext();) {
+                final List<Entry> entries = iterator.next();
+                for (Iterator<Entry> iterator2 = entries.iterator(); iterator2.hasNext();) {
+                    final Entry entry = iterator2.next();
+                    if (entry.inUse == 0 && entry.peerConnection != null
+                            && (entry.lastUsedMillis < limit || !isUsable(entry.peerConnection))) {
+                        iterator2.remove();
+                        size--;
+                        evicted.add(entry.peerConnection);
+                    }
+                }
+                if (entries.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        for (PeerConnection peerConnection : evicted) {
+            LOG.debug("close idle pooled connection to {}", peerConnection.remotePeer());
+            peerConnection.close();
+        }
+    }
+
+    /**
+     * Closes all pooled connections. Connections that are in use are closed as well.
+     */
+    public void shutdown() {
+        final List<PeerConnection> closing = new ArrayList<PeerConnection>();
+        synchronized (connections) {
+            shutdown = true;
+            for (List<Entry> entries : connections.values()) {
+                for (Entry entry : entries) {
+                    if (entry.peerConnection != null) {
+                        closing.add(entry.peerConnection);
+                    }
+                }
+            }
+            connections.clear();
+            size = 0;
+        }
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+        }
+        for (PeerConnection peerConnection : closing) {
+            peerConnection.close();
+        }
+    }
+
+    /**
+     * @return The number of pooled connections, including those that are being reserved
+     */
+    public int size() {
+        synchronized (connections) {
+            return size;
+        }
+    }
+
+    private void reserve(final InetSocketAddress key, final PeerAddress recipient, final Entry entry) {
+        final FutureChannelCreator futureChannelCreator = reservation.createPermanent(1);
+        futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                final PeerConnection peerConnection;
+                if (future.isSuccess()) {
+                    peerConnection = new PeerConnection(recipient, future.getChannelCreator(), heartBeatMillis)
+                            .multiplexed(multiplexed);
+                } else {
+                    peerConnection = null;
+                }
+                final boolean added;
+                synchronized (connections) {
+                    if (peerConnection != null && !shutdown) {
+                        entry.peerConnection = peerConnection;
+                        entry.lastUsedMillis = Timings.currentTimeMillis();
+                        added = true;
+                    } else {
+                        added = false;
+                        remove(key, entry);
+                    }
+                }
+                if (peerConnection != null && !added) {
+                    peerConnection.close();
+                }
+            }
+        });
+    }
+
+    private Entry find(final PeerConnection peerConnection) {
+        final List<Entry> entries = connections.get(peerConnection.remotePeer().createSocketTCP());
+        if (entries != null) {
+            for (Entry entry : entries) {
+                if (entry.peerConnection == peerConnection) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void remove(final InetSocketAddress key, final Entry entry) {
+        final List<Entry> entries = connections.get(key);
+        if (entries != null && entries.remove(entry)) {
+            size--;
+            if (entries.isEmpty()) {
+                connections.remove(key);
+            }
+        }
+    }
+
+    /**
+     * A connection can be used if its channel is open or if a new channel can be created, i.e., the old channel has
+     * been closed and released its permit.
+     */
+    private static boolean isUsable(final PeerConnection peerConnection) {
+        if (peerConnection.channelCreator().isShutdown()) {
+            return false;
+        }
+        if (peerConnection.channelFuture() != null && peerConnection.channelFuture().channel().isActive()) {
+            return true;
+        }
+        return peerConnection.channelCreator().availableTCPPermits() > 0;
+    }
+}
@@ -17,7 +17,6 @@
 package net.tomp2p.connection;
 
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
@@ -26,6 +25,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.security.KeyPair;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -97,9 +97,14 @@ public class PeerCreator {
 		LOG.info("Visible address to other peers: {}", self);
 		
 		//start server
-		workerGroup = new NioEventLoopGroup(0, new DefaultThreadFactory(ConnectionBean.THREAD_NAME
+		final Transport transport = channelServerConficuration.transport();
+		if (transport != channelClientConfiguration.transport()) {
+			throw new IllegalArgumentException(
+			        "The client and the server need the same transport, as they share the event loops.");
+		}
+		workerGroup = transport.createEventLoopGroup(0, new DefaultThreadFactory(ConnectionBean.THREAD_NAME
 		        + "worker-client/server - "));
-		bossGroup = new NioEventLoopGroup(2, new DefaultThreadFactory(ConnectionBean.THREAD_NAME + "boss - "));
+		bossGroup = transport.createEventLoopGroup(2, new DefaultThreadFactory(ConnectionBean.THREAD_NAME + "boss - "));
 		Dispatcher dispatcher = new Dispatcher(p2pId, peerBean, channelServerConficuration.heartBeatMillis());
 		final ChannelServer channelServer = new ChannelServer(bossGroup, workerGroup, channelServerConficuration,
 		        dispatcher, peerStatusListeners);
@@ -109,11 +114,36 @@ public class PeerCreator {
 		}
 		
 		//connection bean
-		Sender sender = new Sender(peerId, peerStatusListeners, channelClientConfiguration, dispatcher);
+		PeerStatusListener[] senderListeners = peerStatusListeners;
+		if (channelClientConfiguration.timeoutPolicy() != null) {
+			// the policy backs off for peers whose requests timed out
+			senderListeners = Arrays.copyOf(peerStatusListeners, peerStatusListeners.length + 1);
+			senderListeners[peerStatusListeners.length] = channelClientConfiguration.timeoutPolicy();
+		}
+		Sender sender = new Sender(peerId, senderListeners, channelClientConfiguration, dispatcher);
 		NATUtils natUtils = new NATUtils();
 		Reservation reservation = new Reservation(workerGroup, channelClientConfiguration);
 		connectionBean = new ConnectionBean(p2pId, dispatcher, sender, channelServer, reservation,
 		        channelClientConfiguration, natUtils, timer);
+		if (channelClientConfiguration.maxPooledConnections() > 0) {
+			PeerConnectionPool peerConnectionPool = new PeerConnectionPool(reservation,
+			        channelClientConfiguration.maxPooledConnections(),
+			        channelClientConfiguration.maxPooledConnectionsPerPeer(),
+			        channelClientConfiguration.pooledConnectionIdleMillis(),
+			        channelServerConficuration.heartBeatMillis(),
+			        channelClientConfiguration.isMultiplexPooledConnections());
+			peerConnectionPool.init(timer);
+			sender.peerConnectionPool(peerConnectionPool);
+		}
+		if (channelClientConfiguration.udpBatchWindowMillis() > 0) {
+			UDPBatcher udpBatcher = new UDPBatcher(channelClientConfiguration, senderListeners);
+			if (!udpBatcher.init(workerGroup)) {
+				channelServer.shutdown();
+				shutdownNetty();
+				throw new IOException("Cannot bind the UDP batch channel.");
+			}
+			sender.udpBatcher(udpBatcher);
+		}
 		this.master = true;
 	}
 
@@ -166,6 +196,13 @@ public class PeerCreator {
 		}
 		// shutdown the timer
 		connectionBean.timer().shutdown();
+		// close the pooled connections before the reservation waits for them
+		if (connectionBean.sender().peerConnectionPool() != null) {
+			connectionBean.sender().peerConnectionPool().shutdown();
+		}
+		if (connectionBean.sender().udpBatcher() != null) {
+			connectionBean.sender().udpBatcher().shutdown();
+		}
 		
 		LOG.debug("starting shutdown done in client...");
 		connectionBean.reservation().shutdown().addListener(new BaseFutureAdapter<FutureDone<Void>>() {
@@ -21,6 +21,7 @@ import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.message.Message;
 import net.tomp2p.message.MessageID;
 import net.tomp2p.peers.PeerStatusListener.FailReason;
+import net.tomp2p.utils.Timings;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +54,9 @@ public class RequestHandler<K extends FutureResponse> extends SimpleChannelInbou
     private final int idleUDPSeconds; // = ConnectionBean.DEFAULT_UDP_IDLE_SECONDS;
     private final int connectionTimeoutTCPMillis; // = ConnectionBean.DEFAULT_CONNECTION_TIMEOUT_TCP;
 
+    // a streamed response arrives in several parts, the round trip time is measured with the first one
+    private boolean rttMeasured = false;
+
     /**
      * Create a request handler that can send UDP messages.
      * 
@@ -220,8 +224,14 @@ public class RequestHandler<K extends FutureResponse> extends SimpleChannelInbou
         }
         
         LOG.debug("report failure", cause);
-        futureResponse.setFailedLater(cause);
-        ctx.close();
+        if (message.isKeepAlive() && cause instanceof PeerException
+                && ((PeerException) cause).getAbortCause() == PeerException.AbortCause.PEER_ABORT) {
+            // the other peer answered, the connection can be used by other requests
+            futureResponse.setFailed(cause);
+        } else {
+            futureResponse.setFailedLater(cause);
+            ctx.close();
+        }
     }
 
     @Override
@@ -253,6 +263,16 @@ public class RequestHandler<K extends FutureResponse> extends SimpleChannelInbou
         // We got a good answer, let's mark the sender as alive
         if (responseMessage.isOk() || responseMessage.isNotOk()) {
             peerBean.peerMap().peerFound(responseMessage.getSender(), null);
+            final long sentMillis = futureResponse.getSentMillis();
+            if (!rttMeasured && sentMillis >= 0) {
+                rttMeasured = true;
+                final long rttMillis = Timings.currentTimeMillis() - sentMillis;
+                peerBean.peerMap().updateRTT(responseMessage.getSender(), rttMillis);
+                final TimeoutPolicy timeoutPolicy = connectionBean.resourceConfiguration().timeoutPolicy();
+                if (timeoutPolicy != null) {
+                    timeoutPolicy.responseReceived(responseMessage.getSender(), rttMillis);
+                }
+            }
         }
         
         // call this for streaming support
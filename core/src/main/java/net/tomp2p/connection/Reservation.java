@@ -127,16 +127,16 @@ public class Reservation {
 		int nrConnectionsUDP = 0;
 		if (requestP2PConfiguration != null) {
 			if (builder.isForceUDP()) {
-				nrConnectionsUDP = requestP2PConfiguration.getParallel();
+				nrConnectionsUDP = requestP2PConfiguration.getMaxParallel();
 			} else {
-				nrConnectionsTCP = requestP2PConfiguration.getParallel();
+				nrConnectionsTCP = requestP2PConfiguration.getMaxParallel();
 			}
 		}
 		if (routingConfiguration != null) {
 			if (!builder.isForceTCP()) {
-				nrConnectionsUDP = Math.max(nrConnectionsUDP, routingConfiguration.getParallel());
+				nrConnectionsUDP = Math.max(nrConnectionsUDP, routingConfiguration.getMaxParallel());
 			} else {
-				nrConnectionsTCP = Math.max(nrConnectionsTCP, routingConfiguration.getParallel());
+				nrConnectionsTCP = Math.max(nrConnectionsTCP, routingConfiguration.getMaxParallel());
 			}
 		}
 
@@ -37,11 +37,13 @@ import java.util.concurrent.atomic.AtomicReferenceArray;
 import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.Cancel;
+import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureDone;
 import net.tomp2p.futures.FutureForkJoin;
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.message.Message;
 import net.tomp2p.message.TomP2PCumulationTCP;
+import net.tomp2p.message.CompByteBufAllocator;
 import net.tomp2p.message.TomP2POutbound;
 import net.tomp2p.message.TomP2PSinglePacketUDP;
 import net.tomp2p.p2p.builder.PingBuilder;
@@ -51,6 +53,7 @@ import net.tomp2p.peers.PeerStatusListener;
 import net.tomp2p.peers.PeerStatusListener.FailReason;
 import net.tomp2p.rpc.RPC;
 import net.tomp2p.utils.Pair;
+import net.tomp2p.utils.Timings;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,9 +71,14 @@ public class Sender {
 	private final ChannelClientConfiguration channelClientConfiguration;
 	private final Dispatcher dispatcher;
 	private final Random random;
+	private final TimeoutPolicy timeoutPolicy;
 
 	private PingBuilder pingBuilder;
 
+	private PeerConnectionPool peerConnectionPool;
+
+	private UDPBatcher udpBatcher;
+
 	/**
 	 * Creates a new sender with the listeners for offline peers.
 	 * 
@@ -86,6 +94,7 @@ public class Sender {
 		this.channelClientConfiguration = channelClientConfiguration;
 		this.dispatcher = dispatcher;
 		this.random = new Random(peerId.hashCode());
+		this.timeoutPolicy = channelClientConfiguration.timeoutPolicy();
 	}
 
 	public ChannelClientConfiguration channelClientConfiguration() {
@@ -101,6 +110,36 @@ public class Sender {
 		return this;
 	}
 
+	public PeerConnectionPool peerConnectionPool() {
+		return peerConnectionPool;
+	}
+
+	/**
+	 * @param peerConnectionPool
+	 *            The pool for TCP requests that are not sent over a peer
+	 *            connection, null to create a new channel for every request
+	 * @return This class
+	 */
+	public Sender peerConnectionPool(PeerConnectionPool peerConnectionPool) {
+		this.peerConnectionPool = peerConnectionPool;
+		return this;
+	}
+
+	public UDPBatcher udpBatcher() {
+		return udpBatcher;
+	}
+
+	/**
+	 * @param udpBatcher
+	 *            The shared channel that batches UDP requests, null to create
+	 *            a new channel for every request
+	 * @return This class
+	 */
+	public Sender udpBatcher(UDPBatcher udpBatcher) {
+		this.udpBatcher = udpBatcher;
+		return this;
+	}
+
 	/**
 	 * Send a message via TCP.
 	 * 
@@ -125,11 +164,82 @@ public class Sender {
 			return;
 		}
 		removePeerIfFailed(futureResponse, message);
+		final int connectTimeout = connectTimeoutMillis(message, connectTimeoutMillis);
+
+		// fire and forget and relayed messages are not pooled
+		if (peerConnection == null && handler != null && peerConnectionPool != null
+		        && !message.getRecipient().isRelayed()) {
+			final PeerConnection pooled = peerConnectionPool.acquire(message.getRecipient());
+			if (pooled != null) {
+				sendTCPPooled(handler, futureResponse, message, channelCreator, idleTCPSeconds, connectTimeout,
+				        pooled);
+				return;
+			}
+		}
+		sendTCPInternal(handler, futureResponse, message, channelCreator, idleTCPSeconds, connectTimeout,
+		        peerConnection);
+	}
+
+	/**
+	 * Sends a message over a pooled connection. The connection is serialized
+	 * with the heart beat of the connection and is returned to the pool once
+	 * the response arrived. If the channel was closed in the meantime and
+	 * cannot be reopened yet, the message is sent over a new channel of the
+	 * channel creator.
+	 */
+	private void sendTCPPooled(final SimpleChannelInboundHandler<Message> handler,
+	        final FutureResponse futureResponse, final Message message, final ChannelCreator channelCreator,
+	        final int idleTCPSeconds, final int connectTimeoutMillis, final PeerConnection pooled) {
+		LOG.debug("send {} over pooled connection", message);
+		// the other peer must not close the connection after the reply
+		message.setKeepAlive(true);
+		futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+			@Override
+			public void operationComplete(final FutureResponse future) throws Exception {
+				// a failed request closes a shared connection only if the channel is broken
+				final boolean failed = future.isFailed()
+				        && (!pooled.isMultiplexed() || pooled.channelFuture() == null || !pooled.channelFuture()
+				                .channel().isActive());
+				peerConnectionPool.release(pooled, failed);
+			}
+		});
+		if (pooled.isMultiplexed() && !message.isStreaming()) {
+			sendTCPMultiplexed(handler, futureResponse, message, channelCreator, idleTCPSeconds,
+			        connectTimeoutMillis, pooled);
+			return;
+		}
+		pooled.acquire(futureResponse).addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+			@Override
+			public void operationComplete(final FutureChannelCreator future) throws Exception {
+				final boolean open = pooled.channelFuture() != null && pooled.channelFuture().channel().isActive();
+				if (future.isSuccess() && (open || pooled.channelCreator().availableTCPPermits() > 0)) {
+					sendTCPInternal(handler, futureResponse, message, pooled.channelCreator(), idleTCPSeconds,
+					        connectTimeoutMillis, pooled);
+				} else if (future.isSuccess() && channelCreator != null) {
+					message.setKeepAlive(false);
+					sendTCPInternal(handler, futureResponse, message, channelCreator, idleTCPSeconds,
+					        connectTimeoutMillis, null);
+				} else {
+					futureResponse.setFailed("could not acquire pooled connection");
+				}
+			}
+		});
+	}
 
+	private void sendTCPInternal(final SimpleChannelInboundHandler<Message> handler,
+	        final FutureResponse futureResponse, final Message message, final ChannelCreator channelCreator,
+	        final int idleTCPSeconds, final int connectTimeoutMillis, final PeerConnection peerConnection) {
+		if (peerConnection != null && peerConnection.isMultiplexed() && handler != null && !message.isStreaming()) {
+			sendTCPMultiplexed(handler, futureResponse, message, channelCreator, idleTCPSeconds,
+			        connectTimeoutMillis, peerConnection);
+			return;
+		}
 		final ChannelFuture channelFuture;
 		if (peerConnection != null && peerConnection.channelFuture() != null
 		        && peerConnection.channelFuture().channel().isActive()) {
-			channelFuture = sendTCPPeerConnection(peerConnection, handler, channelCreator, futureResponse);
+			final TimeoutFactory timeoutHandler = createTimeoutHandler(futureResponse, idleTCPSeconds, handler == null);
+			channelFuture = sendTCPPeerConnection(peerConnection, handler, channelCreator, futureResponse,
+			        timeoutHandler);
 			afterConnect(futureResponse, message, channelFuture, handler == null);
 		} else if (channelCreator != null) {
 			final TimeoutFactory timeoutHandler = createTimeoutHandler(futureResponse, idleTCPSeconds, handler == null);
@@ -147,6 +257,46 @@ public class Sender {
 		}
 	}
 
+	/**
+	 * Sends a message over a connection that is shared by concurrent requests.
+	 * The request is registered with the {@link Multiplexer} of the channel,
+	 * which hands the response to the handler and times out the request. The
+	 * channel is opened by the first request, if it cannot be opened, the
+	 * message is sent over a new channel of the channel creator.
+	 */
+	private void sendTCPMultiplexed(final SimpleChannelInboundHandler<Message> handler,
+	        final FutureResponse futureResponse, final Message message, final ChannelCreator channelCreator,
+	        final int idleTCPSeconds, final int connectTimeoutMillis, final PeerConnection peerConnection) {
+		message.setKeepAlive(true);
+		final ChannelFuture channelFuture;
+		final Multiplexer multiplexer;
+		synchronized (peerConnection) {
+			final ChannelFuture current = peerConnection.channelFuture();
+			if ((current == null || !current.channel().isOpen())
+			        && peerConnection.channelCreator().availableTCPPermits() > 0) {
+				peerConnection.multiplexer(new Multiplexer(peerStatusListeners));
+				sendTCPCreateChannel(message.getRecipient().createSocketTCP(), peerConnection.channelCreator(),
+				        peerConnection, null, null, connectTimeoutMillis, futureResponse);
+			}
+			channelFuture = peerConnection.channelFuture();
+			multiplexer = peerConnection.multiplexer();
+		}
+		if (channelFuture == null || multiplexer == null || !channelFuture.channel().isOpen()) {
+			if (channelCreator != null && channelCreator != peerConnection.channelCreator()) {
+				message.setKeepAlive(false);
+				sendTCPInternal(handler, futureResponse, message, channelCreator, idleTCPSeconds,
+				        connectTimeoutMillis, null);
+			} else {
+				futureResponse.setFailed("could not open multiplexed connection");
+			}
+			return;
+		}
+		LOG.debug("send {} over multiplexed connection", message);
+		multiplexer.register(channelFuture.channel(), message, handler, futureResponse,
+		        responseTimeoutMillis(message, idleTCPSeconds));
+		afterConnect(futureResponse, message, channelFuture, false);
+	}
+
 	/**
 	 * TODO: document what is done here
 	 * @param handler
@@ -260,8 +410,9 @@ public class Sender {
 
 		handlers.put("decoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2PCumulationTCP(
 		        channelClientConfiguration.signatureFactory())));
-		handlers.put("encoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(false,
-		        channelClientConfiguration.signatureFactory())));
+		handlers.put("encoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(
+		        channelClientConfiguration.isDirectBuffers(), channelClientConfiguration.signatureFactory(),
+		        new CompByteBufAllocator(channelClientConfiguration.byteBufAllocator()))));
 
 		if (peerConnection != null) {
 			// we expect replies on this connection
@@ -270,6 +421,8 @@ public class Sender {
 
 		if (timeoutHandler != null) {
 			handlers.put("handler", new Pair<EventExecutorGroup, ChannelHandler>(null, handler));
+		} else if (peerConnection != null && peerConnection.multiplexer() != null) {
+			handlers.put("handler", new Pair<EventExecutorGroup, ChannelHandler>(null, peerConnection.multiplexer()));
 		}
 
 		HeartBeat heartBeat = null;
@@ -289,7 +442,8 @@ public class Sender {
 	}
 
 	private ChannelFuture sendTCPPeerConnection(PeerConnection peerConnection, ChannelHandler handler,
-	        final ChannelCreator channelCreator, final FutureResponse futureResponse) {
+	        final ChannelCreator channelCreator, final FutureResponse futureResponse,
+	        final TimeoutFactory timeoutHandler) {
 		// if the channel gets closed, the future should get notified
 		ChannelFuture channelFuture = peerConnection.channelFuture();
 		// channelCreator can be null if we don't need to create any channels
@@ -302,6 +456,15 @@ public class Sender {
 		// create a peerconnection, otherwise we
 		// need to add a handler
 		addOrReplace(pipeline, "dispatcher", "handler", handler);
+		// the timeout handlers of the request that opened the channel report
+		// to that request, replace them so that this request times out
+		if (timeoutHandler != null) {
+			if (!addOrReplace(pipeline, null, "timeout1", timeoutHandler.timeHandler())) {
+				pipeline.replace("timeout0", "timeout0", timeoutHandler.idleStateHandlerTomP2P());
+			} else {
+				pipeline.addFirst("timeout0", timeoutHandler.idleStateHandlerTomP2P());
+			}
+		}
 		// uncomment this if the recipient should also heartbeat
 		// addIfAbsent(pipeline, "handler", "heartbeat",
 		// new HeartBeat(2, pingBuilder).peerConnection(peerConnection));
@@ -368,6 +531,16 @@ public class Sender {
 
 		boolean isFireAndForget = handler == null;
 
+		// fire and forget, broadcast, and relayed messages are not batched
+		if (udpBatcher != null && !isFireAndForget && !broadcast && !message.getRecipient().isRelayed()) {
+			final ChannelFuture channelFuture = udpBatcher.register(message, handler, futureResponse,
+			        responseTimeoutMillis(message, idleUDPSeconds));
+			if (channelFuture != null) {
+				afterConnect(futureResponse, message, channelFuture, false);
+				return;
+			}
+		}
+
 		final Map<String, Pair<EventExecutorGroup, ChannelHandler>> handlers;
 		if (isFireAndForget) {
 			final int nrTCPHandlers = 3; // 2 / 0.75
@@ -383,8 +556,9 @@ public class Sender {
 
 		handlers.put("decoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2PSinglePacketUDP(
 		        channelClientConfiguration.signatureFactory())));
-		handlers.put("encoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(false,
-		        channelClientConfiguration.signatureFactory())));
+		handlers.put("encoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(
+		        channelClientConfiguration.isDirectBuffers(), channelClientConfiguration.signatureFactory(),
+		        new CompByteBufAllocator(channelClientConfiguration.byteBufAllocator()))));
 		if (!isFireAndForget) {
 			handlers.put("handler", new Pair<EventExecutorGroup, ChannelHandler>(null, handler));
 		}
@@ -414,15 +588,47 @@ public class Sender {
 	 * 
 	 * @param futureResponse
 	 *            The future to set the response
-	 * @param idleMillis
-	 *            The timeout
+	 * @param idleSeconds
+	 *            The configured timeout
 	 * @param fireAndForget
 	 *            True, if we don't expect a message
 	 * @return The timeout creator that will create timeout handlers
 	 */
-	private TimeoutFactory createTimeoutHandler(final FutureResponse futureResponse, final int idleMillis,
+	private TimeoutFactory createTimeoutHandler(final FutureResponse futureResponse, final int idleSeconds,
 	        final boolean fireAndForget) {
-		return fireAndForget ? null : new TimeoutFactory(futureResponse, idleMillis, peerStatusListeners, "Sender");
+		return fireAndForget ? null : new TimeoutFactory(futureResponse, responseTimeoutMillis(
+		        futureResponse.getRequest(), idleSeconds), peerStatusListeners, "Sender");
+	}
+
+	/**
+	 * @param message
+	 *            The request
+	 * @param idleSeconds
+	 *            The configured timeout
+	 * @return The time to wait for the response of the recipient, from the
+	 *         timeout policy if there is one
+	 */
+	private long responseTimeoutMillis(final Message message, final int idleSeconds) {
+		final long configuredMillis = TimeUnit.SECONDS.toMillis(idleSeconds);
+		if (timeoutPolicy == null) {
+			return configuredMillis;
+		}
+		return timeoutPolicy.responseTimeoutMillis(message.getRecipient(), configuredMillis);
+	}
+
+	/**
+	 * @param message
+	 *            The request
+	 * @param connectTimeoutMillis
+	 *            The configured connection timeout
+	 * @return The time to wait for the connection setup with the recipient,
+	 *         from the timeout policy if there is one
+	 */
+	private int connectTimeoutMillis(final Message message, final int connectTimeoutMillis) {
+		if (timeoutPolicy == null) {
+			return connectTimeoutMillis;
+		}
+		return (int) timeoutPolicy.connectTimeoutMillis(message.getRecipient(), connectTimeoutMillis);
 	}
 
 	/**
@@ -453,6 +659,7 @@ public class Sender {
 					futureResponse.setProgressHandler(new ProgresHandler() {
 						@Override
 						public void progres() {
+							futureResponse.setSentMillis(Timings.currentTimeMillis());
 							final ChannelFuture writeFuture = future.channel().writeAndFlush(message);
 							afterSend(writeFuture, futureResponse, fireAndForget);
 						}
@@ -492,8 +699,13 @@ public class Sender {
 			public void operationComplete(final ChannelFuture future) throws Exception {
 				futureResponse.removeCancel(writeCancel);
 				if (!future.isSuccess()) {
-					futureResponse.setFailedLater(future.cause());
-					reportFailed(futureResponse, future.channel().close());
+					if (udpBatcher != null && udpBatcher.isBatchChannel(future.channel())) {
+						// the shared channel stays open for the requests of the other peers
+						futureResponse.setFailed("Failed to write the batched request", future.cause());
+					} else {
+						futureResponse.setFailedLater(future.cause());
+						reportFailed(futureResponse, future.channel().close());
+					}
 					LOG.warn("Failed to write channel the request {}", futureResponse.getRequest(), future.cause());
 
 				}
@@ -24,6 +24,7 @@ import io.netty.util.Attribute;
 import io.netty.util.concurrent.GenericFutureListener;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
 
 import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.message.Decoder;
@@ -45,7 +46,7 @@ public class TimeoutFactory {
     private static final Logger LOG = LoggerFactory.getLogger(TimeoutFactory.class);
 
     private final FutureResponse futureResponse;
-    private final int timeoutSeconds;
+    private final long timeoutMillis;
     private final PeerStatusListener[] peerStatusListeners;
     private final String name;
 
@@ -59,8 +60,21 @@ public class TimeoutFactory {
      */
     public TimeoutFactory(final FutureResponse futureResponse, final int timeoutSeconds,
             final PeerStatusListener[] peerStatusListeners, final String name) {
+        this(futureResponse, TimeUnit.SECONDS.toMillis(timeoutSeconds), peerStatusListeners, name);
+    }
+
+    /**
+     * @param futureResponse
+     *            The future that will be called if a timeout occured
+     * @param timeoutMillis
+     *            The time for a timeout in milliseconds
+     * @param peerStatusListeners
+     *            The listeners that get notified when a timeout happend
+     */
+    public TimeoutFactory(final FutureResponse futureResponse, final long timeoutMillis,
+            final PeerStatusListener[] peerStatusListeners, final String name) {
         this.futureResponse = futureResponse;
-        this.timeoutSeconds = timeoutSeconds;
+        this.timeoutMillis = timeoutMillis;
         this.peerStatusListeners = peerStatusListeners;
         this.name = name;
     }
@@ -69,7 +83,7 @@ public class TimeoutFactory {
      * @return Two handlers, one default Netty that will call the second handler
      */
     public ChannelHandler idleStateHandlerTomP2P() {
-        return new IdleStateHandlerTomP2P(timeoutSeconds);
+        return new IdleStateHandlerTomP2P(timeoutMillis, TimeUnit.MILLISECONDS);
     }
     
     /**
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerStatusListener;
+
+/**
+ * Decides how long the {@link Sender} waits for a remote peer, instead of using the same fixed timeouts for every
+ * peer. The policy learns from the round trip times of the responses and, as a {@link PeerStatusListener} of the
+ * sender, from the requests that timed out.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public interface TimeoutPolicy extends PeerStatusListener {
+
+    /**
+     * @param remotePeer
+     *            The peer the request is sent to
+     * @param configuredMillis
+     *            The configured idle timeout of the request
+     * @return The time to wait for the response of the remote peer
+     */
+    long responseTimeoutMillis(PeerAddress remotePeer, long configuredMillis);
+
+    /**
+     * @param remotePeer
+     *            The peer to connect to
+     * @param configuredMillis
+     *            The configured connection timeout
+     * @return The time to wait for the connection setup with the remote peer
+     */
+    long connectTimeoutMillis(PeerAddress remotePeer, long configuredMillis);
+
+    /**
+     * Called when a response of a remote peer arrived.
+     *
+     * @param remotePeer
+     *            The peer that responded
+     * @param rttMillis
+     *            The time between sending the request and receiving the response
+     */
+    void responseReceived(PeerAddress remotePeer, long rttMillis);
+}
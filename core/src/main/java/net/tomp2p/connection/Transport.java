@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Netty transport, which creates the event loops and the channels. The event loops and the channels need to be
+ * from the same transport. The default is NIO, which runs everywhere. The native epoll transport of Netty has a lower
+ * latency and a higher packet rate on Linux and supports SO_REUSEPORT. It needs the optional
+ * netty-transport-native-epoll artifact with the linux-x86_64 classifier on the classpath. Without it, or on other
+ * systems, the NIO transport is used.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public final class Transport {
+
+	private static final Logger LOG = LoggerFactory.getLogger(Transport.class);
+
+	private static final Transport NIO = new Transport("nio", NioEventLoopGroup.class, NioDatagramChannel.class,
+	        NioSocketChannel.class, NioServerSocketChannel.class, null);
+
+	private static final Transport EPOLL = loadEpoll();
+
+	private final String name;
+	private final Constructor<? extends EventLoopGroup> eventLoopGroupConstructor;
+	private final Class<? extends Channel> datagramChannel;
+	private final Class<? extends Channel> socketChannel;
+	private final Class<? extends ServerChannel> serverSocketChannel;
+	private final ChannelOption<Boolean> reusePort;
+
+	private Transport(final String name, final Class<? extends EventLoopGroup> eventLoopGroup,
+	        final Class<? extends Channel> datagramChannel, final Class<? extends Channel> socketChannel,
+	        final Class<? extends ServerChannel> serverSocketChannel, final ChannelOption<Boolean> reusePort) {
+		this.name = name;
+		try {
+			this.eventLoopGroupConstructor = eventLoopGroup.getConstructor(int.class, ThreadFactory.class);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException("the event loop group cannot be created with a thread factory", e);
+		}
+		this.datagramChannel = datagramChannel;
+		this.socketChannel = socketChannel;
+		this.serverSocketChannel = serverSocketChannel;
+		this.reusePort = reusePort;
+	}
+
+	/**
+	 * @return The NIO transport
+	 */
+	public static Transport nio() {
+		return NIO;
+	}
+
+	/**
+	 * @return True if the native epoll transport is on the classpath and can be used on this system
+	 */
+	public static boolean isEpollAvailable() {
+		return EPOLL != null;
+	}
+
+	/**
+	 * @return The native epoll transport, or the NIO transport if epoll is not available
+	 */
+	public static Transport epoll() {
+		if (EPOLL == null) {
+			LOG.warn("the native epoll transport is not available, use nio");
+			return NIO;
+		}
+		return EPOLL;
+	}
+
+	private static Transport loadEpoll() {
+		try {
+			return EpollLoader.load();
+		} catch (LinkageError e) {
+			// the optional artifact is not on the classpath
+			LOG.debug("the native epoll transport is not on the classpath", e);
+			return null;
+		}
+	}
+
+	/**
+	 * The epoll classes are only resolved in here, so that the transport class loads without the optional artifact.
+	 */
+	private static final class EpollLoader {
+		private static Transport load() {
+			if (!Epoll.isAvailable()) {
+				LOG.debug("the native epoll transport cannot be loaded on this system", Epoll.unavailabilityCause());
+				return null;
+			}
+			return new Transport("epoll", EpollEventLoopGroup.class, EpollDatagramChannel.class,
+			        EpollSocketChannel.class, EpollServerSocketChannel.class, EpollChannelOption.SO_REUSEPORT);
+		}
+	}
+
+	/**
+	 * @param threads
+	 *            The number of threads, 0 for the Netty default
+	 * @param threadFactory
+	 *            The factory for the threads
+	 * @return A new event loop group of this transport
+	 */
+	public EventLoopGroup createEventLoopGroup(final int threads, final ThreadFactory threadFactory) {
+		try {
+			return eventLoopGroupConstructor.newInstance(threads, threadFactory);
+		} catch (Exception e) {
+			throw new IllegalStateException("cannot create the event loop group for " + name, e);
+		}
+	}
+
+	/**
+	 * @return The class of the UDP channels
+	 */
+	public Class<? extends Channel> datagramChannel() {
+		return datagramChannel;
+	}
+
+	/**
+	 * @return The class of the outgoing TCP channels
+	 */
+	public Class<? extends Channel> socketChannel() {
+		return socketChannel;
+	}
+
+	/**
+	 * @return The class of the TCP server channel
+	 */
+	public Class<? extends ServerChannel> serverSocketChannel() {
+		return serverSocketChannel;
+	}
+
+	/**
+	 * @return The SO_REUSEPORT option, which lets several sockets bind to the same port, null if this transport does
+	 *         not support it
+	 */
+	public ChannelOption<Boolean> reusePort() {
+		return reusePort;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
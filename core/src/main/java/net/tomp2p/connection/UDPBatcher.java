@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.Message;
+import net.tomp2p.message.TomP2PBatchUDP;
+import net.tomp2p.message.CompByteBufAllocator;
+import net.tomp2p.message.TomP2POutbound;
+import net.tomp2p.message.TomP2PSinglePacketUDP;
+import net.tomp2p.peers.PeerStatusListener;
+import net.tomp2p.utils.Pair;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A UDP channel that is shared by all UDP requests of a peer. Every UDP request usually opens its own channel, thus
+ * messages to the same peer cannot be combined. On this channel, the {@link TomP2PBatchUDP} coalesces the requests to
+ * the same peer within a short window into one datagram and the {@link Multiplexer} hands the responses to the
+ * handlers of the requests. The other peer unbatches the requests and replies to this channel as to any other.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class UDPBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UDPBatcher.class);
+
+    private final ChannelClientConfiguration channelClientConfiguration;
+
+    private final PeerStatusListener[] peerStatusListeners;
+
+    private Bootstrap bootstrap;
+
+    // the shared channel and the multiplexer of its pipeline, replaced if the channel dies
+    private volatile Pair<ChannelFuture, Multiplexer> current;
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param channelClientConfiguration
+     *            The client configuration with the batch window and the bindings
+     * @param peerStatusListeners
+     *            The listeners that get notified when a request timed out
+     */
+    public UDPBatcher(final ChannelClientConfiguration channelClientConfiguration,
+            final PeerStatusListener[] peerStatusListeners) {
+        this.channelClientConfiguration = channelClientConfiguration;
+        this.peerStatusListeners = peerStatusListeners;
+    }
+
+    /**
+     * Binds the shared channel to a random port. If the channel is closed other than by {@link #shutdown()}, a new
+     * one is bound. Until then, requests use their own channel.
+     *
+     * @param workerGroup
+     *            The event loop group of the channel
+     * @return True if the channel could be bound
+     */
+    public boolean init(final EventLoopGroup workerGroup) {
+        final Bootstrap b = new Bootstrap();
+        b.group(workerGroup);
+        b.channel(channelClientConfiguration.transport().datagramChannel());
+        b.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(ConnectionBean.UDP_LIMIT));
+        b.option(ChannelOption.ALLOCATOR, channelClientConfiguration.byteBufAllocator());
+        bootstrap = b;
+        final ChannelFuture channelFuture = bind();
+        channelFuture.awaitUninterruptibly();
+        if (!channelFuture.isSuccess()) {
+            LOG.warn("could not bind the UDP batch channel", channelFuture.cause());
+            return false;
+        }
+        return true;
+    }
+
+    private ChannelFuture bind() {
+        // the handlers are not sharable, every channel gets its own
+        final Multiplexer multiplexer = new Multiplexer(peerStatusListeners);
+        final Map<String, Pair<EventExecutorGroup, ChannelHandler>> handlers =
+                new LinkedHashMap<String, Pair<EventExecutorGroup, ChannelHandler>>(7);
+        // outbound, the batcher gets the datagrams of the encoder
+        handlers.put("batcher", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2PBatchUDP(
+                channelClientConfiguration.udpBatchWindowMillis(), ConnectionBean.UDP_LIMIT)));
+        handlers.put("decoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2PSinglePacketUDP(
+                channelClientConfiguration.signatureFactory())));
+        handlers.put("encoder", new Pair<EventExecutorGroup, ChannelHandler>(null, new TomP2POutbound(
+                channelClientConfiguration.isDirectBuffers(), channelClientConfiguration.signatureFactory(),
+                new CompByteBufAllocator(channelClientConfiguration.byteBufAllocator()))));
+        handlers.put("handler", new Pair<EventExecutorGroup, ChannelHandler>(null, multiplexer));
+        final Map<String, Pair<EventExecutorGroup, ChannelHandler>> handlers2 = channelClientConfiguration
+                .pipelineFilter().filter(handlers, false, true);
+
+        final ChannelFuture channelFuture = bootstrap.clone().handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(final Channel ch) throws Exception {
+                for (Map.Entry<String, Pair<EventExecutorGroup, ChannelHandler>> entry : handlers2.entrySet()) {
+                    if (entry.getValue().element0() != null) {
+                        ch.pipeline().addLast(entry.getValue().element0(), entry.getKey(),
+                                entry.getValue().element1());
+                    } else {
+                        ch.pipeline().addLast(entry.getKey(), entry.getValue().element1());
+                    }
+                }
+            }
+        }).bind(channelClientConfiguration.externalBindings().wildCardSocket());
+        current = new Pair<ChannelFuture, Multiplexer>(channelFuture, multiplexer);
+        channelFuture.channel().closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(final ChannelFuture future) throws Exception {
+                if (shutdown || !channelFuture.isSuccess()) {
+                    return;
+                }
+                LOG.warn("the UDP batch channel {} was closed, bind a new one", future.channel());
+                bind().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(final ChannelFuture future) throws Exception {
+                        if (!future.isSuccess()) {
+                            LOG.warn("could not bind the UDP batch channel again, requests use their own channel",
+                                    future.cause());
+                        }
+                    }
+                });
+            }
+        });
+        return channelFuture;
+    }
+
+    /**
+     * @return The shared channel, or null if it was never bound
+     */
+    public Channel channel() {
+        final Pair<ChannelFuture, Multiplexer> bound = current;
+        return bound == null ? null : bound.element0().channel();
+    }
+
+    /**
+     * @param channel
+     *            The channel of a request
+     * @return True if this is the shared channel, which must not be closed for a single request
+     */
+    public boolean isBatchChannel(final Channel channel) {
+        final Pair<ChannelFuture, Multiplexer> bound = current;
+        return bound != null && bound.element0().channel() == channel;
+    }
+
+    /**
+     * Registers a request for the shared channel. The request is written with the returned channel future.
+     *
+     * @param message
+     *            The request message
+     * @param handler
+     *            The handler for the response
+     * @param futureResponse
+     *            The future of the request
+     * @param timeoutMillis
+     *            The time to wait for the response
+     * @return The future of the shared channel or null if the channel is closed
+     */
+    public ChannelFuture register(final Message message, final SimpleChannelInboundHandler<Message> handler,
+            final FutureResponse futureResponse, final long timeoutMillis) {
+        final Pair<ChannelFuture, Multiplexer> bound = current;
+        if (bound == null || !bound.element0().isSuccess() || !bound.element0().channel().isOpen()) {
+            return null;
+        }
+        final ChannelFuture channelFuture = bound.element0();
+        // the handler must not close the shared channel after the reply
+        message.setKeepAlive(true);
+        bound.element1().register(channelFuture.channel(), message, handler, futureResponse, timeoutMillis);
+        return channelFuture;
+    }
+
+    /**
+     * Closes the shared channel, pending requests fail.
+     *
+     * @return The future of the close or null if the channel was never opened
+     */
+    public ChannelFuture shutdown() {
+        shutdown = true;
+        final Pair<ChannelFuture, Multiplexer> bound = current;
+        if (bound == null) {
+            return null;
+        }
+        return bound.element0().channel().close();
+    }
+}
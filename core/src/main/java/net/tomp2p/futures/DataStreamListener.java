@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.futures;
+
+import io.netty.buffer.ByteBuf;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+
+/**
+ * Receives the data of a streaming get while it arrives. The received parts are handed over and not kept, thus, the
+ * data in the {@link FutureGet} has no content and large data can be processed with bounded memory. The listener is
+ * called from the I/O thread, so it should not block.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public interface DataStreamListener {
+
+    /**
+     * Called when a part of the data of a key arrived.
+     * 
+     * @param sender
+     *            The peer that sends the data
+     * @param key
+     *            The key of the data
+     * @param chunk
+     *            The bytes that arrived since the last call. The buffer is released after this call, copy it if it
+     *            needs to be kept.
+     * @param last
+     *            True if this is the last part of the data
+     */
+    void chunk(PeerAddress sender, Number640 key, ByteBuf chunk, boolean last);
+}
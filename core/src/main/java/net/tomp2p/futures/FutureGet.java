@@ -67,7 +67,8 @@ public class FutureGet extends FutureDHT<FutureGet> {
     }
 
     /**
-     * Finish the future and set the keys and data that have been received.
+     * Finish the future and set the keys and data that have been received. The data belongs to the user of this future
+     * from now on, see {@link Data#release()}. If this future is already completed, the data is released.
      * 
      * @param rawData
      *            The keys and data that have been received with information from which peer it has been received.
@@ -75,6 +76,11 @@ public class FutureGet extends FutureDHT<FutureGet> {
     public void setReceivedData(final Map<PeerAddress, Map<Number640, Data>> rawData) {
         synchronized (lock) {
             if (!setCompletedAndNotify()) {
+                for (Map<Number640, Data> dataMap : rawData.values()) {
+                    for (Data data : dataMap.values()) {
+                        data.release();
+                    }
+                }
                 return;
             }
             this.rawData = rawData;
@@ -87,7 +93,8 @@ public class FutureGet extends FutureDHT<FutureGet> {
     }
 
     /**
-     * Returns the raw data from the get operation.
+     * Returns the raw data from the get operation. The caller owns the data, received buffers are given back with
+     * {@link Data#release()} once the data is not used anymore.
      * 
      * @return The raw data and the information which peer has been contacted
      */
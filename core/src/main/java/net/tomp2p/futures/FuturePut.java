@@ -37,6 +37,9 @@ public class FuturePut extends FutureDHT<FuturePut> {
     
     private final int dataSize;
 
+    // A batch put stores every key on other peers, so a key needs to be stored on min peers, not on all peers
+    private final boolean batch;
+
     // Storage of results
     private Map<PeerAddress, Map<Number640, Byte>> rawResult;
 
@@ -54,9 +57,14 @@ public class FuturePut extends FutureDHT<FuturePut> {
      *            The scheme to evaluate results from multiple peers
      */
     public FuturePut(final DHTBuilder<?> builder, final int min, final int dataSize) {
+        this(builder, min, dataSize, false);
+    }
+
+    public FuturePut(final DHTBuilder<?> builder, final int min, final int dataSize, final boolean batch) {
         super(builder);
         this.min = min;
         this.dataSize = dataSize;
+        this.batch = batch;
         self(this);
     }
 
@@ -168,7 +176,7 @@ public class FuturePut extends FutureDHT<FuturePut> {
     
     private boolean checkResults(Map<Number640, Integer> result2, int peerReports, int dataSize) {
         for(Map.Entry<Number640, Integer> entry:result2.entrySet()) {
-            if(entry.getValue() != peerReports) {
+            if (batch ? entry.getValue() < min : entry.getValue() != peerReports) {
                 return false;
             }
         }
@@ -46,6 +46,9 @@ public class FutureResponse extends BaseFutureImpl<FutureResponse> {
     
     private boolean reponseLater = false;
 
+    // the time the request was written, -1 if it was not written yet
+    private volatile long sentMillis = -1;
+
     /**
      * Create the future and set the request message.
      * 
@@ -98,6 +101,23 @@ public class FutureResponse extends BaseFutureImpl<FutureResponse> {
         self(this);
     }
 
+    /**
+     * @param sentMillis
+     *            The time the request was written to the channel
+     * @return This class
+     */
+    public FutureResponse setSentMillis(final long sentMillis) {
+        this.sentMillis = sentMillis;
+        return this;
+    }
+
+    /**
+     * @return The time the request was written to the channel or -1 if it was not written yet
+     */
+    public long getSentMillis() {
+        return sentMillis;
+    }
+
     /**
      * If we don't get a reply message, which is the case for fire-and-forget messages, then set the reply to null and
      * set this future to complete with the type Success.
@@ -110,7 +130,8 @@ public class FutureResponse extends BaseFutureImpl<FutureResponse> {
 
     /**
      * Gets called if a peer responds. Note that either this method or responseFailed() is always called. This does not
-     * notify any listeners. The listeners gets notified if channel is closed
+     * notify any listeners. The listeners gets notified if channel is closed. The received data of the response belongs
+     * to the listeners of this future, if this future is already completed, the response is released.
      * 
      * @param responseMessage
      *            The received message
@@ -119,6 +140,10 @@ public class FutureResponse extends BaseFutureImpl<FutureResponse> {
     public FutureResponse setResponse(final Message responseMessage) {
         synchronized (lock) {
             if (!setCompletedAndNotify()) {
+                // nobody gets this late response, so nobody else gives its buffers back
+                if (responseMessage != null) {
+                    responseMessage.release();
+                }
                 return this;
             }
             if (responseMessage != null) {
@@ -139,6 +164,9 @@ public class FutureResponse extends BaseFutureImpl<FutureResponse> {
     public boolean setResponseLater(final Message responseMessage) {
         synchronized (lock) {
             if(completed) {
+                if (responseMessage != null) {
+                    responseMessage.release();
+                }
                 return false;
             }
             reponseLater = true;
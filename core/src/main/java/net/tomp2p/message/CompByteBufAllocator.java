@@ -1,15 +1,31 @@
 package net.tomp2p.message;
 
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import net.tomp2p.storage.AlternativeCompositeByteBuf;
 
 public class CompByteBufAllocator {
+
+	private final ByteBufAllocator alloc;
+
+	public CompByteBufAllocator() {
+		this(UnpooledByteBufAllocator.DEFAULT);
+	}
+
+	/**
+	 * @param alloc
+	 *            The allocator for the components of the composite buffers
+	 */
+	public CompByteBufAllocator(final ByteBufAllocator alloc) {
+		this.alloc = alloc;
+	}
 	
 	public AlternativeCompositeByteBuf compDirectBuffer() {
-		return AlternativeCompositeByteBuf.compDirectBuffer();
+		return AlternativeCompositeByteBuf.compBuffer(alloc, true);
 	}
 
 	public AlternativeCompositeByteBuf compBuffer() {
-		return AlternativeCompositeByteBuf.compBuffer();
+		return AlternativeCompositeByteBuf.compBuffer(alloc, false);
 	}
 
 }
@@ -6,7 +6,6 @@ import io.netty.channel.socket.DatagramChannel;
 import io.netty.util.Attribute;
 import io.netty.util.AttributeKey;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
@@ -127,7 +126,7 @@ public class Decoder {
 	}
 
 	private void verifySignature(final ByteBuf buf, final int readerBefore, final int len, final boolean donePayload)
-	        throws SignatureException, IOException {
+	        throws SignatureException {
 
 		if (!message.isSign()) {
 			return;
@@ -140,17 +139,8 @@ public class Decoder {
 		for (int i = 0; i < arrayLength; i++) {
 			message.signatureForVerification().update(byteBuffers[i]);
 		}
-
-		if (donePayload) {
-			byte[] signatureReceived = message.receivedSignature().encode();
-			if (message.signatureForVerification().verify(signatureReceived)) {
-				// set public key only if signature is correct
-				message.setVerified();
-				LOG.debug("signature check ok");
-			} else {
-				LOG.warn("wrong signature! {}", message);
-			}
-		}
+		// the public key operation is not done on the I/O thread, but when the
+		// handler asks for it, see Message.verified()
 	}
 
 	public boolean decodeHeader(final ByteBuf buf, InetSocketAddress recipient, final InetSocketAddress sender) {
@@ -290,6 +280,10 @@ public class Decoder {
 				}
 				if (dataMap == null) {
 					dataMap = new DataMap(new HashMap<Number640, Data>(2 * mapsSize));
+					if (message.isStreaming()) {
+						// the receiver can process the data while it arrives
+						message.setDataMap(dataMap);
+					}
 				}
 				if (data != null) {
 					if (!data.decodeBuffer(buf)) {
@@ -339,7 +333,9 @@ public class Decoder {
 					key = null;
 				}
 
-				message.setDataMap(dataMap);
+				if (!message.isStreaming()) {
+					message.setDataMap(dataMap);
+				}
 				lastContent = contentTypes.poll();
 				mapsSize = -1;
 				dataMap = null;
@@ -437,6 +433,8 @@ public class Decoder {
 				}
 				
 				ByteBuf buf2 = AlternativeCompositeByteBuf.compBuffer(buffer.toByteBufs());
+				// the composite buffer holds its own references now
+				buffer.release();
 				message.setBuffer(new Buffer(buf2, bufferSize));
 				lastContent = contentTypes.poll();
 				bufferSize = -1;
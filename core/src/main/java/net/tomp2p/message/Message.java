@@ -15,11 +15,13 @@
  */
 package net.tomp2p.message;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
+import java.security.SignatureException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -32,6 +34,7 @@ import java.util.Random;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.rpc.SimpleBloomFilter;
+import net.tomp2p.storage.Data;
 
 /**
  * The message is in binary format in TomP2P. It is defined as follows and has several header and payload fields. Since
@@ -811,6 +814,35 @@ public class Message {
         }
         return trackerDataList.get(index);
     }
+
+    /**
+     * Gives the buffers of the received data in this message back, see {@link Data#release()}. This is called by the
+     * one that owns the message, if the data is not handed over. The data of this message must not be used
+     * afterwards, unless it was detached.
+     * 
+     * @return This class
+     */
+    public Message release() {
+        if (dataMapList != null) {
+            for (DataMap dataMap : dataMapList) {
+                if (dataMap.dataMap() != null) {
+                    for (Data data : dataMap.dataMap().values()) {
+                        data.release();
+                    }
+                }
+            }
+        }
+        if (trackerDataList != null) {
+            for (TrackerData trackerData : trackerDataList) {
+                for (Data data : trackerData.map().values()) {
+                    if (data != null) {
+                        data.release();
+                    }
+                }
+            }
+        }
+        return this;
+    }
     
     
 
@@ -939,16 +971,36 @@ public class Message {
         return udp;
     }
     
-    public Message verified(boolean verified) {
+    public synchronized Message verified(boolean verified) {
     	this.verified = verified;
     	return this;
     }
     
-    public boolean verified() {
+    /**
+     * The signature of a received message is hashed while it is decoded, but the public key operation is done here,
+     * the first time the result is needed. Thus, it runs on the thread of the handler, e.g., a
+     * {@link net.tomp2p.connection.DispatchExecutor}, and not on the I/O thread. The dispatcher checks every signed
+     * request before its handler is called, handlers that ask again get the same result.
+     * 
+     * @return True if the message was signed and the signature is correct
+     */
+    public synchronized boolean verified() {
+        if (!verified && signature != null && signatureEncode != null) {
+            final Signature toVerify = signature;
+            // the state of the signature is reset after the verification, so we verify only once
+            signature = null;
+            try {
+                verified = toVerify.verify(signatureEncode.encode());
+            } catch (SignatureException e) {
+                verified = false;
+            } catch (IOException e) {
+                verified = false;
+            }
+        }
     	return verified;
     }
     
-    public Message setVerified() {
+    public synchronized Message setVerified() {
     	this.verified = true;
     	return this;
 	}
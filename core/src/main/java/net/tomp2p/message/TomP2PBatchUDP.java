@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.message;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces the UDP messages to the same destination that are written within a short window into one datagram. This
+ * handler has to be placed before the {@link TomP2POutbound}, which creates a datagram per message. A batched datagram
+ * starts with {@link #BATCH_MARKER}, followed by the messages, each prefixed with its length as an unsigned short. The
+ * marker is not a valid message header, since the message type 0xf does not exist. A datagram with a single message is
+ * sent as it is. The unbatching is done in {@link TomP2PSinglePacketUDP}.
+ * <p>
+ * One instance is used for one channel. All methods are called from the event loop of the channel.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class TomP2PBatchUDP extends ChannelOutboundHandlerAdapter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TomP2PBatchUDP.class);
+
+    public static final int BATCH_MARKER = 0xffffffff;
+
+    public static final int BATCH_HEADER_SIZE = 4;
+
+    public static final int LENGTH_SIZE = 2;
+
+    private final int windowMillis;
+
+    private final int maxSize;
+
+    private final Map<InetSocketAddress, Batch> batches = new HashMap<InetSocketAddress, Batch>();
+
+    /**
+     * The messages that wait to be sent to one destination.
+     */
+    private static final class Batch {
+        private final InetSocketAddress sender;
+        private final List<ByteBuf> contents = new ArrayList<ByteBuf>();
+        private final List<ChannelPromise> promises = new ArrayList<ChannelPromise>();
+        private int size = BATCH_HEADER_SIZE;
+        private ScheduledFuture<?> flush;
+
+        private Batch(final InetSocketAddress sender) {
+            this.sender = sender;
+        }
+    }
+
+    /**
+     * @param windowMillis
+     *            The time the first message to a destination waits for other messages
+     * @param maxSize
+     *            The maximum size of a batched datagram
+     */
+    public TomP2PBatchUDP(final int windowMillis, final int maxSize) {
+        this.windowMillis = windowMillis;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise)
+            throws Exception {
+        if (!(msg instanceof DatagramPacket)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        final DatagramPacket d = (DatagramPacket) msg;
+        final int length = d.content().readableBytes();
+        if (BATCH_HEADER_SIZE + LENGTH_SIZE + length > maxSize) {
+            // too large to share a datagram
+            ctx.writeAndFlush(d, promise);
+            return;
+        }
+        final InetSocketAddress recipient = d.recipient();
+        Batch batch = batches.get(recipient);
+        if (batch != null && batch.size + LENGTH_SIZE + length > maxSize) {
+            flush(ctx, recipient, batch);
+            batch = null;
+        }
+        if (batch == null) {
+            batch = new Batch(d.sender());
+            batches.put(recipient, batch);
+            final Batch scheduled = batch;
+            batch.flush = ctx.executor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (batches.get(recipient) == scheduled) {
+                        flush(ctx, recipient, scheduled);
+                    }
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        batch.contents.add(d.content());
+        batch.promises.add(promise);
+        batch.size += LENGTH_SIZE + length;
+    }
+
+    @Override
+    public void close(final ChannelHandlerContext ctx, final ChannelPromise promise) throws Exception {
+        // send what we have, the messages were accepted already
+        for (Map.Entry<InetSocketAddress, Batch> entry : new ArrayList<Map.Entry<InetSocketAddress, Batch>>(
+                batches.entrySet())) {
+            flush(ctx, entry.getKey(), entry.getValue());
+        }
+        ctx.close(promise);
+    }
+
+    private void flush(final ChannelHandlerContext ctx, final InetSocketAddress recipient, final Batch batch) {
+        batches.remove(recipient);
+        batch.flush.cancel(false);
+        final ByteBuf buf;
+        if (batch.contents.size() == 1) {
+            buf = batch.contents.get(0);
+        } else {
+            buf = ctx.alloc().buffer(batch.size);
+            buf.writeInt(BATCH_MARKER);
+            for (ByteBuf content : batch.contents) {
+                buf.writeShort(content.readableBytes());
+                buf.writeBytes(content);
+                content.release();
+            }
+        }
+        LOG.debug("send {} messages in one datagram to {}", batch.contents.size(), recipient);
+        ctx.writeAndFlush(new DatagramPacket(buf, recipient, batch.sender)).addListener(
+                new GenericFutureListener<ChannelFuture>() {
+                    @Override
+                    public void operationComplete(final ChannelFuture future) throws Exception {
+                        for (ChannelPromise promise : batch.promises) {
+                            if (future.isSuccess()) {
+                                promise.trySuccess();
+                            } else {
+                                promise.tryFailure(future.cause());
+                            }
+                        }
+                    }
+                });
+    }
+}
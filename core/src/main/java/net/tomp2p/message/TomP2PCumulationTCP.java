@@ -40,7 +40,7 @@ public class TomP2PCumulationTCP extends ChannelInboundHandlerAdapter {
 
 		try {
 			if (cumulation == null) {
-				cumulation = AlternativeCompositeByteBuf.compBuffer(buf);
+				cumulation = AlternativeCompositeByteBuf.compBuffer(ctx.alloc(), false, buf);
 			} else {
 				cumulation.addComponent(buf);
 			}
@@ -38,12 +38,21 @@ public class TomP2PSinglePacketUDP extends ChannelInboundHandlerAdapter {
         final InetSocketAddress recipient = d.recipient();
 
         try {
-            Decoder decoder = new Decoder(signatureFactory);
-            boolean finished = decoder.decode(ctx, buf, recipient, sender);
-            if (finished) {
-                ctx.fireChannelRead(decoder.prepareFinish());
+            if (buf.readableBytes() >= TomP2PBatchUDP.BATCH_HEADER_SIZE
+                    && buf.getInt(buf.readerIndex()) == TomP2PBatchUDP.BATCH_MARKER) {
+                // several messages in one datagram, see TomP2PBatchUDP
+                buf.skipBytes(TomP2PBatchUDP.BATCH_HEADER_SIZE);
+                while (buf.readableBytes() >= TomP2PBatchUDP.LENGTH_SIZE) {
+                    final int length = buf.readUnsignedShort();
+                    if (buf.readableBytes() < length) {
+                        LOG.warn("did not get the complete batch!");
+                        break;
+                    }
+                    decode(ctx, buf.slice(buf.readerIndex(), length), recipient, sender);
+                    buf.skipBytes(length);
+                }
             } else {
-                LOG.warn("did not get the complete packet!");
+                decode(ctx, buf, recipient, sender);
             }
         } catch (Throwable t) {
         	LOG.error("Error in UDP decoding", t);
@@ -53,6 +62,17 @@ public class TomP2PSinglePacketUDP extends ChannelInboundHandlerAdapter {
         }
     }
 
+    private void decode(final ChannelHandlerContext ctx, final ByteBuf buf, final InetSocketAddress recipient,
+            final InetSocketAddress sender) throws Exception {
+        Decoder decoder = new Decoder(signatureFactory);
+        boolean finished = decoder.decode(ctx, buf, recipient, sender);
+        if (finished) {
+            ctx.fireChannelRead(decoder.prepareFinish());
+        } else {
+            LOG.warn("did not get the complete packet!");
+        }
+    }
+
     @Override
     public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) throws Exception {
         /*Message2 msg = decoder.message();
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.p2p;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.connection.Reservation;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureDHT;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.p2p.builder.DHTBuilder;
+import net.tomp2p.p2p.builder.RoutingBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number320;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.utils.Utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes a DHT operation for keys with many different location keys. First, every location key is routed once,
+ * several routings run in parallel and each one reserves its own channels. The location keys are routed in ascending
+ * order, so that close location keys are routed one after the other and find the peers that the previous routings
+ * added to the peer map or the routing cache. Once all routings are done, the keys are grouped by their responsible
+ * peers and every peer gets one request with all its keys. If a request fails, the keys of this request are sent to
+ * the next responsible peer of their location keys, grouped again.
+ * <p>
+ * All state is accessed while holding the lock on this object.
+ *
+ * @author Thomas Bocek
+ * @param <K>
+ *            The type of the future of the operation
+ */
+final class BatchRequests<K extends FutureDHT<?>> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchRequests.class);
+
+    /**
+     * Creates the request for the keys of one peer and evaluates the responses.
+     *
+     * @param <K>
+     *            The type of the future of the operation
+     */
+    interface BatchOperation<K> {
+        /**
+         * @param channelCreator
+         *            The channel creator
+         * @param address
+         *            The peer to send the request to
+         * @param keys
+         *            The keys the peer is responsible for
+         * @return The future of the request
+         */
+        FutureResponse create(ChannelCreator channelCreator, PeerAddress address, Collection<Number640> keys);
+
+        /**
+         * Called for every finished request.
+         *
+         * @param future
+         *            The finished request
+         */
+        void interMediateResponse(FutureResponse future);
+
+        /**
+         * Called once, when all requests are finished.
+         *
+         * @param futureDHT
+         *            The future of the operation to complete
+         */
+        void response(K futureDHT);
+    }
+
+    /**
+     * The keys that share a location key (and a domain key for gets), which are routed together.
+     */
+    private static final class Location {
+        private final List<Number640> keys = new ArrayList<Number640>();
+        private NavigableSet<PeerAddress> queue;
+        private int failures = 0;
+    }
+
+    private final DHTBuilder<?> builder;
+
+    private final RequestP2PConfiguration p2pConfiguration;
+
+    private final RoutingConfiguration routingConfiguration;
+
+    private final Type type;
+
+    private final K futureDHT;
+
+    private final BatchOperation<K> operation;
+
+    private final DistributedRouting routing;
+
+    private final Reservation reservation;
+
+    private final TreeMap<Number320, Location> locations = new TreeMap<Number320, Location>();
+
+    private final Map<PeerAddress, List<Location>> pending = new LinkedHashMap<PeerAddress, List<Location>>();
+
+    private Iterator<Map.Entry<Number320, Location>> toRoute;
+
+    private ChannelCreator channelCreator;
+
+    private int runningRoutings = 0;
+
+    private int runningRequests = 0;
+
+    private boolean grouped = false;
+
+    private boolean finished = false;
+
+    /**
+     * @param builder
+     *            The builder with the routing and request configuration
+     * @param keys
+     *            The keys of the operation
+     * @param type
+     *            The type of the routing, {@link Type#REQUEST_2} looks for peers that have data stored, and any of
+     *            those peers can answer for a key. Otherwise, a key is sent to the closest peers.
+     * @param futureDHT
+     *            The future of the operation
+     * @param operation
+     *            The operation that creates the requests and evaluates the responses
+     * @param routing
+     *            The routing
+     * @param reservation
+     *            The reservation for the channels of the routings
+     */
+    BatchRequests(final DHTBuilder<?> builder, final Collection<Number640> keys, final Type type,
+            final K futureDHT, final BatchOperation<K> operation, final DistributedRouting routing,
+            final Reservation reservation) {
+        this.builder = builder;
+        this.p2pConfiguration = builder.getRequestP2PConfiguration();
+        this.routingConfiguration = builder.getRoutingConfiguration();
+        this.type = type;
+        this.futureDHT = futureDHT;
+        this.operation = operation;
+        this.routing = routing;
+        this.reservation = reservation;
+        for (Number640 key : keys) {
+            // for puts, the domain does not change the responsible peers
+            final Number320 locationKey = new Number320(key.getLocationKey(),
+                    type == Type.REQUEST_2 ? key.getDomainKey() : Number160.ZERO);
+            Location location = locations.get(locationKey);
+            if (location == null) {
+                location = new Location();
+                locations.put(locationKey, location);
+            }
+            location.keys.add(key);
+        }
+    }
+
+    /**
+     * Starts the routings.
+     *
+     * @param channelCreator
+     *            The channel creator for the requests, which has reserved
+     *            {@link RequestP2PConfiguration#getMaxParallel()} channels
+     */
+    synchronized void start(final ChannelCreator channelCreator) {
+        this.channelCreator = channelCreator;
+        LOG.debug("batch of {} location keys", locations.size());
+        toRoute = locations.entrySet().iterator();
+        routeNext();
+    }
+
+    private void routeNext() {
+        while (runningRoutings < p2pConfiguration.getParallel() && toRoute.hasNext()) {
+            final Map.Entry<Number320, Location> entry = toRoute.next();
+            runningRoutings++;
+            final FutureChannelCreator futureChannelCreator = reservation.create(routingConfiguration, null,
+                    builder);
+            futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+                @Override
+                public void operationComplete(final FutureChannelCreator future) throws Exception {
+                    if (future.isSuccess()) {
+                        route(entry.getKey(), entry.getValue(), future.getChannelCreator());
+                    } else {
+                        routed(entry.getValue(), null);
+                    }
+                }
+            });
+        }
+        if (!grouped && runningRoutings == 0 && !toRoute.hasNext()) {
+            // all routings are done, the keys can be grouped
+            grouped = true;
+            for (Location location : locations.values()) {
+                assign(location, type == Type.REQUEST_2 ? 1 : p2pConfiguration.getMinimumResults());
+            }
+            send();
+        }
+    }
+
+    private void route(final Number320 locationKey, final Location location,
+            final ChannelCreator routingChannelCreator) {
+        final RoutingBuilder routingBuilder = builder.createBuilder(p2pConfiguration, routingConfiguration);
+        routingBuilder.setLocationKey(locationKey.getLocationKey());
+        routingBuilder.setDomainKey(locationKey.getDomainKey());
+        final FutureRouting futureRouting = routing.route(routingBuilder, type, routingChannelCreator);
+        Utils.addReleaseListener(routingChannelCreator, futureRouting);
+        futureRouting.addListener(new BaseFutureAdapter<FutureRouting>() {
+            @Override
+            public void operationComplete(final FutureRouting future) throws Exception {
+                routed(location, future.isSuccess() ? future : null);
+            }
+        });
+    }
+
+    private synchronized void routed(final Location location, final FutureRouting futureRouting) {
+        runningRoutings--;
+        if (futureRouting == null) {
+            LOG.debug("routing failed for {}", location.keys);
+            location.queue = new TreeSet<PeerAddress>();
+        } else if (type == Type.REQUEST_2) {
+            // only the peers that reported to have data for this location key
+            location.queue = new TreeSet<PeerAddress>(futureRouting.getDirectHits());
+        } else {
+            location.queue = new TreeSet<PeerAddress>(futureRouting.getPotentialHits());
+        }
+        routeNext();
+    }
+
+    /**
+     * Takes the next peers of a location key and adds its keys to the requests for those peers.
+     */
+    private void assign(final Location location, final int replicas) {
+        for (int i = 0; i < replicas; i++) {
+            PeerAddress next = null;
+            if (type == Type.REQUEST_2) {
+                // any peer with the data can answer, prefer the peers that get a request anyway
+                for (PeerAddress peerAddress : location.queue) {
+                    if (pending.containsKey(peerAddress)) {
+                        next = peerAddress;
+                        break;
+                    }
+                }
+                if (next != null) {
+                    location.queue.remove(next);
+                }
+            }
+            if (next == null) {
+                next = location.queue.pollFirst();
+            }
+            if (next == null) {
+                return;
+            }
+            List<Location> assigned = pending.get(next);
+            if (assigned == null) {
+                assigned = new ArrayList<Location>();
+                pending.put(next, assigned);
+            }
+            assigned.add(location);
+        }
+    }
+
+    private void send() {
+        while (!finished && runningRequests < p2pConfiguration.getMaxParallel() && !pending.isEmpty()) {
+            final Iterator<Map.Entry<PeerAddress, List<Location>>> iterator = pending.entrySet().iterator();
+            final Map.Entry<PeerAddress, List<Location>> entry = iterator.next();
+            iterator.remove();
+            final List<Location> assigned = entry.getValue();
+            final List<Number640> keys = new ArrayList<Number640>();
+            for (Location location : assigned) {
+                keys.addAll(location.keys);
+            }
+            final FutureResponse futureResponse = operation.create(channelCreator, entry.getKey(), keys);
+            runningRequests++;
+            futureDHT.addRequests(futureResponse);
+            // may be called right away if the request failed
+            futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+                @Override
+                public void operationComplete(final FutureResponse future) throws Exception {
+                    completed(future, assigned);
+                }
+            });
+        }
+        if (!finished && runningRequests == 0 && pending.isEmpty()) {
+            finished = true;
+            operation.response(futureDHT);
+        }
+    }
+
+    private synchronized void completed(final FutureResponse futureResponse, final List<Location> assigned) {
+        runningRequests--;
+        operation.interMediateResponse(futureResponse);
+        if (!futureResponse.isSuccess()) {
+            LOG.debug("batch request to {} failed, try the next peers", futureResponse.getRequest()
+                    .getRecipient());
+            for (Location location : assigned) {
+                if (++location.failures <= p2pConfiguration.getMaxFailure()) {
+                    assign(location, 1);
+                }
+            }
+        }
+        send();
+    }
+}
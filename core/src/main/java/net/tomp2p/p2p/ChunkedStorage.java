@@ -0,0 +1,471 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.p2p;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureChannelCreator;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.futures.FutureGet;
+import net.tomp2p.futures.FuturePut;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.message.DataMap;
+import net.tomp2p.p2p.builder.GetBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.storage.Data;
+import net.tomp2p.utils.Utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores large values in chunks. A value is split into chunks of a fixed size, which are stored with derived content
+ * keys under the same location and domain key, and a manifest with the size and the hash of every chunk is stored
+ * under the content key of the value. The manifest is stored after all chunks, so a value is either complete or not
+ * found.
+ * <p>
+ * A get fetches the manifest and then the chunks in parallel from all peers that reported to have the manifest,
+ * distributed round robin, so the download is not limited by the bandwidth of one peer. Every chunk is checked against
+ * its hash and fetched from another replica if it is missing or corrupt.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class ChunkedStorage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkedStorage.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    public static final int DEFAULT_PARALLEL = 8;
+
+    private final Peer peer;
+
+    private final int chunkSize;
+
+    private final int parallel;
+
+    /**
+     * The description of a chunked value, stored under the content key of the value.
+     */
+    public static final class Manifest implements Serializable {
+        private static final long serialVersionUID = 4946394853427318411L;
+
+        private final int length;
+
+        private final int chunkSize;
+
+        private final Number160[] chunkHashes;
+
+        /**
+         * @param length
+         *            The length of the value
+         * @param chunkSize
+         *            The size of the chunks, the last chunk may be smaller
+         * @param chunkHashes
+         *            The SHA-1 hash of every chunk
+         */
+        public Manifest(final int length, final int chunkSize, final Number160[] chunkHashes) {
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.chunkHashes = chunkHashes;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public int chunkSize() {
+            return chunkSize;
+        }
+
+        public int chunks() {
+            return chunkHashes.length;
+        }
+
+        public Number160 chunkHash(final int index) {
+            return chunkHashes[index];
+        }
+
+        /**
+         * @param index
+         *            The index of the chunk
+         * @return The length of the chunk
+         */
+        public int chunkLength(final int index) {
+            return Math.min(chunkSize, length - index * chunkSize);
+        }
+    }
+
+    /**
+     * Creates a chunked storage with chunks of {@link #DEFAULT_CHUNK_SIZE} and {@link #DEFAULT_PARALLEL} parallel
+     * transfers.
+     *
+     * @param peer
+     *            The peer that stores and gets the values
+     */
+    public ChunkedStorage(final Peer peer) {
+        this(peer, DEFAULT_CHUNK_SIZE, DEFAULT_PARALLEL);
+    }
+
+    /**
+     * @param peer
+     *            The peer that stores and gets the values
+     * @param chunkSize
+     *            The size of the chunks in bytes
+     * @param parallel
+     *            The number of chunks that are transferred at the same time
+     */
+    public ChunkedStorage(final Peer peer, final int chunkSize, final int parallel) {
+        if (chunkSize <= 0 || parallel <= 0) {
+            throw new IllegalArgumentException("chunk size and parallel transfers need to be positive");
+        }
+        this.peer = peer;
+        this.chunkSize = chunkSize;
+        this.parallel = parallel;
+    }
+
+    /**
+     * @param contentKey
+     *            The content key of the value
+     * @param index
+     *            The index of the chunk
+     * @return The content key of the chunk
+     */
+    public static Number160 chunkKey(final Number160 contentKey, final int index) {
+        return contentKey.xor(Number160.createHash(index));
+    }
+
+    /**
+     * Stores a value in chunks in the zero domain.
+     *
+     * @param locationKey
+     *            The location key of the value
+     * @param contentKey
+     *            The content key of the value, where the manifest is stored
+     * @param value
+     *            The value to store
+     * @return The future that finishes when the chunks and the manifest are stored
+     */
+    public FutureDone<Manifest> put(final Number160 locationKey, final Number160 contentKey, final byte[] value) {
+        return put(locationKey, Number160.ZERO, contentKey, value);
+    }
+
+    /**
+     * Stores a value in chunks.
+     *
+     * @param locationKey
+     *            The location key of the value
+     * @param domainKey
+     *            The domain key of the value
+     * @param contentKey
+     *            The content key of the value, where the manifest is stored
+     * @param value
+     *            The value to store
+     * @return The future that finishes when the chunks and the manifest are stored
+     */
+    public FutureDone<Manifest> put(final Number160 locationKey, final Number160 domainKey,
+            final Number160 contentKey, final byte[] value) {
+        final int chunks = (value.length + chunkSize - 1) / chunkSize;
+        final Number160[] chunkHashes = new Number160[chunks];
+        for (int i = 0; i < chunks; i++) {
+            final int offset = i * chunkSize;
+            chunkHashes[i] = Utils.makeSHAHash(value, offset, Math.min(chunkSize, value.length - offset));
+        }
+        final FutureDone<Manifest> futureDone = new FutureDone<Manifest>();
+        new Upload(locationKey, domainKey, contentKey, value, new Manifest(value.length, chunkSize, chunkHashes),
+                futureDone).putNext();
+        return futureDone;
+    }
+
+    /**
+     * Gets a value that was stored in chunks in the zero domain.
+     *
+     * @param locationKey
+     *            The location key of the value
+     * @param contentKey
+     *            The content key of the value
+     * @return The future with the value
+     */
+    public FutureDone<byte[]> get(final Number160 locationKey, final Number160 contentKey) {
+        return get(locationKey, Number160.ZERO, contentKey);
+    }
+
+    /**
+     * Gets a value that was stored in chunks.
+     *
+     * @param locationKey
+     *            The location key of the value
+     * @param domainKey
+     *            The domain key of the value
+     * @param contentKey
+     *            The content key of the value
+     * @return The future with the value
+     */
+    public FutureDone<byte[]> get(final Number160 locationKey, final Number160 domainKey,
+            final Number160 contentKey) {
+        final FutureDone<byte[]> futureDone = new FutureDone<byte[]>();
+        final FutureGet futureGet = peer.get(locationKey).setDomainKey(domainKey).setContentKey(contentKey)
+                .start();
+        futureGet.addListener(new BaseFutureAdapter<FutureGet>() {
+            @Override
+            public void operationComplete(final FutureGet future) throws Exception {
+                if (!future.isSuccess() || future.getData() == null) {
+                    futureDone.setFailed("manifest not found: " + future.getFailedReason());
+                    return;
+                }
+                final Object object;
+                try {
+                    object = future.getData().object();
+                } catch (ClassNotFoundException e) {
+                    futureDone.setFailed("manifest cannot be decoded", e);
+                    return;
+                } catch (IOException e) {
+                    futureDone.setFailed("manifest cannot be decoded", e);
+                    return;
+                }
+                if (!(object instanceof Manifest)) {
+                    futureDone.setFailed("not a chunked value");
+                    return;
+                }
+                final Manifest manifest = (Manifest) object;
+                // the peers that reported to have the manifest have the chunks as well
+                final List<PeerAddress> replicas = new ArrayList<PeerAddress>();
+                if (future.getFutureRouting() != null) {
+                    replicas.addAll(future.getFutureRouting().getDirectHits());
+                }
+                for (PeerAddress peerAddress : future.getRawData().keySet()) {
+                    if (!replicas.contains(peerAddress)) {
+                        replicas.add(peerAddress);
+                    }
+                }
+                download(locationKey, domainKey, contentKey, manifest, replicas, futureDone);
+            }
+        });
+        return futureDone;
+    }
+
+    private void download(final Number160 locationKey, final Number160 domainKey, final Number160 contentKey,
+            final Manifest manifest, final List<PeerAddress> replicas, final FutureDone<byte[]> futureDone) {
+        if (manifest.chunks() == 0) {
+            futureDone.setDone(new byte[0]);
+            return;
+        }
+        final int permits = Math.min(parallel, manifest.chunks());
+        final FutureChannelCreator futureChannelCreator = peer.getConnectionBean().reservation()
+                .create(0, permits);
+        futureChannelCreator.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (future.isSuccess()) {
+                    Utils.addReleaseListener(future.getChannelCreator(), futureDone);
+                    new Download(locationKey, domainKey, contentKey, manifest, replicas, permits,
+                            future.getChannelCreator(), futureDone).getNext();
+                } else {
+                    futureDone.setFailed(future);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stores the chunks, at most {@link ChunkedStorage#parallel} at the same time, and then the manifest.
+     */
+    private final class Upload {
+        private final Number160 locationKey;
+        private final Number160 domainKey;
+        private final Number160 contentKey;
+        private final byte[] value;
+        private final Manifest manifest;
+        private final FutureDone<Manifest> futureDone;
+        private int next = 0;
+        private int running = 0;
+        private boolean finished = false;
+
+        private Upload(final Number160 locationKey, final Number160 domainKey, final Number160 contentKey,
+                final byte[] value, final Manifest manifest, final FutureDone<Manifest> futureDone) {
+            this.locationKey = locationKey;
+            this.domainKey = domainKey;
+            this.contentKey = contentKey;
+            this.value = value;
+            this.manifest = manifest;
+            this.futureDone = futureDone;
+        }
+
+        private synchronized void putNext() {
+            while (!finished && running < parallel && next < manifest.chunks()) {
+                final int index = next++;
+                final int offset = index * chunkSize;
+                final byte[] chunk = Arrays.copyOfRange(value, offset, offset + manifest.chunkLength(index));
+                running++;
+                final FuturePut futurePut = peer.put(locationKey).setDomainKey(domainKey)
+                        .setData(chunkKey(contentKey, index), new Data(chunk)).start();
+                futurePut.addListener(new BaseFutureAdapter<FuturePut>() {
+                    @Override
+                    public void operationComplete(final FuturePut future) throws Exception {
+                        chunkStored(index, future);
+                    }
+                });
+            }
+            if (!finished && running == 0 && next == manifest.chunks()) {
+                finished = true;
+                putManifest();
+            }
+        }
+
+        private synchronized void chunkStored(final int index, final FuturePut future) {
+            running--;
+            if (finished) {
+                return;
+            }
+            if (!future.isSuccess()) {
+                finished = true;
+                futureDone.setFailed("chunk " + index + " not stored: " + future.getFailedReason());
+                return;
+            }
+            putNext();
+        }
+
+        private void putManifest() {
+            final Data data;
+            try {
+                data = new Data(manifest);
+            } catch (IOException e) {
+                futureDone.setFailed("manifest cannot be encoded", e);
+                return;
+            }
+            final FuturePut futurePut = peer.put(locationKey).setDomainKey(domainKey).setData(contentKey, data)
+                    .start();
+            futurePut.addListener(new BaseFutureAdapter<FuturePut>() {
+                @Override
+                public void operationComplete(final FuturePut future) throws Exception {
+                    if (future.isSuccess()) {
+                        futureDone.setDone(manifest);
+                    } else {
+                        futureDone.setFailed("manifest not stored: " + future.getFailedReason());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets the chunks from the replicas, the first try of a chunk goes to the replica of its index, a retry to the next
+     * replica.
+     */
+    private final class Download {
+        private final Number160 locationKey;
+        private final Number160 domainKey;
+        private final Number160 contentKey;
+        private final Manifest manifest;
+        private final List<PeerAddress> replicas;
+        private final int permits;
+        private final ChannelCreator channelCreator;
+        private final FutureDone<byte[]> futureDone;
+        private final byte[] value;
+        private final int[] attempts;
+        private final Queue<Integer> retries = new LinkedList<Integer>();
+        private int next = 0;
+        private int running = 0;
+        private int received = 0;
+        private boolean finished = false;
+
+        private Download(final Number160 locationKey, final Number160 domainKey, final Number160 contentKey,
+                final Manifest manifest, final List<PeerAddress> replicas, final int permits,
+                final ChannelCreator channelCreator, final FutureDone<byte[]> futureDone) {
+            this.locationKey = locationKey;
+            this.domainKey = domainKey;
+            this.contentKey = contentKey;
+            this.manifest = manifest;
+            this.replicas = replicas;
+            this.permits = permits;
+            this.channelCreator = channelCreator;
+            this.futureDone = futureDone;
+            this.value = new byte[manifest.length()];
+            this.attempts = new int[manifest.chunks()];
+        }
+
+        private synchronized void getNext() {
+            while (!finished && running < permits && (!retries.isEmpty() || next < manifest.chunks())) {
+                final int index = retries.isEmpty() ? next++ : retries.poll();
+                final PeerAddress replica = replicas.get((index + attempts[index]) % replicas.size());
+                final Number640 key = new Number640(locationKey, domainKey, chunkKey(contentKey, index),
+                        Number160.ZERO);
+                final GetBuilder getBuilder = new GetBuilder(peer, locationKey).setDomainKey(domainKey).setKey(
+                        Collections.singleton(key));
+                running++;
+                final FutureResponse futureResponse = peer.getStoreRPC().get(replica, getBuilder, channelCreator);
+                futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+                    @Override
+                    public void operationComplete(final FutureResponse future) throws Exception {
+                        try {
+                            chunkReceived(index, key, future);
+                        } finally {
+                            // the chunk is copied into the value, its buffers are not needed anymore
+                            if (future.isSuccess()) {
+                                future.getResponse().release();
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        private synchronized void chunkReceived(final int index, final Number640 key, final FutureResponse future) {
+            running--;
+            if (finished) {
+                return;
+            }
+            Data data = null;
+            if (future.isSuccess() && future.getResponse().isOk()) {
+                final DataMap dataMap = future.getResponse().getDataMap(0);
+                data = dataMap == null ? null : dataMap.dataMap().get(key);
+            }
+            if (data != null && data.length() == manifest.chunkLength(index)
+                    && manifest.chunkHash(index).equals(data.hash())) {
+                final ByteBuf buf = data.buffer();
+                buf.getBytes(buf.readerIndex(), value, index * manifest.chunkSize(), data.length());
+                if (++received == manifest.chunks()) {
+                    finished = true;
+                    futureDone.setDone(value);
+                    return;
+                }
+            } else if (++attempts[index] < replicas.size()) {
+                LOG.debug("chunk {} is missing or corrupt on {}, try the next replica", index, future.getRequest()
+                        .getRecipient());
+                retries.add(index);
+            } else {
+                finished = true;
+                futureDone.setFailed("chunk " + index + " is missing or corrupt on all replicas");
+                return;
+            }
+            getNext();
+        }
+    }
+}
@@ -18,6 +18,7 @@ package net.tomp2p.p2p;
 import io.netty.buffer.ByteBuf;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NavigableMap;
@@ -43,6 +44,7 @@ import net.tomp2p.futures.FutureShutdown;
 import net.tomp2p.message.Message.Type;
 import net.tomp2p.p2p.builder.AddBuilder;
 import net.tomp2p.p2p.builder.BasicBuilder;
+import net.tomp2p.p2p.builder.DHTBuilder;
 import net.tomp2p.p2p.builder.DigestBuilder;
 import net.tomp2p.p2p.builder.GetBuilder;
 import net.tomp2p.p2p.builder.PutBuilder;
@@ -78,6 +80,9 @@ public class DistributedHashTable {
 
     private final QuitRPC quitRPC;
 
+    // the response times of hedged gets
+    private final RoutingStatistics getStatistics = new RoutingStatistics();
+
     public DistributedHashTable(DistributedRouting routing, StorageRPC storeRCP, DirectDataRPC directDataRPC,
             QuitRPC quitRPC) {
         this.routing = routing;
@@ -332,53 +337,167 @@ public class DistributedHashTable {
                                         .getRequestP2PConfiguration() : adjustConfiguration(
                                         builder.getRequestP2PConfiguration(),
                                         futureRouting.getDirectHitsDigest());
-                                // store in direct hits
-                                parallelRequests(
-                                        p2pConfiguration2,
-                                        builder.isRange() ? futureRouting.getPotentialHits() : futureRouting
-                                                .getDirectHits(), futureDHT, true,
-                                        future.getChannelCreator(), new OperationMapper<FutureGet>() {
-                                            Map<PeerAddress, Map<Number640, Data>> rawData = new HashMap<PeerAddress, Map<Number640, Data>>();
-
-                                            @Override
-                                            public FutureResponse create(ChannelCreator channelCreator,
-                                                    PeerAddress address) {
-                                                return storeRCP.get(address, builder, channelCreator);
-                                            }
+                                final NavigableSet<PeerAddress> queue = builder.isRange() ? futureRouting
+                                        .getPotentialHits() : futureRouting.getDirectHits();
+                                final OperationMapper<FutureGet> operation = new OperationMapper<FutureGet>() {
+                                    Map<PeerAddress, Map<Number640, Data>> rawData = new HashMap<PeerAddress, Map<Number640, Data>>();
+
+                                    @Override
+                                    public FutureResponse create(ChannelCreator channelCreator,
+                                            PeerAddress address) {
+                                        return storeRCP.get(address, builder, channelCreator);
+                                    }
+
+                                    @Override
+                                    public void response(FutureGet futureDHT) {
+
+                                        futureDHT.setReceivedData(rawData);
+
+                                    }
+
+                                    @Override
+                                    public void interMediateResponse(FutureResponse future) {
+                                        // the future tells us that the communication was successful, which is
+                                        // ok for digest
+                                        if (future.isSuccess()) {
+
+                                            rawData.put(future.getRequest().getRecipient(), future
+                                                    .getResponse().getDataMap(0).dataMap());
+
+                                            logger.debug("set data from {}", future.getRequest()
+                                                    .getRecipient());
+                                        }
+                                    }
+                                };
+                                if (p2pConfiguration2.isHedged()) {
+                                    new HedgedRequests<FutureGet>(p2pConfiguration2, queue, futureDHT,
+                                            future.getChannelCreator(), operation, storeRCP.connectionBean()
+                                                    .timer(), getStatistics).start();
+                                } else {
+                                    parallelRequests(p2pConfiguration2, queue, futureDHT, true,
+                                            future.getChannelCreator(), operation);
+                                }
+                            } else {
+                                futureDHT.setFailed("routing failed");
+                            }
+                        }
+                    });
+                    futureDHT.addFutureDHTReleaseListener(future.getChannelCreator());
+                } else {
+                    futureDHT.setFailed(future);
+                }
+            }
+        });
+        return futureDHT;
+    }
 
-                                            @Override
-                                            public void response(FutureGet futureDHT) {
+    /**
+     * Stores data with many location keys. The keys are grouped by their responsible peers and every peer gets one
+     * request, see {@link BatchRequests}.
+     * 
+     * @param putBuilder
+     *            The batch put builder with the data in {@link PutBuilder#getDataMap()}
+     * @return The future of the batch put, which is successful if every key was stored on the minimum number of
+     *         peers
+     */
+    public FuturePut putBatch(final PutBuilder putBuilder) {
+        final Map<Number640, Data> dataMap = putBuilder.getDataMap();
+        final FuturePut futureDHT = new FuturePut(putBuilder, putBuilder.getRequestP2PConfiguration()
+                .getMinimumResults(), dataMap.size(), true);
+        final BatchRequests<FuturePut> batch = new BatchRequests<FuturePut>(putBuilder, dataMap.keySet(),
+                Type.REQUEST_1, futureDHT, new BatchRequests.BatchOperation<FuturePut>() {
+                    Map<PeerAddress, Map<Number640, Byte>> rawData = new HashMap<PeerAddress, Map<Number640, Byte>>();
+
+                    @Override
+                    public FutureResponse create(final ChannelCreator channelCreator, final PeerAddress address,
+                            final Collection<Number640> keys) {
+                        final Map<Number640, Data> subMap = new HashMap<Number640, Data>(keys.size());
+                        for (Number640 key : keys) {
+                            subMap.put(key, dataMap.get(key));
+                        }
+                        return storeRCP.putBatch(address, putBuilder, subMap, channelCreator);
+                    }
 
-                                                futureDHT.setReceivedData(rawData);
+                    @Override
+                    public void response(final FuturePut futureDHT) {
+                        futureDHT.setStoredKeys(rawData);
+                    }
 
-                                            }
+                    @Override
+                    public void interMediateResponse(final FutureResponse future) {
+                        // a peer may get several requests, if a request to another peer failed
+                        if (future.isSuccess() && future.getResponse().isOk()) {
+                            final PeerAddress recipient = future.getRequest().getRecipient();
+                            final Map<Number640, Byte> stored = rawData.get(recipient);
+                            if (stored == null) {
+                                rawData.put(recipient, new HashMap<Number640, Byte>(future.getResponse()
+                                        .getKeyMapByte(0).keysMap()));
+                            } else {
+                                stored.putAll(future.getResponse().getKeyMapByte(0).keysMap());
+                            }
+                        }
+                    }
+                }, routing, storeRCP.connectionBean().reservation());
+        startBatch(putBuilder, futureDHT, batch);
+        return futureDHT;
+    }
 
-                                            @Override
-                                            public void interMediateResponse(FutureResponse future) {
-                                                // the future tells us that the communication was successful, which is
-                                                // ok for digest
-                                                if (future.isSuccess()) {
+    /**
+     * Gets data with many location keys. Every key is fetched from one of the peers that have data for its location
+     * key, and every peer gets one request, see {@link BatchRequests}.
+     * 
+     * @param builder
+     *            The batch get builder with the keys in {@link GetBuilder#keys()}
+     * @return The future of the batch get
+     */
+    public FutureGet getBatch(final GetBuilder builder) {
+        final FutureGet futureDHT = new FutureGet(builder, 1, builder.getEvaluationScheme());
+        final BatchRequests<FutureGet> batch = new BatchRequests<FutureGet>(builder, builder.keys(),
+                Type.REQUEST_2, futureDHT, new BatchRequests.BatchOperation<FutureGet>() {
+                    Map<PeerAddress, Map<Number640, Data>> rawData = new HashMap<PeerAddress, Map<Number640, Data>>();
+
+                    @Override
+                    public FutureResponse create(final ChannelCreator channelCreator, final PeerAddress address,
+                            final Collection<Number640> keys) {
+                        return storeRCP.getBatch(address, builder, keys, channelCreator);
+                    }
 
-                                                    rawData.put(future.getRequest().getRecipient(), future
-                                                            .getResponse().getDataMap(0).dataMap());
+                    @Override
+                    public void response(final FutureGet futureDHT) {
+                        futureDHT.setReceivedData(rawData);
+                    }
 
-                                                    logger.debug("set data from {}", future.getRequest()
-                                                            .getRecipient());
-                                                }
-                                            }
-                                        });
+                    @Override
+                    public void interMediateResponse(final FutureResponse future) {
+                        if (future.isSuccess()) {
+                            final PeerAddress recipient = future.getRequest().getRecipient();
+                            final Map<Number640, Data> received = rawData.get(recipient);
+                            if (received == null) {
+                                rawData.put(recipient, new HashMap<Number640, Data>(future.getResponse()
+                                        .getDataMap(0).dataMap()));
                             } else {
-                                futureDHT.setFailed("routing failed");
+                                received.putAll(future.getResponse().getDataMap(0).dataMap());
                             }
                         }
-                    });
+                    }
+                }, routing, storeRCP.connectionBean().reservation());
+        startBatch(builder, futureDHT, batch);
+        return futureDHT;
+    }
+
+    private static <K extends FutureDHT<?>> void startBatch(final DHTBuilder<?> builder, final K futureDHT,
+            final BatchRequests<K> batch) {
+        builder.getFutureChannelCreator().addListener(new BaseFutureAdapter<FutureChannelCreator>() {
+            @Override
+            public void operationComplete(final FutureChannelCreator future) throws Exception {
+                if (future.isSuccess()) {
+                    batch.start(future.getChannelCreator());
                     futureDHT.addFutureDHTReleaseListener(future.getChannelCreator());
                 } else {
                     futureDHT.setFailed(future);
                 }
             }
         });
-        return futureDHT;
     }
 
     public FutureDigest digest(final DigestBuilder builder) {
@@ -760,8 +879,7 @@ public class DistributedHashTable {
         if (size >= requested) {
             return p2pConfiguration;
         } else {
-            return new RequestP2PConfiguration(size, p2pConfiguration.getMaxFailure(),
-                    p2pConfiguration.getParallelDiff());
+            return p2pConfiguration.adjustMinimumResult(size);
         }
     }
 }
@@ -23,6 +23,8 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.connection.PeerBean;
@@ -40,6 +42,7 @@ import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerMap;
 import net.tomp2p.rpc.DigestInfo;
 import net.tomp2p.rpc.NeighborRPC;
+import net.tomp2p.utils.Timings;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,6 +64,10 @@ public class DistributedRouting {
 
     private final Random rnd;
 
+    private final RoutingStatistics statistics = new RoutingStatistics();
+
+    private volatile RoutingCache routingCache;
+
     /**
      * The routing process involves multiple RPCs, mostly UDP based.
      * 
@@ -124,10 +131,39 @@ public class DistributedRouting {
      * @return a FutureRouting object, is set to complete if the route has been found
      */
     public FutureRouting route(final RoutingBuilder routingBuilder, final Type type, final ChannelCreator cc) {
+        final RoutingCache cache = routingCache;
+        final boolean cacheable = cache != null && RoutingCache.isCacheable(routingBuilder);
+        if (cacheable) {
+            final FutureRouting cached = cache.get(routingBuilder, type);
+            if (cached != null) {
+                return cached;
+            }
+        }
         // for bad distribution, use large NO_NEW_INFORMATION
         Collection<PeerAddress> startPeers = peerBean.peerMap().closePeers(routingBuilder.getLocationKey(),
                 routingBuilder.getParallel() * 2);
-        return routing(startPeers, routingBuilder, type, cc);
+        final FutureRouting futureRouting = routing(startPeers, routingBuilder, type, cc);
+        if (cacheable) {
+            cache.put(routingBuilder, type, futureRouting);
+        }
+        return futureRouting;
+    }
+
+    /**
+     * @return The cache for routing results or null if routing results are not cached
+     */
+    public RoutingCache routingCache() {
+        return routingCache;
+    }
+
+    /**
+     * @param routingCache
+     *            The cache for routing results, null disables caching
+     * @return This class
+     */
+    public DistributedRouting routingCache(final RoutingCache routingCache) {
+        this.routingCache = routingCache;
+        return this;
     }
 
     /**
@@ -161,12 +197,17 @@ public class DistributedRouting {
         final FutureRouting futureRouting = new FutureRouting();
         //
         final Comparator<PeerAddress> comparator;
+        final Comparator<PeerAddress> askComparator;
         if (randomSearch) {
             comparator = peerBean.peerMap().createComparator();
+            askComparator = comparator;
         } else {
             comparator = PeerMap.createComparator(routingBuilder.getLocationKey());
+            // the results stay in XOR order, only the order in which we ask peers prefers fast peers
+            askComparator = peerBean.peerMap().isLatencyAware() ? peerBean.peerMap().createLatencyComparator(
+                    routingBuilder.getLocationKey()) : comparator;
         }
-        final NavigableSet<PeerAddress> queueToAsk = new TreeSet<PeerAddress>(comparator);
+        final NavigableSet<PeerAddress> queueToAsk = new TreeSet<PeerAddress>(askComparator);
         // we can reuse the comparator
         final SortedSet<PeerAddress> alreadyAsked = new TreeSet<PeerAddress>(comparator);
         // as presented by Kazuyuki Shudo at AIMS 2009, its better to ask random
@@ -235,6 +276,10 @@ public class DistributedRouting {
                     .equals(peerBean.serverPeerAddress()));
 
             RoutingMechanism routingMechanism = routingBuilder.createRoutingMechanism(futureRouting);
+            if (routingMechanism.parallel() > routingBuilder.getParallel()) {
+                routingMechanism.inFlightLimit(statistics.parallel(routingBuilder.getParallel(),
+                        routingMechanism.parallel()));
+            }
 
             routingMechanism.queueToAsk(queueToAsk);
             routingMechanism.potentialHits(potentialHits);
@@ -242,14 +287,16 @@ public class DistributedRouting {
             routingMechanism.alreadyAsked(alreadyAsked);
 
             routingBuilder.routingOnlyToSelf(isRoutingOnlyToSelf);
-            routingRec(routingBuilder, routingMechanism, type, cc);
+            synchronized (routingMechanism) {
+                routingRec(routingBuilder, routingMechanism, type, cc, false);
+            }
         }
         return futureRouting;
     }
 
     /**
-     * Looks for a route to the given locationKey, performing recursively. Since this method is not called concurrently,
-     * but sequentially, no synchronization is necessary.
+     * Looks for a route to the given locationKey, performing recursively. The steps are synchronized on the routing
+     * mechanism, as the straggler timer and the responses may start a step concurrently.
      * 
      * @param futureResponses
      *            expected responses
@@ -283,14 +330,30 @@ public class DistributedRouting {
      *            the domain of the network the current node and locationKey is in
      * @param contentKeys
      *            nodes which we got from another node
+     * @param straggler
+     *            True if the straggler timer started this step
      */
 
     private void routingRec(final RoutingBuilder routingBuilder, final RoutingMechanism routingMechanism,
-            final Type type, final ChannelCreator channelCreator) {
+            final Type type, final ChannelCreator channelCreator, final boolean straggler) {
 
         final boolean randomSearch = routingBuilder.getLocationKey() == null;
+        final boolean adaptive = routingMechanism.parallel() > routingBuilder.getParallel();
+        final long stragglerMillis = adaptive ? statistics.stragglerMillis() : -1;
+        final long now = Timings.currentTimeMillis();
         int active = 0;
+        // the requests that count towards the parallelism, stragglers do not count
+        int inFlight = 0;
         for (int i = 0; i < routingMechanism.parallel(); i++) {
+            if (routingMechanism.futureResponse(i) != null) {
+                LOG.debug("activity on {}", i);
+                active++;
+                if (!routingMechanism.isStraggler(i, now, stragglerMillis)) {
+                    inFlight++;
+                }
+            }
+        }
+        for (int i = 0; i < routingMechanism.parallel() && inFlight < routingMechanism.inFlightLimit(); i++) {
             if (routingMechanism.futureResponse(i) == null && !routingMechanism.isStopCreatingNewFutures()) {
                 final PeerAddress next;
                 if (randomSearch) {
@@ -301,6 +364,7 @@ public class DistributedRouting {
                 if (next != null) {
                     routingMechanism.addToAlreadyAsked(next);
                     active++;
+                    inFlight++;
                     // if we search for a random peer, then the peer should
                     // return the address farest away.
                     final Number160 locationKey2 = randomSearch ? next.getPeerId().xor(Number160.MAX_VALUE)
@@ -311,15 +375,21 @@ public class DistributedRouting {
                     		LOG.warn("sanity check faild: {}, {}",i,Thread.currentThread().getName());
                     	}
                     }
-                    routingMechanism.futureResponse(i, neighbors.closeNeighbors(next,
-                            routingBuilder.searchValues(), type, channelCreator, routingBuilder));
+                    final FutureResponse futureResponse = neighbors.closeNeighbors(next,
+                            routingBuilder.searchValues(), type, channelCreator, routingBuilder);
+                    routingMechanism.futureResponse(i, futureResponse, now);
+                    if (adaptive) {
+                        addStatistics(futureResponse, routingMechanism, now);
+                    }
                     LOG.debug("get close neighbors: {} on {}", next, i);
                 }
-            } else if (routingMechanism.futureResponse(i) != null) {
-                LOG.debug("activity on {}", i);
-                active++;
             }
         }
+        if (active == 0 && straggler) {
+            // the straggler has responded in the meantime, the listener of its step continues the routing
+            LOG.debug("no activity, the straggler continues");
+            return;
+        }
         if (active == 0) {
             LOG.debug("no activity, closing");
 
@@ -328,45 +398,121 @@ public class DistributedRouting {
             return;
         }
         final boolean last = active == 1;
+        final int wave = routingMechanism.wave();
         final FutureForkJoin<FutureResponse> fp = new FutureForkJoin<FutureResponse>(1, false,
                 routingMechanism.futureResponses());
+        final ScheduledFuture<?> stragglerTimeout;
+        if (stragglerMillis > 0 && inFlight > 0) {
+            // when the oldest request becomes a straggler, ask the next peer without waiting for it
+            final long delay = routingMechanism.firstStarted(now, stragglerMillis) + stragglerMillis - now;
+            stragglerTimeout = neighbors.connectionBean().timer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (routingMechanism) {
+                        if (routingMechanism.claimWave(wave)) {
+                            LOG.debug("straggler in routing, ask another peer");
+                            routingRec(routingBuilder, routingMechanism, type, channelCreator, true);
+                        }
+                    }
+                }
+            }, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+        } else {
+            stragglerTimeout = null;
+        }
         fp.addListener(new BaseFutureAdapter<FutureForkJoin<FutureResponse>>() {
             @Override
             public void operationComplete(final FutureForkJoin<FutureResponse> future) throws Exception {
-                final boolean finished;
-                if (future.isSuccess()) {
-                    Message lastResponse = future.getLast().getResponse();
-                    PeerAddress remotePeer = lastResponse.getSender();
-                    routingMechanism.addPotentialHits(remotePeer);
-                    Collection<PeerAddress> newNeighbors = lastResponse.getNeighborsSet(0).neighbors();
-
-                    Integer resultSize = lastResponse.getInteger(0);
-                    Number160 keyDigest = lastResponse.getKey(0);
-                    Number160 contentDigest = lastResponse.getKey(1);
-                    DigestInfo digestBean = new DigestInfo(keyDigest, contentDigest, resultSize == null ? 0
-                            : resultSize);
-                    LOG.debug("Peer ({}) {} reported {}", (digestBean.getSize() > 0 ? "direct" : "none"),
-                            remotePeer, newNeighbors);
-                    finished = routingMechanism.evaluateSuccess(remotePeer, digestBean, newNeighbors, last);
-                    LOG.debug("Routing finished {} / {}", finished,
-                            routingMechanism.isStopCreatingNewFutures());
-                } else {
-                    // if it failed but the failed is the closest one, its good to try again, since the peer might just
-                    // be busy
-                    LOG.debug("routing error {}", future.getFailedReason());
-                    finished = routingMechanism.evaluateFailed();
-                    routingMechanism.stopCreatingNewFutures(finished);
+                synchronized (routingMechanism) {
+                    if (routingMechanism.futureRoutingResponse().isCompleted()) {
+                        return;
+                    }
+                    final boolean current = routingMechanism.claimWave(wave);
+                    if (current && stragglerTimeout != null) {
+                        stragglerTimeout.cancel(false);
+                    }
+                    // A straggler continued the routing. The response is still evaluated here if the next step
+                    // does not wait for it, which happens if it arrived before the next step started.
+                    final FutureResponse futureResponse = future.getLast();
+                    final boolean finished;
+                    if (futureResponse == null || routingMechanism.markEvaluated(futureResponse)) {
+                        finished = evaluate(future, routingBuilder, routingMechanism, adaptive,
+                                current ? last : !routingMechanism.isActive());
+                    } else {
+                        // the other step has evaluated this response already
+                        finished = false;
+                    }
+                    if (finished) {
+                        LOG.debug("finished routing, direct hits: {} potential: {}",
+                                routingMechanism.directHits(), routingMechanism.potentialHits());
+
+                        routingMechanism.setNeighbors(routingBuilder);
+                        routingMechanism.cancel();
+                        // stop all operations, as we are finished, no need to go further
+                    } else if (current || !routingMechanism.isActive()) {
+                        // if the step of the straggler found nothing to wait for, we continue here
+                        routingRec(routingBuilder, routingMechanism, type, channelCreator, false);
+                    }
                 }
-                if (finished) {
-                    LOG.debug("finished routing, direct hits: {} potential: {}",
-                            routingMechanism.directHits(), routingMechanism.potentialHits());
+            }
+        });
+    }
 
-                    routingMechanism.setNeighbors(routingBuilder);
-                    routingMechanism.cancel();
-                    // stop all operations, as we are finished, no need to go further
-                } else {
+    /**
+     * Evaluates the response of a routing step.
+     * 
+     * @return True if the routing is finished
+     */
+    private boolean evaluate(final FutureForkJoin<FutureResponse> future, final RoutingBuilder routingBuilder,
+            final RoutingMechanism routingMechanism, final boolean adaptive, final boolean last) {
+        final boolean finished;
+        if (future.isSuccess()) {
+            if (adaptive) {
+                routingMechanism.inFlightLimit(Math.max(routingMechanism.inFlightLimit() - 1,
+                        routingBuilder.getParallel()));
+            }
+            Message lastResponse = future.getLast().getResponse();
+            PeerAddress remotePeer = lastResponse.getSender();
+            routingMechanism.addPotentialHits(remotePeer);
+            Collection<PeerAddress> newNeighbors = lastResponse.getNeighborsSet(0).neighbors();
 
-                    routingRec(routingBuilder, routingMechanism, type, channelCreator);
+            Integer resultSize = lastResponse.getInteger(0);
+            Number160 keyDigest = lastResponse.getKey(0);
+            Number160 contentDigest = lastResponse.getKey(1);
+            DigestInfo digestBean = new DigestInfo(keyDigest, contentDigest, resultSize == null ? 0
+                    : resultSize);
+            LOG.debug("Peer ({}) {} reported {}", (digestBean.getSize() > 0 ? "direct" : "none"),
+                    remotePeer, newNeighbors);
+            finished = routingMechanism.evaluateSuccess(remotePeer, digestBean, newNeighbors, last);
+            LOG.debug("Routing finished {} / {}", finished,
+                    routingMechanism.isStopCreatingNewFutures());
+        } else {
+            // if it failed but the failed is the closest one, its good to try again, since the peer might just
+            // be busy
+            LOG.debug("routing error {}", future.getFailedReason());
+            finished = routingMechanism.evaluateFailed();
+            routingMechanism.stopCreatingNewFutures(finished);
+            if (adaptive) {
+                // compensate for the failed peer
+                routingMechanism.inFlightLimit(Math.min(routingMechanism.inFlightLimit() + 1,
+                        routingMechanism.parallel()));
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Adds the round trip time or the failure of a routing request to the statistics.
+     */
+    private void addStatistics(final FutureResponse futureResponse, final RoutingMechanism routingMechanism,
+            final long started) {
+        futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+            @Override
+            public void operationComplete(final FutureResponse future) throws Exception {
+                if (future.isSuccess()) {
+                    statistics.success(Timings.currentTimeMillis() - started);
+                } else if (!routingMechanism.futureRoutingResponse().isCompleted()) {
+                    // requests that are canceled because the routing finished did not fail
+                    statistics.failure();
                 }
             }
         });
@@ -376,6 +522,13 @@ public class DistributedRouting {
         return peerBean.peerMap();
     }
 
+    /**
+     * @return The round trip times and failures of recent requests of adaptive routings
+     */
+    public RoutingStatistics statistics() {
+        return statistics;
+    }
+
     /**
      * Cancel the future that causes the underlying futures to cancel as well.
      * 
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.p2p;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.connection.ChannelCreator;
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureDHT;
+import net.tomp2p.futures.FutureResponse;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.utils.Timings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends requests to the peers of a queue like {@link DistributedHashTable#parallelRequests}, but if not enough peers
+ * answered after the hedge delay, the request is sent to the next peer in the queue in addition to the running
+ * requests. The operation finishes with the first sufficient answers and cancels the requests that are still running.
+ * Thus, a slow replica does not delay the operation. Unlike the fork-join loop, every request is evaluated on its own,
+ * which allows adding requests at any time.
+ * <p>
+ * With {@link RequestP2PConfiguration#HEDGE_PERCENTILE}, the hedge delay is the straggler time of the
+ * {@link RoutingStatistics}, which is only known after {@link RoutingStatistics#MIN_SAMPLES} successful gets. Until
+ * then, no request is hedged.
+ * <p>
+ * All state is accessed while holding the lock on this object, so the operation is called sequentially.
+ *
+ * @author Thomas Bocek
+ * @param <K>
+ *            The type of the future of the operation
+ */
+final class HedgedRequests<K extends FutureDHT<?>> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HedgedRequests.class);
+
+    private final RequestP2PConfiguration p2pConfiguration;
+
+    private final NavigableSet<PeerAddress> queue;
+
+    private final K futureDHT;
+
+    private final ChannelCreator channelCreator;
+
+    private final OperationMapper<K> operation;
+
+    private final ScheduledExecutorService timer;
+
+    private final RoutingStatistics statistics;
+
+    private final List<FutureResponse> running = new ArrayList<FutureResponse>();
+
+    private int successes = 0;
+
+    private int failures = 0;
+
+    private int hedged = 0;
+
+    private boolean finished = false;
+
+    private ScheduledFuture<?> hedgeTimeout;
+
+    /**
+     * @param p2pConfiguration
+     *            The configuration with the number of results and the hedging parameters
+     * @param queue
+     *            The peers to ask, the first peers are asked first
+     * @param futureDHT
+     *            The future of the operation
+     * @param channelCreator
+     *            The channel creator that has reserved {@link RequestP2PConfiguration#getMaxParallel()} channels
+     * @param operation
+     *            The operation that creates the requests and evaluates the responses
+     * @param timer
+     *            The timer for the hedge delay
+     * @param statistics
+     *            The response times of recent requests, for the hedge delay from the percentile
+     */
+    HedgedRequests(final RequestP2PConfiguration p2pConfiguration, final NavigableSet<PeerAddress> queue,
+            final K futureDHT, final ChannelCreator channelCreator, final OperationMapper<K> operation,
+            final ScheduledExecutorService timer, final RoutingStatistics statistics) {
+        this.p2pConfiguration = p2pConfiguration;
+        this.queue = queue;
+        this.futureDHT = futureDHT;
+        this.channelCreator = channelCreator;
+        this.operation = operation;
+        this.timer = timer;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Sends the first requests and schedules the first hedge.
+     */
+    synchronized void start() {
+        if (p2pConfiguration.getMinimumResults() == 0) {
+            finish();
+            return;
+        }
+        fill();
+        scheduleHedge();
+    }
+
+    /**
+     * Sends requests until the number of running requests reaches the parallelism of the configuration, which grows
+     * with every hedge.
+     */
+    private void fill() {
+        while (!finished
+                && running.size() < p2pConfiguration.getMinimumResults() - successes
+                        + p2pConfiguration.getParallelDiff() + hedged) {
+            final PeerAddress next = queue.pollFirst();
+            if (next == null) {
+                break;
+            }
+            final FutureResponse futureResponse = operation.create(channelCreator, next);
+            running.add(futureResponse);
+            futureDHT.addRequests(futureResponse);
+            // may be called right away if the request failed
+            futureResponse.addListener(new BaseFutureAdapter<FutureResponse>() {
+                @Override
+                public void operationComplete(final FutureResponse future) throws Exception {
+                    completed(future);
+                }
+            });
+        }
+        if (!finished && running.isEmpty()) {
+            // nothing left to ask
+            finish();
+        }
+    }
+
+    private synchronized void completed(final FutureResponse futureResponse) {
+        if (!running.remove(futureResponse)) {
+            // cancelled after we finished, a response that made it anyway is not used
+            if (futureResponse.isSuccess() && futureResponse.getResponse() != null) {
+                futureResponse.getResponse().release();
+            }
+            return;
+        }
+        operation.interMediateResponse(futureResponse);
+        if (futureResponse.isSuccess()) {
+            if (futureResponse.getSentMillis() >= 0) {
+                statistics.success(Timings.currentTimeMillis() - futureResponse.getSentMillis());
+            }
+            if (++successes >= p2pConfiguration.getMinimumResults()) {
+                finish();
+                return;
+            }
+        } else if (++failures > p2pConfiguration.getMaxFailure()) {
+            finish();
+            return;
+        }
+        fill();
+    }
+
+    private void scheduleHedge() {
+        if (finished || hedged >= p2pConfiguration.getMaxHedged()) {
+            return;
+        }
+        final long delay;
+        if (p2pConfiguration.getHedgeDelayMillis() == RequestP2PConfiguration.HEDGE_PERCENTILE) {
+            delay = statistics.stragglerMillis();
+        } else {
+            delay = p2pConfiguration.getHedgeDelayMillis();
+        }
+        if (delay < 0) {
+            // not enough response times to know the percentile yet
+            return;
+        }
+        hedgeTimeout = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                hedge();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void hedge() {
+        if (finished || queue.isEmpty()) {
+            return;
+        }
+        hedged++;
+        LOG.debug("not enough answers after the hedge delay, ask another peer ({} of {})", hedged,
+                p2pConfiguration.getMaxHedged());
+        fill();
+        scheduleHedge();
+    }
+
+    private void finish() {
+        finished = true;
+        if (hedgeTimeout != null) {
+            hedgeTimeout.cancel(false);
+        }
+        final List<FutureResponse> outstanding = new ArrayList<FutureResponse>(running);
+        running.clear();
+        for (FutureResponse futureResponse : outstanding) {
+            futureResponse.cancel();
+        }
+        operation.response(futureDHT);
+    }
+}
@@ -17,6 +17,7 @@ package net.tomp2p.p2p;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -50,6 +51,7 @@ import net.tomp2p.p2p.builder.SendBuilder;
 import net.tomp2p.p2p.builder.SendDirectBuilder;
 import net.tomp2p.p2p.builder.ShutdownBuilder;
 import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.rpc.BroadcastRPC;
 import net.tomp2p.rpc.DirectDataRPC;
@@ -62,6 +64,7 @@ import net.tomp2p.rpc.RawDataReply;
 import net.tomp2p.rpc.StorageRPC;
 //import net.tomp2p.rpc.TaskRPC;
 import net.tomp2p.rpc.TrackerRPC;
+import net.tomp2p.storage.Data;
 //import net.tomp2p.task.AsyncTask;
 //import net.tomp2p.task.Worker;
 import org.slf4j.Logger;
@@ -465,6 +468,30 @@ public class Peer {
     public GetBuilder get(Number160 locationKey) {
         return new GetBuilder(this, locationKey);
     }
+
+    /**
+     * Stores data with different location keys. Every location key is routed on its own and all data of a responsible
+     * peer is stored with one request.
+     * 
+     * @param dataMap
+     *            The keys and the data to store
+     * @return The builder for the batch put
+     */
+    public PutBuilder putBatch(Map<Number640, Data> dataMap) {
+        return new PutBuilder(this, null).setDataMap(dataMap).setBatch();
+    }
+
+    /**
+     * Gets data with different location keys. Every location key is routed on its own and all keys of a responsible
+     * peer are fetched with one request.
+     * 
+     * @param keys
+     *            The keys to get
+     * @return The builder for the batch get
+     */
+    public GetBuilder getBatch(Collection<Number640> keys) {
+        return new GetBuilder(this, null).setKey(keys).setBatch();
+    }
     
     public DigestBuilder digest(Number160 locationKey) {
         return new DigestBuilder(this, locationKey);
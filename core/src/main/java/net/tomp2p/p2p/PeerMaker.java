@@ -30,6 +30,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 import net.tomp2p.connection.Bindings;
+import net.tomp2p.connection.CachingSignatureFactory;
 import net.tomp2p.connection.ChannelClientConfiguration;
 import net.tomp2p.connection.ChannelServerConficuration;
 import net.tomp2p.connection.ConnectionBean;
@@ -40,6 +41,7 @@ import net.tomp2p.connection.PingFactory;
 import net.tomp2p.connection.PipelineFilter;
 import net.tomp2p.connection.Ports;
 import net.tomp2p.connection.RelaySender;
+import net.tomp2p.connection.Transport;
 import net.tomp2p.p2p.builder.PingBuilder;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerMap;
@@ -57,6 +59,9 @@ import net.tomp2p.rpc.StorageRPC;
 //import net.tomp2p.rpc.TaskRPC;
 import net.tomp2p.rpc.TrackerRPC;
 import net.tomp2p.storage.IdentityManagement;
+import net.tomp2p.storage.JavaSerializer;
+import net.tomp2p.storage.Serializer;
+import net.tomp2p.storage.Storage;
 import net.tomp2p.storage.StorageLayer;
 import net.tomp2p.storage.StorageMemory;
 import net.tomp2p.storage.TrackerStorage;
@@ -123,7 +128,7 @@ public class PeerMaker {
 
 	private PeerStatusListener[] peerStatusListeners = null;
 
-	private StorageMemory storage = null;
+	private Storage storage = null;
 
 	private TrackerStorage trackerStorage = null;
 
@@ -154,6 +159,12 @@ public class PeerMaker {
 	private int delayMillis = -1;
 	private int intervalMillis = -1;
 	private int storageIntervalMillis = -1;
+	private boolean lockFreeRead = false;
+	private boolean epoll = false;
+	private boolean verificationCache = false;
+	private Serializer serializer = null;
+	private int routingCacheSize = 0;
+	private int routingCacheTTLSeconds = RoutingCache.DEFAULT_TTL_SECONDS;
 
 	private ReplicationFactor replicationFactor = null;
 
@@ -240,6 +251,21 @@ public class PeerMaker {
 		if (channelClientConfiguration == null) {
 			channelClientConfiguration = createDefaultChannelClientConfiguration();
 		}
+		if (epoll) {
+			final Transport transport = Transport.epoll();
+			channelServerConfiguration.transport(transport);
+			channelClientConfiguration.transport(transport);
+		}
+		if (verificationCache) {
+			if (!(channelServerConfiguration.signatureFactory() instanceof CachingSignatureFactory)) {
+				channelServerConfiguration.signatureFactory(new CachingSignatureFactory(
+				        channelServerConfiguration.signatureFactory()));
+			}
+			if (!(channelClientConfiguration.signatureFactory() instanceof CachingSignatureFactory)) {
+				channelClientConfiguration.signatureFactory(new CachingSignatureFactory(
+				        channelClientConfiguration.signatureFactory()));
+			}
+		}
 		if (keyPair == null) {
 			keyPair = EMPTY_KEYPAIR;
 		}
@@ -269,6 +295,10 @@ public class PeerMaker {
 			storage = new StorageMemory();
 		}
 
+		if (serializer == null) {
+			serializer = new JavaSerializer();
+		}
+
 		if (storageIntervalMillis == -1) {
 			storageIntervalMillis = 60 * 1000;
 		}
@@ -296,7 +326,9 @@ public class PeerMaker {
 
 		peerBean.peerMap(peerMap);
 		peerBean.keyPair(keyPair);
+		peerBean.serializer(serializer);
 		StorageLayer sl = new StorageLayer(storage);
+		sl.setLockFreeRead(lockFreeRead);
 		peerBean.storage(sl);
 		sl.init(connectionBean.timer(), storageIntervalMillis);
 
@@ -483,6 +515,12 @@ public class PeerMaker {
 
 		if (isEnableRouting() && isEnableNeighborRPC()) {
 			DistributedRouting routing = new DistributedRouting(peerBean, peer.getNeighborRPC());
+			if (routingCacheSize > 0) {
+				RoutingCache routingCache = new RoutingCache(routingCacheTTLSeconds, routingCacheSize);
+				peerBean.peerMap().addPeerMapChangeListener(routingCache);
+				peerBean.peerMap().addPeerFailedListener(routingCache);
+				routing.routingCache(routingCache);
+			}
 			peer.setDistributedRouting(routing);
 		}
 
@@ -702,6 +740,83 @@ public class PeerMaker {
 		return this;
 	}
 
+	public Storage storage() {
+		return storage;
+	}
+
+	/**
+	 * @param storage
+	 *            The storage backend, default is {@link StorageMemory}
+	 * @return This class
+	 */
+	public PeerMaker storage(Storage storage) {
+		this.storage = storage;
+		return this;
+	}
+
+	public boolean isLockFreeRead() {
+		return lockFreeRead;
+	}
+
+	/**
+	 * @param lockFreeRead
+	 *            Set to true if gets should not lock the storage. The storage
+	 *            backend needs to be thread-safe, see
+	 *            {@link StorageLayer#setLockFreeRead(boolean)}
+	 * @return This class
+	 */
+	public PeerMaker lockFreeRead(boolean lockFreeRead) {
+		this.lockFreeRead = lockFreeRead;
+		return this;
+	}
+
+	public Serializer serializer() {
+		return serializer;
+	}
+
+	/**
+	 * @param serializer
+	 *            The serializer for objects that are stored with the
+	 *            builders, e.g., {@link net.tomp2p.p2p.builder.PutBuilder#setObject(Object)}. Default
+	 *            is {@link JavaSerializer}, a more compact alternative is
+	 *            {@link net.tomp2p.storage.BinarySerializer}
+	 * @return This class
+	 */
+	public PeerMaker serializer(Serializer serializer) {
+		this.serializer = serializer;
+		return this;
+	}
+
+	public int routingCacheSize() {
+		return routingCacheSize;
+	}
+
+	/**
+	 * @param routingCacheSize
+	 *            The number of routing results to cache, so that operations
+	 *            on the same location key do not route again. Default is 0,
+	 *            which disables the cache
+	 * @return This class
+	 */
+	public PeerMaker routingCacheSize(int routingCacheSize) {
+		this.routingCacheSize = routingCacheSize;
+		return this;
+	}
+
+	public int routingCacheTTLSeconds() {
+		return routingCacheTTLSeconds;
+	}
+
+	/**
+	 * @param routingCacheTTLSeconds
+	 *            The time a cached routing result is used
+	 * @return This class
+	 */
+	public PeerMaker routingCacheTTLSeconds(int routingCacheTTLSeconds) {
+		this.routingCacheTTLSeconds = routingCacheTTLSeconds;
+		return this;
+	}
+
 	public ReplicationFactor replicationFactor() {
 		return replicationFactor;
 	}
@@ -916,6 +1031,65 @@ public class PeerMaker {
 		return this;
 	}
 
+	/**
+	 * @return True if the native epoll transport of Netty is used
+	 */
+	public boolean isEpoll() {
+		return epoll;
+	}
+
+	/**
+	 * @param epoll
+	 *            Set to true to use the native epoll transport of Netty, which
+	 *            has a lower latency and a higher packet rate on Linux. If it
+	 *            is not available, NIO is used, see {@link Transport}
+	 * @return This class
+	 */
+	public PeerMaker setEpoll(final boolean epoll) {
+		this.epoll = epoll;
+		return this;
+	}
+
+	/**
+	 * Use the native epoll transport of Netty, see {@link #setEpoll(boolean)}.
+	 * 
+	 * @return This class
+	 */
+	public PeerMaker setEpoll() {
+		this.epoll = true;
+		return this;
+	}
+
+	/**
+	 * @return True if verified signatures are remembered
+	 */
+	public boolean isVerificationCache() {
+		return verificationCache;
+	}
+
+	/**
+	 * @param verificationCache
+	 *            Set to true to remember the signatures of received data
+	 *            that have been verified, so that data replicated to this
+	 *            peer again is not verified again, see
+	 *            {@link CachingSignatureFactory}
+	 * @return This class
+	 */
+	public PeerMaker setVerificationCache(final boolean verificationCache) {
+		this.verificationCache = verificationCache;
+		return this;
+	}
+
+	/**
+	 * Remember verified signatures, see {@link #setVerificationCache(boolean)}.
+	 * 
+	 * @return This class
+	 */
+	public PeerMaker setVerificationCache() {
+		this.verificationCache = true;
+		return this;
+	}
+
 	public PeerMaker addAutomaticFuture(AutomaticFuture automaticFuture) {
 		if (automaticFutures == null) {
 			automaticFutures = new ArrayList<>(1);
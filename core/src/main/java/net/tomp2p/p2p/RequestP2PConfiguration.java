@@ -22,6 +22,9 @@ package net.tomp2p.p2p;
  * @author Thomas Bocek
  */
 public class RequestP2PConfiguration {
+    // hedge after the percentile of the recent response times, no hedging before enough response times are known
+    public static final int HEDGE_PERCENTILE = -1;
+
     final private int minimumResults;
 
     final private int maxFailure;
@@ -33,6 +36,10 @@ public class RequestP2PConfiguration {
 
     final private boolean forceTCP;
 
+    final private int maxHedged;
+
+    final private int hedgeDelayMillis;
+
     public RequestP2PConfiguration(int minimumResults, int maxFailure, int parallelDiff) {
         this(minimumResults, maxFailure, parallelDiff, false, false);
     }
@@ -55,7 +62,12 @@ public class RequestP2PConfiguration {
      */
     public RequestP2PConfiguration(final int minimumResults, final int maxFailure, final int parallelDiff,
             final boolean forceUPD, final boolean forceTCP) {
-        if (minimumResults < 0 || maxFailure < 0 || parallelDiff < 0) {
+        this(minimumResults, maxFailure, parallelDiff, forceUPD, forceTCP, 0, 0);
+    }
+
+    private RequestP2PConfiguration(final int minimumResults, final int maxFailure, final int parallelDiff,
+            final boolean forceUPD, final boolean forceTCP, final int maxHedged, final int hedgeDelayMillis) {
+        if (minimumResults < 0 || maxFailure < 0 || parallelDiff < 0 || maxHedged < 0) {
             throw new IllegalArgumentException("need to be larger or equals zero");
         }
         this.minimumResults = minimumResults;
@@ -63,11 +75,31 @@ public class RequestP2PConfiguration {
         this.parallelDiff = parallelDiff;
         this.forceUPD = forceUPD;
         this.forceTCP = forceTCP;
+        this.maxHedged = maxHedged;
+        this.hedgeDelayMillis = hedgeDelayMillis;
     }
 
     public RequestP2PConfiguration adjustMinimumResult(int minimumResultsLow) {
         return new RequestP2PConfiguration(Math.min(minimumResultsLow, minimumResults), maxFailure, parallelDiff,
-                forceUPD, forceTCP);
+                forceUPD, forceTCP, maxHedged, hedgeDelayMillis);
+    }
+
+    /**
+     * Enables hedged requests, currently used for get. If not enough peers answered after the delay, the same request
+     * is sent to the next peer in addition to the running ones. The operation finishes with the first sufficient
+     * answers and cancels the requests that are still running.
+     * 
+     * @param maxHedged
+     *            The maximum number of additional requests, 0 disables hedging
+     * @param hedgeDelayMillis
+     *            The time to wait before sending an additional request or {@link #HEDGE_PERCENTILE} to wait for the
+     *            90th percentile of the recent response times. With {@link #HEDGE_PERCENTILE}, gets are not hedged
+     *            until {@link RoutingStatistics#MIN_SAMPLES} response times of earlier gets are known
+     * @return A new configuration with hedging
+     */
+    public RequestP2PConfiguration hedge(final int maxHedged, final int hedgeDelayMillis) {
+        return new RequestP2PConfiguration(minimumResults, maxFailure, parallelDiff, forceUPD, forceTCP, maxHedged,
+                hedgeDelayMillis);
     }
 
     public int getMinimumResults() {
@@ -86,6 +118,25 @@ public class RequestP2PConfiguration {
         return minimumResults + parallelDiff;
     }
 
+    /**
+     * @return The number of parallel requests including the hedged requests, used for the reservation
+     */
+    public int getMaxParallel() {
+        return getParallel() + maxHedged;
+    }
+
+    public int getMaxHedged() {
+        return maxHedged;
+    }
+
+    public int getHedgeDelayMillis() {
+        return hedgeDelayMillis;
+    }
+
+    public boolean isHedged() {
+        return maxHedged > 0;
+    }
+
     public boolean isForceUPD() {
         return forceUPD;
     }
@@ -103,6 +154,10 @@ public class RequestP2PConfiguration {
         sb.append(maxFailure);
         sb.append("pDiff=");
         sb.append(parallelDiff);
+        if (isHedged()) {
+            sb.append("hedged=");
+            sb.append(maxHedged);
+        }
         return sb.toString();
     }
 }
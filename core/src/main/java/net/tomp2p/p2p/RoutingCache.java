@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.p2p;
+
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.FutureRouting;
+import net.tomp2p.message.Message.Type;
+import net.tomp2p.p2p.builder.RoutingBuilder;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerMapChangeListener;
+import net.tomp2p.peers.PeerStatatistic;
+import net.tomp2p.peers.PeerStatusListener;
+import net.tomp2p.rpc.DigestInfo;
+import net.tomp2p.utils.ConcurrentCacheMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the results of recent routings, so that operations on the same location key do not need to route again. An
+ * entry is valid for a given time and is removed earlier if one of its peers is removed from the peer map or fails,
+ * or if a new verified peer is closer to the location key than the peers of the entry.
+ * <p>
+ * Only plain routings are cached, i.e., not for bootstrapping or with Bloom filters or ranges. Routings for get
+ * (REQUEST_2) are only cached if they found direct hits, since data that is stored later would otherwise not be found
+ * until the entry expires.
+ *
+ * @author Thomas Bocek
+ */
+public class RoutingCache implements PeerMapChangeListener, PeerStatusListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutingCache.class);
+
+    public static final int DEFAULT_TTL_SECONDS = 5;
+
+    private final ConcurrentCacheMap<CacheKey, Entry> cache;
+
+    /**
+     * The result of a routing. The sets are not modified, since they are copied when handed out.
+     */
+    private static final class Entry {
+        private final Number160 locationKey;
+        private final SortedMap<PeerAddress, DigestInfo> directHits;
+        private final NavigableSet<PeerAddress> potentialHits;
+        private final SortedSet<PeerAddress> routingPath;
+
+        private Entry(final Number160 locationKey, final FutureRouting futureRouting) {
+            this.locationKey = locationKey;
+            this.directHits = new TreeMap<PeerAddress, DigestInfo>(futureRouting.getDirectHitsDigest());
+            this.potentialHits = new TreeSet<PeerAddress>(futureRouting.getPotentialHits());
+            this.routingPath = new TreeSet<PeerAddress>(futureRouting.getRoutingPath());
+        }
+
+        private boolean contains(final PeerAddress peerAddress) {
+            return potentialHits.contains(peerAddress) || directHits.containsKey(peerAddress);
+        }
+    }
+
+    /**
+     * The routing results depend on the type and on the keys that are sent to the other peers.
+     */
+    private static final class CacheKey {
+        private final Type type;
+        private final Number160 locationKey;
+        private final Number160 domainKey;
+        private final Number160 contentKey;
+
+        private CacheKey(final Type type, final RoutingBuilder routingBuilder) {
+            this.type = type;
+            this.locationKey = routingBuilder.getLocationKey();
+            this.domainKey = routingBuilder.getDomainKey();
+            this.contentKey = routingBuilder.getContentKey();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            if (obj == this) {
+                return true;
+            }
+            final CacheKey o = (CacheKey) obj;
+            return type == o.type && locationKey.equals(o.locationKey) && equals(domainKey, o.domainKey)
+                    && equals(contentKey, o.contentKey);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = locationKey.hashCode();
+            hash = 31 * hash + (domainKey == null ? 0 : domainKey.hashCode());
+            hash = 31 * hash + (contentKey == null ? 0 : contentKey.hashCode());
+            return 31 * hash + type.ordinal();
+        }
+
+        private static boolean equals(final Number160 key1, final Number160 key2) {
+            return key1 == null ? key2 == null : key1.equals(key2);
+        }
+    }
+
+    /**
+     * @param ttlSeconds
+     *            The time a routing result is valid
+     * @param maxEntries
+     *            The maximum number of routing results
+     */
+    public RoutingCache(final int ttlSeconds, final int maxEntries) {
+        // do not refresh, a result should expire even if it is used
+        this.cache = new ConcurrentCacheMap<CacheKey, Entry>(ttlSeconds, maxEntries, false);
+    }
+
+    /**
+     * @param routingBuilder
+     *            The routing parameters
+     * @return True if the result of this routing can be cached
+     */
+    public static boolean isCacheable(final RoutingBuilder routingBuilder) {
+        return routingBuilder.getLocationKey() != null && !routingBuilder.isBootstrap()
+                && !routingBuilder.isForceRoutingOnlyToSelf() && routingBuilder.getKeyBloomFilter() == null
+                && routingBuilder.getContentBloomFilter() == null && routingBuilder.getFrom() == null;
+    }
+
+    /**
+     * Returns a completed future with the cached routing result.
+     *
+     * @param routingBuilder
+     *            The routing parameters, needs to be cacheable
+     * @param type
+     *            The type of the routing
+     * @return The completed future or null if there is no result for this routing
+     */
+    public FutureRouting get(final RoutingBuilder routingBuilder, final Type type) {
+        final Entry entry = cache.get(new CacheKey(type, routingBuilder));
+        if (entry == null) {
+            return null;
+        }
+        LOG.debug("routing cache hit for {}", entry.locationKey);
+        // the caller may modify the sets
+        final FutureRouting futureRouting = new FutureRouting();
+        final SortedMap<PeerAddress, DigestInfo> directHits = new TreeMap<PeerAddress, DigestInfo>(entry.directHits);
+        final NavigableSet<PeerAddress> potentialHits = new TreeSet<PeerAddress>(entry.potentialHits);
+        final SortedSet<PeerAddress> routingPath = new TreeSet<PeerAddress>(entry.routingPath);
+        futureRouting.setNeighbors(directHits, potentialHits, routingPath, false, true);
+        return futureRouting;
+    }
+
+    /**
+     * Stores the result of the routing once it completed successfully.
+     *
+     * @param routingBuilder
+     *            The routing parameters, needs to be cacheable
+     * @param type
+     *            The type of the routing
+     * @param futureRouting
+     *            The future of the routing
+     */
+    public void put(final RoutingBuilder routingBuilder, final Type type, final FutureRouting futureRouting) {
+        // the routing modifies the builder, create the key now
+        final CacheKey key = new CacheKey(type, routingBuilder);
+        futureRouting.addListener(new BaseFutureAdapter<FutureRouting>() {
+            @Override
+            public void operationComplete(final FutureRouting future) throws Exception {
+                // the potential hits contain ourself, if that is all, we did not find anything
+                if (!future.isSuccess() || future.getPotentialHits().size() <= 1) {
+                    return;
+                }
+                if (type == Type.REQUEST_2 && future.getDirectHitsDigest().isEmpty()) {
+                    return;
+                }
+                cache.put(key, new Entry(key.locationKey, future));
+            }
+        });
+    }
+
+    /**
+     * @return The number of cached routing results, including expired ones
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public void peerInserted(final PeerAddress peerAddress, final boolean verified) {
+        if (!verified) {
+            return;
+        }
+        // a new peer may be closer than the peers we found
+        for (Map.Entry<CacheKey, Entry> entry : cache.entrySet()) {
+            final Entry value = entry.getValue();
+            if (PeerMap.isKadCloser(value.locationKey, peerAddress, value.potentialHits.last()) < 0) {
+                cache.remove(entry.getKey(), value);
+            }
+        }
+    }
+
+    @Override
+    public void peerRemoved(final PeerAddress peerAddress, final PeerStatatistic storedPeerAddress) {
+        remove(peerAddress);
+    }
+
+    @Override
+    public void peerUpdated(final PeerAddress peerAddress, final PeerStatatistic storedPeerAddress) {
+        // the peer is still there
+    }
+
+    @Override
+    public boolean peerFailed(final PeerAddress remotePeer, final FailReason reason) {
+        return remove(remotePeer);
+    }
+
+    @Override
+    public boolean peerFound(final PeerAddress remotePeer, final PeerAddress referrer) {
+        return false;
+    }
+
+    private boolean remove(final PeerAddress peerAddress) {
+        boolean removed = false;
+        for (Map.Entry<CacheKey, Entry> entry : cache.entrySet()) {
+            if (entry.getValue().contains(peerAddress)) {
+                removed |= cache.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        return removed;
+    }
+}
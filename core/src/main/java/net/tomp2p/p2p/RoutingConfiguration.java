@@ -26,6 +26,8 @@ public class RoutingConfiguration {
 
     final private int parallel;
 
+    final private int maxParallel;
+
     final private boolean forceTCP;
 
     public RoutingConfiguration(int maxNoNewInfoDiff, int maxFailures, int parallel) {
@@ -60,14 +62,43 @@ public class RoutingConfiguration {
      */
     public RoutingConfiguration(final int maxDirectHits, final int maxNoNewInfoDiff, final int maxFailures,
             final int maxSuccess, final int parallel, final boolean forceTCP) {
+        this(maxDirectHits, maxNoNewInfoDiff, maxFailures, maxSuccess, parallel, parallel, forceTCP);
+    }
+
+    /**
+     * Sets the routing configuration with adaptive parallelism. The routing starts with p parallel requests and uses
+     * up to m requests if peers fail or if a request is slower than most of the recent routing requests. In the
+     * latter case, another peer is asked without waiting for the timeout of the slow request.
+     * 
+     * @param maxDirectHits
+     *            Number of direct hits (d)
+     * @param maxNoNewInfoDiff
+     *            Number of no new information (n)
+     * @param maxFailures
+     *            Number of failures (f)
+     * @param maxSuccess
+     *            Number of success (s)
+     * @param parallel
+     *            Number of parallel requests (p)
+     * @param maxParallel
+     *            Maximum number of parallel requests (m), the routing is adaptive if m is larger than p
+     * @param forceTCP
+     *            Flag to indicate that routing should be done with TCP instead of UDP
+     */
+    public RoutingConfiguration(final int maxDirectHits, final int maxNoNewInfoDiff, final int maxFailures,
+            final int maxSuccess, final int parallel, final int maxParallel, final boolean forceTCP) {
         if (maxDirectHits < 0 || maxNoNewInfoDiff < 0 || maxFailures < 0 || parallel < 0) {
             throw new IllegalArgumentException("need to be larger or equals zero");
         }
+        if (maxParallel < parallel) {
+            throw new IllegalArgumentException("max parallel needs to be larger or equals parallel");
+        }
         this.maxDirectHits = maxDirectHits;
         this.maxNoNewInfoDiff = maxNoNewInfoDiff;
         this.maxFailures = maxFailures;
         this.maxSuccess = maxSuccess;
         this.parallel = parallel;
+        this.maxParallel = maxParallel;
         this.forceTCP = forceTCP;
     }
 
@@ -102,6 +133,20 @@ public class RoutingConfiguration {
         return parallel;
     }
 
+    /**
+     * @return The maximum number of parallel requests, which is also the number of connections to reserve
+     */
+    public int getMaxParallel() {
+        return maxParallel;
+    }
+
+    /**
+     * @return True if the number of parallel requests adapts to failures and slow peers
+     */
+    public boolean isAdaptive() {
+        return maxParallel > parallel;
+    }
+
     /**
      * @return True if the routing should use TCP instead of the default UDP
      */
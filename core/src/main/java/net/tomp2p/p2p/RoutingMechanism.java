@@ -1,6 +1,8 @@
 package net.tomp2p.p2p;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Random;
@@ -8,6 +10,7 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.tomp2p.futures.BaseFuture;
@@ -35,6 +38,8 @@ public class RoutingMechanism {
     private static final Logger LOG = LoggerFactory.getLogger(RoutingMechanism.class);
     
     private final AtomicReferenceArray<FutureResponse> futureResponses;
+    // the time when the future responses were created
+    private final AtomicLongArray started;
     private final FutureRouting futureRoutingResponse;
 
     private NavigableSet<PeerAddress> queueToAsk;
@@ -52,6 +57,13 @@ public class RoutingMechanism {
     private int maxSucess;
     private boolean stopCreatingNewFutures;
 
+    private volatile int inFlightLimit = -1;
+
+    // the responses that have been evaluated, as the response of a straggler may end two steps
+    private final Set<FutureResponse> evaluated = Collections.newSetFromMap(
+            new IdentityHashMap<FutureResponse, Boolean>());
+    private int wave = 0;
+
     /**
      * Creates the routing mechanism. Make sure to set the max* fields.
      * 
@@ -63,6 +75,7 @@ public class RoutingMechanism {
     public RoutingMechanism(final AtomicReferenceArray<FutureResponse> futureResponses,
             final FutureRouting futureRoutingResponse) {
         this.futureResponses = futureResponses;
+        this.started = futureResponses == null ? null : new AtomicLongArray(futureResponses.length());
         this.futureRoutingResponse = futureRoutingResponse;
     }
     
@@ -77,6 +90,69 @@ public class RoutingMechanism {
         return futureResponses.length();
     }
 
+    /**
+     * @return The number of requests that may run in parallel without counting stragglers. This is lower than
+     *         {@link #parallel()} for adaptive routings.
+     */
+    public int inFlightLimit() {
+        final int limit = inFlightLimit;
+        return limit < 0 ? parallel() : Math.min(limit, parallel());
+    }
+
+    /**
+     * @param inFlightLimit
+     *            The number of requests that may run in parallel without counting stragglers
+     * @return This class
+     */
+    public RoutingMechanism inFlightLimit(final int inFlightLimit) {
+        this.inFlightLimit = inFlightLimit;
+        return this;
+    }
+
+    /**
+     * @return The current step of the routing. A step ends with the next response or if a request becomes a
+     *         straggler.
+     */
+    public synchronized int wave() {
+        return wave;
+    }
+
+    /**
+     * Ends a step of the routing, only one of the events that can end a step may continue the routing.
+     * 
+     * @param wave
+     *            The step that should be ended
+     * @return True if the step was ended by this call
+     */
+    public synchronized boolean claimWave(final int wave) {
+        if (this.wave != wave) {
+            return false;
+        }
+        this.wave++;
+        return true;
+    }
+
+    /**
+     * @param futureResponse
+     *            The response of a routing request
+     * @return True if the response has not been evaluated before
+     */
+    public synchronized boolean markEvaluated(final FutureResponse futureResponse) {
+        return evaluated.add(futureResponse);
+    }
+
+    /**
+     * @return True if a routing request is running
+     */
+    public boolean isActive() {
+        for (int i = 0; i < futureResponses.length(); i++) {
+            if (futureResponses.get(i) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * @return True if we should stop creating more futures, false otherwise
      */
@@ -104,6 +180,51 @@ public class RoutingMechanism {
         return futureResponses.getAndSet(i, futureResponse);
     }
 
+    /**
+     * @param i
+     *            The number of the future response to set
+     * @param futureResponse
+     *            The future response to set
+     * @param startedMillis
+     *            The time the request was sent
+     * @return The old future response
+     */
+    public FutureResponse futureResponse(final int i, final FutureResponse futureResponse,
+            final long startedMillis) {
+        started.set(i, startedMillis);
+        return futureResponses.getAndSet(i, futureResponse);
+    }
+
+    /**
+     * @param i
+     *            The number of the future response
+     * @param now
+     *            The current time
+     * @param stragglerMillis
+     *            The time after which a request is a straggler, if zero or negative, there are no stragglers
+     * @return True if the request is running longer than the straggler time
+     */
+    public boolean isStraggler(final int i, final long now, final long stragglerMillis) {
+        return stragglerMillis > 0 && now - started.get(i) >= stragglerMillis;
+    }
+
+    /**
+     * @param now
+     *            The current time
+     * @param stragglerMillis
+     *            The time after which a request is a straggler
+     * @return The time the oldest request that is not a straggler was sent, or now if there is no such request
+     */
+    public long firstStarted(final long now, final long stragglerMillis) {
+        long first = now;
+        for (int i = 0; i < futureResponses.length(); i++) {
+            if (futureResponses.get(i) != null && !isStraggler(i, now, stragglerMillis)) {
+                first = Math.min(first, started.get(i));
+            }
+        }
+        return first;
+    }
+
     /**
      * @param queueToAsk
      *            The queue that contains the peers that will be queried in the future
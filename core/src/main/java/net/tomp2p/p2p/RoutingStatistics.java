@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package net.tomp2p.p2p;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the round trip times and the failures of recent routing requests. Adaptive routings use this to
+ * decide how many requests to send in parallel and when a request is a straggler, i.e., when to ask another peer
+ * instead of waiting for the timeout. Hedged gets use the straggler time of their own requests as hedge delay.
+ *
+ * @author Thomas Bocek
+ */
+public class RoutingStatistics {
+
+    public static final int DEFAULT_SAMPLES = 128;
+
+    public static final double DEFAULT_PERCENTILE = 0.9;
+
+    // below this number of samples, the percentile is not meaningful
+    public static final int MIN_SAMPLES = 16;
+
+    // do not hedge requests that are fast anyway
+    public static final int MIN_STRAGGLER_MILLIS = 20;
+
+    // the weight of the latest request in the failure rate
+    private static final double FAILURE_WEIGHT = 0.1;
+
+    // the percentile is recalculated after this number of samples
+    private static final int UPDATE_INTERVAL = 8;
+
+    private final long[] samples;
+
+    private final double percentile;
+
+    // all access is synchronized on this
+    private int index = 0;
+
+    private int count = 0;
+
+    private int sinceUpdate = 0;
+
+    private long percentileMillis = -1;
+
+    private double failureRate = 0;
+
+    /**
+     * Creates statistics with {@link #DEFAULT_SAMPLES} samples and the {@link #DEFAULT_PERCENTILE}.
+     */
+    public RoutingStatistics() {
+        this(DEFAULT_SAMPLES, DEFAULT_PERCENTILE);
+    }
+
+    /**
+     * @param samples
+     *            The number of recent round trip times to keep
+     * @param percentile
+     *            The percentile of the round trip times, after which a request is a straggler
+     */
+    public RoutingStatistics(final int samples, final double percentile) {
+        if (samples < MIN_SAMPLES || percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("need at least " + MIN_SAMPLES
+                    + " samples and a percentile between 0 and 1");
+        }
+        this.samples = new long[samples];
+        this.percentile = percentile;
+    }
+
+    /**
+     * Adds the round trip time of a request that was successful.
+     *
+     * @param rttMillis
+     *            The round trip time
+     */
+    public synchronized void success(final long rttMillis) {
+        samples[index] = rttMillis;
+        index = (index + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+        failureRate *= 1 - FAILURE_WEIGHT;
+        if (count >= MIN_SAMPLES && (percentileMillis < 0 || ++sinceUpdate >= UPDATE_INTERVAL)) {
+            sinceUpdate = 0;
+            final long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            percentileMillis = sorted[Math.max((int) Math.ceil(percentile * count) - 1, 0)];
+        }
+    }
+
+    /**
+     * Adds a request that failed.
+     */
+    public synchronized void failure() {
+        failureRate = failureRate * (1 - FAILURE_WEIGHT) + FAILURE_WEIGHT;
+    }
+
+    /**
+     * @return The fraction of the recent requests that failed, weighted towards the latest requests
+     */
+    public synchronized double failureRate() {
+        return failureRate;
+    }
+
+    /**
+     * @return The time after which a request is a straggler or -1 if there are not enough samples yet
+     */
+    public synchronized long stragglerMillis() {
+        if (percentileMillis < 0) {
+            return -1;
+        }
+        return Math.max(percentileMillis, MIN_STRAGGLER_MILLIS);
+    }
+
+    /**
+     * Calculates the number of parallel requests to start a routing with. If requests fail, more requests are sent in
+     * parallel to compensate.
+     *
+     * @param parallel
+     *            The configured number of parallel requests
+     * @param maxParallel
+     *            The maximum number of parallel requests
+     * @return The number of parallel requests
+     */
+    public int parallel(final int parallel, final int maxParallel) {
+        final int extra = (int) Math.ceil(failureRate() * parallel);
+        return Math.min(parallel + extra, maxParallel);
+    }
+}
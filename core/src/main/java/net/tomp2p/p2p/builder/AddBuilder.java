@@ -61,7 +61,7 @@ public class AddBuilder extends DHTBuilder<AddBuilder> {
     }
 
     public AddBuilder setObject(Object object) throws IOException {
-        return setData(new Data(object));
+        return setData(new Data(object, peer.getPeerBean().serializer()));
     }
 
     public boolean isList() {
@@ -232,7 +232,7 @@ public class BootstrapBuilder {
     private FutureBootstrap bootstrap() {
         final FutureWrappedBootstrap<FutureWrapper<FutureRouting>> result = new FutureWrappedBootstrap<FutureWrapper<FutureRouting>>();
         result.setBootstrapTo(bootstrapTo);
-        int conn = Math.max(routingConfiguration.getParallel(), requestP2PConfiguration.getParallel());
+        int conn = Math.max(routingConfiguration.getMaxParallel(), requestP2PConfiguration.getParallel());
         FutureChannelCreator fcc = peer.getConnectionBean().reservation().create(conn, 0);
 
         fcc.addListener(new BaseFutureAdapter<FutureChannelCreator>() {
@@ -257,6 +257,7 @@ public class BootstrapBuilder {
             RoutingConfiguration routingConfiguration) {
         RoutingBuilder routingBuilder = new RoutingBuilder();
         routingBuilder.setParallel(routingConfiguration.getParallel());
+        routingBuilder.setMaxParallel(routingConfiguration.getMaxParallel());
         routingBuilder.setMaxNoNewInfo(routingConfiguration.getMaxNoNewInfo(requestP2PConfiguration
                 .getMinimumResults()));
         routingBuilder.setMaxDirectHits(Integer.MAX_VALUE);
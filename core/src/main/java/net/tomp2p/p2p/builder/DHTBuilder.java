@@ -260,6 +260,19 @@ public abstract class DHTBuilder<K extends DHTBuilder<K>> extends DefaultConnect
     
 
     protected void preBuild(String name) {
+        preBuild(name, true);
+    }
+
+    /**
+     * Sets the default values and reserves the channels.
+     * 
+     * @param name
+     *            The name of the builder
+     * @param reserveRouting
+     *            False if the operation reserves the channels for routing itself, as batch operations do, which route
+     *            many location keys
+     */
+    protected void preBuild(String name, boolean reserveRouting) {
         if (domainKey == null) {
             domainKey = Number160.ZERO;
         }
@@ -277,7 +290,7 @@ public abstract class DHTBuilder<K extends DHTBuilder<K>> extends DefaultConnect
         if (futureChannelCreator == null || 
         		(futureChannelCreator.getChannelCreator()!=null && futureChannelCreator.getChannelCreator().isShutdown())) {
             futureChannelCreator = peer.getConnectionBean().reservation()
-                    .create(routingConfiguration, requestP2PConfiguration, this);
+                    .create(reserveRouting ? routingConfiguration : null, requestP2PConfiguration, this);
         }
     }
 
@@ -285,6 +298,7 @@ public abstract class DHTBuilder<K extends DHTBuilder<K>> extends DefaultConnect
             RoutingConfiguration routingConfiguration) {
         RoutingBuilder routingBuilder = new RoutingBuilder();
         routingBuilder.setParallel(routingConfiguration.getParallel());
+        routingBuilder.setMaxParallel(routingConfiguration.getMaxParallel());
         routingBuilder.setMaxNoNewInfo(routingConfiguration.getMaxNoNewInfo(requestP2PConfiguration
                 .getMinimumResults()));
         routingBuilder.setMaxDirectHits(routingConfiguration.getMaxDirectHits());
@@ -19,7 +19,9 @@ package net.tomp2p.p2p.builder;
 import java.util.ArrayList;
 import java.util.Collection;
 
+import net.tomp2p.futures.DataStreamListener;
 import net.tomp2p.futures.FutureGet;
+import net.tomp2p.p2p.CumulativeScheme;
 import net.tomp2p.p2p.EvaluatingSchemeDHT;
 import net.tomp2p.p2p.Peer;
 import net.tomp2p.p2p.VotingSchemeDHT;
@@ -62,6 +64,10 @@ public class GetBuilder extends DHTBuilder<GetBuilder> implements SearchableBuil
 
     private int returnNr = -1;
 
+    private boolean batch = false;
+
+    private DataStreamListener dataStreamListener;
+
     static {
         NUMBER_ZERO_CONTENT_KEYS.add(Number160.ZERO);
     }
@@ -239,10 +245,72 @@ public class GetBuilder extends DHTBuilder<GetBuilder> implements SearchableBuil
         return from != null && to != null;
     }
 
+    /**
+     * @return The listener that receives the data while it arrives or null if the data is received completely
+     */
+    public DataStreamListener getDataStreamListener() {
+        return dataStreamListener;
+    }
+
+    /**
+     * Streams the data to the listener while it arrives, instead of buffering it until the response is complete.
+     * The data in the {@link FutureGet} has no content in this case. Since the content is not voted on, use it with
+     * one result, e.g., with a {@link net.tomp2p.p2p.RequestP2PConfiguration} that has a minimum of 1.
+     * 
+     * @param dataStreamListener
+     *            The listener that receives the data
+     * @return This class
+     */
+    public GetBuilder setDataStreamListener(final DataStreamListener dataStreamListener) {
+        this.dataStreamListener = dataStreamListener;
+        setStreaming(dataStreamListener != null);
+        return this;
+    }
+
+    /**
+     * @return True if the keys of this get have different location keys and are fetched from their responsible peers
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
+    /**
+     * @param batch
+     *            Set to true if the keys set with {@link #setKey(Collection)} have different location keys. Every
+     *            location key is routed on its own and all keys of a responsible peer are fetched with one request.
+     * @return This class
+     */
+    public GetBuilder setBatch(final boolean batch) {
+        this.batch = batch;
+        return this;
+    }
+
+    /**
+     * Fetches the keys set with {@link #setKey(Collection)} from the peers responsible for their location keys.
+     * 
+     * @return This class
+     */
+    public GetBuilder setBatch() {
+        this.batch = true;
+        return this;
+    }
+
     public FutureGet start() {
         if (peer.isShutdown()) {
             return FUTURE_SHUTDOWN;
         }
+        if (batch) {
+            if (keys == null) {
+                throw new IllegalArgumentException("A batch get needs the keys, set them with setKey().");
+            }
+            // the routing reserves its own channels, one routing per location key
+            preBuild("get-batch-builder", false);
+            if (evaluationScheme == null) {
+                // every key is fetched from one peer only, a majority vote would drop keys
+                evaluationScheme = new CumulativeScheme();
+            }
+            return peer.getDistributedHashMap().getBatch(this);
+        }
         preBuild("get-builder");
 
         if (all) {
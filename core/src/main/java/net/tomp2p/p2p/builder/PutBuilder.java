@@ -43,6 +43,8 @@ public class PutBuilder extends DHTBuilder<PutBuilder> {
     
     private PublicKey changePublicKey = null;
 
+    private boolean batch = false;
+
     public PutBuilder(Peer peer, Number160 locationKey) {
         super(peer, locationKey);
         self(this);
@@ -121,11 +123,11 @@ public class PutBuilder extends DHTBuilder<PutBuilder> {
     }
 
     public PutBuilder setObject(Object object) throws IOException {
-        return setData(new Data(object));
+        return setData(new Data(object, peer.getPeerBean().serializer()));
     }
 
     public PutBuilder setKeyObject(Number160 contentKey, Object object) throws IOException {
-        return setData(contentKey, new Data(object));
+        return setData(contentKey, new Data(object, peer.getPeerBean().serializer()));
     }
 
     public Map<Number640, Data> getDataMap() {
@@ -185,10 +187,49 @@ public class PutBuilder extends DHTBuilder<PutBuilder> {
     	return changePublicKey;
     }
 
+    /**
+     * @return True if the data of this put has different location keys and is stored on their responsible peers
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
+    /**
+     * @param batch
+     *            Set to true if the data set with {@link #setDataMap(Map)} has different location keys. Every location
+     *            key is routed on its own and all data of a responsible peer is stored with one request.
+     * @return This class
+     */
+    public PutBuilder setBatch(final boolean batch) {
+        this.batch = batch;
+        return this;
+    }
+
+    /**
+     * Stores the data set with {@link #setDataMap(Map)} on the peers responsible for their location keys.
+     * 
+     * @return This class
+     */
+    public PutBuilder setBatch() {
+        this.batch = true;
+        return this;
+    }
+
     public FuturePut start() {
         if (peer.isShutdown()) {
             return FUTURE_SHUTDOWN;
         }
+        if (batch) {
+            if (dataMap == null) {
+                throw new IllegalArgumentException("A batch put needs the data, set it with setDataMap().");
+            }
+            if (putMeta) {
+                throw new IllegalArgumentException("A batch put cannot change meta data.");
+            }
+            // the routing reserves its own channels, one routing per location key
+            preBuild("put-batch-builder", false);
+            return peer.getDistributedHashMap().putBatch(this);
+        }
         preBuild("put-builder");
         if (data != null) {
             if (dataMap == null) {
@@ -28,6 +28,7 @@ public class RoutingBuilder extends DefaultConnectionConfiguration {
     private int maxFailures;
     private int maxSuccess;
     private int parallel;
+    private int maxParallel;
     private boolean isBootstrap;
     private boolean isForceRoutingOnlyToSelf;
     private boolean isRoutingToOthers;
@@ -87,6 +88,19 @@ public class RoutingBuilder extends DefaultConnectionConfiguration {
 
     
 
+    public int getMaxParallel() {
+        return maxParallel;
+    }
+
+    /**
+     * @param maxParallel
+     *            The maximum number of parallel requests of an adaptive routing, if it is not larger than parallel,
+     *            the routing uses parallel requests
+     */
+    public void setMaxParallel(int maxParallel) {
+        this.maxParallel = maxParallel;
+    }
+
     public boolean isBootstrap() {
         return isBootstrap;
     }
@@ -162,13 +176,14 @@ public class RoutingBuilder extends DefaultConnectionConfiguration {
     }
 
     public RoutingMechanism createRoutingMechanism(FutureRouting futureRouting) {
-        final FutureResponse[] futureResponses = new FutureResponse[getParallel()];
+        final FutureResponse[] futureResponses = new FutureResponse[Math.max(getParallel(), getMaxParallel())];
         RoutingMechanism routingMechanism = new RoutingMechanism(
                 new AtomicReferenceArray<FutureResponse>(futureResponses), futureRouting);
         routingMechanism.setMaxDirectHits(getMaxDirectHits());
         routingMechanism.setMaxFailures(getMaxFailures());
         routingMechanism.setMaxNoNewInfo(getMaxNoNewInfo());
         routingMechanism.setMaxSucess(getMaxSuccess());
+        routingMechanism.inFlightLimit(getParallel());
         return routingMechanism;
     }
 
@@ -176,4 +191,12 @@ public class RoutingBuilder extends DefaultConnectionConfiguration {
 	    this.from = from;
 	    this.to = to;
     }
+
+    public Number640 getFrom() {
+        return from;
+    }
+
+    public Number640 getTo() {
+        return to;
+    }
 }
\ No newline at end of file
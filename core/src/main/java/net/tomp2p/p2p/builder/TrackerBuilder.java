@@ -122,7 +122,7 @@ public abstract class TrackerBuilder<K extends TrackerBuilder<K>> extends Defaul
             trackerConfiguration = new TrackerConfiguration(Math.min(size, 3), 5, 3, 30);
         }
         if (futureChannelCreator == null) {
-            int conn = Math.max(routingConfiguration.getParallel(), trackerConfiguration.getParallel());
+            int conn = Math.max(routingConfiguration.getMaxParallel(), trackerConfiguration.getParallel());
             futureChannelCreator = peer.getConnectionBean().reservation().create(conn, 0);
         }
     }
@@ -132,6 +132,7 @@ public abstract class TrackerBuilder<K extends TrackerBuilder<K>> extends Defaul
     public RoutingBuilder createBuilder(RoutingConfiguration routingConfiguration2) {
         RoutingBuilder routingBuilder = new RoutingBuilder();
         routingBuilder.setParallel(routingConfiguration.getParallel());
+        routingBuilder.setMaxParallel(routingConfiguration.getMaxParallel());
         routingBuilder.setMaxNoNewInfo(routingConfiguration.getMaxNoNewInfo(0));
         routingBuilder.setMaxDirectHits(routingConfiguration.getMaxDirectHits());
         routingBuilder.setMaxFailures(routingConfiguration.getMaxFailures());
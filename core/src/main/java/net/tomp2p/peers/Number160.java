@@ -240,6 +240,58 @@ public final class Number160 extends Number implements Comparable<Number160> {
         return new Number160(result);
     }
 
+    /**
+     * Compares the xor distances of two keys to this key without creating the distances, i.e., it is the same as
+     * this.xor(key1).compareTo(this.xor(key2)).
+     * 
+     * @param key1
+     *            The first key
+     * @param key2
+     *            The second key
+     * @return -1 if key1 is closer to this key, 1 if key2 is closer, 0 if both are equal
+     */
+    public int compareDistance(final Number160 key1, final Number160 key2) {
+        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
+            final long d1 = (this.val[i] ^ key1.val[i]) & LONG_MASK;
+            final long d2 = (this.val[i] ^ key2.val[i]) & LONG_MASK;
+            if (d1 < d2) {
+                return -1;
+            } else if (d1 > d2) {
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Calculates the bit length of the xor distance to a key without creating the distance, i.e., it is the same as
+     * this.xor(key).bitLength().
+     * 
+     * @param key
+     *            The second operand for the xor operation
+     * @return The bits used by the distance
+     */
+    public int xorBitLength(final Number160 key) {
+        for (int i = 0; i < INT_ARRAY_SIZE; i++) {
+            final int d = this.val[i] ^ key.val[i];
+            if (d != 0) {
+                return Integer.SIZE * (INT_ARRAY_SIZE - i) - Integer.numberOfLeadingZeros(d);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks if a bit is set.
+     * 
+     * @param bit
+     *            The position of the bit, 0 is the least significant bit
+     * @return True if the bit is set
+     */
+    public boolean testBit(final int bit) {
+        return ((this.val[INT_ARRAY_SIZE - 1 - (bit / Integer.SIZE)] >>> (bit % Integer.SIZE)) & 1) != 0;
+    }
+
     /**
      * Returns a copy of the backing array, which is always of size 5.
      * 
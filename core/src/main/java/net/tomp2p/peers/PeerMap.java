@@ -25,6 +25,8 @@ import java.util.Map;
 import java.util.NavigableSet;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.tomp2p.utils.CacheMap;
 import net.tomp2p.utils.ConcurrentCacheMap;
@@ -61,6 +63,9 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     // stores listeners that will be notified if a peer gets removed or added
     private final List<PeerMapChangeListener> peerMapChangeListeners = new ArrayList<PeerMapChangeListener>();
 
+    // stores listeners that will be notified if a peer failed, even if it was not removed
+    private final List<PeerStatusListener> peerFailedListeners = new ArrayList<PeerStatusListener>();
+
     private final PeerFilter peerFilter;
 
     // the number of failures until a peer is considered offline
@@ -70,6 +75,8 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     
     private final boolean peerVerification;
 
+    private final boolean latencyAware;
+
     /**
      * Creates the bag for the peers. This peer knows a lot about close peers and the further away the peers are, the
      * less known they are. Distance is measured with XOR of the peer ID. The distance of peer with ID 0x12 and peer
@@ -100,6 +107,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         this.maintenance = peerMapConfiguration.maintenance().init(peerMapVerified, peerMapOverflow,
                 offlineMap, shutdownMap, exceptionMap);
         this.peerVerification = peerMapConfiguration.isPeerVerification();
+        this.latencyAware = peerMapConfiguration.isLatencyAware();
     }
 
     /**
@@ -157,6 +165,31 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         }
     }
 
+    /**
+     * Add a listener that is notified with {@link PeerStatusListener#peerFailed(PeerAddress, FailReason)} for every
+     * failed peer, including timeouts that do not remove the peer from the map. This is thread-safe
+     * 
+     * @param peerFailedListener
+     *            The listener
+     */
+    public void addPeerFailedListener(final PeerStatusListener peerFailedListener) {
+        synchronized (peerFailedListeners) {
+            peerFailedListeners.add(peerFailedListener);
+        }
+    }
+
+    /**
+     * Remove a listener for failed peers. This is thread-safe
+     * 
+     * @param peerFailedListener
+     *            The listener
+     */
+    public void removePeerFailedListener(final PeerStatusListener peerFailedListener) {
+        synchronized (peerFailedListeners) {
+            peerFailedListeners.remove(peerFailedListener);
+        }
+    }
+
     /**
      * Notifies on insert. Since listeners are never changed, this is thread safe.
      * 
@@ -332,6 +365,11 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         if (remotePeer.getPeerId().isZero() || self().equals(remotePeer.getPeerId())) {
             return false;
         }
+        synchronized (peerFailedListeners) {
+            for (PeerStatusListener listener : peerFailedListeners) {
+                listener.peerFailed(remotePeer, reason);
+            }
+        }
         final int classMember = classMember(remotePeer.getPeerId());
         if (reason != FailReason.Timeout) {
             if(reason == FailReason.ProbablyOffline) {
@@ -412,6 +450,57 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         }
     }
     
+    /**
+     * Adds a measured round trip time to the statistics of a peer. If the peer is not in this map, the measurement is
+     * ignored.
+     * 
+     * @param peerAddress
+     *            The peer that responded
+     * @param rttMillis
+     *            The time between sending the request and receiving the response
+     */
+    public void updateRTT(final PeerAddress peerAddress, final long rttMillis) {
+        final PeerStatatistic peerStatatistic = peerStatatistic(peerAddress);
+        if (peerStatatistic != null) {
+            peerStatatistic.addRTT(rttMillis);
+        }
+    }
+
+    /**
+     * @param peerAddress
+     *            The peer to look up
+     * @return The smoothed round trip time of the peer or -1 if the peer is not in this map or was never measured
+     */
+    public long meanRTT(final PeerAddress peerAddress) {
+        final PeerStatatistic peerStatatistic = peerStatatistic(peerAddress);
+        return peerStatatistic == null ? -1 : peerStatatistic.getMeanRTT();
+    }
+
+    /**
+     * @return True if peers in the same distance class are ordered by their round trip time when routing
+     */
+    public boolean isLatencyAware() {
+        return latencyAware;
+    }
+
+    private PeerStatatistic peerStatatistic(final PeerAddress peerAddress) {
+        final int classMember = classMember(peerAddress.getPeerId());
+        if (classMember == -1) {
+            return null;
+        }
+        Map<Number160, PeerStatatistic> tmp = peerMapVerified.get(classMember);
+        synchronized (tmp) {
+            final PeerStatatistic peerStatatistic = tmp.get(peerAddress.getPeerId());
+            if (peerStatatistic != null) {
+                return peerStatatistic;
+            }
+        }
+        tmp = peerMapOverflow.get(classMember);
+        synchronized (tmp) {
+            return tmp.get(peerAddress.getPeerId());
+        }
+    }
+
     /**
      * Returns close peers to the peer itself.
      * @param atLeast The number we want to find at least
@@ -435,6 +524,46 @@ public class PeerMap implements PeerStatusListener, Maintainable {
     	return closePeers(self(), id, atLeast, peerMapVerified);
     }
 
+    /**
+     * Returns close peer from the set to a given key, optionally ordered by round trip time among peers in the same
+     * distance class to the key. The returned set contains the same peers in both cases.
+     * 
+     * @param id
+     *            The key that should be close to the keys in the map
+     * @param atLeast
+     *            The number we want to find at least
+     * @param preferLowLatency
+     *            True to order the peers with {@link #createLatencyComparator(Number160)}
+     * @return A sorted set with close peers first in this set.
+     */
+    public NavigableSet<PeerAddress> closePeers(final Number160 id, final int atLeast,
+            final boolean preferLowLatency) {
+        final NavigableSet<PeerAddress> closePeers = closePeers(id, atLeast);
+        if (!preferLowLatency) {
+            return closePeers;
+        }
+        final NavigableSet<PeerAddress> set = new TreeSet<PeerAddress>(createLatencyComparator(id));
+        set.addAll(closePeers);
+        return set;
+    }
+
+    /**
+     * Returns close peers from the bags to a given key. The bags are visited in the order of their distance to the key,
+     * so that only the bags that are needed are sorted. The bag of the key comes first. The bags that are smaller are
+     * farther away than the bag of the key, but closer than the larger bags. Among the smaller bags, bag i is closer
+     * than all bags below if bit i of the distance between self and the key is set, otherwise it is farther away than
+     * all bags below. The larger bags are farther away the larger they are.
+     * 
+     * @param self
+     *            The id of the peer that owns the bags
+     * @param other
+     *            The key that should be close to the keys in the map
+     * @param atLeast
+     *            The number we want to find at least
+     * @param peerMap
+     *            The bags, the index is the class member
+     * @return A sorted set with close peers first in this set.
+     */
     public static NavigableSet<PeerAddress> closePeers(final Number160 self, final Number160 other, final int atLeast, List<Map<Number160, PeerStatatistic>> peerMap) {
         final NavigableSet<PeerAddress> set = new TreeSet<PeerAddress>(createComparator(other));
         final int classMember = classMember(self, other);
@@ -454,19 +583,24 @@ public class PeerMap implements PeerStatusListener, Maintainable {
             return set;
         }
 
-        // in this case we have to go over all the bags that are smaller
-        boolean last = false;
-        for (int i = 0; i < classMember; i++) {
-            tmp = peerMap.get(i);
-            last = fillSet(atLeast, set, tmp);
+        final Number160 distance = distance(self, other);
+        // the smaller bags that are closer, the larger ones first
+        for (int i = classMember - 1; i >= 0; i--) {
+            if (distance.testBit(i) && fillSet(atLeast, set, peerMap.get(i))) {
+                return set;
+            }
         }
-        if (last) {
-            return set;
+        // the smaller bags that are farther away, the smaller ones first
+        for (int i = 0; i < classMember; i++) {
+            if (!distance.testBit(i) && fillSet(atLeast, set, peerMap.get(i))) {
+                return set;
+            }
         }
-        // in this case we have to go over all the bags that are larger
+        // in this case we have to go over the bags that are larger
         for (int i = classMember + 1; i < Number160.BITS; i++) {
-            tmp = peerMap.get(i);
-            fillSet(atLeast, set, tmp);
+            if (fillSet(atLeast, set, peerMap.get(i))) {
+                return set;
+            }
         }
         return set;
     }
@@ -499,6 +633,48 @@ public class PeerMap implements PeerStatusListener, Maintainable {
         return createComparator(self);
     }
 
+    /**
+     * Creates a comparator that orders peers by their distance class to the id, i.e., the bit length of the XOR
+     * distance, then by their smoothed round trip time and then by the XOR distance. Thus, the comparator prefers
+     * fast peers among peers that are about equally close, which is what the routing is able to exploit. Peers
+     * without a measured round trip time come last in their class. The round trip time of a peer is taken when it is
+     * compared for the first time, so the order does not change while the comparator is used in a sorted set.
+     * 
+     * @param id
+     *            The key that the peers should be close to
+     * @return The latency aware comparator
+     */
+    public Comparator<PeerAddress> createLatencyComparator(final Number160 id) {
+        final ConcurrentMap<Number160, Long> rtts = new ConcurrentHashMap<Number160, Long>();
+        return new Comparator<PeerAddress>() {
+            @Override
+            public int compare(final PeerAddress remotePeer, final PeerAddress remotePeer2) {
+                final int class1 = id.xorBitLength(remotePeer.getPeerId());
+                final int class2 = id.xorBitLength(remotePeer2.getPeerId());
+                if (class1 != class2) {
+                    return class1 < class2 ? -1 : 1;
+                }
+                final long rtt1 = rtt(remotePeer);
+                final long rtt2 = rtt(remotePeer2);
+                if (rtt1 != rtt2) {
+                    return rtt1 < rtt2 ? -1 : 1;
+                }
+                return isKadCloser(id, remotePeer, remotePeer2);
+            }
+
+            private long rtt(final PeerAddress peerAddress) {
+                final Long cached = rtts.get(peerAddress.getPeerId());
+                if (cached != null) {
+                    return cached;
+                }
+                final long meanRTT = meanRTT(peerAddress);
+                final Long rtt = meanRTT < 0 ? Long.MAX_VALUE : meanRTT;
+                final Long old = rtts.putIfAbsent(peerAddress.getPeerId(), rtt);
+                return old == null ? rtt : old;
+            }
+        };
+    }
+
     /**
      * Return all addresses from the neighbor list. The collection is a copy and it is partially sorted.
      * 
@@ -606,7 +782,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return -1 if key1 is closer to key, otherwise 1. 0 is returned if both are equal.
      */
     public static int isCloser(final Number160 id, final Number160 rn, final Number160 rn2) {
-        return distance(id, rn).compareTo(distance(id, rn2));
+        return id.compareDistance(rn, rn2);
     }
 
     /**
@@ -633,7 +809,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return -1 if first peer is closer, 1 otherwise, 0 if both are equal
      */
     public static int isKadCloser(final Number160 id, final PeerAddress rn, final PeerAddress rn2) {
-        return distance(id, rn.getPeerId()).compareTo(distance(id, rn2.getPeerId()));
+        return id.compareDistance(rn.getPeerId(), rn2.getPeerId());
     }
 
     /**
@@ -662,7 +838,7 @@ public class PeerMap implements PeerStatusListener, Maintainable {
      * @return returns the bit difference and -1 if they are equal
      */
     static int classMember(final Number160 id1, final Number160 id2) {
-        return distance(id1, id2).bitLength() - 1;
+        return id1.xorBitLength(id2) - 1;
     }
 
     /**
@@ -34,6 +34,7 @@ public class PeerMapConfiguration {
     private PeerFilter peerFilter;
     private Maintenance maintenance;
     private boolean peerVerification;
+    private boolean latencyAware;
 
     /**
      * Constructor with reasonable defaults.
@@ -53,6 +54,7 @@ public class PeerMapConfiguration {
         peerFilter = new DefaultPeerFilter();
         maintenance = new DefaultMaintenance(4, new int[] { 2, 4, 8, 16, 32, 64 });
         peerVerification = true;
+        latencyAware = false;
         // CHECKSTYLE:ON
     }
 
@@ -232,4 +234,22 @@ public class PeerMapConfiguration {
     	this.peerVerification = reerVerification;
     	return this;
     }
+
+    /**
+     * @return True if peers in the same distance class are ordered by their round trip time when routing
+     */
+    public boolean isLatencyAware() {
+        return latencyAware;
+    }
+
+    /**
+     * @param latencyAware
+     *            Set to true to prefer peers with a lower round trip time among peers in the same distance class
+     *            when routing. The default is false.
+     * @return this class
+     */
+    public PeerMapConfiguration latencyAware(final boolean latencyAware) {
+        this.latencyAware = latencyAware;
+        return this;
+    }
 }
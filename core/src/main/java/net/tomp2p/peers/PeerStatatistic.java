@@ -41,6 +41,11 @@ public class PeerStatatistic implements Serializable {
 
     private PeerAddress peerAddress;
 
+    // the smoothed round trip time and its variance as in RFC 6298, all access is synchronized on this
+    private double meanRTT = -1;
+
+    private double varianceRTT = 0;
+
     /**
      * Constructor. Sets the peer address
      * 
@@ -103,6 +108,38 @@ public class PeerStatatistic implements Serializable {
         return (int) (lastSeenOnline.get() - created);
     }
 
+    /**
+     * Adds a measured round trip time to the smoothed round trip time and its variance, weighted as in RFC 6298.
+     * 
+     * @param rttMillis
+     *            The time between sending a request and receiving its response
+     */
+    public synchronized void addRTT(final long rttMillis) {
+        if (meanRTT < 0) {
+            meanRTT = rttMillis;
+            varianceRTT = rttMillis / 2d;
+        } else {
+            // CHECKSTYLE:OFF
+            varianceRTT = 0.75 * varianceRTT + 0.25 * Math.abs(meanRTT - rttMillis);
+            meanRTT = 0.875 * meanRTT + 0.125 * rttMillis;
+            // CHECKSTYLE:ON
+        }
+    }
+
+    /**
+     * @return The smoothed round trip time in milliseconds or -1 if no response has been measured
+     */
+    public synchronized long getMeanRTT() {
+        return Math.round(meanRTT);
+    }
+
+    /**
+     * @return The variance of the round trip time in milliseconds or 0 if no response has been measured
+     */
+    public synchronized long getVarianceRTT() {
+        return Math.round(varianceRTT);
+    }
+
     /**
      * @return the peer address associated with this peer address
      */
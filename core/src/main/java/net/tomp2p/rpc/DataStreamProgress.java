@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.rpc;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.tomp2p.futures.DataStreamListener;
+import net.tomp2p.futures.ProgressListener;
+import net.tomp2p.message.DataMap;
+import net.tomp2p.message.Message;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.Data;
+
+/**
+ * Hands the data of a streaming get response to a {@link DataStreamListener} while it is decoded. Every call of
+ * {@link #progress(Message)} takes the received parts out of the data objects, so that they are not buffered until
+ * the response is complete. The progress is called from the I/O thread of the response, one call at a time.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+final class DataStreamProgress implements ProgressListener {
+
+    private final DataStreamListener dataStreamListener;
+
+    // the keys that have been streamed completely
+    private final Set<Number640> finished = new HashSet<Number640>();
+
+    /**
+     * @param dataStreamListener
+     *            The listener that gets the received parts
+     */
+    DataStreamProgress(final DataStreamListener dataStreamListener) {
+        this.dataStreamListener = dataStreamListener;
+    }
+
+    @Override
+    public void progress(final Message interMediateMessage) {
+        final DataMap dataMap = interMediateMessage.getDataMap(0);
+        if (dataMap == null) {
+            return;
+        }
+        for (Map.Entry<Number640, Data> entry : dataMap.dataMap().entrySet()) {
+            if (finished.contains(entry.getKey())) {
+                continue;
+            }
+            final Data data = entry.getValue();
+            final boolean last = data.isBufferComplete();
+            final ByteBuf chunk = data.drainBuffer();
+            try {
+                if (chunk.isReadable() || last) {
+                    dataStreamListener.chunk(interMediateMessage.getSender(), entry.getKey(), chunk, last);
+                }
+            } finally {
+                chunk.release();
+            }
+            if (last) {
+                finished.add(entry.getKey());
+            }
+        }
+    }
+}
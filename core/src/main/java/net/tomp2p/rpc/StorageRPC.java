@@ -184,8 +184,6 @@ public class StorageRPC extends DispatchHandler {
     private FutureResponse put(final PeerAddress remotePeer, final PutBuilder putBuilder, final Type type,
             final ChannelCreator channelCreator) {
 
-        Utils.nullCheck(remotePeer);
-
         final DataMap dataMap;
         if (putBuilder.getDataMap() != null) {
             dataMap = new DataMap(putBuilder.getDataMap());
@@ -193,6 +191,38 @@ public class StorageRPC extends DispatchHandler {
             dataMap = new DataMap(putBuilder.getLocationKey(), putBuilder.getDomainKey(),
                     putBuilder.getVersionKey(), putBuilder.getDataMapContent());
         }
+        return put(remotePeer, putBuilder, dataMap, type, channelCreator);
+    }
+
+    /**
+     * Stores a part of the data of a batch put on a remote peer. The keys may have different location keys, the remote
+     * peer stores all of them in one request. This is an RPC.
+     * 
+     * @param remotePeer
+     *            The remote peer to store the data
+     * @param putBuilder
+     *            The batch put builder with the options of the put
+     * @param dataMap
+     *            The keys and data that the remote peer is responsible for
+     * @param channelCreator
+     *            The channel creator
+     * @return FutureResponse that stores which keys have been stored.
+     */
+    public FutureResponse putBatch(final PeerAddress remotePeer, final PutBuilder putBuilder,
+            final Map<Number640, Data> dataMap, final ChannelCreator channelCreator) {
+        final Type type;
+        if (putBuilder.isPutIfAbsent()) {
+            type = putBuilder.isProtectDomain() ? Type.REQUEST_4 : Type.REQUEST_3;
+        } else {
+            type = putBuilder.isProtectDomain() ? Type.REQUEST_2 : Type.REQUEST_1;
+        }
+        return put(remotePeer, putBuilder, new DataMap(dataMap), type, channelCreator);
+    }
+
+    private FutureResponse put(final PeerAddress remotePeer, final PutBuilder putBuilder, final DataMap dataMap,
+            final Type type, final ChannelCreator channelCreator) {
+
+        Utils.nullCheck(remotePeer);
 
         final Message message = createMessage(remotePeer, RPC.Commands.PUT.getNr(), type);
 
@@ -416,17 +446,7 @@ public class StorageRPC extends DispatchHandler {
 
     public FutureResponse get(final PeerAddress remotePeer, final GetBuilder getBuilder,
             final ChannelCreator channelCreator) {
-    	final Type type;
-        if (getBuilder.isAscending() && getBuilder.isBloomFilterAnd()) {
-            type = Type.REQUEST_1;
-        } else if(!getBuilder.isAscending() && getBuilder.isBloomFilterAnd()){
-            type = Type.REQUEST_2;
-        } else if(getBuilder.isAscending() && !getBuilder.isBloomFilterAnd()){
-        	type = Type.REQUEST_3;
-        } else {
-        	type = Type.REQUEST_4;
-        }
-        final Message message = createMessage(remotePeer, RPC.Commands.GET.getNr(), type);
+        final Message message = createMessage(remotePeer, RPC.Commands.GET.getNr(), getType(getBuilder));
 
         if (getBuilder.isSign()) {
             message.setPublicKeyAndSign(getBuilder.keyPair());
@@ -464,7 +484,7 @@ public class StorageRPC extends DispatchHandler {
             message.setKeyCollection(new KeyCollection(getBuilder.keys()));
         }
 
-        final FutureResponse futureResponse = new FutureResponse(message);
+        final FutureResponse futureResponse = createFutureResponse(message, getBuilder);
         final RequestHandler<FutureResponse> request = new RequestHandler<FutureResponse>(futureResponse,
                 peerBean(), connectionBean(), getBuilder);
         if (!getBuilder.isForceUDP()) {
@@ -474,6 +494,62 @@ public class StorageRPC extends DispatchHandler {
         }
     }
 
+    /**
+     * Gets a part of the keys of a batch get from a remote peer. The keys may have different location keys, the remote
+     * peer returns all of them in one response. This is an RPC.
+     * 
+     * @param remotePeer
+     *            The remote peer to get the data from
+     * @param getBuilder
+     *            The batch get builder with the options of the get
+     * @param keys
+     *            The keys that the remote peer is responsible for
+     * @param channelCreator
+     *            The channel creator
+     * @return FutureResponse that contains the data that has been found.
+     */
+    public FutureResponse getBatch(final PeerAddress remotePeer, final GetBuilder getBuilder,
+            final Collection<Number640> keys, final ChannelCreator channelCreator) {
+        final Message message = createMessage(remotePeer, RPC.Commands.GET.getNr(), getType(getBuilder));
+        if (getBuilder.isSign()) {
+            message.setPublicKeyAndSign(getBuilder.keyPair());
+        }
+        message.setKeyCollection(new KeyCollection(keys));
+
+        final FutureResponse futureResponse = createFutureResponse(message, getBuilder);
+        final RequestHandler<FutureResponse> request = new RequestHandler<FutureResponse>(futureResponse,
+                peerBean(), connectionBean(), getBuilder);
+        if (!getBuilder.isForceUDP()) {
+            return request.sendTCP(channelCreator);
+        } else {
+            return request.sendUDP(channelCreator);
+        }
+    }
+
+    /**
+     * Creates the future for a get request. If the data should be streamed, the response is requested as streaming,
+     * so that the data is handed to the listener while it arrives.
+     */
+    private static FutureResponse createFutureResponse(final Message message, final GetBuilder getBuilder) {
+        if (getBuilder.getDataStreamListener() == null) {
+            return new FutureResponse(message);
+        }
+        message.setStreaming();
+        return new FutureResponse(message, new DataStreamProgress(getBuilder.getDataStreamListener()));
+    }
+
+    private static Type getType(final GetBuilder getBuilder) {
+        if (getBuilder.isAscending() && getBuilder.isBloomFilterAnd()) {
+            return Type.REQUEST_1;
+        } else if (!getBuilder.isAscending() && getBuilder.isBloomFilterAnd()) {
+            return Type.REQUEST_2;
+        } else if (getBuilder.isAscending() && !getBuilder.isBloomFilterAnd()) {
+            return Type.REQUEST_3;
+        } else {
+            return Type.REQUEST_4;
+        }
+    }
+
     /**
      * Removes data from a peer. This is an RPC.
      * 
@@ -548,23 +624,32 @@ public class StorageRPC extends DispatchHandler {
                 || message.getCommand() == RPC.Commands.PUT_META.getNr())) {
             throw new IllegalArgumentException("Message content is wrong "+message.getCommand());
         }
+        if (!message.isDone()) {
+            // a streaming request is handled once it is complete, only the response is streamed
+            return;
+        }
         final Message responseMessage = createResponseMessage(message, Type.OK);
 
         //switch/case does not work here out of the box, need to convert byte back to enum, not sure if thats worth it.
-        if (message.getCommand() == RPC.Commands.ADD.getNr()) {
-        	handleAdd(message, responseMessage, isDomainProtected(message));
-        } else if(message.getCommand() == RPC.Commands.PUT.getNr()) {
-            handlePut(message, responseMessage, isStoreIfAbsent(message), isDomainProtected(message));
-        } else if (message.getCommand() == RPC.Commands.GET.getNr()) {
-            handleGet(message, responseMessage);
-        } else if (message.getCommand() == RPC.Commands.DIGEST.getNr() || message.getCommand() == RPC.Commands.DIGEST_BLOOMFILTER.getNr()) {
-            handleDigest(message, responseMessage, message.getCommand() == RPC.Commands.DIGEST_BLOOMFILTER.getNr());
-        } else if (message.getCommand() == RPC.Commands.REMOVE.getNr()) {
-            handleRemove(message, responseMessage, message.getType() == Type.REQUEST_2);
-        } else if (message.getCommand() == RPC.Commands.PUT_META.getNr()) {
-            handlePutMeta(message, responseMessage, message.getType() == Type.REQUEST_2);
-        }else {
-            throw new IllegalArgumentException("Message content is wrong");
+        try {
+            if (message.getCommand() == RPC.Commands.ADD.getNr()) {
+            	handleAdd(message, responseMessage, isDomainProtected(message));
+            } else if(message.getCommand() == RPC.Commands.PUT.getNr()) {
+                handlePut(message, responseMessage, isStoreIfAbsent(message), isDomainProtected(message));
+            } else if (message.getCommand() == RPC.Commands.GET.getNr()) {
+                handleGet(message, responseMessage);
+            } else if (message.getCommand() == RPC.Commands.DIGEST.getNr() || message.getCommand() == RPC.Commands.DIGEST_BLOOMFILTER.getNr()) {
+                handleDigest(message, responseMessage, message.getCommand() == RPC.Commands.DIGEST_BLOOMFILTER.getNr());
+            } else if (message.getCommand() == RPC.Commands.REMOVE.getNr()) {
+                handleRemove(message, responseMessage, message.getType() == Type.REQUEST_2);
+            } else if (message.getCommand() == RPC.Commands.PUT_META.getNr()) {
+                handlePutMeta(message, responseMessage, message.getType() == Type.REQUEST_2);
+            }else {
+                throw new IllegalArgumentException("Message content is wrong");
+            }
+        } finally {
+            // the storage keeps its own copy, the buffers of the request are not needed anymore
+            message.release();
         }
         if (sign) {
             responseMessage.setPublicKeyAndSign(peerBean().getKeyPair());
@@ -745,6 +830,10 @@ public class StorageRPC extends DispatchHandler {
             Number640 max = new Number640(locationKey, domainKey, Number160.MAX_VALUE, Number160.MAX_VALUE);
             result = peerBean().storage().get(min, max, limit, ascending);
         }
+        if (message.isStreaming()) {
+            // the requester processes the data while it arrives
+            responseMessage.setStreaming();
+        }
         responseMessage.setDataMap(new DataMap(result));
         return responseMessage;
     }
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.utils.Utils;
+
+/**
+ * A compact binary serializer for the common value types. The encoding starts with {@link #MAGIC}, followed by a type
+ * tag and the value. Integers, longs, and lengths are written as variable length integers, strings as UTF-8.
+ * <p>
+ * Supported are null, the boxed primitives, {@link String}, byte[], {@link Number160}, {@link Number640}, and
+ * {@link ArrayList}, {@link HashSet}, and {@link HashMap} of supported types. Any other object is written with the
+ * Java serialization, so every {@link java.io.Serializable} object can be encoded. Other collection classes are not
+ * converted, since they would be decoded as a different class.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public class BinarySerializer implements Serializer {
+
+    /**
+     * The first byte of every encoded object. Java serialization starts with 0xAC, thus the two can be distinguished.
+     */
+    public static final byte MAGIC = 0x54;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte BYTE = 3;
+    private static final byte SHORT = 4;
+    private static final byte INTEGER = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte STRING = 10;
+    private static final byte BYTES = 11;
+    private static final byte NUMBER160 = 12;
+    private static final byte NUMBER640 = 13;
+    private static final byte LIST = 14;
+    private static final byte SET = 15;
+    private static final byte MAP = 16;
+    private static final byte JAVA = 17;
+
+    /**
+     * @param buf
+     *            The buffer to check, the reader index is not modified
+     * @return True if the buffer was encoded with this serializer
+     */
+    public static boolean isBinary(final ByteBuf buf) {
+        return buf.isReadable() && buf.getByte(buf.readerIndex()) == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(final Object object) throws IOException {
+        final ByteBuf buf = Unpooled.buffer();
+        buf.writeByte(MAGIC);
+        write(buf, object);
+        final byte[] me = new byte[buf.readableBytes()];
+        buf.readBytes(me);
+        return me;
+    }
+
+    @Override
+    public Object decode(final ByteBuf buf) throws ClassNotFoundException, IOException {
+        if (buf.readByte() != MAGIC) {
+            throw new IOException("not encoded with the binary serializer");
+        }
+        try {
+            return read(buf);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("truncated object", e);
+        }
+    }
+
+    private static void write(final ByteBuf buf, final Object object) throws IOException {
+        if (object == null) {
+            buf.writeByte(NULL);
+        } else if (object instanceof Boolean) {
+            buf.writeByte(((Boolean) object) ? TRUE : FALSE);
+        } else if (object instanceof Byte) {
+            buf.writeByte(BYTE);
+            buf.writeByte((Byte) object);
+        } else if (object instanceof Short) {
+            buf.writeByte(SHORT);
+            buf.writeShort((Short) object);
+        } else if (object instanceof Integer) {
+            buf.writeByte(INTEGER);
+            writeVarLong(buf, zigZag((Integer) object));
+        } else if (object instanceof Long) {
+            buf.writeByte(LONG);
+            writeVarLong(buf, zigZag((Long) object));
+        } else if (object instanceof Float) {
+            buf.writeByte(FLOAT);
+            buf.writeFloat((Float) object);
+        } else if (object instanceof Double) {
+            buf.writeByte(DOUBLE);
+            buf.writeDouble((Double) object);
+        } else if (object instanceof Character) {
+            buf.writeByte(CHARACTER);
+            buf.writeChar((Character) object);
+        } else if (object instanceof String) {
+            buf.writeByte(STRING);
+            writeBytes(buf, ((String) object).getBytes(UTF8));
+        } else if (object instanceof byte[]) {
+            buf.writeByte(BYTES);
+            writeBytes(buf, (byte[]) object);
+        } else if (object instanceof Number160) {
+            buf.writeByte(NUMBER160);
+            buf.writeBytes(((Number160) object).toByteArray());
+        } else if (object instanceof Number640) {
+            final Number640 key = (Number640) object;
+            buf.writeByte(NUMBER640);
+            buf.writeBytes(key.getLocationKey().toByteArray());
+            buf.writeBytes(key.getDomainKey().toByteArray());
+            buf.writeBytes(key.getContentKey().toByteArray());
+            buf.writeBytes(key.getVersionKey().toByteArray());
+        } else if (object.getClass() == ArrayList.class) {
+            buf.writeByte(LIST);
+            writeCollection(buf, (Collection<?>) object);
+        } else if (object.getClass() == HashSet.class) {
+            buf.writeByte(SET);
+            writeCollection(buf, (Collection<?>) object);
+        } else if (object.getClass() == HashMap.class) {
+            final Map<?, ?> map = (Map<?, ?>) object;
+            buf.writeByte(MAP);
+            writeVarLong(buf, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(buf, entry.getKey());
+                write(buf, entry.getValue());
+            }
+        } else {
+            buf.writeByte(JAVA);
+            writeBytes(buf, Utils.encodeJavaObject(object));
+        }
+    }
+
+    private static void writeCollection(final ByteBuf buf, final Collection<?> collection) throws IOException {
+        writeVarLong(buf, collection.size());
+        for (Object element : collection) {
+            write(buf, element);
+        }
+    }
+
+    private static Object read(final ByteBuf buf) throws ClassNotFoundException, IOException {
+        final byte type = buf.readByte();
+        switch (type) {
+        case NULL:
+            return null;
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case BYTE:
+            return buf.readByte();
+        case SHORT:
+            return buf.readShort();
+        case INTEGER:
+            return (int) unZigZag(readVarLong(buf));
+        case LONG:
+            return unZigZag(readVarLong(buf));
+        case FLOAT:
+            return buf.readFloat();
+        case DOUBLE:
+            return buf.readDouble();
+        case CHARACTER:
+            return buf.readChar();
+        case STRING:
+            return new String(readBytes(buf), UTF8);
+        case BYTES:
+            return readBytes(buf);
+        case NUMBER160:
+            return readNumber160(buf);
+        case NUMBER640:
+            return new Number640(readNumber160(buf), readNumber160(buf), readNumber160(buf), readNumber160(buf));
+        case LIST:
+            final int listSize = readSize(buf);
+            final List<Object> list = new ArrayList<Object>(listSize);
+            for (int i = 0; i < listSize; i++) {
+                list.add(read(buf));
+            }
+            return list;
+        case SET:
+            final int setSize = readSize(buf);
+            final HashSet<Object> set = new HashSet<Object>();
+            for (int i = 0; i < setSize; i++) {
+                set.add(read(buf));
+            }
+            return set;
+        case MAP:
+            final int mapSize = readSize(buf);
+            final Map<Object, Object> map = new HashMap<Object, Object>();
+            for (int i = 0; i < mapSize; i++) {
+                final Object key = read(buf);
+                map.put(key, read(buf));
+            }
+            return map;
+        case JAVA:
+            final int length = readSize(buf);
+            final Object object = Utils.decodeJavaObject(buf.slice(buf.readerIndex(), length));
+            buf.skipBytes(length);
+            return object;
+        default:
+            throw new IOException("unknown type " + type);
+        }
+    }
+
+    private static Number160 readNumber160(final ByteBuf buf) {
+        final byte[] me = new byte[Number160.BYTE_ARRAY_SIZE];
+        buf.readBytes(me);
+        return new Number160(me);
+    }
+
+    private static void writeBytes(final ByteBuf buf, final byte[] me) {
+        writeVarLong(buf, me.length);
+        buf.writeBytes(me);
+    }
+
+    private static byte[] readBytes(final ByteBuf buf) throws IOException {
+        final byte[] me = new byte[readSize(buf)];
+        buf.readBytes(me);
+        return me;
+    }
+
+    private static int readSize(final ByteBuf buf) throws IOException {
+        final long size = readVarLong(buf);
+        // every element needs at least one byte, this prevents huge allocations on corrupt input
+        if (size < 0 || size > buf.readableBytes()) {
+            throw new IOException("invalid size " + size);
+        }
+        return (int) size;
+    }
+
+    private static void writeVarLong(final ByteBuf buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    private static long readVarLong(final ByteBuf buf) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final byte b = buf.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("variable length integer too long");
+    }
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -46,6 +46,9 @@ public class Data {
 
 	private static final int MAX_BYTE_SIZE = 256;
 
+	private static final Serializer JAVA_SERIALIZER = new JavaSerializer();
+	private static final Serializer BINARY_SERIALIZER = new BinarySerializer();
+
 	/**
 	 * small means 8 bit, medium is 32bit.
 	 * 
@@ -77,8 +80,11 @@ public class Data {
 	// never serialized over the network in this object
 	private final long validFromMillis;
 	private SignatureFactory signatureFactory;
+	private Serializer serializer;
 	private Number160 hash;
 	private boolean meta;
+	// the public key that the signature has been verified with
+	private PublicKey verifiedPublicKey;
 
 	/**
 	 * Create a data object that does have the complete data.
@@ -137,7 +143,23 @@ public class Data {
 	}
 
 	public Data(final Object object) throws IOException {
-		this(Utils.encodeJavaObject(object));
+		this(object, JAVA_SERIALIZER);
+	}
+
+	/**
+	 * Creates a data object from an object that is encoded with the given
+	 * serializer.
+	 * 
+	 * @param object
+	 *            The object to store
+	 * @param serializer
+	 *            The serializer, e.g., {@link BinarySerializer}
+	 * @throws IOException
+	 *             If the object cannot be encoded
+	 */
+	public Data(final Object object, final Serializer serializer) throws IOException {
+		this(serializer.encode(object));
+		this.serializer = serializer;
 	}
 
 	public Data(final byte[] buffer) {
@@ -244,6 +266,7 @@ public class Data {
 		if (data.publicKeyFlag) {
 			data.publicKey = signatureFactory.decodePublicKey(buf);
 		}
+		data.signatureFactory = signatureFactory;
 		return data;
 	}
 	
@@ -290,8 +313,24 @@ public class Data {
 		return verify(publicKey);
 	}
 
+	/**
+	 * Verifies the signature of this data object. A successful verification
+	 * is remembered, so checking the same object again with the same public
+	 * key does not cost another public key operation.
+	 * 
+	 * @param publicKey
+	 *            The public key to verify the signature with
+	 * @return True if the signature is correct
+	 */
 	public boolean verify(PublicKey publicKey) throws InvalidKeyException, SignatureException, IOException {
-		return signatureFactory().verify(publicKey, buffer.toByteBuf(), signature);
+		if (publicKey != null && publicKey.equals(verifiedPublicKey)) {
+			return true;
+		}
+		final boolean verified = signatureFactory().verify(publicKey, buffer.toByteBuf(), signature);
+		if (verified) {
+			verifiedPublicKey = publicKey;
+		}
+		return verified;
 	}
 
 	public void encodeHeader(final AlternativeCompositeByteBuf buf) {
@@ -372,8 +411,43 @@ public class Data {
 		return buffer.toByteBuf();
 	}
 
+	/**
+	 * Gives the buffers of this data object back. This matters for data that
+	 * has been received in pooled buffers. Duplicates of this object share the
+	 * buffers and must not be used afterwards. Data that wraps a byte array is
+	 * not affected. Received data belongs to the one it is handed to, e.g.,
+	 * the caller of {@link net.tomp2p.futures.FutureGet#getData()} or the
+	 * storage, see {@link Storage#put(net.tomp2p.peers.Number640, Data)}.
+	 * 
+	 * @return This class
+	 */
+	public Data release() {
+		buffer.release();
+		return this;
+	}
+
+	/**
+	 * Takes the part of the body that has been received so far out of this
+	 * data object. This is used for streaming, the memory stays bounded as the
+	 * received parts are not kept in this object.
+	 * 
+	 * @return The part of the body received since the last call, the caller
+	 *         needs to release it
+	 */
+	public ByteBuf drainBuffer() {
+		return buffer.drain();
+	}
+
+	/**
+	 * @return True if the whole body of a received data object has been
+	 *         decoded
+	 */
+	public boolean isBufferComplete() {
+		return buffer.alreadyTransferred() == length();
+	}
+
 	public Object object() throws ClassNotFoundException, IOException {
-		return Utils.decodeJavaObject(buffer);
+		return serializer().decode(buffer.toByteBuf());
 	}
 
 	public long validFromMillis() {
@@ -439,6 +513,35 @@ public class Data {
 		return this;
 	}
 
+	/**
+	 * The serializer is not transmitted over the network. If no serializer is
+	 * set, it is chosen by the first byte of the payload, which is
+	 * {@link BinarySerializer#MAGIC} for the binary serializer. Any other
+	 * payload is decoded with the Java serialization.
+	 * 
+	 * @return The serializer that is used in {@link #object()}
+	 */
+	public Serializer serializer() {
+		if (serializer != null) {
+			return serializer;
+		} else if (BinarySerializer.isBinary(buffer.toByteBuf())) {
+			return BINARY_SERIALIZER;
+		} else {
+			return JAVA_SERIALIZER;
+		}
+	}
+
+	/**
+	 * @param serializer
+	 *            The serializer to decode the payload, set this for custom
+	 *            serializers on received data objects
+	 * @return This class
+	 */
+	public Data serializer(Serializer serializer) {
+		this.serializer = serializer;
+		return this;
+	}
+
 	public boolean isProtectedEntry() {
 		return protectedEntry;
 	}
@@ -530,11 +633,30 @@ public class Data {
 
 	/**
 	 * @return A shallow copy where the data is shared but the reader and writer
-	 *         index is not shared
+	 *         index is not shared. It is valid until this object is released.
 	 */
 	public Data duplicate() {
-		Data data = new Data(buffer.shallowCopy(), length).publicKey(publicKey).signatureFactory(signatureFactory)
-				.signature(signature).basedOn(basedOn).ttlSeconds(ttlSeconds);
+		return copyMeta(new Data(buffer.shallowCopy(), length));
+	}
+
+	/**
+	 * Data that is received shares the buffers of the network layer. Keeping
+	 * it would keep the whole received buffer, which may be pooled, even if
+	 * this data object is small. This creates a copy with its own byte array.
+	 * 
+	 * @return This object if it already wraps a byte array, otherwise a copy
+	 *         that wraps a byte array. This object is not released.
+	 */
+	public Data detach() {
+		if (buffer.isWrappedArray()) {
+			return this;
+		}
+		return copyMeta(new Data(toBytes()));
+	}
+
+	private Data copyMeta(final Data data) {
+		data.publicKey(publicKey).signatureFactory(signatureFactory).serializer(serializer).signature(signature)
+				.basedOn(basedOn).ttlSeconds(ttlSeconds);
 		// set all the flags. Although signature, basedOn, and ttlSeconds set a
 		// flag, they will be overwritten with the data from this class
 		data.publicKeyFlag = publicKeyFlag;
@@ -544,6 +666,7 @@ public class Data {
 		data.signed = signed;
 		data.ttl = ttl;
 		data.protectedEntry = protectedEntry;
+		data.verifiedPublicKey = verifiedPublicKey;
 		return data;
 	}
 	
@@ -628,6 +751,7 @@ public class Data {
 
 	public Data signature(SHA1Signature signature) {
 		this.signature = signature;
+		this.verifiedPublicKey = null;
 		return this;
 	}
 
@@ -7,14 +7,34 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * The buffers of a data object. A DataBuffer that is created with a
+ * constructor owns its buffers and gives them back with {@link #release()}.
+ * Shallow copies, views, and wrapped buffers are valid until the owner is
+ * released. Buffers that are handed over with {@link #toByteBufs()} and
+ * {@link #transferTo(AlternativeCompositeByteBuf)} are retained and are
+ * released by the receiver. A wrapped byte array is left to the garbage
+ * collector, releasing it does nothing, so it stays valid for everyone who
+ * holds it.
+ */
 public class DataBuffer {
 
 	private final List<ByteBuf> buffers;
 
+	// only the owner releases the buffers, shallow copies share them
+	private final boolean owner;
+
+	// a wrapped byte array does not depend on network buffers
+	private final boolean wrappedArray;
+
+	private boolean released = false;
+
 	private int alreadyTransferred = 0;
 
 	public DataBuffer() {
 		buffers = new ArrayList<ByteBuf>(1);
+		owner = true;
+		wrappedArray = false;
 	}
 	
 	public DataBuffer(final byte[] buffer) {
@@ -26,47 +46,57 @@ public class DataBuffer {
 		final ByteBuf buf = Unpooled.wrappedBuffer(buffer);
 		buffers.add(buf);
 		// no need to retain, as we initialized here and ref counter is set to 1
+		owner = true;
+		wrappedArray = true;
 	}
 
 	/**
-	 * Creates a DataBuffer and adds the ByteBuf to this DataBuffer
+	 * Creates a DataBuffer and adds the ByteBuf to this DataBuffer. The
+	 * ByteBuf is retained, the caller still needs to release its reference.
 	 * 
 	 * @param buf
-	 *            The ByteBuf is only added, but no retain() is called!
+	 *            The ByteBuf to add
 	 */
 	public DataBuffer(final ByteBuf buf) {
 		buffers = new ArrayList<ByteBuf>(1);
 		buffers.add(buf.slice());
 		buf.retain();
+		owner = true;
+		wrappedArray = false;
 	}
 
-	private DataBuffer(final List<ByteBuf> buffers) {
+	private DataBuffer(final List<ByteBuf> buffers, final boolean wrappedArray) {
 		this.buffers = new ArrayList<ByteBuf>(buffers.size());
 		for (final ByteBuf buf : buffers) {
 			this.buffers.add(buf.duplicate());
-			buf.retain();
 		}
+		owner = false;
+		this.wrappedArray = wrappedArray;
 	}
 
-	// from here, work with shallow copies
+	/**
+	 * @return A copy with its own reader and writer indexes that shares the
+	 *         buffers with this object. It is not retained and valid until the
+	 *         owner is released.
+	 */
 	public DataBuffer shallowCopy() {
 		synchronized (buffers) {
-			DataBuffer db = new DataBuffer(buffers);
+			DataBuffer db = new DataBuffer(buffers, wrappedArray);
 			return db;
 		}
 	}
 
 	/**
-	 * Always make a copy with shallowCopy before using the buffer directly.
-	 * This buffer is not thread safe!
+	 * The returned buffers are views that are valid as long as this object is
+	 * referenced. They are not retained and must not be released.
 	 * 
 	 * @return The backing list of byte buffers
 	 */
 	public List<ByteBuffer> bufferList() {
-		final DataBuffer copy = shallowCopy();
+		final ByteBuf[] views = views();
 		final List<ByteBuffer> nioBuffers = new ArrayList<ByteBuffer>(
-				copy.buffers.size());
-		for (final ByteBuf buf : copy.buffers) {
+				views.length);
+		for (final ByteBuf buf : views) {
 			for (final ByteBuffer bb : buf.nioBuffers()) {
 				nioBuffers.add(bb);
 			}
@@ -75,21 +105,30 @@ public class DataBuffer {
 	}
 
 	/**
-	 * @return The wrapped ByteBuf backed by the buffers stored in here. The buffer is
-	 *         not copied here.
+	 * @return The wrapped ByteBuf backed by the buffers stored in here. The
+	 *         buffer is not copied and not retained, it is valid as long as
+	 *         this object is referenced.
 	 */
 	public ByteBuf toByteBuf() {
-		final DataBuffer copy = shallowCopy();
-		return Unpooled.wrappedBuffer(copy.buffers.toArray(new ByteBuf[0]));
+		return Unpooled.wrappedBuffer(views());
 	}
 	
 	/**
-	 * @return The ByteBuf arrays backed by the buffers stored in here. The buffer is
-	 *         not copied here.
+	 * @return The ByteBuf arrays backed by the buffers stored in here. The
+	 *         buffer is not copied here, but every buffer is retained and the
+	 *         caller needs to release it, e.g., by adding it to a composite
+	 *         buffer that is released.
 	 */
 	public ByteBuf[] toByteBufs() {
-		final DataBuffer copy = shallowCopy();
-		return copy.buffers.toArray(new ByteBuf[0]);
+		synchronized (buffers) {
+			final ByteBuf[] retained = new ByteBuf[buffers.size()];
+			for (int i = 0; i < retained.length; i++) {
+				final ByteBuf buf = buffers.get(i);
+				retained[i] = buf.duplicate();
+				buf.retain();
+			}
+			return retained;
+		}
 	}
 
 	/**
@@ -100,6 +139,16 @@ public class DataBuffer {
 		return toByteBuf().nioBuffers();
 	}
 
+	private ByteBuf[] views() {
+		synchronized (buffers) {
+			final ByteBuf[] views = new ByteBuf[buffers.size()];
+			for (int i = 0; i < views.length; i++) {
+				views[i] = buffers.get(i).duplicate();
+			}
+			return views;
+		}
+	}
+
 	/**
 	 * Transfers the data from this buffer the CompositeByteBuf.
 	 * 
@@ -108,8 +157,8 @@ public class DataBuffer {
 	 *            transfered to
 	 */
 	public void transferTo(final AlternativeCompositeByteBuf buf) {
-		final DataBuffer copy = shallowCopy();
-		for (final ByteBuf buffer : copy.buffers) {
+		// the composite buffer releases its components
+		for (final ByteBuf buffer : toByteBufs()) {
 			buf.addComponent(buffer);
 			alreadyTransferred += buffer.readableBytes();
 		}
@@ -148,6 +197,30 @@ public class DataBuffer {
 		return length;
 	}
 
+	/**
+	 * Removes the buffers that have been transferred so far and hands them to
+	 * the caller. The number of transferred bytes does not change, so decoding
+	 * continues where it stopped. This is used for streaming, where the data
+	 * is processed while it arrives and is not kept in memory.
+	 * 
+	 * @return The transferred buffers, the caller needs to release it
+	 */
+	public ByteBuf drain() {
+		synchronized (buffers) {
+			final ByteBuf buf = Unpooled.wrappedBuffer(buffers.toArray(new ByteBuf[buffers.size()]));
+			buffers.clear();
+			return buf;
+		}
+	}
+
+	/**
+	 * @return True if the buffer is a wrapped byte array, which is not
+	 *         reference counted and does not hold on to network buffers
+	 */
+	public boolean isWrappedArray() {
+		return wrappedArray;
+	}
+
 	public int alreadyTransferred() {
 		return alreadyTransferred;
 	}
@@ -173,11 +246,24 @@ public class DataBuffer {
 		return m.toByteBuf().equals(toByteBuf());
 	}
 
-	@Override
-	protected void finalize() throws Throwable {
-		final DataBuffer copy = shallowCopy();
-		for (ByteBuf buf : copy.buffers) {
-			buf.release();
+	/**
+	 * Gives the buffers back, which matters for pooled buffers. Only the owner
+	 * releases, calling this on a shallow copy, on a wrapped byte array, or a
+	 * second time does nothing. The views and shallow copies must not be used
+	 * afterwards.
+	 */
+	public void release() {
+		if (!owner || wrappedArray) {
+			return;
+		}
+		synchronized (buffers) {
+			if (released) {
+				return;
+			}
+			released = true;
+			for (final ByteBuf buf : buffers) {
+				buf.release();
+			}
 		}
 	}
 }
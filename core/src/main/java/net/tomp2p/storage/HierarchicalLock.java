@@ -0,0 +1,329 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.storage;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.tomp2p.peers.Number640;
+
+/**
+ * A striped, hierarchical lock for the keys of the storage. The hierarchy has five levels: the whole storage, the
+ * location key, the location and domain key, the location, domain, and content key, and the full key including the
+ * version. Each level below the storage has a fixed number of read/write locks, a key is mapped to one of them by its
+ * hash. Thus, no lock objects are created when locking.
+ * <p>
+ * Locking a key or a range takes an intention lock (the read lock) on every level above and the read or write lock on
+ * the level where the key or range is defined. This way, a range write excludes all reads and writes of keys in that
+ * range, while single-key reads and range reads proceed concurrently. Range reads do not block single-key writes, they
+ * see the entries in the same weakly consistent way the backend iterates them.
+ * <p>
+ * The storage level is not a lock that every operation acquires, as this would be a global hotspot. Operations below
+ * the storage level only increment a counter of their thread's stripe and check a volatile flag. Only whole-storage
+ * operations take the storage lock. An exclusive one sets the flag and waits until the counters are zero.
+ * <p>
+ * The locks are always acquired from the top to the bottom, which prevents deadlocks. A thread that holds a write lock
+ * may lock keys within that range, but a thread that holds a read lock must not try to lock a key in that range for
+ * writing. Different keys may map to the same stripe, which only reduces the concurrency. For the same reason, a thread
+ * that holds any other lock cannot lock the whole storage exclusively, this throws an {@link IllegalStateException}
+ * instead of waiting forever.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class HierarchicalLock {
+
+    public static final int DEFAULT_STRIPES = 256;
+
+    private static final int LEVEL_STORAGE = 0;
+
+    private static final int LEVEL_640 = 4;
+
+    private static final int GATE_STRIPES = 64;
+
+    // one counter per cache line of 64 bytes, so that the threads do not write to the same line
+    private static final int GATE_PADDING = 16;
+
+    private final ReentrantReadWriteLock[][] locks;
+
+    private final int mask;
+
+    // the operations below the storage level that are running, per stripe
+    private final AtomicIntegerArray active = new AtomicIntegerArray(GATE_STRIPES * GATE_PADDING);
+
+    // only whole-storage operations use this lock
+    private final ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
+
+    // true while an exclusive whole-storage operation holds or waits for the storage
+    private volatile boolean exclusive = false;
+
+    // the nesting of the operations below the storage level of a thread, only the outermost one is counted
+    private final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    public HierarchicalLock() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes
+     *            The number of locks per level. Will be rounded up to the next power of two
+     */
+    public HierarchicalLock(final int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.locks = new ReentrantReadWriteLock[LEVEL_640 + 1][];
+        for (int level = LEVEL_STORAGE + 1; level <= LEVEL_640; level++) {
+            locks[level] = new ReentrantReadWriteLock[size];
+            for (int i = 0; i < size; i++) {
+                locks[level][i] = new ReentrantReadWriteLock();
+            }
+        }
+    }
+
+    /**
+     * Locks a single key for reading.
+     *
+     * @param key
+     *            The key to lock
+     */
+    public void lockRead(final Number640 key) {
+        lock(key, LEVEL_640, false);
+    }
+
+    public void unlockRead(final Number640 key) {
+        unlock(key, LEVEL_640, false);
+    }
+
+    /**
+     * Locks a single key for writing.
+     *
+     * @param key
+     *            The key to lock
+     */
+    public void lockWrite(final Number640 key) {
+        lock(key, LEVEL_640, true);
+    }
+
+    public void unlockWrite(final Number640 key) {
+        unlock(key, LEVEL_640, true);
+    }
+
+    /**
+     * Locks a range for reading. The level is the longest common prefix of from and to. If the location keys differ,
+     * the whole storage is locked.
+     *
+     * @param from
+     *            The start of the range
+     * @param to
+     *            The end of the range
+     */
+    public void lockRead(final Number640 from, final Number640 to) {
+        lock(from, level(from, to), false);
+    }
+
+    public void unlockRead(final Number640 from, final Number640 to) {
+        unlock(from, level(from, to), false);
+    }
+
+    /**
+     * Locks a range for writing. The level is the longest common prefix of from and to. If the location keys differ,
+     * the whole storage is locked.
+     *
+     * @param from
+     *            The start of the range
+     * @param to
+     *            The end of the range
+     */
+    public void lockWrite(final Number640 from, final Number640 to) {
+        lock(from, level(from, to), true);
+    }
+
+    public void unlockWrite(final Number640 from, final Number640 to) {
+        unlock(from, level(from, to), true);
+    }
+
+    /**
+     * Locks the whole storage, e.g., for a transaction over several keys.
+     *
+     * @param exclusive
+     *            True to lock for writing, false to lock for reading
+     * @throws IllegalStateException
+     *             If exclusive and this thread holds a lock other than the exclusive storage lock
+     */
+    public void lockStorage(final boolean exclusive) {
+        lock(Number640.ZERO, LEVEL_STORAGE, exclusive);
+    }
+
+    public void unlockStorage(final boolean exclusive) {
+        unlock(Number640.ZERO, LEVEL_STORAGE, exclusive);
+    }
+
+    private void lock(final Number640 key, final int level, final boolean exclusive) {
+        if (level == LEVEL_STORAGE) {
+            lockStorageLevel(exclusive);
+            return;
+        }
+        enter();
+        int hash = 0;
+        for (int i = LEVEL_STORAGE + 1; i <= level; i++) {
+            hash = hash(hash, key, i);
+            final ReentrantReadWriteLock lock = lock(i, hash);
+            if (i == level && exclusive) {
+                lock.writeLock().lock();
+            } else {
+                lock.readLock().lock();
+            }
+        }
+    }
+
+    private void unlock(final Number640 key, final int level, final boolean exclusive) {
+        if (level == LEVEL_STORAGE) {
+            unlockStorageLevel(exclusive);
+            return;
+        }
+        int hash = 0;
+        for (int i = LEVEL_STORAGE + 1; i <= level; i++) {
+            hash = hash(hash, key, i);
+            final ReentrantReadWriteLock lock = lock(i, hash);
+            if (i == level && exclusive) {
+                lock.writeLock().unlock();
+            } else {
+                lock.readLock().unlock();
+            }
+        }
+        exit();
+    }
+
+    private void lockStorageLevel(final boolean exclusive) {
+        if (!exclusive) {
+            // a shared whole-storage operation does not conflict with the operations below the storage level
+            storageLock.readLock().lock();
+            return;
+        }
+        if (!storageLock.isWriteLockedByCurrentThread()
+                && (depth.get()[0] > 0 || storageLock.getReadHoldCount() > 0)) {
+            // we would wait for ourself
+            throw new IllegalStateException(
+                    "cannot lock the storage exclusively while this thread holds a key, range, or storage read lock");
+        }
+        storageLock.writeLock().lock();
+        if (storageLock.getWriteHoldCount() > 1) {
+            // reentrant, we already wait for nobody
+            return;
+        }
+        this.exclusive = true;
+        // wait for the running operations, new ones wait for us
+        for (int i = 0; i < GATE_STRIPES; i++) {
+            while (active.get(i * GATE_PADDING) != 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private void unlockStorageLevel(final boolean exclusive) {
+        if (!exclusive) {
+            storageLock.readLock().unlock();
+            return;
+        }
+        if (storageLock.getWriteHoldCount() == 1) {
+            this.exclusive = false;
+        }
+        storageLock.writeLock().unlock();
+    }
+
+    /**
+     * Registers an operation below the storage level. This does not allocate and does not block unless an exclusive
+     * whole-storage operation runs. A nested operation is not blocked, as the exclusive operation waits for the
+     * outer one.
+     */
+    private void enter() {
+        final int[] nesting = depth.get();
+        if (nesting[0]++ > 0) {
+            return;
+        }
+        final int index = gateIndex();
+        for (;;) {
+            active.incrementAndGet(index);
+            if (!exclusive || storageLock.isWriteLockedByCurrentThread()) {
+                return;
+            }
+            // an exclusive whole-storage operation runs or waits, step back and wait until it is done
+            active.decrementAndGet(index);
+            storageLock.readLock().lock();
+            storageLock.readLock().unlock();
+        }
+    }
+
+    private void exit() {
+        final int[] nesting = depth.get();
+        if (--nesting[0] == 0) {
+            active.decrementAndGet(gateIndex());
+        }
+    }
+
+    private static int gateIndex() {
+        // the outermost lock is released by the thread that acquired it, so the thread picks the same stripe
+        return ((int) Thread.currentThread().getId() & (GATE_STRIPES - 1)) * GATE_PADDING;
+    }
+
+    private ReentrantReadWriteLock lock(final int level, final int hash) {
+        // spread the bits as in ConcurrentHashMap, since we use the lower bits only
+        final int h = hash ^ (hash >>> 16);
+        return locks[level][h & mask];
+    }
+
+    /**
+     * Calculates the hash of the prefix of the key for the given level without creating Number320 or Number480
+     * objects.
+     */
+    private static int hash(final int hash, final Number640 key, final int level) {
+        switch (level) {
+        case 1:
+            return key.getLocationKey().hashCode();
+        case 2:
+            return 31 * hash + key.getDomainKey().hashCode();
+        case 3:
+            return 31 * hash + key.getContentKey().hashCode();
+        case 4:
+            return 31 * hash + (key.getVersionKey() == null ? 0 : key.getVersionKey().hashCode());
+        default:
+            return 0;
+        }
+    }
+
+    private static int level(final Number640 from, final Number640 to) {
+        if (!from.getLocationKey().equals(to.getLocationKey())) {
+            return LEVEL_STORAGE;
+        } else if (!from.getDomainKey().equals(to.getDomainKey())) {
+            return 1;
+        } else if (!from.getContentKey().equals(to.getContentKey())) {
+            return 2;
+        } else if (!from.getVersionKey().equals(to.getVersionKey())) {
+            return 3;
+        } else {
+            return LEVEL_640;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.storage;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * Converts the value of a {@link Data} object to bytes and back. The serializer of a data object is set in
+ * {@link Data#Data(Object, Serializer)} and can be configured for a peer with
+ * {@link net.tomp2p.p2p.PeerMaker#serializer(Serializer)}. The encoded bytes need to be recognizable by their first
+ * byte, see {@link Data#serializer()}.
+ * 
+ * @author Thomas Bocek
+ * 
+ */
+public interface Serializer {
+
+    /**
+     * @param object
+     *            The object to encode
+     * @return The encoded object
+     * @throws IOException
+     *             If the object cannot be encoded
+     */
+    byte[] encode(Object object) throws IOException;
+
+    /**
+     * @param buf
+     *            The buffer that contains the encoded object. The reader index is modified
+     * @return The decoded object
+     * @throws ClassNotFoundException
+     *             If the class of the object is not found
+     * @throws IOException
+     *             If the buffer does not contain a valid encoded object
+     */
+    Object decode(ByteBuf buf) throws ClassNotFoundException, IOException;
+}
@@ -29,9 +29,12 @@ import net.tomp2p.peers.Number640;
  * stores the values which are present in the DHT. If you plan to do transactions (put/get), make sure you do the
  * locking in order to not interfere with other threads that use this map. Although the storage is threadsafe, there may
  * be concurrency issues with respect to transactions (e.g., do a get before a put). Please use
- * {@link StorageLayer#getLockStorage()} for full locking, and {@link StorageLayer#getLockNumber160()},
- * {@link StorageLayer#getLockNumber320()}, {@link StorageLayer#getLockNumber480()},
- * {@link StorageLayer#getLockNumber640()} for fine grained locking.
+ * {@link StorageLayer#getLock()} for full locking and fine grained locking of keys and ranges.
+ * <p>
+ * The storage owns the data it keeps. It does not keep the buffers of received data, see {@link Data#detach()}, and
+ * the caller of {@link #put(Number640, Data)} still releases what it passed. The storage releases the entries that are
+ * replaced, removed without returning them, expired, or still stored on {@link #close()}. The entries returned by
+ * a remove with returnData belong to the caller.
  * 
  * 
  * @author Thomas Bocek
@@ -15,7 +15,10 @@
  */
 package net.tomp2p.storage;
 
+import java.io.IOException;
+import java.security.InvalidKeyException;
 import java.security.PublicKey;
+import java.security.SignatureException;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -72,15 +75,11 @@ public class StorageLayer {
 	// anyone
 	final private Collection<Number160> removedDomains = new HashSet<Number160>();
 
-	final private KeyLock<Storage> dataLock = new KeyLock<Storage>();
+	final private HierarchicalLock dataLock = new HierarchicalLock();
 
-	final private KeyLock<Number160> dataLock160 = new KeyLock<Number160>();
-
-	final private KeyLock<Number320> dataLock320 = new KeyLock<Number320>();
-
-	final private KeyLock<Number480> dataLock480 = new KeyLock<Number480>();
-
-	final private KeyLock<Number640> dataLock640 = new KeyLock<Number640>();
+	// if set, single-key reads do not lock. Only use with a thread-safe
+	// backend such as StorageMemory
+	private volatile boolean lockFreeRead = false;
 
 	final private Storage backend;
 
@@ -128,6 +127,24 @@ public class StorageLayer {
 		return protectionEntryEnable;
 	}
 
+	/**
+	 * Enables or disables lock-free reads. If enabled, {@link #get(Number640)},
+	 * {@link #contains(Number640)}, and {@link #digest(Collection)} access the
+	 * backend without locking. This is safe as long as the backend is thread-safe,
+	 * since a stored data object is never modified, but always replaced by a new
+	 * one. A reader thus sees either the old or the new version.
+	 * 
+	 * @param lockFreeRead
+	 *            True to read without locking
+	 */
+	public void setLockFreeRead(boolean lockFreeRead) {
+		this.lockFreeRead = lockFreeRead;
+	}
+
+	public boolean isLockFreeRead() {
+		return lockFreeRead;
+	}
+
 	public void removeDomainProtection(Number160 removeDomain) {
 		removedDomains.add(removeDomain);
 	}
@@ -138,8 +155,13 @@ public class StorageLayer {
 
 	public Enum<?> put(final Number640 key, Data newData, PublicKey publicKey, boolean putIfAbsent,
 	        boolean domainProtection) {
+		// the public key operation is done before we lock
+		if (!verifySignature(newData, publicKey)) {
+			LOG.warn("wrong signature of data {}", key);
+			return PutStatus.FAILED_SECURITY;
+		}
 		boolean retVal = false;
-		KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+		dataLock.lockWrite(key);
 		try {
 			if (!securityDomainCheck(key.locationAndDomainKey(), publicKey, publicKey, domainProtection)) {
 				return PutStatus.FAILED_SECURITY;
@@ -160,13 +182,46 @@ public class StorageLayer {
 				backend.addTimeout(key, expiration);
 			}
 		} finally {
-			dataLock640.unlock(lock);
+			dataLock.unlockWrite(key);
 		}
 		return retVal ? PutStatus.OK : PutStatus.FAILED;
 	}
 
+	/**
+	 * Checks the signature of signed data with the public key of the data, or
+	 * if the data has none, with the public key of the sender. With a
+	 * {@link net.tomp2p.connection.CachingSignatureFactory}, the same data
+	 * that arrives again, e.g., by replication, is not verified again.
+	 * 
+	 * @param data
+	 *            The data to check
+	 * @param publicKey
+	 *            The public key of the sender
+	 * @return True if the data is not signed, no public key is known, or the
+	 *         signature is correct
+	 */
+	private static boolean verifySignature(final Data data, final PublicKey publicKey) {
+		if (!data.isSigned()) {
+			return true;
+		}
+		final PublicKey dataPublicKey = data.publicKey() != null ? data.publicKey() : publicKey;
+		if (dataPublicKey == null) {
+			return true;
+		}
+		try {
+			return data.verify(dataPublicKey);
+		} catch (InvalidKeyException e) {
+			LOG.debug("cannot verify data", e);
+		} catch (SignatureException e) {
+			LOG.debug("cannot verify data", e);
+		} catch (IOException e) {
+			LOG.debug("cannot verify data", e);
+		}
+		return false;
+	}
+
 	public Pair<Data, Enum<?>> remove(Number640 key, PublicKey publicKey, boolean returnData) {
-		KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+		dataLock.lockWrite(key);
 		try {
 			if (!canClaimDomain(key.locationAndDomainKey(), publicKey)) {
 				return new Pair<Data, Enum<?>>(null, PutStatus.FAILED_SECURITY);
@@ -181,16 +236,19 @@ public class StorageLayer {
 			backend.removeResponsibility(key.getLocationKey());
 			return new Pair<Data, Enum<?>>(backend.remove(key, returnData), PutStatus.OK);
 		} finally {
-			dataLock640.unlock(lock);
+			dataLock.unlockWrite(key);
 		}
 	}
 
 	public Data get(Number640 key) {
-		KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+		if (lockFreeRead) {
+			return getInternal(key);
+		}
+		dataLock.lockRead(key);
 		try {
 			return getInternal(key);
 		} finally {
-			dataLock640.unlock(lock);
+			dataLock.unlockRead(key);
 		}
 	}
 
@@ -199,35 +257,38 @@ public class StorageLayer {
 	}
 
 	public NavigableMap<Number640, Data> get(Number640 from, Number640 to, int limit, boolean ascending) {
-		KeyLock<?>.RefCounterLock lock = findAndLock(from, to);
+		dataLock.lockRead(from, to);
 		try {
 			return backend.subMap(from, to, limit, ascending);
 		} finally {
-			lock.unlock();
+			dataLock.unlockRead(from, to);
 		}
 	}
 
 	public NavigableMap<Number640, Data> get() {
-		KeyLock<Storage>.RefCounterLock lock = dataLock.lock(backend);
+		dataLock.lockStorage(false);
 		try {
 			return backend.map();
 		} finally {
-			lock.unlock();
+			dataLock.unlockStorage(false);
 		}
 	}
 
 	public boolean contains(Number640 key) {
-		KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+		if (lockFreeRead) {
+			return backend.contains(key);
+		}
+		dataLock.lockRead(key);
 		try {
 			return backend.contains(key);
 		} finally {
-			dataLock640.unlock(lock);
+			dataLock.unlockRead(key);
 		}
 	}
 
 	public Map<Number640, Data> get(Number640 from, Number640 to, SimpleBloomFilter<Number160> contentBloomFilter,
 	        SimpleBloomFilter<Number160> versionBloomFilter, int limit, boolean ascending, boolean isBloomFilterAnd) {
-		KeyLock<?>.RefCounterLock lock = findAndLock(from, to);
+		dataLock.lockRead(from, to);
 		try {
 			NavigableMap<Number640, Data> tmp = backend.subMap(from, to, limit, ascending);
 			Iterator<Map.Entry<Number640, Data>> iterator = tmp.entrySet().iterator();
@@ -255,35 +316,12 @@ public class StorageLayer {
 
 			return tmp;
 		} finally {
-			lock.unlock();
-		}
-	}
-
-	private KeyLock<?>.RefCounterLock findAndLock(Number640 from, Number640 to) {
-		if (!from.getLocationKey().equals(to.getLocationKey())) {
-			// everything is different, return a 640 lock
-			KeyLock<Storage>.RefCounterLock lock = dataLock.lock(backend);
-			return lock;
-		} else if (!from.getDomainKey().equals(to.getDomainKey())) {
-			// location key is the same, rest is different
-			KeyLock<Number160>.RefCounterLock lock = dataLock160.lock(from.getLocationKey());
-			return lock;
-		} else if (!from.getContentKey().equals(to.getContentKey())) {
-			// location and domain key are same, rest is different
-			KeyLock<Number320>.RefCounterLock lock = dataLock320.lock(from.locationAndDomainKey());
-			return lock;
-		} else if (!from.getVersionKey().equals(to.getVersionKey())) {
-			// location, domain, and content key are the same, rest is different
-			KeyLock<Number480>.RefCounterLock lock = dataLock480.lock(from.locationDomainAndContentKey());
-			return lock;
-		} else {
-			KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(from);
-			return lock;
+			dataLock.unlockRead(from, to);
 		}
 	}
 
 	public SortedMap<Number640, Data> removeReturnData(Number640 from, Number640 to, PublicKey publicKey) {
-		KeyLock<?>.RefCounterLock lock = findAndLock(from, to);
+		dataLock.lockWrite(from, to);
 		try {
 			Map<Number640, Data> tmp = backend.subMap(from, to, -1, true);
 
@@ -307,12 +345,12 @@ public class StorageLayer {
 			}
 			return result;
 		} finally {
-			lock.unlock();
+			dataLock.unlockWrite(from, to);
 		}
 	}
 
 	public SortedMap<Number640, Byte> removeReturnStatus(Number640 from, Number640 to, PublicKey publicKey) {
-		KeyLock<?>.RefCounterLock lock = findAndLock(from, to);
+		dataLock.lockWrite(from, to);
 		try {
 			Map<Number640, Data> tmp = backend.subMap(from, to, -1, true);
 			SortedMap<Number640, Byte> result = new TreeMap<Number640, Byte>();
@@ -322,7 +360,7 @@ public class StorageLayer {
 			}
 			return result;
 		} finally {
-			lock.unlock();
+			dataLock.unlockWrite(from, to);
 		}
 	}
 
@@ -331,38 +369,39 @@ public class StorageLayer {
 		Collection<Number640> toRemove = backend.subMapTimeout(time);
 		if (toRemove.size() > 0) {
 			for (Number640 key : toRemove) {
-				KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+				dataLock.lockWrite(key);
 				try {
 					backend.remove(key, false);
 					backend.removeTimeout(key);
 				} finally {
-					lock.unlock();
+					dataLock.unlockWrite(key);
 				}
 				// remove responsibility if we don't have any data stored under
 				// locationkey
 				Number160 locationKey = key.getLocationKey();
-				KeyLock<Number160>.RefCounterLock lock1 = dataLock160.lock(locationKey);
+				Number640 from = new Number640(locationKey, Number160.ZERO, Number160.ZERO, Number160.ZERO);
+				Number640 to = new Number640(locationKey, Number160.MAX_VALUE, Number160.MAX_VALUE,
+				        Number160.MAX_VALUE);
+				dataLock.lockWrite(from, to);
 				try {
-					if (isEmpty(locationKey)) {
+					if (isEmpty(from, to)) {
 						backend.removeResponsibility(locationKey);
 					}
 				} finally {
-					lock1.unlock();
+					dataLock.unlockWrite(from, to);
 				}
 			}
 		}
 	}
 
-	private boolean isEmpty(Number160 locationKey) {
-		Number640 from = new Number640(locationKey, Number160.ZERO, Number160.ZERO, Number160.ZERO);
-		Number640 to = new Number640(locationKey, Number160.MAX_VALUE, Number160.MAX_VALUE, Number160.MAX_VALUE);
+	private boolean isEmpty(Number640 from, Number640 to) {
 		Map<Number640, Data> tmp = backend.subMap(from, to, 1, false);
 		return tmp.size() == 0;
 	}
 
 	public DigestInfo digest(Number640 from, Number640 to, int limit, boolean ascending) {
 		DigestInfo digestInfo = new DigestInfo();
-		KeyLock<?>.RefCounterLock lock = findAndLock(from, to);
+		dataLock.lockRead(from, to);
 		try {
 			Map<Number640, Data> tmp = backend.subMap(from, to, limit, ascending);
 			for (Map.Entry<Number640, Data> entry : tmp.entrySet()) {
@@ -371,17 +410,17 @@ public class StorageLayer {
 			}
 			return digestInfo;
 		} finally {
-			lock.unlock();
+			dataLock.unlockRead(from, to);
 		}
 	}
 
 	public DigestInfo digest(Number320 locationAndDomainKey, SimpleBloomFilter<Number160> keyBloomFilter,
 	        SimpleBloomFilter<Number160> contentBloomFilter, int limit, boolean ascending, boolean isBloomFilterAnd) {
 		DigestInfo digestInfo = new DigestInfo();
-		KeyLock<Number320>.RefCounterLock lock = dataLock320.lock(locationAndDomainKey);
+		Number640 from = new Number640(locationAndDomainKey, Number160.ZERO, Number160.ZERO);
+		Number640 to = new Number640(locationAndDomainKey, Number160.MAX_VALUE, Number160.MAX_VALUE);
+		dataLock.lockRead(from, to);
 		try {
-			Number640 from = new Number640(locationAndDomainKey, Number160.ZERO, Number160.ZERO);
-			Number640 to = new Number640(locationAndDomainKey, Number160.MAX_VALUE, Number160.MAX_VALUE);
 			Map<Number640, Data> tmp = backend.subMap(from, to, limit, ascending);
 			for (Map.Entry<Number640, Data> entry : tmp.entrySet()) {
 				if (isBloomFilterAnd) {
@@ -402,22 +441,29 @@ public class StorageLayer {
 			}
 			return digestInfo;
 		} finally {
-			lock.unlock();
+			dataLock.unlockRead(from, to);
 		}
 	}
 
 	public DigestInfo digest(Collection<Number640> number640s) {
 		DigestInfo digestInfo = new DigestInfo();
 		for (Number640 number640 : number640s) {
-			KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(number640);
-			try {
-				if (backend.contains(number640)) {
-					Data data = getInternal(number640);
-					Number160 basedOn = data.basedOn();
-					digestInfo.put(number640, basedOn == null ? Number160.ZERO : basedOn);
+			final Data data;
+			if (lockFreeRead) {
+				data = getInternal(number640);
+			} else {
+				dataLock.lockRead(number640);
+				try {
+					data = getInternal(number640);
+				} finally {
+					dataLock.unlockRead(number640);
 				}
-			} finally {
-				lock.unlock();
+			}
+			// a single get, as the entry may be removed between a contains
+			// and a get
+			if (data != null) {
+				Number160 basedOn = data.basedOn();
+				digestInfo.put(number640, basedOn == null ? Number160.ZERO : basedOn);
 			}
 		}
 		return digestInfo;
@@ -527,22 +573,10 @@ public class StorageLayer {
 		return key.equals(Utils.makeSHAHash(publicKey.getEncoded()));
 	}
 
-	public KeyLock<Storage> getLockStorage() {
+	public HierarchicalLock getLock() {
 		return dataLock;
 	}
 
-	public KeyLock<Number160> getLockNumber160() {
-		return dataLock160;
-	}
-
-	public KeyLock<Number320> getLockNumber320() {
-		return dataLock320;
-	}
-
-	public KeyLock<Number480> getLockNumber480() {
-		return dataLock480;
-	}
-
 	public Collection<Number160> findContentForResponsiblePeerID(Number160 peerID) {
 		return backend.findContentForResponsiblePeerID(peerID);
 	}
@@ -568,14 +602,19 @@ public class StorageLayer {
 
 	public Enum<?> updateMeta(PublicKey publicKey, Number640 key, Data newData) {
 		boolean retVal = true;
-		KeyLock<Number640>.RefCounterLock lock = dataLock640.lock(key);
+		dataLock.lockWrite(key);
 		try {
 			if (!securityEntryCheck(key.locationDomainAndContentKey(), publicKey, newData.publicKey(),
 			        newData.isProtectedEntry())) {
 				return PutStatus.FAILED_SECURITY;
 			}
 
-			final Data data = backend.get(key);
+			final Data stored = backend.get(key);
+			if (stored == null) {
+				return PutStatus.NOT_FOUND;
+			}
+			// never modify the stored object, lock-free readers may access it
+			final Data data = stored.duplicate();
 			boolean changed = false;
 			if (newData.publicKey() != null) {
 				data.publicKey(newData.publicKey());
@@ -593,7 +632,7 @@ public class StorageLayer {
 			// handle timeout
 			backend.addTimeout(key, expiration);
 		} finally {
-			dataLock640.unlock(lock);
+			dataLock.unlockWrite(key);
 		}
 		return retVal ? PutStatus.OK : PutStatus.FAILED;
 	}
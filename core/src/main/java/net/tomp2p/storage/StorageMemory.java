@@ -51,7 +51,11 @@ public class StorageMemory implements Storage {
     // Core
     @Override
     public boolean put(Number640 key, Data value) {
-        dataMap.put(key, value);
+        final Data stored = value.detach();
+        final Data old = dataMap.put(key, stored);
+        if (old != null && old != stored) {
+            old.release();
+        }
         return true;
     }
 
@@ -73,7 +77,12 @@ public class StorageMemory implements Storage {
 
     @Override
     public Data remove(Number640 key, boolean returnData) {
-    	return dataMap.remove(key);
+        final Data old = dataMap.remove(key);
+        if (old != null && !returnData) {
+            old.release();
+            return null;
+        }
+        return old;
     }
 
     @Override
@@ -81,6 +90,11 @@ public class StorageMemory implements Storage {
         NavigableMap<Number640, Data> tmp = dataMap.subMap(fromKey, true, toKey, true);
         NavigableMap<Number640, Data> copy = new TreeMap<Number640, Data>(tmp);
         tmp.clear();
+        if (!returnData) {
+            for (Data data : copy.values()) {
+                data.release();
+            }
+        }
         return copy;
     }
 
@@ -194,6 +208,9 @@ public class StorageMemory implements Storage {
     // Misc
     @Override
     public void close() {
+        for (Data data : dataMap.values()) {
+            data.release();
+        }
         dataMap.clear();
         protectedMap.clear();
         timeoutMap.clear();
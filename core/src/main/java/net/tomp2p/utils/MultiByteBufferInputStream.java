@@ -51,8 +51,17 @@ public class MultiByteBufferInputStream extends InputStream {
     @Override
     public int read(final byte[] b, final int off, final int len) throws IOException {
         int len2 = channelBuffer.readableBytes();
+        if (len2 == 0 && len > 0) {
+            // end of stream
+            return -1;
+        }
         int read = Math.min(len, len2);
         channelBuffer.readBytes(b, off, read);
         return read;
     }
+
+    @Override
+    public int available() throws IOException {
+        return channelBuffer.readableBytes();
+    }
 }
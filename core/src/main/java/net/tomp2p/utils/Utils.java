@@ -17,7 +17,6 @@ package net.tomp2p.utils;
 
 import io.netty.buffer.ByteBuf;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
@@ -28,7 +27,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.SequenceInputStream;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -49,7 +47,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
-import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
@@ -174,8 +171,7 @@ public class Utils {
     public static Number160 makeSHAHash(DataBuffer buffer) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
-            DataBuffer copy = buffer.shallowCopy();
-            for (ByteBuffer byteBuffer : copy.bufferList()) {
+            for (ByteBuffer byteBuffer : buffer.bufferList()) {
                 md.update(byteBuffer);
             }
             byte[] digest = md.digest();
@@ -292,50 +288,29 @@ public class Utils {
     }
 
     public static Object decodeJavaObject(ByteBuf channelBuffer) throws ClassNotFoundException, IOException {
+        // no BufferedInputStream, the ObjectInputStream buffers block data on its own and reading from a ByteBuf
+        // does not cause a system call
         InputStream is = new MultiByteBufferInputStream(channelBuffer);
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(is));
+        ObjectInputStream ois = new ObjectInputStream(is);
         Object obj = ois.readObject();
         ois.close();
         return obj;
     }
 
-    public static synchronized Object decodeJavaObject(DataBuffer dataBuffer) throws ClassNotFoundException, IOException {
-        
-        List<ByteBuffer> buffers = dataBuffer.shallowCopy().bufferList();
-        int count = buffers.size();
-        Vector<InputStream> is = new Vector<InputStream>(count);
-        for (ByteBuffer byteBuffer : buffers) {
-            is.add(createInputStream(byteBuffer));
-        }
-        SequenceInputStream sis = new SequenceInputStream(is.elements());
-        ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(sis));
-        //TODO: investigate this issue
-        /*ObjectInputStream ois = null;
-        try {
-         ois = new ObjectInputStream(new BufferedInputStream(sis));
-        } catch (Throwable t) {
-            for (ByteBuffer byteBuffer : buffers) {
-                byteBuffer.rewind();
-                int read  = byteBuffer.capacity();
-                byteBuffer.limit(read);
-                byte me[] = new byte[read];
-                byteBuffer.get(me);
-                System.err.println("wrong array1 ("+System.identityHashCode(byteBuffer)+"): "+Arrays.toString(me));
-                
-                if(dataBuffer.test!=null) {
-                dataBuffer.test.readerIndex(0);
-                dataBuffer.test.writerIndex(dataBuffer.test.capacity());
-                me = new byte[dataBuffer.test.readableBytes()];
-                dataBuffer.test.readBytes(me);
-                System.err.println("wrong array2 ("+System.identityHashCode(byteBuffer)+"): "+Arrays.toString(me));
-                }
-                
-            }
-            t.printStackTrace();
-        }*/
-        Object obj = ois.readObject();
-        ois.close();
-        return obj;
+    /**
+     * Decodes a Java object from a data buffer. This method is thread-safe without locking, as every call works on
+     * its own shallow copy of the buffers, which has its own reader index.
+     * 
+     * @param dataBuffer
+     *            The data buffer that contains the serialized object
+     * @return The decoded object
+     * @throws ClassNotFoundException
+     *             If the class of the object is not found
+     * @throws IOException
+     *             If the buffer does not contain a valid serialized object
+     */
+    public static Object decodeJavaObject(DataBuffer dataBuffer) throws ClassNotFoundException, IOException {
+        return decodeJavaObject(dataBuffer.toByteBuf());
     }
 
     public static InputStream createInputStream(final ByteBuffer buf) {
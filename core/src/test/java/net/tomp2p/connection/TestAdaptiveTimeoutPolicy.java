@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.connection;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.peers.PeerStatusListener.FailReason;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAdaptiveTimeoutPolicy {
+
+    @Test
+    public void testTimeouts() throws UnknownHostException {
+        AdaptiveTimeoutPolicy policy = new AdaptiveTimeoutPolicy(100, 10000);
+        PeerAddress peer1 = new PeerAddress(new Number160(1), InetAddress.getByName("127.0.0.1"));
+        PeerAddress peer2 = new PeerAddress(new Number160(2), InetAddress.getByName("127.0.0.2"));
+        // nothing known yet
+        Assert.assertEquals(5000, policy.responseTimeoutMillis(peer1, 5000));
+        Assert.assertEquals(0, policy.responseTimeoutMillis(peer1, 0));
+        // srtt 200, rttvar 100
+        policy.responseReceived(peer1, 200);
+        Assert.assertEquals(600, policy.responseTimeoutMillis(peer1, 5000));
+        Assert.assertEquals(600, policy.connectTimeoutMillis(peer1, 3000));
+        Assert.assertEquals(5000, policy.responseTimeoutMillis(peer2, 5000));
+        // exponential backoff
+        policy.peerFailed(peer1, FailReason.Timeout);
+        Assert.assertEquals(1200, policy.responseTimeoutMillis(peer1, 5000));
+        policy.peerFailed(peer1, FailReason.Exception);
+        Assert.assertEquals(1200, policy.responseTimeoutMillis(peer1, 5000));
+        policy.peerFailed(peer1, FailReason.Timeout);
+        Assert.assertEquals(2400, policy.responseTimeoutMillis(peer1, 5000));
+        // a response resets the backoff, srtt 200, rttvar 75
+        policy.responseReceived(peer1, 200);
+        Assert.assertEquals(500, policy.responseTimeoutMillis(peer1, 5000));
+        for (int i = 0; i < 10; i++) {
+            policy.peerFailed(peer1, FailReason.Timeout);
+        }
+        // the backoff never exceeds the configured timeout
+        Assert.assertEquals(5000, policy.responseTimeoutMillis(peer1, 5000));
+        Assert.assertEquals(3000, policy.connectTimeoutMillis(peer1, 3000));
+        // a short configured timeout is not raised to the minimum
+        policy.responseReceived(peer1, 200);
+        Assert.assertEquals(50, policy.responseTimeoutMillis(peer1, 50));
+        // a host that never responded keeps the configured timeout
+        policy.peerFailed(peer2, FailReason.Timeout);
+        Assert.assertEquals(5000, policy.responseTimeoutMillis(peer2, 5000));
+    }
+}
@@ -1,6 +1,12 @@
 package net.tomp2p.p2p;
 
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.DatagramPacket;
 import io.netty.util.concurrent.EventExecutorGroup;
 
 import java.net.InetAddress;
@@ -8,13 +14,17 @@ import java.net.StandardProtocolFamily;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.tomp2p.connection.Bindings;
 import net.tomp2p.connection.ChannelClientConfiguration;
 import net.tomp2p.connection.ChannelServerConficuration;
 import net.tomp2p.connection.PipelineFilter;
+import net.tomp2p.connection.Transport;
+import net.tomp2p.connection.UDPBatcher;
 import net.tomp2p.futures.FutureBootstrap;
 import net.tomp2p.futures.FutureDirect;
+import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.futures.FuturePeerConnection;
 import net.tomp2p.message.CountConnectionOutboundHandler;
 import net.tomp2p.peers.Number160;
@@ -108,4 +118,268 @@ public class TestConnection {
             }
         }
     }
+
+    @Test
+    public void testPooledConnection() throws Exception {
+        Random rnd = new Random(42);
+        Peer peer1 = null;
+        Peer peer2 = null;
+        try {
+            final CountConnectionOutboundHandler ccohTCP = new CountConnectionOutboundHandler();
+            PipelineFilter pf = new PipelineFilter() {
+                @Override
+                public Map<String, Pair<EventExecutorGroup, ChannelHandler>> filter(
+                        Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers, boolean tcp,
+                        boolean client) {
+                    Map<String, Pair<EventExecutorGroup, ChannelHandler>> retVal = new LinkedHashMap<String, Pair<EventExecutorGroup, ChannelHandler>>();
+                    if (tcp) {
+                        retVal.put("counter", new Pair<EventExecutorGroup, ChannelHandler>(null, ccohTCP));
+                    }
+                    retVal.putAll(channelHandlers);
+                    return retVal;
+                }
+            };
+            ChannelClientConfiguration ccc = PeerMaker.createDefaultChannelClientConfiguration();
+            ccc.pipelineFilter(pf).maxPooledConnections(4).maxPooledConnectionsPerPeer(1);
+
+            Bindings b1 = new Bindings().addProtocol(StandardProtocolFamily.INET).addAddress(InetAddress.getByName("127.0.0.1"));
+            Bindings b2 = new Bindings().addProtocol(StandardProtocolFamily.INET).addAddress(InetAddress.getByName("127.0.0.1"));
+            peer1 = new PeerMaker(new Number160(rnd)).ports(4005).bindings(b1).channelClientConfiguration(ccc).makeAndListen();
+            peer2 = new PeerMaker(new Number160(rnd)).ports(4006).bindings(b2).makeAndListen();
+            peer2.setObjectDataReply(new ObjectDataReply() {
+                @Override
+                public Object reply(PeerAddress sender, Object request) throws Exception {
+                    return "world!";
+                }
+            });
+
+            // the first request misses the pool and reserves a pooled connection in the background
+            FutureDirect fd = peer1.sendDirect(peer2.getPeerAddress()).setObject("Hello").start();
+            fd.awaitUninterruptibly();
+            Assert.assertEquals(true, fd.isSuccess());
+            Assert.assertEquals(1, peer1.getConnectionBean().sender().peerConnectionPool().size());
+            Thread.sleep(500);
+            // the second request opens the pooled connection, all others reuse it
+            for (int i = 0; i < 10; i++) {
+                fd = peer1.sendDirect(peer2.getPeerAddress()).setObject("Hello").start();
+                fd.awaitUninterruptibly();
+                Assert.assertEquals(true, fd.isSuccess());
+                Assert.assertEquals("world!", fd.object());
+            }
+            Assert.assertEquals(2, ccohTCP.total());
+        } finally {
+            if (peer1 != null) {
+                peer1.shutdown().await();
+            }
+            if (peer2 != null) {
+                peer2.shutdown().await();
+            }
+        }
+    }
+
+    @Test
+    public void testEpoll() throws Exception {
+        Random rnd = new Random(42);
+        Peer peer1 = null;
+        Peer peer2 = null;
+        try {
+            Bindings b1 = new Bindings().addProtocol(StandardProtocolFamily.INET).addAddress(InetAddress.getByName("127.0.0.1"));
+            Bindings b2 = new Bindings().addProtocol(StandardProtocolFamily.INET).addAddress(InetAddress.getByName("127.0.0.1"));
+            // the native transport is a test dependency, so it has to be used on 64bit Linux
+            if ("Linux".equals(System.getProperty("os.name")) && "amd64".equals(System.getProperty("os.arch"))) {
+                Assert.assertTrue(Transport.isEpollAvailable());
+            }
+            // several UDP channels on one port with epoll, falls back to nio with one channel
+            ChannelServerConficuration csc = PeerMaker.createDefaultChannelServerConfiguration().udpChannels(4);
+            peer1 = new PeerMaker(new Number160(rnd)).ports(4005).bindings(b1).setEpoll().makeAndListen();
+            peer2 = new PeerMaker(new Number160(rnd)).ports(4006).bindings(b2).channelServerConfiguration(csc)
+                    .setEpoll().makeAndListen();
+            Assert.assertEquals(Transport.isEpollAvailable() ? "epoll" : "nio", peer1.getConnectionBean()
+                    .resourceConfiguration().transport().toString());
+            peer2.setObjectDataReply(new ObjectDataReply() {
+                @Override
+                public Object reply(PeerAddress sender, Object request) throws Exception {
+                    return "world!";
+                }
+            });
+            // UDP
+            FutureBootstrap fb = peer1.bootstrap().setPeerAddress(peer2.getPeerAddress()).start();
+            fb.awaitUninterruptibly();
+            Assert.assertEquals(true, fb.isSuccess());
+            // TCP
+            FutureDirect fd = peer1.sendDirect(peer2.getPeerAddress()).setObject("Hello").start();
+            fd.awaitUninterruptibly();
+            Assert.assertEquals(true, fd.isSuccess());
+            Assert.assertEquals("world!", fd.object());
+        } finally {
+            if (peer1 != null) {
+                peer1.shutdown().await();
+            }
+            if (peer2 != null) {
+                peer2.shutdown().await();
+            }
+        }
+    }
+
+    @Test
+    public void testMultiplexedConnection() throws Exception {
+        Random rnd = new Random(42);
+        Peer peer1 = null;
+        Peer peer2 = null;
+        try {
+            final CountConnectionOutboundHandler ccohTCP = new CountConnectionOutboundHandler();
+            PipelineFilter pf = new PipelineFilter() {
+                @Override
+                public Map<String, Pair<EventExecutorGroup, ChannelHandler>> filter(
+                        Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers, boolean tcp,
+                        boolean client) {
+                    Map<String, Pair<EventExecutorGroup, ChannelHandler>> retVal = new LinkedHashMap<String, Pair<EventExecutorGroup, ChannelHandler>>();
+                    if (tcp) {
+                        retVal.put("counter", new Pair<EventExecutorGroup, ChannelHandler>(null, ccohTCP));
+                    }
+                    retVal.putAll(channelHandlers);
+                    return retVal;
+                }
+            };
+            ChannelClientConfiguration ccc = PeerMaker.createDefaultChannelClientConfiguration();
+            ccc.pipelineFilter(pf).maxPooledConnections(4).multiplexPooledConnections(true);
+
+            Bindings b1 = new Bindings().addProtocol(StandardProtocolFamily.INET).addAddress(InetAddress.getByName("127.0.0.1"));
+            Bindings b2 = new Bindings().addProtocol(StandardProtocolFamily.INET).addAddress(InetAddress.getByName("127.0.0.1"));
+            peer1 = new PeerMaker(new Number160(rnd)).ports(4007).bindings(b1).channelClientConfiguration(ccc).makeAndListen();
+            peer2 = new PeerMaker(new Number160(rnd)).ports(4008).bindings(b2).makeAndListen();
+            peer2.setObjectDataReply(new ObjectDataReply() {
+                @Override
+                public Object reply(PeerAddress sender, Object request) throws Exception {
+                    return request;
+                }
+            });
+
+            // the first request misses the pool and reserves a pooled connection in the background
+            FutureDirect fd = peer1.sendDirect(peer2.getPeerAddress()).setObject("Hello").start();
+            fd.awaitUninterruptibly();
+            Assert.assertEquals(true, fd.isSuccess());
+            Thread.sleep(500);
+            // all concurrent requests share the pooled connection
+            FutureDirect[] fds = new FutureDirect[20];
+            for (int i = 0; i < fds.length; i++) {
+                fds[i] = peer1.sendDirect(peer2.getPeerAddress()).setObject("Hello" + i).start();
+            }
+            for (int i = 0; i < fds.length; i++) {
+                fds[i].awaitUninterruptibly();
+                Assert.assertEquals(true, fds[i].isSuccess());
+                Assert.assertEquals("Hello" + i, fds[i].object());
+            }
+            Assert.assertEquals(2, ccohTCP.total());
+        } finally {
+            if (peer1 != null) {
+                peer1.shutdown().await();
+            }
+            if (peer2 != null) {
+                peer2.shutdown().await();
+            }
+        }
+    }
+
+    @Test
+    public void testUDPBatching() throws Exception {
+        Random rnd = new Random(42);
+        Peer peer1 = null;
+        Peer peer2 = null;
+        try {
+            final CountDatagramOutboundHandler counter = new CountDatagramOutboundHandler();
+            PipelineFilter pf = new PipelineFilter() {
+                @Override
+                public Map<String, Pair<EventExecutorGroup, ChannelHandler>> filter(
+                        Map<String, Pair<EventExecutorGroup, ChannelHandler>> channelHandlers, boolean tcp,
+                        boolean client) {
+                    Map<String, Pair<EventExecutorGroup, ChannelHandler>> retVal = new LinkedHashMap<String, Pair<EventExecutorGroup, ChannelHandler>>();
+                    if (!tcp) {
+                        retVal.put("counter", new Pair<EventExecutorGroup, ChannelHandler>(null, counter));
+                    }
+                    retVal.putAll(channelHandlers);
+                    return retVal;
+                }
+            };
+            ChannelClientConfiguration ccc = PeerMaker.createDefaultChannelClientConfiguration();
+            // a long window, so that all pings end up in the same batch
+            ccc.pipelineFilter(pf).udpBatchWindowMillis(200);
+
+            Bindings b1 = new Bindings().addProtocol(StandardProtocolFamily.INET).addAddress(InetAddress.getByName("127.0.0.1"));
+            Bindings b2 = new Bindings().addProtocol(StandardProtocolFamily.INET).addAddress(InetAddress.getByName("127.0.0.1"));
+            peer1 = new PeerMaker(new Number160(rnd)).ports(4009).bindings(b1).channelClientConfiguration(ccc).makeAndListen();
+            peer2 = new PeerMaker(new Number160(rnd)).ports(4010).bindings(b2).makeAndListen();
+
+            FutureResponse[] frs = new FutureResponse[10];
+            for (int i = 0; i < frs.length; i++) {
+                frs[i] = peer1.ping().ping(peer2.getPeerAddress(), true);
+            }
+            for (int i = 0; i < frs.length; i++) {
+                frs[i].awaitUninterruptibly();
+                Assert.assertEquals(true, frs[i].isSuccess());
+            }
+            Assert.assertTrue(counter.total() < frs.length);
+        } finally {
+            if (peer1 != null) {
+                peer1.shutdown().await();
+            }
+            if (peer2 != null) {
+                peer2.shutdown().await();
+            }
+        }
+    }
+
+    @Test
+    public void testUDPBatchChannelClosed() throws Exception {
+        Random rnd = new Random(42);
+        Peer peer1 = null;
+        Peer peer2 = null;
+        try {
+            ChannelClientConfiguration ccc = PeerMaker.createDefaultChannelClientConfiguration();
+            ccc.udpBatchWindowMillis(10);
+            peer1 = new PeerMaker(new Number160(rnd)).ports(4009).channelClientConfiguration(ccc).makeAndListen();
+            peer2 = new PeerMaker(new Number160(rnd)).ports(4010).makeAndListen();
+            UDPBatcher udpBatcher = peer1.getConnectionBean().sender().udpBatcher();
+            Assert.assertTrue(peer1.ping().ping(peer2.getPeerAddress(), true).awaitUninterruptibly().isSuccess());
+
+            // the shared channel dies, a new one is bound
+            Channel old = udpBatcher.channel();
+            old.close().awaitUninterruptibly();
+            final long end = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < end
+                    && (udpBatcher.channel() == old || !udpBatcher.channel().isActive())) {
+                Thread.sleep(10);
+            }
+            Assert.assertNotSame(old, udpBatcher.channel());
+            Assert.assertTrue(udpBatcher.channel().isActive());
+            Assert.assertTrue(peer1.ping().ping(peer2.getPeerAddress(), true).awaitUninterruptibly().isSuccess());
+        } finally {
+            if (peer1 != null) {
+                peer1.shutdown().await();
+            }
+            if (peer2 != null) {
+                peer2.shutdown().await();
+            }
+        }
+    }
+
+    /**
+     * Counts the datagrams that are written.
+     */
+    @Sharable
+    private static class CountDatagramOutboundHandler extends ChannelOutboundHandlerAdapter {
+        private final AtomicInteger counterTotal = new AtomicInteger();
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof DatagramPacket) {
+                counterTotal.incrementAndGet();
+            }
+            ctx.write(msg, promise);
+        }
+
+        public int total() {
+            return counterTotal.get();
+        }
+    }
 }
@@ -4,6 +4,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.util.concurrent.DefaultEventExecutorGroup;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -17,6 +18,9 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -25,11 +29,16 @@ import net.tomp2p.Utils2;
 import net.tomp2p.connection.Bindings;
 import net.tomp2p.connection.ChannelClientConfiguration;
 import net.tomp2p.connection.ChannelServerConficuration;
+import net.tomp2p.connection.PeerConnection;
+import net.tomp2p.connection.Responder;
 import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.BaseFutureAdapter;
+import net.tomp2p.futures.DataStreamListener;
 import net.tomp2p.futures.FutureBootstrap;
 import net.tomp2p.futures.FutureDigest;
 import net.tomp2p.futures.FutureDirect;
+import net.tomp2p.futures.FutureDone;
+import net.tomp2p.futures.FutureForkJoin;
 import net.tomp2p.futures.FutureGet;
 import net.tomp2p.futures.FuturePeerConnection;
 import net.tomp2p.futures.FuturePut;
@@ -38,6 +47,7 @@ import net.tomp2p.futures.FutureResponse;
 import net.tomp2p.futures.FutureSend;
 import net.tomp2p.futures.FutureShutdown;
 import net.tomp2p.message.Buffer;
+import net.tomp2p.message.Message;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.Number320;
 import net.tomp2p.peers.Number640;
@@ -46,7 +56,9 @@ import net.tomp2p.peers.PeerMap;
 import net.tomp2p.peers.PeerStatatistic;
 import net.tomp2p.peers.PeerStatusListener.FailReason;
 import net.tomp2p.rpc.DigestResult;
+import net.tomp2p.rpc.DispatchHandler;
 import net.tomp2p.rpc.ObjectDataReply;
+import net.tomp2p.rpc.RPC;
 import net.tomp2p.rpc.RawDataReply;
 import net.tomp2p.storage.Data;
 import net.tomp2p.utils.Timings;
@@ -384,6 +396,259 @@ public class TestDHT {
 		}
 	}
 
+	@Test
+	public void testPutGetHedged() throws Exception {
+		Peer master = null;
+		final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			// setup
+			Peer[] peers = Utils2.createNodes(1000, rnd, 4001);
+			master = peers[0];
+			Utils2.perfectRouting(peers);
+			// do testing
+			RoutingConfiguration rc = new RoutingConfiguration(2, 10, 2);
+			RequestP2PConfiguration pc = new RequestP2PConfiguration(3, 5, 0);
+			Data data = new Data(new byte[44444]);
+
+			FuturePut fput = peers[444].put(peers[30].getPeerID()).setData(new Number160(5), data)
+			        .setDomainKey(Number160.createHash("test")).setRoutingConfiguration(rc)
+			        .setRequestP2PConfiguration(pc).start();
+			fput.awaitUninterruptibly();
+			fput.getFutureRequests().awaitUninterruptibly();
+			Assert.assertEquals(true, fput.isSuccess());
+			// count the gets of all peers, they share the dispatcher of the master
+			final AtomicInteger gets = new AtomicInteger();
+			master.getConnectionBean().dispatcher().registerExecutor(new Executor() {
+				@Override
+				public void execute(final Runnable command) {
+					gets.incrementAndGet();
+					command.run();
+				}
+			}, RPC.Commands.GET.getNr());
+			// peer 30 is the closest replica and asked first, but answers after 2 seconds
+			final int slowMillis = 2000;
+			final Number160 slowPeerId = peers[30].getPeerID();
+			final DispatchHandler slowGet = master.getConnectionBean().dispatcher()
+			        .searchHandler((int) RPC.Commands.GET.getNr()).get(slowPeerId);
+			master.getConnectionBean().dispatcher().registerIoHandler(slowPeerId,
+			        new DispatchHandler(peers[30].getPeerBean(), peers[30].getConnectionBean()) {
+				        @Override
+				        public void forwardMessage(final Message requestMessage, final PeerConnection peerConnection,
+				                final Responder responder) {
+					        scheduler.schedule(new Runnable() {
+						        @Override
+						        public void run() {
+							        slowGet.forwardMessage(requestMessage, peerConnection, responder);
+						        }
+					        }, slowMillis, TimeUnit.MILLISECONDS);
+				        }
+
+				        @Override
+				        public void handleResponse(final Message message, final PeerConnection peerConnection,
+				                final boolean sign, final Responder responder) throws Exception {
+					        slowGet.handleResponse(message, peerConnection, sign, responder);
+				        }
+			        }, RPC.Commands.GET.getNr());
+			rc = new RoutingConfiguration(4, 0, 10, 1);
+			// ask one replica, hedge after 100ms
+			pc = new RequestP2PConfiguration(1, 0, 0).hedge(2, 100);
+
+			final long start = System.currentTimeMillis();
+			FutureGet fget = peers[555].get(peers[30].getPeerID()).setDomainKey(Number160.createHash("test"))
+			        .setContentKey(new Number160(5)).setRoutingConfiguration(rc).setRequestP2PConfiguration(pc).start();
+			fget.awaitUninterruptibly();
+			final long duration = System.currentTimeMillis() - start;
+			Assert.assertEquals(true, fget.isSuccess());
+			// the slow replica was asked first, so at least one hedge went out
+			Assert.assertTrue(gets.get() >= 2);
+			// the answer of a fast replica was used, without waiting for the slow one
+			Assert.assertTrue(duration < slowMillis);
+			Assert.assertEquals(1, fget.getRawData().size());
+			Assert.assertEquals(false, fget.getRawData().containsKey(peers[30].getPeerAddress()));
+			Assert.assertEquals(true, fget.isMinReached());
+			Assert.assertEquals(data, fget.getData());
+		} finally {
+			scheduler.shutdown();
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+
+	@Test
+	public void testPutGetBatch() throws Exception {
+		Peer master = null;
+		try {
+			// setup
+			Peer[] peers = Utils2.createNodes(200, rnd, 4001);
+			master = peers[0];
+			Utils2.perfectRouting(peers);
+			// do testing
+			Number160 domainKey = Number160.createHash("test");
+			Map<Number640, Data> dataMap = new HashMap<Number640, Data>();
+			for (int i = 0; i < 50; i++) {
+				Number160 locationKey = new Number160(rnd);
+				for (int j = 0; j < 2; j++) {
+					dataMap.put(new Number640(locationKey, domainKey, new Number160(j), Number160.ZERO), new Data(
+					        "data" + i + "/" + j));
+				}
+			}
+			FuturePut fput = peers[44].putBatch(dataMap).start();
+			fput.awaitUninterruptibly();
+			FutureForkJoin<FutureResponse> requests = fput.getFutureRequests();
+			requests.awaitUninterruptibly();
+			Assert.assertEquals(true, fput.isSuccess());
+			// every key is stored on 3 peers
+			Assert.assertEquals(100, fput.getResult().size());
+			for (Integer replicas : fput.getResult().values()) {
+				Assert.assertEquals(3, replicas.intValue());
+			}
+			// one request per peer, not per key
+			Assert.assertEquals(fput.getRawResult().size(), requests.getCompleted().size());
+
+			FutureGet fget = peers[55].getBatch(dataMap.keySet()).start();
+			fget.awaitUninterruptibly();
+			Assert.assertEquals(true, fget.isSuccess());
+			Assert.assertEquals(dataMap, fget.getDataMap());
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+
+	@Test
+	public void testPutGetStreaming() throws Exception {
+		Peer master = null;
+		try {
+			// setup
+			Peer[] peers = Utils2.createNodes(100, rnd, 4001);
+			master = peers[0];
+			Utils2.perfectRouting(peers);
+			// do testing
+			byte[] me = new byte[2 * 1024 * 1024];
+			rnd.nextBytes(me);
+			RequestP2PConfiguration pc = new RequestP2PConfiguration(1, 0, 0);
+			FuturePut fput = peers[44].put(peers[30].getPeerID()).setData(new Data(me))
+			        .setRequestP2PConfiguration(pc).start();
+			fput.awaitUninterruptibly();
+			Assert.assertEquals(true, fput.isSuccess());
+
+			final ByteArrayOutputStream received = new ByteArrayOutputStream();
+			final AtomicInteger chunks = new AtomicInteger(0);
+			final AtomicBoolean last = new AtomicBoolean(false);
+			FutureGet fget = peers[55].get(peers[30].getPeerID()).setRequestP2PConfiguration(pc)
+			        .setDataStreamListener(new DataStreamListener() {
+				        @Override
+				        public void chunk(PeerAddress sender, Number640 key, ByteBuf chunk, boolean isLast) {
+					        byte[] tmp = new byte[chunk.readableBytes()];
+					        chunk.readBytes(tmp);
+					        received.write(tmp, 0, tmp.length);
+					        chunks.incrementAndGet();
+					        last.set(isLast);
+				        }
+			        }).start();
+			fget.awaitUninterruptibly();
+			Assert.assertEquals(true, fget.isSuccess());
+			Assert.assertEquals(true, last.get());
+			// the data arrived in several parts, not buffered until the end
+			Assert.assertTrue(chunks.get() > 1);
+			Assert.assertArrayEquals(me, received.toByteArray());
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+
+	@Test
+	public void testPutGetChunked() throws Exception {
+		Peer master = null;
+		try {
+			// setup
+			Peer[] peers = Utils2.createNodes(100, rnd, 4001);
+			master = peers[0];
+			Utils2.perfectRouting(peers);
+			// do testing
+			byte[] me = new byte[1024 * 1024 + 1000];
+			rnd.nextBytes(me);
+			Number160 contentKey = Number160.createHash("large");
+			FutureDone<ChunkedStorage.Manifest> fput = new ChunkedStorage(peers[44], 64 * 1024, 4).put(
+			        peers[30].getPeerID(), contentKey, me);
+			fput.awaitUninterruptibly();
+			Assert.assertEquals(true, fput.isSuccess());
+			Assert.assertEquals(17, fput.getObject().chunks());
+			// the chunks are stored next to the manifest
+			Assert.assertNotNull(peers[30].getPeerBean().storage()
+			        .get(new Number640(peers[30].getPeerID(), Number160.ZERO,
+			                ChunkedStorage.chunkKey(contentKey, 16), Number160.ZERO)));
+
+			FutureDone<byte[]> fget = new ChunkedStorage(peers[55], 64 * 1024, 4).get(peers[30].getPeerID(),
+			        contentKey);
+			fget.awaitUninterruptibly();
+			Assert.assertEquals(true, fget.isSuccess());
+			Assert.assertArrayEquals(me, fget.getObject());
+			// a missing value fails
+			fget = new ChunkedStorage(peers[55]).get(peers[30].getPeerID(), Number160.createHash("missing"));
+			fget.awaitUninterruptibly();
+			Assert.assertEquals(false, fget.isSuccess());
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+
+	@Test
+	public void testGetChunkedFromOtherReplica() throws Exception {
+		Peer master = null;
+		try {
+			// setup
+			Peer[] peers = Utils2.createNodes(100, rnd, 4001);
+			master = peers[0];
+			Utils2.perfectRouting(peers);
+			byte[] me = new byte[1024 * 1024 + 1000];
+			rnd.nextBytes(me);
+			Number160 contentKey = Number160.createHash("large");
+			FutureDone<ChunkedStorage.Manifest> fput = new ChunkedStorage(peers[44], 64 * 1024, 4).put(
+			        peers[30].getPeerID(), contentKey, me);
+			fput.awaitUninterruptibly();
+			Assert.assertEquals(true, fput.isSuccess());
+			// the first chunk is missing on peer 30 and corrupt on another replica, only the third replica has it
+			Number640 key = new Number640(peers[30].getPeerID(), Number160.ZERO, ChunkedStorage.chunkKey(contentKey,
+			        0), Number160.ZERO);
+			List<Peer> replicas = new ArrayList<Peer>();
+			for (Peer peer : peers) {
+				if (peer.getPeerBean().storage().get(key) != null) {
+					replicas.add(peer);
+				}
+			}
+			Assert.assertEquals(3, replicas.size());
+			Assert.assertEquals(true, replicas.remove(peers[30]));
+			peers[30].getPeerBean().storage().remove(key, null, false);
+			Assert.assertNull(peers[30].getPeerBean().storage().get(key));
+			byte[] corrupt = new byte[64 * 1024];
+			rnd.nextBytes(corrupt);
+			replicas.get(0).getPeerBean().storage().put(key, new Data(corrupt), null, false, false);
+			Assert.assertArrayEquals(corrupt, replicas.get(0).getPeerBean().storage().get(key).toBytes());
+			// do testing
+			FutureDone<byte[]> fget = new ChunkedStorage(peers[55], 64 * 1024, 4).get(peers[30].getPeerID(),
+			        contentKey);
+			fget.awaitUninterruptibly();
+			Assert.assertEquals(true, fget.isSuccess());
+			Assert.assertArrayEquals(me, fget.getObject());
+			// without a good copy, the download fails
+			replicas.get(1).getPeerBean().storage().put(key, new Data(corrupt), null, false, false);
+			fget = new ChunkedStorage(peers[55], 64 * 1024, 4).get(peers[30].getPeerID(), contentKey);
+			fget.awaitUninterruptibly();
+			Assert.assertEquals(false, fget.isSuccess());
+		} finally {
+			if (master != null) {
+				master.shutdown().await();
+			}
+		}
+	}
+
 	@Test
 	public void testPutGet3() throws Exception {
 		Peer master = null;
@@ -6,9 +6,15 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableSet;
 import java.util.Random;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import net.tomp2p.Utils2;
 import net.tomp2p.connection.Bindings;
@@ -22,6 +28,9 @@ import net.tomp2p.p2p.builder.RoutingBuilder;
 import net.tomp2p.peers.Number160;
 import net.tomp2p.peers.PeerAddress;
 import net.tomp2p.peers.PeerMap;
+import net.tomp2p.peers.PeerStatusListener.FailReason;
+import net.tomp2p.rpc.DigestInfo;
+import net.tomp2p.rpc.RPC;
 import net.tomp2p.utils.Utils;
 
 import org.junit.Assert;
@@ -450,6 +459,73 @@ public class TestRouting {
         }
     }
 
+    /**
+     * The peer closest to the target answers at about the time it becomes a straggler. Its response must not get lost
+     * if it arrives while the straggler timer starts the next step, as it is the only peer that knows the target.
+     */
+    @Test
+    public void testStragglerResponseNotLost() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            for (int delay = 90; delay <= 110; delay += 2) {
+                testStragglerResponseNotLost(scheduler, delay);
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private void testStragglerResponseNotLost(final ScheduledExecutorService scheduler, final int delayMillis)
+            throws Exception {
+        Peer[] peers = null;
+        ChannelCreator cc = null;
+        try {
+            // setup
+            peers = createSpecialPeers(4);
+            addToPeerMap(peers[0], peers[1].getPeerAddress(), peers[2].getPeerAddress());
+            addToPeerMap(peers[1], peers[0].getPeerAddress());
+            addToPeerMap(peers[2], peers[0].getPeerAddress(), peers[3].getPeerAddress());
+            addToPeerMap(peers[3], peers[0].getPeerAddress());
+            // peer 2 is the closest to the target and answers slowly
+            peers[2].getConnectionBean().dispatcher().registerExecutor(new Executor() {
+                @Override
+                public void execute(final Runnable command) {
+                    scheduler.schedule(command, delayMillis, TimeUnit.MILLISECONDS);
+                }
+            }, RPC.Commands.NEIGHBOR.getNr());
+            // a request becomes a straggler after 100ms
+            for (int i = 0; i < RoutingStatistics.DEFAULT_SAMPLES; i++) {
+                peers[0].getDistributedRouting().statistics().success(100);
+            }
+            FutureChannelCreator fcc = peers[0].getConnectionBean().reservation().create(2, 0);
+            fcc.awaitUninterruptibly();
+            cc = fcc.getChannelCreator();
+            // do testing
+            RoutingBuilder routingBuilder = new RoutingBuilder();
+            routingBuilder.setLocationKey(peers[3].getPeerID());
+            routingBuilder.setMaxDirectHits(0);
+            routingBuilder.setMaxNoNewInfo(0);
+            routingBuilder.setMaxFailures(0);
+            routingBuilder.setMaxSuccess(100);
+            routingBuilder.setParallel(1);
+            routingBuilder.setMaxParallel(2);
+            FutureRouting fr = peers[0].getDistributedRouting().route(routingBuilder, Type.REQUEST_1, cc);
+            fr.awaitUninterruptibly();
+            // do verification
+            Assert.assertEquals(true, fr.isSuccess());
+            Assert.assertEquals(peers[3].getPeerAddress(), fr.getPotentialHits().first());
+        } finally {
+            if (cc != null) {
+                cc.shutdown().awaitListenersUninterruptibly();
+            }
+            if (peers != null) {
+                for (Peer n : peers) {
+                    n.shutdown().await();
+                }
+            }
+        }
+    }
+
     /**
      * Adds peers to a peer's map.
      * 
@@ -800,4 +876,109 @@ public class TestRouting {
             }
         }
     }
+
+    @Test
+    public void testRoutingCache() throws Exception {
+        RoutingCache routingCache = new RoutingCache(60, 10);
+        RoutingBuilder routingBuilder = new RoutingBuilder();
+        routingBuilder.setLocationKey(new Number160(88));
+        routingBuilder.setDomainKey(Number160.ZERO);
+        Assert.assertEquals(true, RoutingCache.isCacheable(routingBuilder));
+        Assert.assertNull(routingCache.get(routingBuilder, Type.REQUEST_1));
+        // a routing result with ourself and two other peers
+        FutureRouting futureRouting = new FutureRouting();
+        routingCache.put(routingBuilder, Type.REQUEST_1, futureRouting);
+        NavigableSet<PeerAddress> potentialHits = new TreeSet<PeerAddress>(
+                PeerMap.createComparator(new Number160(88)));
+        potentialHits.add(Utils2.createAddress(1));
+        potentialHits.add(Utils2.createAddress(89));
+        potentialHits.add(Utils2.createAddress(80));
+        futureRouting.setNeighbors(new TreeMap<PeerAddress, DigestInfo>(), potentialHits,
+                new TreeSet<PeerAddress>(), false, true);
+        // hit
+        FutureRouting cached = routingCache.get(routingBuilder, Type.REQUEST_1);
+        Assert.assertNotNull(cached);
+        Assert.assertEquals(true, cached.isSuccess());
+        Assert.assertEquals(potentialHits, cached.getPotentialHits());
+        // the copy is not shared
+        cached.getPotentialHits().clear();
+        Assert.assertEquals(3, routingCache.get(routingBuilder, Type.REQUEST_1).getPotentialHits().size());
+        // other type or domain
+        Assert.assertNull(routingCache.get(routingBuilder, Type.REQUEST_2));
+        routingBuilder.setDomainKey(Number160.ONE);
+        Assert.assertNull(routingCache.get(routingBuilder, Type.REQUEST_1));
+        routingBuilder.setDomainKey(Number160.ZERO);
+        // a peer farther away does not invalidate
+        routingCache.peerInserted(Utils2.createAddress(2), true);
+        Assert.assertNotNull(routingCache.get(routingBuilder, Type.REQUEST_1));
+        // a failed peer invalidates
+        Assert.assertEquals(true, routingCache.peerFailed(Utils2.createAddress(89), FailReason.Timeout));
+        Assert.assertNull(routingCache.get(routingBuilder, Type.REQUEST_1));
+        // a closer peer invalidates
+        futureRouting = new FutureRouting();
+        routingCache.put(routingBuilder, Type.REQUEST_1, futureRouting);
+        futureRouting.setNeighbors(new TreeMap<PeerAddress, DigestInfo>(), potentialHits,
+                new TreeSet<PeerAddress>(), false, true);
+        Assert.assertNotNull(routingCache.get(routingBuilder, Type.REQUEST_1));
+        routingCache.peerInserted(Utils2.createAddress(88), false);
+        Assert.assertNotNull(routingCache.get(routingBuilder, Type.REQUEST_1));
+        routingCache.peerInserted(Utils2.createAddress(88), true);
+        Assert.assertNull(routingCache.get(routingBuilder, Type.REQUEST_1));
+    }
+
+    @Test
+    public void testRoutingStatistics() {
+        RoutingStatistics statistics = new RoutingStatistics(RoutingStatistics.MIN_SAMPLES, 0.5);
+        Assert.assertEquals(-1, statistics.stragglerMillis());
+        Assert.assertEquals(2, statistics.parallel(2, 4));
+        for (int i = 1; i <= RoutingStatistics.MIN_SAMPLES; i++) {
+            statistics.success(i * 10);
+        }
+        // the median of 10..160
+        Assert.assertEquals(80, statistics.stragglerMillis());
+        for (int i = 0; i < 10; i++) {
+            statistics.failure();
+        }
+        Assert.assertEquals(4, statistics.parallel(2, 4));
+        Assert.assertEquals(3, statistics.parallel(2, 3));
+    }
+
+    @Test
+    public void testAdaptiveRouting() throws Exception {
+        Peer master = null;
+        ChannelCreator cc = null;
+        try {
+            // setup
+            Peer[] peers = Utils2.createNodes(200, rnd, 4001);
+            master = peers[0];
+            Utils2.perfectRouting(peers);
+            FutureChannelCreator fcc = peers[0].getConnectionBean().reservation().create(4, 0);
+            fcc.awaitUninterruptibly();
+            cc = fcc.getChannelCreator();
+            // do testing, the first routings fill the statistics
+            for (int i = 0; i < 40; i++) {
+                RoutingBuilder routingBuilder = new RoutingBuilder();
+                routingBuilder.setLocationKey(peers[i + 20].getPeerID());
+                routingBuilder.setMaxDirectHits(0);
+                routingBuilder.setMaxNoNewInfo(0);
+                routingBuilder.setMaxFailures(0);
+                routingBuilder.setMaxSuccess(100);
+                routingBuilder.setParallel(2);
+                routingBuilder.setMaxParallel(4);
+                FutureRouting fr = peers[0].getDistributedRouting().route(routingBuilder, Type.REQUEST_1, cc);
+                fr.awaitUninterruptibly();
+                // do verification
+                Assert.assertEquals(true, fr.isSuccess());
+                Assert.assertEquals(peers[i + 20].getPeerAddress(), fr.getPotentialHits().first());
+            }
+            Assert.assertEquals(true, peers[0].getDistributedRouting().statistics().stragglerMillis() > 0);
+        } finally {
+            if (cc != null) {
+                cc.shutdown().awaitListenersUninterruptibly();
+            }
+            if (master != null) {
+                master.shutdown().await();
+            }
+        }
+    }
 }
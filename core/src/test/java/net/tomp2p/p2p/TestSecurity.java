@@ -680,6 +680,36 @@ public class TestSecurity {
         p2.shutdown().awaitUninterruptibly();
     }
     
+    @Test
+    public void testWrongDataSignature() throws IOException, ClassNotFoundException, NoSuchAlgorithmException, InterruptedException, InvalidKeyException, SignatureException {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+
+        KeyPair keyPair1 = gen.generateKeyPair();
+        KeyPair keyPair2 = gen.generateKeyPair();
+        Peer p1 = new PeerMaker(Number160.createHash(1)).setEnableIndirectReplication(false).ports(4838)
+                .keyPair(keyPair1).setVerificationCache().makeAndListen();
+        Peer p2 = new PeerMaker(Number160.createHash(2)).setEnableIndirectReplication(false).ports(4839)
+                .keyPair(keyPair2).setVerificationCache().makeAndListen();
+
+        p2.bootstrap().setPeerAddress(p1.getPeerAddress()).start().awaitUninterruptibly();
+        p1.bootstrap().setPeerAddress(p2.getPeerAddress()).start().awaitUninterruptibly();
+
+        // signed with the key of p1, but claims to be from p2
+        Data data = new Data("test1").setProtectedEntry().sign(keyPair1).publicKey(keyPair2.getPublic());
+        FuturePut fp1 = p1.put(Number160.createHash("key1")).setData(data).start().awaitUninterruptibly();
+        Assert.assertTrue(!fp1.isSuccess());
+        Assert.assertNull(p2.get(Number160.createHash("key1")).start().awaitUninterruptibly().getData());
+
+        Data data2 = new Data("test1").setProtectedEntry().sign(keyPair1);
+        FuturePut fp2 = p1.put(Number160.createHash("key1")).setData(data2).start().awaitUninterruptibly();
+        Assert.assertTrue(fp2.isSuccess());
+        Data retData = p2.get(Number160.createHash("key1")).start().awaitUninterruptibly().getData();
+        Assert.assertTrue(retData.verify(keyPair1.getPublic()));
+
+        p1.shutdown().awaitUninterruptibly();
+        p2.shutdown().awaitUninterruptibly();
+    }
+
     @Test
     public void testTTLUpdate() throws IOException, ClassNotFoundException, NoSuchAlgorithmException, InterruptedException, InvalidKeyException, SignatureException {
        
@@ -37,6 +37,35 @@ public class TestNumber160 {
         Assert.assertEquals(6, PeerMap.classMember(bi2, bi3));
     }
 
+    @Test
+    public void testInPlaceDistance() {
+        Random rnd = new Random(42L);
+        for (int i = 0; i < 1000; i++) {
+            Number160 key = new Number160(rnd);
+            Number160 key1 = new Number160(rnd);
+            // share a prefix with the key in some cases
+            Number160 key2 = i % 2 == 0 ? new Number160(rnd) : key.xor(new Number160(i));
+            Assert.assertEquals(key.xor(key1).compareTo(key.xor(key2)), key.compareDistance(key1, key2));
+            Assert.assertEquals(key.xor(key1).bitLength(), key.xorBitLength(key1));
+            Assert.assertEquals(key.xor(key2).bitLength(), key.xorBitLength(key2));
+        }
+        Number160 key = new Number160(rnd);
+        Assert.assertEquals(0, key.compareDistance(key, key));
+        Assert.assertEquals(0, key.xorBitLength(key));
+        Assert.assertEquals(Number160.BITS, Number160.ZERO.xorBitLength(Number160.MAX_VALUE));
+    }
+
+    @Test
+    public void testBit() {
+        Number160 key = new Number160("0x8000000000000000000000000000000000000001");
+        Assert.assertEquals(true, key.testBit(0));
+        Assert.assertEquals(false, key.testBit(1));
+        Assert.assertEquals(false, key.testBit(158));
+        Assert.assertEquals(true, key.testBit(159));
+        Assert.assertEquals(true, new Number160(1L << 40).testBit(40));
+        Assert.assertEquals(false, new Number160(1L << 40).testBit(39));
+    }
+
     @Test
     public void testXor() {
         BigInteger bi1 = new BigInteger("1234567890abcdef1234567890abcdef12345678", 16);
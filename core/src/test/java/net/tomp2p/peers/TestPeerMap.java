@@ -502,6 +502,74 @@ public class TestPeerMap {
         }
     }
 
+    @Test
+    public void testClosePeersOrder() {
+        Random rnd = new Random(42L);
+        for (int j = 0; j < 200; j++) {
+            Number160 self = new Number160(rnd);
+            PeerMapConfiguration conf = new PeerMapConfiguration(self);
+            conf.bagSizeVerified(20).bagSizeOverflow(20);
+            conf.offlineCount(1000).offlineTimeout(100);
+            conf.peerFilter(new DefaultPeerFilter()).maintenance(new DefaultMaintenance(0, new int[] {}));
+            final PeerMap peerMap = new PeerMap(conf);
+            for (int i = 0; i < 300; i++) {
+                // fill the small bags as well
+                Number160 id = i % 2 == 0 ? new Number160(rnd) : self.xor(new Number160(rnd.nextInt(1 << 12)));
+                peerMap.peerFound(new PeerAddress(id), null);
+            }
+            Number160 key = j % 2 == 0 ? new Number160(rnd) : self.xor(new Number160(rnd.nextInt(1 << 12)));
+            int atLeast = rnd.nextInt(40) + 1;
+            TreeSet<PeerAddress> all = new TreeSet<PeerAddress>(PeerMap.createComparator(key));
+            all.addAll(peerMap.getAll());
+            Iterator<PeerAddress> expected = all.iterator();
+            Iterator<PeerAddress> close = peerMap.closePeers(key, atLeast).iterator();
+            for (int i = 0; i < atLeast && expected.hasNext(); i++) {
+                Assert.assertEquals(expected.next(), close.next());
+            }
+        }
+    }
+
+    @Test
+    public void testRTT() {
+        PeerStatatistic peerStatatistic = new PeerStatatistic(new PeerAddress(new Number160(2)));
+        Assert.assertEquals(-1, peerStatatistic.getMeanRTT());
+        peerStatatistic.addRTT(100);
+        Assert.assertEquals(100, peerStatatistic.getMeanRTT());
+        Assert.assertEquals(50, peerStatatistic.getVarianceRTT());
+        peerStatatistic.addRTT(20);
+        Assert.assertEquals(90, peerStatatistic.getMeanRTT());
+        Assert.assertEquals(58, peerStatatistic.getVarianceRTT());
+    }
+
+    @Test
+    public void testClosePeersLatency() {
+        PeerMapConfiguration conf = new PeerMapConfiguration(ID);
+        conf.bagSizeVerified(10).bagSizeOverflow(10).latencyAware(true);
+        conf.offlineCount(1000).offlineTimeout(100);
+        conf.peerFilter(new DefaultPeerFilter()).maintenance(new DefaultMaintenance(0, new int[] {}));
+        final PeerMap peerMap = new PeerMap(conf);
+        Assert.assertTrue(peerMap.isLatencyAware());
+        PeerAddress pa1 = new PeerAddress(new Number160(0x11));
+        PeerAddress pa2 = new PeerAddress(new Number160(0x18));
+        PeerAddress pa3 = new PeerAddress(new Number160(0x1c));
+        peerMap.peerFound(pa1, null);
+        peerMap.peerFound(pa2, null);
+        peerMap.peerFound(pa3, null);
+        // 0x18 and 0x1c are in the same distance class to 0x10, 0x1c is faster
+        peerMap.updateRTT(pa2, 100);
+        peerMap.updateRTT(pa3, 10);
+        Assert.assertEquals(10, peerMap.meanRTT(pa3));
+        Number160 key = new Number160(0x10);
+        Iterator<PeerAddress> iterator = peerMap.closePeers(key, 3, false).iterator();
+        Assert.assertEquals(pa1, iterator.next());
+        Assert.assertEquals(pa2, iterator.next());
+        Assert.assertEquals(pa3, iterator.next());
+        iterator = peerMap.closePeers(key, 3, true).iterator();
+        Assert.assertEquals(pa1, iterator.next());
+        Assert.assertEquals(pa3, iterator.next());
+        Assert.assertEquals(pa2, iterator.next());
+    }
+
     private void testClose(int round) throws UnknownHostException {
         Random rnd = new Random(round);
         for (int j = 0; j < 1000; j++) {
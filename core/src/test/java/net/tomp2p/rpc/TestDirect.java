@@ -11,8 +11,10 @@ import io.netty.util.concurrent.EventExecutorGroup;
 import net.tomp2p.connection.ChannelClientConfiguration;
 import net.tomp2p.connection.ChannelCreator;
 import net.tomp2p.connection.ChannelServerConficuration;
+import net.tomp2p.connection.DispatchExecutor;
 import net.tomp2p.connection.PeerConnection;
 import net.tomp2p.connection.PipelineFilter;
+import net.tomp2p.futures.BaseFuture;
 import net.tomp2p.futures.BaseFutureAdapter;
 import net.tomp2p.futures.FutureChannelCreator;
 import net.tomp2p.futures.FutureDirect;
@@ -372,4 +374,40 @@ public class TestDirect {
             }
         }
     }
+
+    @Test
+    public void testDispatchExecutor() throws Exception {
+        Peer sender = null;
+        Peer recv1 = null;
+        DispatchExecutor executor = new DispatchExecutor("direct", 2, 10);
+        try {
+            sender = new PeerMaker(new Number160("0x50")).p2pId(55).ports(2424).makeAndListen();
+            recv1 = new PeerMaker(new Number160("0x20")).p2pId(55).ports(8088).makeAndListen();
+            recv1.getConnectionBean().dispatcher().registerExecutor(executor, RPC.Commands.DIRECT_DATA.getNr());
+            recv1.setObjectDataReply(new ObjectDataReply() {
+                @Override
+                public Object reply(PeerAddress sender, Object request) throws Exception {
+                    return Thread.currentThread().getName();
+                }
+            });
+            FutureDirect fd = sender.sendDirect(recv1.getPeerAddress()).setObject("test").start();
+            fd.awaitUninterruptibly();
+            Assert.assertEquals(true, fd.isSuccess());
+            // the user handler ran on the worker pool, not on the I/O thread
+            Assert.assertTrue(((String) fd.object()).contains("direct"));
+            Assert.assertEquals(0, executor.rejected());
+            // ping is still handled on the I/O thread
+            BaseFuture fr = sender.ping().setPeerAddress(recv1.getPeerAddress()).start();
+            fr.awaitUninterruptibly();
+            Assert.assertEquals(true, fr.isSuccess());
+        } finally {
+            executor.shutdown();
+            if (sender != null) {
+                sender.shutdown().await();
+            }
+            if (recv1 != null) {
+                recv1.shutdown().await();
+            }
+        }
+    }
 }
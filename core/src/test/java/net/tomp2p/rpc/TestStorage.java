@@ -1,5 +1,10 @@
 package net.tomp2p.rpc;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
@@ -11,8 +16,10 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -519,6 +526,122 @@ public class TestStorage {
         }
     }
 
+    /**
+     * Runs put, get, and remove over pooled buffers and checks that every buffer was given back. The leak detector
+     * reports the place where a leaked buffer was used.
+     */
+    @Test
+    public void testStorePutGetRemovePooled() throws Exception {
+        final Queue<ByteBuf> allocated = new ConcurrentLinkedQueue<ByteBuf>();
+        final ByteBufAllocator alloc = new PooledByteBufAllocator(false) {
+            @Override
+            protected ByteBuf newHeapBuffer(final int initialCapacity, final int maxCapacity) {
+                ByteBuf buf = super.newHeapBuffer(initialCapacity, maxCapacity);
+                allocated.add(buf);
+                return buf;
+            }
+
+            @Override
+            protected ByteBuf newDirectBuffer(final int initialCapacity, final int maxCapacity) {
+                ByteBuf buf = super.newDirectBuffer(initialCapacity, maxCapacity);
+                allocated.add(buf);
+                return buf;
+            }
+        };
+        final ResourceLeakDetector.Level level = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        Peer sender = null;
+        Peer recv1 = null;
+        ChannelCreator cc = null;
+        try {
+            sender = new PeerMaker(new Number160("0x50")).p2pId(55).ports(2424)
+                    .channelServerConfiguration(PeerMaker.createDefaultChannelServerConfiguration().byteBufAllocator(alloc))
+                    .channelClientConfiguration(PeerMaker.createDefaultChannelClientConfiguration().byteBufAllocator(alloc))
+                    .makeAndListen();
+            recv1 = new PeerMaker(new Number160("0x20")).p2pId(55).ports(8088)
+                    .channelServerConfiguration(PeerMaker.createDefaultChannelServerConfiguration().byteBufAllocator(alloc))
+                    .channelClientConfiguration(PeerMaker.createDefaultChannelClientConfiguration().byteBufAllocator(alloc))
+                    .makeAndListen();
+            sender.getPeerBean().storage(new StorageLayer(new StorageMemory()));
+            StorageRPC smmSender = new StorageRPC(sender.getPeerBean(), sender.getConnectionBean());
+            recv1.getPeerBean().storage(new StorageLayer(new StorageMemory()));
+            new StorageRPC(recv1.getPeerBean(), recv1.getConnectionBean());
+            Map<Number160, Data> tmp = new HashMap<Number160, Data>();
+            tmp.put(new Number160(77), new Data(new byte[] { 1, 2, 3 }));
+            tmp.put(new Number160(88), new Data(new byte[10000]));
+
+            FutureChannelCreator fcc = recv1.getConnectionBean().reservation().create(0, 1);
+            fcc.awaitUninterruptibly();
+            cc = fcc.getChannelCreator();
+
+            PutBuilder putBuilder = new PutBuilder(recv1, new Number160(33));
+            putBuilder.setDomainKey(Number160.createHash("test"));
+            putBuilder.setDataMapContent(tmp);
+            putBuilder.setVersionKey(Number160.ZERO);
+            FutureResponse fr = smmSender.put(recv1.getPeerAddress(), putBuilder, cc);
+            fr.awaitUninterruptibly();
+            Assert.assertEquals(true, fr.isSuccess());
+            fr.getResponse().release();
+
+            // get, the stored data must not depend on the buffers of the put request
+            GetBuilder getBuilder = new GetBuilder(recv1, new Number160(33));
+            getBuilder.setDomainKey(Number160.createHash("test"));
+            getBuilder.contentKeys(tmp.keySet());
+            getBuilder.setVersionKey(Number160.ZERO);
+            fr = smmSender.get(recv1.getPeerAddress(), getBuilder, cc);
+            fr.awaitUninterruptibly();
+            Assert.assertEquals(true, fr.isSuccess());
+            DataMap dataMap = new DataMap(new Number160(33), Number160.createHash("test"), Number160.ZERO, tmp);
+            compare(dataMap.convertToMap640(), fr.getResponse().getDataMap(0).dataMap());
+            fr.getResponse().release();
+
+            // remove
+            RemoveBuilder removeBuilder = new RemoveBuilder(recv1, new Number160(33));
+            removeBuilder.setDomainKey(Number160.createHash("test"));
+            removeBuilder.contentKeys(tmp.keySet());
+            removeBuilder.setReturnResults();
+            removeBuilder.setVersionKey(Number160.ZERO);
+            fr = smmSender.remove(recv1.getPeerAddress(), removeBuilder, cc);
+            fr.awaitUninterruptibly();
+            Assert.assertEquals(true, fr.isSuccess());
+            compare(dataMap.convertToMap640(), fr.getResponse().getDataMap(0).dataMap());
+            fr.getResponse().release();
+
+            fr = smmSender.get(recv1.getPeerAddress(), getBuilder, cc);
+            fr.awaitUninterruptibly();
+            Assert.assertEquals(true, fr.isSuccess());
+            Assert.assertEquals(0, fr.getResponse().getDataMap(0).size());
+            fr.getResponse().release();
+        } finally {
+            if (cc != null) {
+                cc.shutdown().awaitListenersUninterruptibly();
+            }
+            if (sender != null) {
+                sender.shutdown().await();
+            }
+            if (recv1 != null) {
+                recv1.shutdown().await();
+            }
+            ResourceLeakDetector.setLevel(level);
+        }
+        Assert.assertFalse(allocated.isEmpty());
+        // the channels give their last buffers back while closing
+        final long end = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < end && !allReleased(allocated)) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(allReleased(allocated));
+    }
+
+    private static boolean allReleased(final Collection<ByteBuf> buffers) {
+        for (ByteBuf buf : buffers) {
+            if (buf.refCnt() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Test
     public void testBigStorePut() throws Exception {
         StorageMemory storeSender = new StorageMemory();
@@ -1,6 +1,7 @@
 package net.tomp2p.storage;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
 
 import java.io.IOException;
@@ -9,8 +10,17 @@ import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import net.tomp2p.connection.CachingSignatureFactory;
 import net.tomp2p.connection.DefaultSignatureFactory;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.PeerAddress;
+import net.tomp2p.utils.Utils;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -146,14 +156,158 @@ public class TestData {
         Assert.assertEquals(data, newData);
     }
 
+    @Test
+    public void testBinarySerializer() throws IOException, ClassNotFoundException {
+        Map<Object, Object> map = new HashMap<Object, Object>();
+        map.put("key", -1234567890123L);
+        map.put(1, new byte[] { 1, 2, 3 });
+        List<Object> list = new ArrayList<Object>();
+        list.add(null);
+        list.add(Boolean.TRUE);
+        list.add(-1);
+        list.add(Integer.MIN_VALUE);
+        list.add(Long.MAX_VALUE);
+        list.add(1.5d);
+        list.add('c');
+        list.add("t\u00e9st");
+        list.add(new Number160(42));
+        list.add(map);
+        // not supported by the binary codec, falls back to Java serialization
+        list.add(new PeerAddress(new Number160(1)));
+
+        Data data = new Data(list, new BinarySerializer());
+        Assert.assertEquals(BinarySerializer.MAGIC, data.toBytes()[0]);
+        Assert.assertTrue(data.length() < new Data(list).length());
+        // the serializer is detected by the first byte on the receiver side
+        Data newData = encodeDecode(data);
+        Assert.assertTrue(newData.serializer() instanceof BinarySerializer);
+        @SuppressWarnings("unchecked")
+        List<Object> newList = (List<Object>) newData.object();
+        Assert.assertEquals(list.size(), newList.size());
+        Assert.assertEquals(list.subList(0, 9), newList.subList(0, 9));
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> newMap = (Map<Object, Object>) newList.get(9);
+        Assert.assertEquals(-1234567890123L, newMap.get("key"));
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) newMap.get(1));
+        Assert.assertEquals(list.get(10), newList.get(10));
+    }
+
+    @Test
+    public void testJavaSerializerDetected() throws IOException, ClassNotFoundException {
+        Data newData = encodeDecode(new Data("test"));
+        Assert.assertTrue(newData.serializer() instanceof JavaSerializer);
+        Assert.assertEquals("test", newData.object());
+    }
+
+    @Test
+    public void testPooledBufferReleased() throws Throwable {
+        // pooled buffers only go back to the pool if every retain is matched by a release
+        ByteBuf pooled = PooledByteBufAllocator.DEFAULT.directBuffer(1000);
+        pooled.writeBytes(new byte[1000]);
+        DataBuffer dataBuffer = new DataBuffer();
+        Assert.assertEquals(1000, dataBuffer.transferFrom(pooled, 1000));
+        Assert.assertEquals(2, pooled.refCnt());
+        pooled.release();
+        // views do not retain
+        Assert.assertEquals(1000, dataBuffer.toByteBuf().readableBytes());
+        Assert.assertEquals(1, dataBuffer.bufferList().size());
+        Utils.makeSHAHash(dataBuffer);
+        Assert.assertEquals(1, pooled.refCnt());
+        // the buffers handed over are retained, e.g., for an outgoing composite buffer
+        AlternativeCompositeByteBuf transfer = AlternativeCompositeByteBuf.compBuffer(
+                PooledByteBufAllocator.DEFAULT, true);
+        dataBuffer.transferTo(transfer);
+        Assert.assertEquals(2, pooled.refCnt());
+        transfer.release();
+        Assert.assertEquals(1, pooled.refCnt());
+        // a shallow copy does not own the buffers
+        dataBuffer.shallowCopy().release();
+        Assert.assertEquals(1, pooled.refCnt());
+        dataBuffer.release();
+        Assert.assertEquals(0, pooled.refCnt());
+        // releasing twice does nothing
+        dataBuffer.release();
+    }
+
+    @Test
+    public void testPooledBufferEncodedSeveralTimes() throws Exception {
+        byte[] content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        ByteBuf pooled = PooledByteBufAllocator.DEFAULT.directBuffer(content.length);
+        pooled.writeBytes(content);
+        Data data = new Data(new DataBuffer(pooled), content.length);
+        pooled.release();
+        Assert.assertEquals(1, pooled.refCnt());
+        for (int i = 0; i < 5; i++) {
+            // the encoder works on a duplicate, as a stored data object is sent several times
+            Data copy = data.duplicate();
+            AlternativeCompositeByteBuf transfer = AlternativeCompositeByteBuf.compBuffer(
+                    PooledByteBufAllocator.DEFAULT, true);
+            copy.encodeHeader(transfer);
+            copy.encodeBuffer(transfer);
+            copy.encodeDone(transfer);
+            Data newData = Data.decodeHeader(transfer, new DefaultSignatureFactory());
+            newData.decodeBuffer(transfer);
+            newData.decodeDone(transfer, null);
+            Assert.assertEquals(data, newData);
+            newData.release();
+            transfer.release();
+            Assert.assertEquals(1, pooled.refCnt());
+        }
+        // the temporary copies are garbage, collecting them must not release anything
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        Assert.assertEquals(1, pooled.refCnt());
+        byte[] me = new byte[content.length];
+        data.buffer().getBytes(0, me);
+        Assert.assertArrayEquals(content, me);
+        data.release();
+        Assert.assertEquals(0, pooled.refCnt());
+    }
+
+    @Test
+    public void testVerificationCache() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+        KeyPair keyPair1 = gen.generateKeyPair();
+        KeyPair keyPair2 = gen.generateKeyPair();
+        CachingSignatureFactory factory = new CachingSignatureFactory();
+
+        Data data = new Data(new byte[10000]);
+        data.sign(keyPair1);
+        // the same data arrives twice, e.g., by replication
+        Data newData1 = encodeDecode(data.duplicate(), factory);
+        Data newData2 = encodeDecode(data.duplicate(), factory);
+        Assert.assertTrue(newData1.verify(keyPair1.getPublic()));
+        Assert.assertEquals(0, factory.cacheHits());
+        // the data object remembers the verification
+        Assert.assertTrue(newData1.verify(keyPair1.getPublic()));
+        Assert.assertEquals(0, factory.cacheHits());
+        Assert.assertTrue(newData2.verify(keyPair1.getPublic()));
+        Assert.assertEquals(1, factory.cacheHits());
+        Assert.assertFalse(newData2.verify(keyPair2.getPublic()));
+
+        // other content with the same signature is not taken from the cache
+        Data forged = new Data(new byte[10001]).signature(data.signature());
+        Assert.assertFalse(factory.verify(keyPair1.getPublic(), forged.buffer(), forged.signature()));
+        Assert.assertEquals(1, factory.cacheHits());
+    }
+
 	private Data encodeDecode(Data data) {
+		return encodeDecode(data, new DefaultSignatureFactory());
+	}
+
+	private Data encodeDecode(Data data, SignatureFactory signatureFactory) {
 	    
 		AlternativeCompositeByteBuf transfer = AlternativeCompositeByteBuf.compBuffer();
         data.encodeHeader(transfer);
         data.encodeBuffer(transfer);
         data.encodeDone(transfer);
         //
-        Data newData = Data.decodeHeader(transfer, new DefaultSignatureFactory());
+        Data newData = Data.decodeHeader(transfer, signatureFactory);
         newData.decodeBuffer(transfer);
         newData.decodeDone(transfer, null);
         return newData;
@@ -0,0 +1,152 @@
+package net.tomp2p.storage;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number320;
+import net.tomp2p.peers.Number640;
+
+/**
+ * Contention benchmark for the storage locks. Compares the lock/unlock throughput of the {@link KeyLock} with the
+ * {@link HierarchicalLock} and measures the throughput of the {@link StorageLayer} with a mix of gets, puts, and range
+ * digests. The thread count doubles from 1 up to the argument, or twice the number of processors. Run on a machine
+ * with several cores, e.g.:
+ *
+ * -server -Xms1024m -Xmx1024m
+ *
+ * @author Thomas Bocek
+ */
+public class TestLockPerformance {
+    private static final int KEYS = 1000;
+    private static final int DURATION_MILLIS = 5000;
+
+    private static final Number160 DOMAIN = Number160.createHash("domain");
+
+    private interface Operation {
+        void run(Random rnd) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 2 * cores;
+        System.out.println("available processors: " + cores);
+        if (cores == 1) {
+            System.out.println("only one processor, the threads do not run in parallel and contention is not measured");
+        }
+        final Number640[] keys = createKeys();
+        // the ratio matters with more threads than cores, where the striped locks should scale and KeyLock does not
+        for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+            long keyLock = benchmarkKeyLock(threads, keys);
+            long write = benchmarkHierarchicalLock(threads, keys, true);
+            long read = benchmarkHierarchicalLock(threads, keys, false);
+            System.out.println(String.format(
+                    "HierarchicalLock compared to KeyLock with %d threads: write %.2fx, read %.2fx", threads, write
+                            / (double) keyLock, read / (double) keyLock));
+            benchmarkStorageLayer(threads, keys);
+        }
+    }
+
+    private static Number640[] createKeys() {
+        Number640[] keys = new Number640[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            // 10 location keys with 100 content keys each, so that range digests hit single-key operations
+            keys[i] = new Number640(new Number160(i % 10), DOMAIN, new Number160(i), Number160.ZERO);
+        }
+        return keys;
+    }
+
+    private static long benchmarkKeyLock(int threads, final Number640[] keys) throws InterruptedException {
+        final KeyLock<Number640> lock = new KeyLock<Number640>();
+        long ops = run(threads, new Operation() {
+            @Override
+            public void run(Random rnd) {
+                KeyLock<Number640>.RefCounterLock tmp = lock.lock(keys[rnd.nextInt(KEYS)]);
+                lock.unlock(tmp);
+            }
+        });
+        print("KeyLock lock/unlock", threads, ops);
+        return ops;
+    }
+
+    private static long benchmarkHierarchicalLock(int threads, final Number640[] keys, final boolean write)
+            throws InterruptedException {
+        final HierarchicalLock lock = new HierarchicalLock();
+        long ops = run(threads, new Operation() {
+            @Override
+            public void run(Random rnd) {
+                Number640 key = keys[rnd.nextInt(KEYS)];
+                if (write) {
+                    lock.lockWrite(key);
+                    lock.unlockWrite(key);
+                } else {
+                    lock.lockRead(key);
+                    lock.unlockRead(key);
+                }
+            }
+        });
+        print("HierarchicalLock " + (write ? "write" : "read") + " lock/unlock", threads, ops);
+        return ops;
+    }
+
+    private static void benchmarkStorageLayer(int threads, final Number640[] keys) throws InterruptedException,
+            IOException {
+        final StorageLayer storageLayer = new StorageLayer(new StorageMemory());
+        for (Number640 key : keys) {
+            storageLayer.put(key, new Data(new byte[100]), null, false, false);
+        }
+        long ops = run(threads, new Operation() {
+            @Override
+            public void run(Random rnd) {
+                int nr = rnd.nextInt(100);
+                Number640 key = keys[rnd.nextInt(KEYS)];
+                if (nr < 80) {
+                    storageLayer.get(key);
+                } else if (nr < 99) {
+                    storageLayer.put(key, new Data(new byte[100]), null, false, false);
+                } else {
+                    storageLayer.digest(new Number320(key.getLocationKey(), DOMAIN), null, null, -1, true, true);
+                }
+            }
+        });
+        print("StorageLayer 80% get, 19% put, 1% digest", threads, ops);
+    }
+
+    private static long run(int threads, final Operation operation) throws InterruptedException {
+        final AtomicLong counter = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long end[] = new long[1];
+        for (int i = 0; i < threads; i++) {
+            final Random rnd = new Random(i);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long ops = 0;
+                        while (System.currentTimeMillis() < end[0]) {
+                            operation.run(rnd);
+                            ops++;
+                        }
+                        counter.addAndGet(ops);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        end[0] = System.currentTimeMillis() + DURATION_MILLIS;
+        start.countDown();
+        done.await();
+        return counter.get();
+    }
+
+    private static void print(String name, int threads, long ops) {
+        System.out.println(name + " with " + threads + " threads: " + (ops * 1000 / DURATION_MILLIS) + " ops/s");
+    }
+}
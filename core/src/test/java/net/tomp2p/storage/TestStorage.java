@@ -7,6 +7,8 @@ import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.PublicKey;
 import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.tomp2p.peers.Number160;
@@ -311,6 +313,103 @@ public class TestStorage {
         Assert.assertEquals(0, lock.cacheSize());
     }
     
+    @Test
+    public void testHierarchicalLock() throws InterruptedException {
+        final HierarchicalLock lock = new HierarchicalLock();
+        final Number640 from = new Number640(locationKey, domainKey, Number160.ZERO, Number160.ZERO);
+        final Number640 to = new Number640(locationKey, domainKey, Number160.MAX_VALUE, Number160.MAX_VALUE);
+        final CountDownLatch read = new CountDownLatch(1);
+        final CountDownLatch write = new CountDownLatch(1);
+        // a range read does not block a single-key read
+        lock.lockRead(from, to);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lock.lockRead(key1);
+                lock.unlockRead(key1);
+                read.countDown();
+            }
+        }).start();
+        Assert.assertTrue(read.await(1, TimeUnit.SECONDS));
+        lock.unlockRead(from, to);
+        // a range write blocks a single-key read in that range
+        lock.lockWrite(from, to);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lock.lockRead(key1);
+                lock.unlockRead(key1);
+                write.countDown();
+            }
+        }).start();
+        Assert.assertFalse(write.await(500, TimeUnit.MILLISECONDS));
+        // reentrant from within the range
+        lock.lockWrite(key2);
+        lock.unlockWrite(key2);
+        lock.unlockWrite(from, to);
+        Assert.assertTrue(write.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHierarchicalLockStorageUpgrade() {
+        final HierarchicalLock lock = new HierarchicalLock();
+        // the exclusive storage lock would wait for the key lock of this thread
+        lock.lockRead(key1);
+        try {
+            lock.lockStorage(true);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        lock.unlockRead(key1);
+        lock.lockStorage(false);
+        try {
+            lock.lockStorage(true);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        lock.unlockStorage(false);
+        // locking keys within the exclusive storage lock is fine
+        lock.lockStorage(true);
+        lock.lockWrite(key1);
+        lock.lockStorage(true);
+        lock.unlockStorage(true);
+        lock.unlockWrite(key1);
+        lock.unlockStorage(true);
+        lock.lockWrite(key1);
+        lock.unlockWrite(key1);
+    }
+
+    @Test
+    public void testLockFreeRead() throws Exception {
+        StorageMemory storageM = new StorageMemory();
+        final StorageLayer storage = new StorageLayer(storageM);
+        storage.setLockFreeRead(true);
+        store(storage);
+        final Data stored = storage.get(key1);
+        final CountDownLatch read = new CountDownLatch(1);
+        // a get does not wait for a range write
+        storage.getLock().lockStorage(true);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (storage.get(key1) != null && storage.contains(key2)) {
+                    read.countDown();
+                }
+            }
+        }).start();
+        Assert.assertTrue(read.await(1, TimeUnit.SECONDS));
+        storage.getLock().unlockStorage(true);
+        // the stored object is replaced, not modified
+        KeyPair pair = KeyPairGenerator.getInstance("DSA").generateKeyPair();
+        Assert.assertEquals(PutStatus.OK, storage.updateMeta(null, key1, new Data().publicKey(pair.getPublic())));
+        Assert.assertEquals(null, stored.publicKey());
+        Assert.assertEquals(pair.getPublic(), storage.get(key1).publicKey());
+        Assert.assertEquals(PutStatus.NOT_FOUND, storage.updateMeta(null, key3, new Data()));
+        storageM.close();
+    }
+
     @Test
     public void testConcurrency() throws InterruptedException, IOException {
         final StorageMemory sM = new StorageMemory();
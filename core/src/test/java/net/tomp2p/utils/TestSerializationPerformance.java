@@ -0,0 +1,62 @@
+package net.tomp2p.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.tomp2p.storage.Data;
+
+/**
+ * Multi-threaded benchmark for {@link Data#object()}. Decodes the same data object with 1, 2, 4, ... threads up to
+ * the number of available processors and prints the throughput. The throughput should scale with the number of
+ * threads, as decoding does not lock. Run with:
+ * 
+ * -server -Xms1024m -Xmx1024m
+ * 
+ * @author Thomas Bocek
+ */
+public class TestSerializationPerformance {
+    private static final int DURATION_MILLIS = 5000;
+
+    public static void main(String[] args) throws Exception {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final ArrayList<String> list = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            list.add("test" + i);
+        }
+        final Data data = new Data(list);
+        final int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= processors; threads *= 2) {
+            long ops = run(threads, data);
+            System.out.println("decode " + data.length() + " bytes with " + threads + " threads: "
+                    + (ops * 1000 / DURATION_MILLIS) + " ops/s");
+        }
+    }
+
+    private static long run(int threads, final Data data) throws InterruptedException {
+        final AtomicLong counter = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long end = System.currentTimeMillis() + DURATION_MILLIS;
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long ops = 0;
+                        while (System.currentTimeMillis() < end) {
+                            data.object();
+                            ops++;
+                        }
+                        counter.addAndGet(ops);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        return counter.get();
+    }
+}
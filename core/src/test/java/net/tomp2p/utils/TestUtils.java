@@ -2,8 +2,11 @@ package net.tomp2p.utils;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
+import net.tomp2p.storage.Data;
 
 import org.junit.Test;
 
@@ -24,4 +27,36 @@ public class TestUtils {
         Utils.difference(collection1, result, collection2, collection3);
         Assert.assertEquals(0, result.size());
     }
+
+    @Test
+    public void testDecodeConcurrent() throws Exception {
+        final ArrayList<String> list = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            list.add("test" + i);
+        }
+        final Data data = new Data(list);
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            if (!list.equals(data.object())) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        errors.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        Assert.assertEquals(0, errors.get());
+    }
 }
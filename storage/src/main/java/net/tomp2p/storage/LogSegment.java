@@ -0,0 +1,266 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.storage;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.utils.Utils;
+
+/**
+ * A memory mapped, append-only segment file of the {@link StorageLog}. A record consists of the record length (4
+ * bytes), the operation (1 byte), the key (80 bytes), the expiration (8 bytes), and for a put the encoded data object.
+ * The file is preallocated, a record length of 0 marks the end of the written records.
+ *
+ * @author Thomas Bocek
+ *
+ */
+final class LogSegment {
+
+    static final byte PUT = 1;
+
+    static final byte REMOVE = 2;
+
+    static final int HEADER_SIZE = Utils.INTEGER_BYTE_SIZE + Utils.BYTE_SIZE + (4 * Number160.BYTE_ARRAY_SIZE)
+            + Utils.LONG_BYTE_SIZE;
+
+    private static final String PREFIX = "segment-";
+
+    private static final String SUFFIX = ".log";
+
+    /**
+     * Callback for {@link LogSegment#scan(RecordVisitor)}.
+     */
+    interface RecordVisitor {
+        void visit(byte op, Number640 key, long expiration, int offset, int length) throws IOException;
+    }
+
+    private final long id;
+
+    private final File file;
+
+    private final MappedByteBuffer mapped;
+
+    // bytes used by puts that are still referenced from the index
+    private final AtomicInteger liveBytes = new AtomicInteger();
+
+    // only modified while holding the write lock of the storage
+    private volatile int position;
+
+    private LogSegment(final long id, final File file, final MappedByteBuffer mapped) {
+        this.id = id;
+        this.file = file;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Creates a new segment and preallocates the file.
+     *
+     * @param dir
+     *            The directory of the segment files
+     * @param id
+     *            The id of the segment, newer segments have a higher id
+     * @param size
+     *            The size of the file
+     * @return The new segment
+     * @throws IOException
+     *             If the file cannot be created or mapped
+     */
+    static LogSegment create(final File dir, final long id, final int size) throws IOException {
+        final File file = new File(dir, PREFIX + id + SUFFIX);
+        return new LogSegment(id, file, map(file, size));
+    }
+
+    /**
+     * Opens an existing segment. Call {@link #scan(RecordVisitor)} to find the end of the written records.
+     *
+     * @param file
+     *            The segment file
+     * @return The segment or null if the file is not a segment file
+     * @throws IOException
+     *             If the file cannot be mapped
+     */
+    static LogSegment open(final File file) throws IOException {
+        final Long id = id(file);
+        if (id == null) {
+            return null;
+        }
+        return new LogSegment(id, file, map(file, (int) file.length()));
+    }
+
+    private static Long id(final File file) {
+        final String name = file.getName();
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static MappedByteBuffer map(final File file, final int size) throws IOException {
+        RandomAccessFile raf = null;
+        FileChannel channel = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(size);
+            channel = raf.getChannel();
+            // the mapping stays valid after the channel has been closed
+            return channel.map(MapMode.READ_WRITE, 0, size);
+        } finally {
+            Utils.bestEffortclose(channel, raf);
+        }
+    }
+
+    /**
+     * Appends a record to this segment. The caller needs to make sure that there is enough space and that only one
+     * thread appends at a time.
+     *
+     * @param op
+     *            Either {@link #PUT} or {@link #REMOVE}
+     * @param key
+     *            The key of the record
+     * @param expiration
+     *            The expiration in milliseconds
+     * @param data
+     *            The encoded data object, empty for a remove
+     * @return The offset of the data object in this segment
+     */
+    int append(final byte op, final Number640 key, final long expiration, final ByteBuf data) {
+        final int length = data.readableBytes();
+        final int start = position;
+        final byte[] me = new byte[4 * Number160.BYTE_ARRAY_SIZE];
+        key.getLocationKey().toByteArray(me, 0);
+        key.getDomainKey().toByteArray(me, Number160.BYTE_ARRAY_SIZE);
+        key.getContentKey().toByteArray(me, 2 * Number160.BYTE_ARRAY_SIZE);
+        key.getVersionKey().toByteArray(me, 3 * Number160.BYTE_ARRAY_SIZE);
+
+        final ByteBuffer dup = mapped.duplicate();
+        dup.position(start + Utils.INTEGER_BYTE_SIZE);
+        dup.put(op);
+        dup.put(me);
+        dup.putLong(expiration);
+        final int offset = dup.position();
+        dup.limit(offset + length);
+        data.getBytes(data.readerIndex(), dup);
+        // write the length last, a partially written record is ignored when scanning
+        mapped.putInt(start, HEADER_SIZE - Utils.INTEGER_BYTE_SIZE + length);
+        position = offset + length;
+        return offset;
+    }
+
+    /**
+     * Visits all records in the order they were written and sets the position after the last record.
+     *
+     * @param visitor
+     *            The visitor that is called for every record
+     * @throws IOException
+     *             If the visitor throws an exception
+     */
+    void scan(final RecordVisitor visitor) throws IOException {
+        final int capacity = mapped.capacity();
+        final byte[] me = new byte[4 * Number160.BYTE_ARRAY_SIZE];
+        int start = 0;
+        while (start + HEADER_SIZE <= capacity) {
+            final int recordLength = mapped.getInt(start);
+            if (recordLength < HEADER_SIZE - Utils.INTEGER_BYTE_SIZE
+                    || start + Utils.INTEGER_BYTE_SIZE + recordLength > capacity) {
+                break;
+            }
+            final ByteBuffer dup = mapped.duplicate();
+            dup.position(start + Utils.INTEGER_BYTE_SIZE);
+            final byte op = dup.get();
+            dup.get(me);
+            final Number640 key = new Number640(new Number160(me, 0, Number160.BYTE_ARRAY_SIZE), new Number160(me,
+                    Number160.BYTE_ARRAY_SIZE, Number160.BYTE_ARRAY_SIZE), new Number160(me,
+                    2 * Number160.BYTE_ARRAY_SIZE, Number160.BYTE_ARRAY_SIZE), new Number160(me,
+                    3 * Number160.BYTE_ARRAY_SIZE, Number160.BYTE_ARRAY_SIZE));
+            final long expiration = dup.getLong();
+            final int offset = dup.position();
+            final int length = recordLength - (HEADER_SIZE - Utils.INTEGER_BYTE_SIZE);
+            visitor.visit(op, key, expiration, offset, length);
+            start = offset + length;
+        }
+        if (start > position) {
+            position = start;
+        }
+    }
+
+    /**
+     * @param offset
+     *            The offset of the data object
+     * @param length
+     *            The length of the data object
+     * @return A view on the mapped file, no data is copied
+     */
+    ByteBuffer slice(final int offset, final int length) {
+        final ByteBuffer dup = mapped.duplicate();
+        dup.position(offset);
+        dup.limit(offset + length);
+        return dup.slice();
+    }
+
+    long id() {
+        return id;
+    }
+
+    int remaining() {
+        return mapped.capacity() - position;
+    }
+
+    int written() {
+        return position;
+    }
+
+    int liveBytes() {
+        return liveBytes.get();
+    }
+
+    void addLive(final int bytes) {
+        liveBytes.addAndGet(bytes);
+    }
+
+    void removeLive(final int bytes) {
+        liveBytes.addAndGet(-bytes);
+    }
+
+    void force() {
+        mapped.force();
+    }
+
+    /**
+     * Deletes the file. Data objects that were handed out before are still backed by the mapping, which is released
+     * once they are garbage collected.
+     *
+     * @return True if the file could be deleted
+     */
+    boolean delete() {
+        return file.delete();
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright 2012 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.tomp2p.connection.DefaultSignatureFactory;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number320;
+import net.tomp2p.peers.Number480;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.utils.Utils;
+
+import org.apache.jdbm.DB;
+import org.apache.jdbm.DBMaker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent storage backed by JDBM. The data, the timeouts, the domain and entry protection, and the replication
+ * responsibilities are stored on disk and survive a restart of the peer. Only the JDBM cache is kept on the heap.
+ * Values larger than {@link #MAX_INLINE_SIZE} are not stored in the database, but in a separate file that is memory
+ * mapped when read.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class StorageDisk implements Storage {
+    private static final Logger LOG = LoggerFactory.getLogger(StorageDisk.class);
+
+    // 8MB is the limit of a JDBM record, store large values in files
+    public static final int MAX_INLINE_SIZE = 1024 * 1024;
+
+    private static final byte INLINE = 0;
+
+    private static final byte REFERENCE = 1;
+
+    private static final String DATA_MAP = "dataMap";
+
+    private static final String TIMEOUT_MAP = "timeoutMap";
+
+    private static final String TIMEOUT_MAP_REV = "timeoutMapRev";
+
+    private static final String PROTECTED_MAP = "protectedMap";
+
+    private static final String ENTRY_MAP = "entryMap";
+
+    private static final String RESPONSIBILITY_MAP = "responsibilityMap";
+
+    private static final String RESPONSIBILITY_MAP_REV = "responsibilityMapRev";
+
+    final private DB db;
+
+    // Core
+    final private NavigableMap<Number640, byte[]> dataMap;
+
+    // Maintenance
+    final private Map<Number640, Long> timeoutMap;
+
+    final private NavigableMap<Long, Set<Number640>> timeoutMapRev;
+
+    // Protection
+    final private Map<Number320, byte[]> protectedMap;
+
+    final private Map<Number480, byte[]> entryMap;
+
+    // Replication
+    // maps content (locationKey) to peerid
+    final private Map<Number160, Number160> responsibilityMap;
+
+    // maps peerid to content (locationKey)
+    final private Map<Number160, Set<Number160>> responsibilityMapRev;
+
+    final private KeyLock<Number160> responsibilityLock = new KeyLock<Number160>();
+
+    final private KeyLock<Long> timeoutLock = new KeyLock<Long>();
+
+    final private File dataDir;
+
+    final private SignatureFactory signatureFactory;
+
+    /**
+     * Opens or creates a storage in the given directory.
+     *
+     * @param dirName
+     *            The directory where the database and the large values are stored
+     */
+    public StorageDisk(String dirName) {
+        this(dirName, new DefaultSignatureFactory());
+    }
+
+    /**
+     * Opens or creates a storage in the given directory.
+     *
+     * @param dirName
+     *            The directory where the database and the large values are stored
+     * @param signatureFactory
+     *            The signature factory that is used to decode the public keys of the stored data
+     */
+    public StorageDisk(String dirName, SignatureFactory signatureFactory) {
+        this.signatureFactory = signatureFactory;
+        this.dataDir = new File(dirName, "data");
+        if (!dataDir.exists() && !dataDir.mkdirs()) {
+            throw new IllegalArgumentException("cannot create directory " + dataDir);
+        }
+        String fileName = dirName + File.separator + "tomp2p-jdbm3";
+        db = DBMaker.openFile(fileName).make();
+        dataMap = this.<Number640, byte[]> getOrCreateTreeMap(DATA_MAP);
+        timeoutMap = this.<Number640, Long> getOrCreateHashMap(TIMEOUT_MAP);
+        timeoutMapRev = this.<Long, Set<Number640>> getOrCreateTreeMap(TIMEOUT_MAP_REV);
+        protectedMap = this.<Number320, byte[]> getOrCreateHashMap(PROTECTED_MAP);
+        entryMap = this.<Number480, byte[]> getOrCreateHashMap(ENTRY_MAP);
+        responsibilityMap = this.<Number160, Number160> getOrCreateHashMap(RESPONSIBILITY_MAP);
+        responsibilityMapRev = this.<Number160, Set<Number160>> getOrCreateHashMap(RESPONSIBILITY_MAP_REV);
+    }
+
+    private <K extends Comparable<?>, V> NavigableMap<K, V> getOrCreateTreeMap(String name) {
+        final NavigableMap<K, V> navigableMap = db.<K, V> getTreeMap(name);
+        return navigableMap != null ? navigableMap : db.<K, V> createTreeMap(name);
+    }
+
+    private <K extends Comparable<?>, V> ConcurrentMap<K, V> getOrCreateHashMap(String name) {
+        final ConcurrentMap<K, V> concurrentMap = db.<K, V> getHashMap(name);
+        return concurrentMap != null ? concurrentMap : db.<K, V> createHashMap(name);
+    }
+
+    // Core
+    @Override
+    public boolean put(Number640 key, Data value) {
+        try {
+            if (value.length() > MAX_INLINE_SIZE) {
+                storeFile(key, value);
+                dataMap.put(key, new byte[] { REFERENCE });
+            } else {
+                dataMap.put(key, encode(value));
+                // in case we overwrite a large value with a small one
+                deleteFile(key);
+            }
+            db.commit();
+            return true;
+        } catch (IOException e) {
+            LOG.error("cannot store data for key " + key, e);
+            db.rollback();
+            return false;
+        }
+    }
+
+    @Override
+    public Data get(Number640 key) {
+        return decode(key, dataMap.get(key));
+    }
+
+    @Override
+    public boolean contains(Number640 key) {
+        return dataMap.containsKey(key);
+    }
+
+    @Override
+    public int contains(Number640 from, Number640 to) {
+        return dataMap.subMap(from, true, to, true).size();
+    }
+
+    @Override
+    public Data remove(Number640 key, boolean returnData) {
+        byte[] me = dataMap.remove(key);
+        Data retVal = returnData ? decode(key, me) : null;
+        if (me != null && me[0] == REFERENCE) {
+            deleteFile(key);
+        }
+        db.commit();
+        return retVal;
+    }
+
+    @Override
+    public NavigableMap<Number640, Data> remove(Number640 from, Number640 to, boolean returnData) {
+        NavigableMap<Number640, byte[]> tmp = dataMap.subMap(from, true, to, true);
+        // copy the keys first, we cannot remove while iterating over a JDBM tree
+        Collection<Number640> keys = new ArrayList<Number640>(tmp.keySet());
+        NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
+        for (Number640 key : keys) {
+            byte[] me = dataMap.remove(key);
+            if (returnData) {
+                retVal.put(key, decode(key, me));
+            }
+            if (me != null && me[0] == REFERENCE) {
+                deleteFile(key);
+            }
+        }
+        db.commit();
+        return retVal;
+    }
+
+    @Override
+    public NavigableMap<Number640, Data> subMap(Number640 from, Number640 to, int limit, boolean ascending) {
+        NavigableMap<Number640, byte[]> tmp = dataMap.subMap(from, true, to, true);
+        Iterator<Map.Entry<Number640, byte[]>> iterator = ascending ? tmp.entrySet().iterator() : tmp
+                .descendingMap().entrySet().iterator();
+        NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
+        for (int i = 0; iterator.hasNext() && (limit < 0 || i < limit); i++) {
+            Map.Entry<Number640, byte[]> entry = iterator.next();
+            retVal.put(entry.getKey(), decode(entry.getKey(), entry.getValue()));
+        }
+        return retVal;
+    }
+
+    @Override
+    public NavigableMap<Number640, Data> map() {
+        NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
+        for (Map.Entry<Number640, byte[]> entry : dataMap.entrySet()) {
+            retVal.put(entry.getKey(), decode(entry.getKey(), entry.getValue()));
+        }
+        return retVal;
+    }
+
+    /**
+     * Encodes the data object with the same format that is used on the wire: header, payload, and signature. The
+     * first byte indicates if the value is stored inline or in a separate file.
+     *
+     * @param value
+     *            The data object to encode
+     * @return The encoded data object including the storage flag
+     */
+    private byte[] encode(Data value) {
+        AlternativeCompositeByteBuf buf = AlternativeCompositeByteBuf.compBuffer();
+        try {
+            buf.writeByte(INLINE);
+            Data data = value.duplicate();
+            data.encodeHeader(buf);
+            data.encodeDone(buf);
+            byte[] me = new byte[buf.readableBytes()];
+            buf.readBytes(me);
+            return me;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private Data decode(Number640 key, byte[] me) {
+        if (me == null) {
+            return null;
+        }
+        final ByteBuf buf;
+        if (me[0] == REFERENCE) {
+            try {
+                // the file is memory mapped, the value is not copied to the heap
+                buf = Unpooled.wrappedBuffer(Utils.loadFile(file(key)));
+            } catch (IOException e) {
+                LOG.error("cannot load data for key " + key, e);
+                return null;
+            }
+        } else {
+            buf = Unpooled.wrappedBuffer(me, 1, me.length - 1);
+        }
+        Data data = Data.decodeHeader(buf, signatureFactory);
+        if (data == null || !data.decodeBuffer(buf) || !data.decodeDone(buf, null)) {
+            LOG.error("stored data for key {} is corrupt", key);
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Store big data on disk.
+     *
+     * @param key
+     *            The key of the value
+     * @param value
+     *            The value
+     * @throws IOException
+     *             If the file cannot be written
+     */
+    private void storeFile(Number640 key, Data value) throws IOException {
+        AlternativeCompositeByteBuf buf = AlternativeCompositeByteBuf.compBuffer();
+        FileOutputStream fos = null;
+        FileChannel destination = null;
+        try {
+            Data data = value.duplicate();
+            data.encodeHeader(buf);
+            data.encodeDone(buf);
+            fos = new FileOutputStream(file(key));
+            destination = fos.getChannel();
+            destination.write(buf.nioBuffers());
+        } finally {
+            Utils.bestEffortclose(destination, fos);
+            buf.release();
+        }
+    }
+
+    private void deleteFile(Number640 key) {
+        File file = file(key);
+        if (file.exists() && !file.delete()) {
+            LOG.warn("could not delete {}", file);
+        }
+    }
+
+    private File file(Number640 key) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(key.getLocationKey()).append('_').append(key.getDomainKey()).append('_')
+                .append(key.getContentKey()).append('_').append(key.getVersionKey());
+        return new File(dataDir, sb.toString());
+    }
+
+    // Maintenance
+    @Override
+    public void addTimeout(Number640 key, long expiration) {
+        Long oldExpiration = timeoutMap.put(key, expiration);
+        KeyLock<Long>.RefCounterLock lock1 = timeoutLock.lock(expiration);
+        try {
+            Set<Number640> tmp = timeoutMapRev.get(expiration);
+            if (tmp == null) {
+                tmp = new HashSet<Number640>();
+            }
+            tmp.add(key);
+            // JDBM returns a copy, write it back
+            timeoutMapRev.put(expiration, tmp);
+        } finally {
+            timeoutLock.unlock(lock1);
+        }
+        if (oldExpiration != null && oldExpiration.longValue() != expiration) {
+            removeRevTimeout(key, oldExpiration);
+        }
+        db.commit();
+    }
+
+    @Override
+    public void removeTimeout(Number640 key) {
+        Long expiration = timeoutMap.remove(key);
+        if (expiration == null) {
+            return;
+        }
+        removeRevTimeout(key, expiration);
+        db.commit();
+    }
+
+    private void removeRevTimeout(Number640 key, Long expiration) {
+        KeyLock<Long>.RefCounterLock lock = timeoutLock.lock(expiration);
+        try {
+            Set<Number640> tmp = timeoutMapRev.get(expiration);
+            if (tmp != null) {
+                tmp.remove(key);
+                if (tmp.isEmpty()) {
+                    timeoutMapRev.remove(expiration);
+                } else {
+                    timeoutMapRev.put(expiration, tmp);
+                }
+            }
+        } finally {
+            timeoutLock.unlock(lock);
+        }
+    }
+
+    @Override
+    public Collection<Number640> subMapTimeout(long to) {
+        Collection<Number640> toRemove = new ArrayList<Number640>();
+        for (Set<Number640> set : timeoutMapRev.headMap(to, false).values()) {
+            toRemove.addAll(set);
+        }
+        return toRemove;
+    }
+
+    // Protection
+    @Override
+    public boolean protectDomain(Number320 key, PublicKey publicKey) {
+        protectedMap.put(key, encodePublicKey(publicKey));
+        db.commit();
+        return true;
+    }
+
+    @Override
+    public boolean isDomainProtectedByOthers(Number320 key, PublicKey publicKey) {
+        byte[] other = protectedMap.get(key);
+        if (other == null) {
+            return false;
+        }
+        return !Arrays.equals(other, encodePublicKey(publicKey));
+    }
+
+    @Override
+    public boolean protectEntry(Number480 key, PublicKey publicKey) {
+        entryMap.put(key, encodePublicKey(publicKey));
+        db.commit();
+        return true;
+    }
+
+    @Override
+    public boolean isEntryProtectedByOthers(Number480 key, PublicKey publicKey) {
+        byte[] other = entryMap.get(key);
+        if (other == null) {
+            return false;
+        }
+        return !Arrays.equals(other, encodePublicKey(publicKey));
+    }
+
+    /**
+     * Public keys are stored in their encoded form, as they need to survive a restart. Two keys are considered the
+     * same if their encoded form is the same.
+     */
+    private static byte[] encodePublicKey(PublicKey publicKey) {
+        if (publicKey == null || publicKey.getEncoded() == null) {
+            return Utils.EMPTY_BYTE_ARRAY;
+        }
+        return publicKey.getEncoded();
+    }
+
+    // Replication
+    @Override
+    public Number160 findPeerIDForResponsibleContent(Number160 locationKey) {
+        return responsibilityMap.get(locationKey);
+    }
+
+    @Override
+    public Collection<Number160> findContentForResponsiblePeerID(Number160 peerID) {
+        KeyLock<Number160>.RefCounterLock lock = responsibilityLock.lock(peerID);
+        try {
+            Collection<Number160> contentIDs = responsibilityMapRev.get(peerID);
+            if (contentIDs == null) {
+                return Collections.<Number160> emptyList();
+            }
+            return new ArrayList<Number160>(contentIDs);
+        } finally {
+            responsibilityLock.unlock(lock);
+        }
+    }
+
+    @Override
+    public boolean updateResponsibilities(Number160 locationKey, Number160 peerId) {
+        boolean isNew = true;
+        Number160 oldPeerId = responsibilityMap.put(locationKey, peerId);
+        // add to the reverse map
+        KeyLock<Number160>.RefCounterLock lock1 = responsibilityLock.lock(peerId);
+        try {
+            Set<Number160> contentIDs = responsibilityMapRev.get(peerId);
+            if (contentIDs == null) {
+                contentIDs = new HashSet<Number160>();
+            }
+            contentIDs.add(locationKey);
+            // JDBM returns a copy, write it back
+            responsibilityMapRev.put(peerId, contentIDs);
+        } finally {
+            responsibilityLock.unlock(lock1);
+        }
+        if (oldPeerId != null) {
+            isNew = !oldPeerId.equals(peerId);
+            if (isNew) {
+                removeRevResponsibility(oldPeerId, locationKey);
+            }
+        }
+        db.commit();
+        return isNew;
+    }
+
+    @Override
+    public void removeResponsibility(Number160 locationKey) {
+        Number160 peerId = responsibilityMap.remove(locationKey);
+        if (peerId == null) {
+            return;
+        }
+        removeRevResponsibility(peerId, locationKey);
+        db.commit();
+    }
+
+    private void removeRevResponsibility(Number160 peerId, Number160 locationKey) {
+        if (peerId == null || locationKey == null) {
+            throw new IllegalArgumentException("both keys must not be null");
+        }
+        KeyLock<Number160>.RefCounterLock lock = responsibilityLock.lock(peerId);
+        try {
+            Set<Number160> contentIDs = responsibilityMapRev.get(peerId);
+            if (contentIDs != null) {
+                contentIDs.remove(locationKey);
+                if (contentIDs.isEmpty()) {
+                    responsibilityMapRev.remove(peerId);
+                } else {
+                    responsibilityMapRev.put(peerId, contentIDs);
+                }
+            }
+        } finally {
+            responsibilityLock.unlock(lock);
+        }
+    }
+
+    // Misc
+    @Override
+    public void close() {
+        db.commit();
+        db.close();
+    }
+}
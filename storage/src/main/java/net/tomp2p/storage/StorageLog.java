@@ -0,0 +1,449 @@
+/*
+ * Copyright 2013 Thomas Bocek
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package net.tomp2p.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.tomp2p.connection.DefaultSignatureFactory;
+import net.tomp2p.connection.SignatureFactory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number320;
+import net.tomp2p.peers.Number480;
+import net.tomp2p.peers.Number640;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A storage that writes the data objects into memory mapped, append-only segment files. Only a compact index that
+ * maps the keys to a position in a segment is kept on the heap. The data objects returned by {@link #get(Number640)}
+ * are backed by the mapped file, thus, the encoder can send them without copying the payload to the heap. Overwritten,
+ * removed, and expired entries are reclaimed by {@link #compact()}, which copies the live entries of mostly empty
+ * segments to the end of the log.
+ * <p>
+ * The data is recovered from the segments on startup. Timeouts are restored from the expiration stored with each
+ * entry. Domain and entry protection and the replication responsibilities are kept in memory only, as in
+ * {@link StorageMemory}.
+ *
+ * @author Thomas Bocek
+ *
+ */
+public class StorageLog implements Storage {
+    private static final Logger LOG = LoggerFactory.getLogger(StorageLog.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+
+    /**
+     * The position of an entry in the log.
+     */
+    private static final class Location {
+        private final LogSegment segment;
+        private final int offset;
+        private final int length;
+
+        private Location(final LogSegment segment, final int offset, final int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private int recordSize() {
+            return LogSegment.HEADER_SIZE + length;
+        }
+    }
+
+    private final File dir;
+
+    private final int segmentSize;
+
+    private final double compactionRatio;
+
+    private final SignatureFactory signatureFactory;
+
+    // Core
+    private final NavigableMap<Number640, Location> index = new ConcurrentSkipListMap<Number640, Location>();
+
+    private final NavigableMap<Long, LogSegment> segments = new ConcurrentSkipListMap<Long, LogSegment>();
+
+    // Maintenance, protection, and replication
+    private final StorageMemory meta = new StorageMemory();
+
+    // appending to the log and updating the index is done while holding this lock, so that the order in the log is
+    // the same as the order of the updates of the index
+    private final Object writeLock = new Object();
+
+    private LogSegment active;
+
+    public StorageLog(String dirName) throws IOException {
+        this(dirName, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_RATIO, new DefaultSignatureFactory());
+    }
+
+    /**
+     * Opens or creates a log in the given directory.
+     *
+     * @param dirName
+     *            The directory of the segment files
+     * @param segmentSize
+     *            The size of a segment file. Entries larger than this get their own segment
+     * @param compactionRatio
+     *            A segment is compacted if the ratio of live bytes to written bytes is less or equal than this value
+     * @param signatureFactory
+     *            The signature factory that is used to decode the public keys of the stored data
+     * @throws IOException
+     *             If the segments cannot be read
+     */
+    public StorageLog(String dirName, int segmentSize, double compactionRatio, SignatureFactory signatureFactory)
+            throws IOException {
+        this.dir = new File(dirName);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("cannot create directory " + dir);
+        }
+        this.segmentSize = segmentSize;
+        this.compactionRatio = compactionRatio;
+        this.signatureFactory = signatureFactory;
+        recover();
+    }
+
+    private void recover() throws IOException {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                LogSegment segment = LogSegment.open(file);
+                if (segment != null) {
+                    segments.put(segment.id(), segment);
+                }
+            }
+        }
+        final Map<Number640, Long> expirations = new TreeMap<Number640, Long>();
+        // replay in the order the segments were written
+        for (final LogSegment segment : segments.values()) {
+            segment.scan(new LogSegment.RecordVisitor() {
+                @Override
+                public void visit(byte op, Number640 key, long expiration, int offset, int length) {
+                    final Location old;
+                    if (op == LogSegment.PUT) {
+                        Location location = new Location(segment, offset, length);
+                        segment.addLive(location.recordSize());
+                        old = index.put(key, location);
+                        expirations.put(key, expiration);
+                    } else {
+                        old = index.remove(key);
+                        expirations.remove(key);
+                    }
+                    if (old != null) {
+                        old.segment.removeLive(old.recordSize());
+                    }
+                }
+            });
+        }
+        for (Map.Entry<Number640, Long> entry : expirations.entrySet()) {
+            meta.addTimeout(entry.getKey(), entry.getValue());
+        }
+        final long id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        active = LogSegment.create(dir, id, segmentSize);
+        segments.put(id, active);
+        LOG.debug("recovered {} entries from {} segments", index.size(), segments.size() - 1);
+    }
+
+    // Core
+    @Override
+    public boolean put(Number640 key, Data value) {
+        final AlternativeCompositeByteBuf buf = AlternativeCompositeByteBuf.compBuffer();
+        try {
+            final Data data = value.duplicate();
+            data.encodeHeader(buf);
+            data.encodeDone(buf);
+            synchronized (writeLock) {
+                final Location location = append(LogSegment.PUT, key, value.expirationMillis(), buf);
+                release(index.put(key, location));
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.error("cannot append to the log", e);
+            return false;
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Override
+    public Data get(Number640 key) {
+        return decode(index.get(key));
+    }
+
+    @Override
+    public boolean contains(Number640 key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public int contains(Number640 from, Number640 to) {
+        return index.subMap(from, true, to, true).size();
+    }
+
+    @Override
+    public Data remove(Number640 key, boolean returnData) {
+        final Location old;
+        synchronized (writeLock) {
+            old = index.remove(key);
+            if (old == null) {
+                return null;
+            }
+            try {
+                append(LogSegment.REMOVE, key, 0, Unpooled.EMPTY_BUFFER);
+            } catch (IOException e) {
+                LOG.error("cannot append to the log, the entry may reappear after a restart", e);
+            }
+            release(old);
+        }
+        return returnData ? decode(old) : null;
+    }
+
+    @Override
+    public NavigableMap<Number640, Data> remove(Number640 from, Number640 to, boolean returnData) {
+        final Collection<Number640> keys = new ArrayList<Number640>(index.subMap(from, true, to, true).keySet());
+        final NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
+        for (Number640 key : keys) {
+            Data data = remove(key, returnData);
+            if (returnData && data != null) {
+                retVal.put(key, data);
+            }
+        }
+        return retVal;
+    }
+
+    @Override
+    public NavigableMap<Number640, Data> subMap(Number640 from, Number640 to, int limit, boolean ascending) {
+        final NavigableMap<Number640, Location> tmp = index.subMap(from, true, to, true);
+        final Iterator<Map.Entry<Number640, Location>> iterator = ascending ? tmp.entrySet().iterator() : tmp
+                .descendingMap().entrySet().iterator();
+        final NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
+        for (int i = 0; iterator.hasNext() && (limit < 0 || i < limit); i++) {
+            Map.Entry<Number640, Location> entry = iterator.next();
+            retVal.put(entry.getKey(), decode(entry.getValue()));
+        }
+        return retVal;
+    }
+
+    @Override
+    public NavigableMap<Number640, Data> map() {
+        final NavigableMap<Number640, Data> retVal = new TreeMap<Number640, Data>();
+        for (Map.Entry<Number640, Location> entry : index.entrySet()) {
+            retVal.put(entry.getKey(), decode(entry.getValue()));
+        }
+        return retVal;
+    }
+
+    /**
+     * Appends a record to the active segment. A new segment is created if the record does not fit. Needs to be called
+     * while holding the write lock.
+     */
+    private Location append(final byte op, final Number640 key, final long expiration, final ByteBuf buf)
+            throws IOException {
+        final int length = buf.readableBytes();
+        if (active.remaining() < LogSegment.HEADER_SIZE + length) {
+            active.force();
+            final long id = active.id() + 1;
+            active = LogSegment.create(dir, id, Math.max(segmentSize, LogSegment.HEADER_SIZE + length));
+            segments.put(id, active);
+        }
+        final int offset = active.append(op, key, expiration, buf);
+        final Location location = new Location(active, offset, length);
+        if (op == LogSegment.PUT) {
+            active.addLive(location.recordSize());
+        }
+        return location;
+    }
+
+    private static void release(final Location location) {
+        if (location != null) {
+            location.segment.removeLive(location.recordSize());
+        }
+    }
+
+    private Data decode(final Location location) {
+        if (location == null) {
+            return null;
+        }
+        // no copy, the data object is backed by the mapped file
+        final ByteBuf buf = Unpooled.wrappedBuffer(location.segment.slice(location.offset, location.length));
+        final Data data = Data.decodeHeader(buf, signatureFactory);
+        if (data == null || !data.decodeBuffer(buf) || !data.decodeDone(buf, null)) {
+            LOG.error("corrupt entry in segment {} at {}", location.segment.id(), location.offset);
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Compacts all segments except the active one, where the ratio of live bytes to written bytes is less or equal
+     * than the compaction ratio. The live entries are copied to the end of the log and the segment file is deleted.
+     *
+     * @throws IOException
+     *             If the log cannot be written
+     */
+    public void compact() throws IOException {
+        for (LogSegment segment : segments.values()) {
+            final boolean isActive;
+            synchronized (writeLock) {
+                isActive = segment == active;
+            }
+            if (!isActive && segment.liveBytes() <= segment.written() * compactionRatio) {
+                compact(segment);
+            }
+        }
+    }
+
+    private void compact(final LogSegment segment) throws IOException {
+        // a tombstone is only needed if an older segment may still contain the removed entry
+        final boolean oldest = segments.firstKey() == segment.id();
+        segment.scan(new LogSegment.RecordVisitor() {
+            @Override
+            public void visit(byte op, Number640 key, long expiration, int offset, int length) throws IOException {
+                synchronized (writeLock) {
+                    final Location current = index.get(key);
+                    if (op == LogSegment.PUT) {
+                        if (current != null && current.segment == segment && current.offset == offset) {
+                            ByteBuf buf = Unpooled.wrappedBuffer(segment.slice(offset, length));
+                            index.put(key, append(LogSegment.PUT, key, expiration, buf));
+                            release(current);
+                        }
+                    } else if (!oldest && current == null) {
+                        append(LogSegment.REMOVE, key, 0, Unpooled.EMPTY_BUFFER);
+                    }
+                }
+            }
+        });
+        synchronized (writeLock) {
+            active.force();
+        }
+        segments.remove(segment.id());
+        if (!segment.delete()) {
+            LOG.warn("could not delete segment {}", segment.id());
+        }
+        LOG.debug("compacted segment {}", segment.id());
+    }
+
+    private class StorageCompactionTask implements Runnable {
+        @Override
+        public void run() {
+            try {
+                compact();
+            } catch (Throwable t) {
+                LOG.error("compaction failed", t);
+            }
+        }
+    }
+
+    /**
+     * Schedules the background compaction.
+     *
+     * @param timer
+     *            The timer, e.g., the one from the connection bean
+     * @param compactionIntervalMillis
+     *            The interval of the compaction
+     */
+    public void init(ScheduledExecutorService timer, int compactionIntervalMillis) {
+        timer.scheduleAtFixedRate(new StorageCompactionTask(), compactionIntervalMillis, compactionIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Maintenance
+    @Override
+    public void addTimeout(Number640 key, long expiration) {
+        meta.addTimeout(key, expiration);
+    }
+
+    @Override
+    public void removeTimeout(Number640 key) {
+        meta.removeTimeout(key);
+    }
+
+    @Override
+    public Collection<Number640> subMapTimeout(long to) {
+        return meta.subMapTimeout(to);
+    }
+
+    // Protection
+    @Override
+    public boolean protectDomain(Number320 key, PublicKey publicKey) {
+        return meta.protectDomain(key, publicKey);
+    }
+
+    @Override
+    public boolean isDomainProtectedByOthers(Number320 key, PublicKey publicKey) {
+        return meta.isDomainProtectedByOthers(key, publicKey);
+    }
+
+    @Override
+    public boolean protectEntry(Number480 key, PublicKey publicKey) {
+        return meta.protectEntry(key, publicKey);
+    }
+
+    @Override
+    public boolean isEntryProtectedByOthers(Number480 key, PublicKey publicKey) {
+        return meta.isEntryProtectedByOthers(key, publicKey);
+    }
+
+    // Replication
+    @Override
+    public Number160 findPeerIDForResponsibleContent(Number160 locationKey) {
+        return meta.findPeerIDForResponsibleContent(locationKey);
+    }
+
+    @Override
+    public Collection<Number160> findContentForResponsiblePeerID(Number160 peerID) {
+        return meta.findContentForResponsiblePeerID(peerID);
+    }
+
+    @Override
+    public boolean updateResponsibilities(Number160 locationKey, Number160 peerId) {
+        return meta.updateResponsibilities(locationKey, peerId);
+    }
+
+    @Override
+    public void removeResponsibility(Number160 locationKey) {
+        meta.removeResponsibility(locationKey);
+    }
+
+    // Misc
+    @Override
+    public void close() {
+        synchronized (writeLock) {
+            active.force();
+        }
+        index.clear();
+        segments.clear();
+        meta.close();
+    }
+}
@@ -0,0 +1,131 @@
+package net.tomp2p.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.SortedMap;
+
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.StorageLayer.PutStatus;
+import net.tomp2p.utils.Utils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStorageDisk {
+    final private static Number160 locationKey = new Number160(10);
+
+    final private static Number160 domainKey = new Number160(20);
+
+    final private Number640 key1 = new Number640(locationKey, domainKey, new Number160(50), Number160.ZERO);
+    final private Number640 key2 = new Number640(locationKey, domainKey, new Number160(60), Number160.ZERO);
+    final private Number640 key3 = new Number640(locationKey, domainKey, new Number160(70), Number160.ZERO);
+    final private Number640 key4 = new Number640(locationKey, domainKey, new Number160(80), Number160.ZERO);
+
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = Utils.createTempDir();
+    }
+
+    @After
+    public void after() {
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        StorageDisk storageD = new StorageDisk(dir.getPath());
+        StorageLayer storage = new StorageLayer(storageD);
+        Assert.assertEquals(PutStatus.OK, storage.put(key1, new Data("test1"), null, false, false));
+        Assert.assertEquals(PutStatus.OK, storage.put(key2, new Data("test2"), null, false, false));
+        Assert.assertEquals("test1", storage.get(key1).object());
+        Assert.assertEquals("test2", storage.get(key2).object());
+        Assert.assertEquals(null, storage.get(key3));
+        storageD.close();
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        StorageDisk storageD = new StorageDisk(dir.getPath());
+        StorageLayer storage = new StorageLayer(storageD);
+        storage.put(key1, new Data("test1"), null, false, false);
+        storage.put(key2, new Data("test2"), null, false, false);
+        storage.put(key3, new Data("test3"), null, false, false);
+        SortedMap<Number640, Data> result1 = storage.get(key1, key4, -1, true);
+        Assert.assertEquals(3, result1.size());
+        SortedMap<Number640, Data> result2 = storage.get(key1, key4, 1, false);
+        Assert.assertEquals(1, result2.size());
+        Assert.assertEquals("test3", result2.get(key3).object());
+        SortedMap<Number640, Data> result3 = storage.removeReturnData(key1, key2, null);
+        Assert.assertEquals(2, result3.size());
+        Assert.assertEquals(1, storage.get(key1, key4, -1, true).size());
+        storageD.close();
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance("DSA");
+        KeyPair pair1 = gen.generateKeyPair();
+        KeyPair pair2 = gen.generateKeyPair();
+        StorageDisk storageD = new StorageDisk(dir.getPath());
+        StorageLayer storage = new StorageLayer(storageD);
+        storage.put(key1, new Data("test1").ttlSeconds(100), pair1.getPublic(), false, true);
+        storageD.updateResponsibilities(locationKey, domainKey);
+        storageD.close();
+
+        storageD = new StorageDisk(dir.getPath());
+        storage = new StorageLayer(storageD);
+        Assert.assertEquals("test1", storage.get(key1).object());
+        Assert.assertEquals(100, storage.get(key1).ttlSeconds());
+        Assert.assertEquals(1, storageD.subMapTimeout(Long.MAX_VALUE).size());
+        Assert.assertEquals(domainKey, storageD.findPeerIDForResponsibleContent(locationKey));
+        Assert.assertEquals(1, storageD.findContentForResponsiblePeerID(domainKey).size());
+        // domain is still protected by pair1
+        Assert.assertEquals(PutStatus.FAILED_SECURITY,
+                storage.put(key2, new Data("test2"), pair2.getPublic(), false, true));
+        storageD.close();
+    }
+
+    @Test
+    public void testLargeValue() throws Exception {
+        byte[] me = new byte[StorageDisk.MAX_INLINE_SIZE + 1];
+        me[me.length - 1] = 42;
+        StorageDisk storageD = new StorageDisk(dir.getPath());
+        StorageLayer storage = new StorageLayer(storageD);
+        storage.put(key1, new Data(me), null, false, false);
+        Data data = storage.get(key1);
+        Assert.assertEquals(me.length, data.length());
+        Assert.assertArrayEquals(me, data.toBytes());
+        storage.remove(key1, null, false);
+        Assert.assertEquals(null, storage.get(key1));
+        storageD.close();
+    }
+
+    @Test
+    public void testTTL() throws Exception {
+        StorageDisk storageD = new StorageDisk(dir.getPath());
+        StorageLayer storage = new StorageLayer(storageD);
+        storage.put(key1, new Data("string").ttlSeconds(1), null, false, false);
+        Thread.sleep(2000);
+        storage.checkTimeout();
+        Assert.assertEquals(null, storage.get(key1));
+        Assert.assertEquals(0, storageD.subMapTimeout(Long.MAX_VALUE).size());
+        storageD.close();
+    }
+}
@@ -0,0 +1,122 @@
+package net.tomp2p.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.tomp2p.connection.DefaultSignatureFactory;
+import net.tomp2p.peers.Number160;
+import net.tomp2p.peers.Number640;
+import net.tomp2p.storage.StorageLayer.PutStatus;
+import net.tomp2p.utils.Utils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestStorageLog {
+    final private static Number160 locationKey = new Number160(10);
+
+    final private static Number160 domainKey = new Number160(20);
+
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = Utils.createTempDir();
+    }
+
+    @After
+    public void after() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static Number640 key(int nr) {
+        return new Number640(locationKey, domainKey, new Number160(nr), Number160.ZERO);
+    }
+
+    private StorageLog open() throws IOException {
+        // small segments to test the rollover and the compaction
+        return new StorageLog(dir.getPath(), 4096, 0.5, new DefaultSignatureFactory());
+    }
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        StorageLog storageL = open();
+        StorageLayer storage = new StorageLayer(storageL);
+        Assert.assertEquals(PutStatus.OK, storage.put(key(1), new Data("test1"), null, false, false));
+        Assert.assertEquals(PutStatus.OK, storage.put(key(2), new Data("test2"), null, false, false));
+        Assert.assertEquals("test1", storage.get(key(1)).object());
+        Assert.assertEquals(2, storage.get(key(1), key(3), -1, true).size());
+        Assert.assertEquals("test1", storage.remove(key(1), null, true).element0().object());
+        Assert.assertEquals(null, storage.get(key(1)));
+        Assert.assertEquals(1, storage.get(key(1), key(3), -1, true).size());
+        storageL.close();
+    }
+
+    @Test
+    public void testLargeValue() throws Exception {
+        byte[] me = new byte[10000];
+        me[me.length - 1] = 42;
+        StorageLog storageL = open();
+        StorageLayer storage = new StorageLayer(storageL);
+        storage.put(key(1), new Data(me), null, false, false);
+        Assert.assertArrayEquals(me, storage.get(key(1)).toBytes());
+        storageL.close();
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        StorageLog storageL = open();
+        StorageLayer storage = new StorageLayer(storageL);
+        for (int i = 0; i < 100; i++) {
+            storage.put(key(i), new Data("test" + i).ttlSeconds(100), null, false, false);
+        }
+        storage.put(key(1), new Data("overwritten"), null, false, false);
+        storage.remove(key(2), null, false);
+        storageL.close();
+
+        storageL = open();
+        storage = new StorageLayer(storageL);
+        Assert.assertEquals(99, storage.get().size());
+        Assert.assertEquals("overwritten", storage.get(key(1)).object());
+        Assert.assertEquals(null, storage.get(key(2)));
+        Assert.assertEquals("test3", storage.get(key(3)).object());
+        // the overwritten entry has no TTL anymore
+        Assert.assertEquals(98, storageL.subMapTimeout(Long.MAX_VALUE).size());
+        storageL.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        StorageLog storageL = open();
+        StorageLayer storage = new StorageLayer(storageL);
+        for (int j = 0; j < 10; j++) {
+            for (int i = 0; i < 50; i++) {
+                storage.put(key(i), new Data("test" + i + "/" + j), null, false, false);
+            }
+        }
+        for (int i = 25; i < 50; i++) {
+            storage.remove(key(i), null, false);
+        }
+        int before = dir.listFiles().length;
+        storageL.compact();
+        Assert.assertTrue(dir.listFiles().length < before);
+        Assert.assertEquals(25, storage.get().size());
+        Assert.assertEquals("test7/9", storage.get(key(7)).object());
+        storageL.close();
+
+        storageL = open();
+        storage = new StorageLayer(storageL);
+        Assert.assertEquals(25, storage.get().size());
+        Assert.assertEquals("test7/9", storage.get(key(7)).object());
+        Assert.assertEquals(null, storage.get(key(30)));
+        storageL.close();
+    }
+}